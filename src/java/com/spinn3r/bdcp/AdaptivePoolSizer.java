@@ -0,0 +1,222 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * A thread which tunes maxActive of a pool from the wait, hold and statement
+ * latency numbers in its {@link PoolStatistics}.
+ * <p>
+ * Every interval we compare throughput (statements per second, or borrows
+ * when no statements were seen) and statement latency with the previous
+ * interval:
+ * <ul>
+ * <li>If latency went up while throughput stayed flat the extra connections
+ * are only adding contention on the database, so we shrink.</li>
+ * <li>If borrowers had to wait we grow, unless the last time we grew it
+ * didn't buy any throughput.  Then we hold for holdIntervals before trying
+ * again rather than flipping between growing and holding.</li>
+ * <li>Otherwise we leave the pool alone.</li>
+ * </ul>
+ * The pool never leaves [minActive, maxActiveLimit].  Works best with
+ * BasicDatabaseConnectionPool3 which hands out new slots to waiters as soon
+ * as maxActive is raised.
+ */
+public class AdaptivePoolSizer extends Thread {
+
+    private static final Logger log = Logger.getLogger();
+
+    public static final String GROW   = "grow";
+    public static final String SHRINK = "shrink";
+    public static final String HOLD   = "hold";
+
+    public long interval = 10000L;
+
+    /**
+     * Hard lower bound on maxActive.
+     */
+    public int minActive = 1;
+
+    /**
+     * Hard upper bound on maxActive.
+     */
+    public int maxActiveLimit = 100;
+
+    /**
+     * Connections added or removed per step.
+     */
+    public int step = 1;
+
+    /**
+     * Average borrow wait (in millis) above which we consider the pool too
+     * small.
+     */
+    public double waitThreshold = 1.0;
+
+    /**
+     * Relative change in throughput we treat as noise.
+     */
+    public double throughputTolerance = 0.05;
+
+    /**
+     * Relative increase in latency we treat as noise.
+     */
+    public double latencyTolerance = 0.10;
+
+    /**
+     * Intervals to hold after growing didn't help.
+     */
+    public int holdIntervals = 6;
+
+    public BasicDatabaseConnectionPool pool = null;
+
+    // **** observed during the last interval ***********************************
+
+    public volatile double throughput = 0;
+
+    public volatile double latency = 0;
+
+    public volatile double wait = 0;
+
+    public volatile String lastAction = HOLD;
+
+    private long lastBorrows = 0;
+    private long lastBorrowWait = 0;
+    private long lastStatements = 0;
+    private long lastStatementTime = 0;
+
+    /**
+     * Intervals left before we may grow again.
+     */
+    private int holding = 0;
+
+    public AdaptivePoolSizer( BasicDatabaseConnectionPool pool ) {
+
+        super( "JDBC adaptive pool sizer" );
+
+        this.pool = pool;
+        this.setDaemon( true );
+
+    }
+
+    public void run() {
+
+        while( true ) {
+
+            try {
+                Thread.sleep( interval );
+            } catch ( InterruptedException e ) {
+                return;
+            }
+
+            try {
+                adjust();
+            } catch ( Exception e ) {
+                log.error( "Unable to adjust pool size: ", e );
+            }
+
+        }
+
+    }
+
+    /**
+     * Take one sample and resize the pool.  Called once per interval.
+     */
+    public void adjust() {
+
+        PoolStatistics stats = pool.stats;
+
+        long borrows = stats.getBorrows() - lastBorrows;
+        long borrowWait = stats.getBorrowWait() - lastBorrowWait;
+        long statements = stats.getStatements() - lastStatements;
+        long statementTime = stats.getStatementTime() - lastStatementTime;
+
+        lastBorrows += borrows;
+        lastBorrowWait += borrowWait;
+        lastStatements += statements;
+        lastStatementTime += statementTime;
+
+        double seconds = interval / 1000.0;
+
+        double currentThroughput = ( statements > 0 ? statements : borrows ) / seconds;
+        double currentLatency = statements > 0 ? statementTime / (double)statements / 1000000.0 : latency;
+        double currentWait = borrows > 0 ? borrowWait / (double)borrows / 1000000.0 : 0;
+
+        boolean throughputFlat =
+            currentThroughput <= throughput * ( 1.0 + throughputTolerance );
+
+        boolean latencyRising =
+            latency > 0 && currentLatency > latency * ( 1.0 + latencyTolerance );
+
+        int size = pool.maxActive;
+        String action = HOLD;
+
+        if ( holding > 0 )
+            --holding;
+
+        if ( latencyRising && throughputFlat && size > minActive ) {
+
+            action = SHRINK;
+            size = Math.max( minActive, size - step );
+
+        } else if ( currentWait > waitThreshold && size < maxActiveLimit ) {
+
+            //growing last time didn't help so the database, not the pool, is
+            //the bottleneck.  Give it a while before trying again.
+            if ( GROW.equals( lastAction ) && throughputFlat ) {
+                holding = holdIntervals;
+            } else if ( holding == 0 ) {
+                action = GROW;
+                size = Math.min( maxActiveLimit, size + step );
+            }
+
+        }
+
+        //enforce the bounds even if someone changed maxActive by hand.
+        size = Math.max( minActive, Math.min( maxActiveLimit, size ) );
+
+        if ( size != pool.maxActive ) {
+
+            log.info( "%s pool from %d to %d connections (throughput: %.1f/s latency: %.2fms wait: %.2fms)",
+                      action, pool.maxActive, size, currentThroughput, currentLatency, currentWait );
+
+            pool.setMaxActive( size );
+
+        }
+
+        throughput = currentThroughput;
+        latency = currentLatency;
+        wait = currentWait;
+        lastAction = action;
+
+    }
+
+    public String toString() {
+
+        return String.format( "maxActive: %d [%d, %d] last: %s throughput: %.1f/s latency: %.2fms wait: %.2fms",
+                              pool.maxActive, minActive, maxActiveLimit, lastAction, throughput, latency, wait );
+
+    }
+
+}
@@ -23,10 +23,13 @@
 package com.spinn3r.bdcp;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.sql.*;
 import java.io.PrintWriter;
 import javax.sql.DataSource;
 import java.util.Enumeration;
+import java.util.regex.*;
 
 /**
  * A simple {@link DataSource} implementation that obtains
@@ -45,6 +48,110 @@ public class BasicDatabaseConnection implements Connection {
     
     boolean _closed = false;
 
+    /**
+     * The priority class this connection was borrowed with.  Only used by
+     * BasicDatabaseConnectionPool3.
+     */
+    ConnectionPriority priority = ConnectionPriority.NORMAL;
+
+    /**
+     * The partition this connection was borrowed from.  Only used by
+     * PartitionedDatabaseConnectionPool.
+     */
+    String tenant = null;
+
+    /**
+     * When this connection was borrowed, for hold time statistics.
+     */
+    final long borrowed = System.nanoTime();
+
+    /**
+     * The limiter we hold a permit from, fed with our statement latency and
+     * released when we're closed.
+     */
+    ConcurrencyLimiter limiter = null;
+
+    /**
+     * Tables we've written to since the last commit, invalidated in the
+     * result cache again once the commit makes the writes visible.
+     */
+    Set<String> written = null;
+
+    /**
+     * Set when we ran a write we couldn't find the tables of.
+     */
+    boolean writtenAll = false;
+
+    /**
+     * Lower cased, looked up the first time we stream.
+     */
+    String driverName = null;
+
+    /**
+     * How a lazy connection borrows its physical connection, null once it has
+     * (and for connections which aren't lazy).
+     */
+    StatementCall<Connection> borrow = null;
+
+    /**
+     * The pooled connection a lazy connection is bound to.
+     */
+    BasicDatabaseConnection physical = null;
+
+    /**
+     * Settings made on a lazy connection before it was bound, replayed on
+     * the physical connection once it is.
+     */
+    Boolean autoCommit = null;
+    Boolean readOnly = null;
+    Integer isolation = null;
+    String catalog = null;
+
+    /**
+     * SQL which leaves state behind on the session: temporary tables, user
+     * variables, session variables, locks, server side prepared statements.
+     */
+    private static final Pattern SESSION_STATE =
+        Pattern.compile( "create\\s+temporary|lock\\s+tables|get_lock|@\\w+\\s*:?=|" +
+                         "^\\s*(set|use|prepare|begin|start\\s+transaction|handler)\\b|sql_calc_found_rows",
+                         Pattern.CASE_INSENSITIVE );
+
+    /**
+     * Statements and streams open on the physical connection.  A multiplexed
+     * connection can only give it back when there are none.
+     */
+    int openStatements = 0;
+
+    /**
+     * Set once the session has state a multiplexed connection would lose by
+     * giving its physical connection back.  It then keeps it until closed.
+     */
+    boolean pinned = false;
+
+    /**
+     * The scope this connection is bound to.  close() leaves it open until
+     * the scope ends.
+     */
+    ConnectionScope scope = null;
+
+    /**
+     * Set by abort().  The pool drops the physical connection instead of
+     * lending it out again.
+     */
+    boolean aborted = false;
+
+    /**
+     * Bulkhead slots held by our open result sets.  Whatever is left is
+     * given back when we're closed.
+     */
+    Set<BulkheadSlot> slots = null;
+
+    /**
+     * The catalog and schema we last read, for the result cache's keys.
+     * Forgotten whenever a statement could have changed them.
+     */
+    String namespace = null;
+
     public BasicDatabaseConnection( Connection conn,
                                     BasicDatabaseConnectionPool pool ) {
         this._conn = conn;
@@ -52,16 +159,174 @@ public class BasicDatabaseConnection implements Connection {
 
     }
 
+    /**
+     * A lazy connection which only borrows a physical connection, with the
+     * given call, once it's needed to create a statement, read state from
+     * the database or start a transaction.
+     */
+    BasicDatabaseConnection( BasicDatabaseConnectionPool pool,
+                             StatementCall<Connection> borrow ) {
+        this.pool = pool;
+        this.borrow = borrow;
+    }
+
     public String toString() {
+
+        if ( _conn == null )
+            return "unbound lazy connection";
+
         return _conn.toString();
     }
 
+    /**
+     * The physical connection, borrowing it first if we're lazy.
+     */
+    Connection conn() throws SQLException {
+
+        if ( _conn == null )
+            bind();
+
+        return _conn;
+
+    }
+
+    /**
+     * The physical connection for a statement with the given SQL.  If we're
+     * lazy and haven't borrowed yet we first wait for the statement's
+     * bulkhead, so we don't hold a connection while queued on it.
+     */
+    Connection conn( String sql ) throws SQLException {
+
+        if ( _conn == null )
+            pool.awaitBulkhead( sql );
+
+        return conn();
+
+    }
+
+    void bind() throws SQLException {
+
+        checkOpen();
+
+        physical = (BasicDatabaseConnection)borrow.call();
+
+        _conn = physical._conn;
+        priority = physical.priority;
+        tenant = physical.tenant;
+        limiter = physical.limiter;
+
+        if ( autoCommit != null )
+            _conn.setAutoCommit( autoCommit );
+
+        if ( readOnly != null )
+            _conn.setReadOnly( readOnly );
+
+        if ( isolation != null )
+            _conn.setTransactionIsolation( isolation );
+
+        if ( catalog != null )
+            _conn.setCatalog( catalog );
+
+        autoCommit = null;
+        readOnly = null;
+        isolation = null;
+        catalog = null;
+
+    }
+
+    /**
+     * Whether this is a lazy connection which hasn't borrowed yet.
+     */
+    public boolean isBound() {
+        return _conn != null;
+    }
+
+    /**
+     * Whether a multiplexed connection has session state and so keeps its
+     * physical connection.
+     */
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    void statementOpened() {
+        ++openStatements;
+    }
+
+    void statementClosed() throws SQLException {
+
+        --openStatements;
+
+        if ( _conn != null && ! _closed && _conn.getAutoCommit() )
+            release();
+
+    }
+
+    /**
+     * Give the physical connection of a multiplexed connection back to the
+     * pool if nothing needs it.  The next statement borrows another one.
+     */
+    void release() throws SQLException {
+
+        if ( ! pool.multiplexConnections || borrow == null || physical == null || pinned || openStatements > 0 )
+            return;
+
+        //a transaction ended.  The next connection we get starts one again.
+        if ( ! _conn.getAutoCommit() ) {
+            _conn.setAutoCommit( true );
+            autoCommit = false;
+        }
+
+        BasicDatabaseConnection released = physical;
+
+        physical = null;
+        _conn = null;
+        limiter = null;
+        namespace = null;
+
+        released.close();
+
+    }
+
     public void close() throws SQLException
     {
 
-        if ( _closed == false ) {
+        //the scope closes us once it ends.
+        if ( scope != null )
+            return;
+
+        //result sets left open.
+        if ( slots != null ) {
+
+            for ( BulkheadSlot slot : slots ) {
+                slot.exit();
+            }
+
+        }
+
+        if ( _closed == false && borrow != null ) {
+
+            //a lazy connection.  The physical one does the accounting.
+            written = null;
+            writtenAll = false;
+
+            if ( physical != null )
+                physical.close();
+
+        } else if ( _closed == false ) {
+
+            pool.stats.recordHold( System.nanoTime() - borrowed );
+
+            if ( limiter != null )
+                limiter.release();
+
+            written = null;
+            writtenAll = false;
             
-            pool.returnObject( this );
+            if ( aborted )
+                pool.discardObject( this );
+            else
+                pool.returnObject( this );
 
         }
 
@@ -79,8 +344,289 @@ public class BasicDatabaseConnection implements Connection {
 
     }
 
+    <T> T execute( StatementCall<T> call ) throws SQLException {
+        return execute( null, call );
+    }
+
+    /**
+     * Run a statement against the database, recording how long it took to
+     * answer and whether it failed.  Called by the Delegating statements.
+     * The SQL, when we know it, is used to find the statement's bulkhead.
+     */
+    <T> T execute( String sql, StatementCall<T> call ) throws SQLException {
+
+        if ( pool.multiplexConnections && ! pinned && sql != null && SESSION_STATE.matcher( sql ).find() )
+            pinned = true;
+
+        if ( namespace != null && sql != null && changesNamespace( sql ) )
+            namespace = null;
+
+        StatementBulkhead bulkhead = pool.enterBulkhead( sql );
+
+        boolean held = false;
+
+        try {
+
+            T result = measure( call );
+
+            //a query runs until its rows are read.
+            if ( bulkhead != null && result instanceof ResultSet ) {
+
+                @SuppressWarnings( "unchecked" )
+                T rs = (T)hold( sql, (ResultSet)result, bulkhead );
+
+                held = true;
+
+                return rs;
+
+            }
+
+            return result;
+
+        } finally {
+
+            if ( bulkhead != null && ! held )
+                bulkhead.exit();
+
+            //even a failed write may have changed rows.
+            if ( sql != null && pool.cache != null )
+                invalidate( sql );
+
+        }
+
+    }
+
+    /**
+     * USE db, SET SCHEMA and SET search_path.  Any other SET just costs us a
+     * getCatalog() on the next cached query.
+     */
+    private static boolean changesNamespace( String sql ) {
+
+        int start = 0;
+
+        while ( start < sql.length() && Character.isWhitespace( sql.charAt( start ) ) ) {
+            ++start;
+        }
+
+        return sql.regionMatches( true, start, "use", 0, 3 ) || sql.regionMatches( true, start, "set", 0, 3 );
+
+    }
+
+    /**
+     * What the result cache needs to tell our queries apart from the same
+     * SQL run against another catalog or schema.  null is the pool's default,
+     * which is what an unbound lazy connection gets.
+     */
+    String getNamespace() throws SQLException {
+
+        if ( _conn == null )
+            return catalog;
+
+        String result = namespace;
+
+        if ( result == null ) {
+
+            String schema;
+
+            try {
+                schema = _conn.getSchema();
+            } catch ( SQLFeatureNotSupportedException | AbstractMethodError e ) {
+                //pre JDBC 4.1 drivers.
+                schema = null;
+            }
+
+            result = _conn.getCatalog() + "/" + schema;
+            namespace = result;
+
+        }
+
+        return result;
+
+    }
+
+    private void invalidate( String sql ) {
+
+        String[] tables = pool.cache.invalidate( sql );
+
+        if ( tables == null ) {
+            writtenAll = true;
+        } else if ( tables.length > 0 ) {
+
+            if ( written == null )
+                written = new HashSet<String>();
+
+            Collections.addAll( written, tables );
+
+        }
+
+    }
+
     /**
-     * Get the internal connection.  Use for debug purposes only.
+     * Invalidate what we wrote now that it's committed.  Reads which ran
+     * while our transaction was open could have cached the old rows.
+     */
+    private void invalidateWritten() {
+
+        if ( pool.cache != null ) {
+
+            if ( writtenAll ) {
+                pool.cache.invalidateAll();
+            } else if ( written != null ) {
+
+                for ( String table : written ) {
+                    pool.cache.invalidateTable( table );
+                }
+
+            }
+
+        }
+
+        written = null;
+        writtenAll = false;
+
+    }
+
+    private <T> T measure( StatementCall<T> call ) throws SQLException {
+
+        long started = System.nanoTime();
+        boolean failed = true;
+        boolean timedOut = false;
+
+        try {
+
+            T result = call.call();
+            failed = false;
+
+            return result;
+
+        } catch ( SQLTimeoutException e ) {
+
+            timedOut = true;
+            throw e;
+
+        } finally {
+
+            long duration = System.nanoTime() - started;
+
+            pool.stats.recordStatement( duration, failed );
+
+            if ( limiter != null )
+                limiter.onSample( duration, timedOut );
+
+        }
+
+    }
+
+    /**
+     * The max rows for a driver statement: the caller's own, or one past our
+     * row limit when that's lower.  Negative maxResultRows uses the pool's.
+     */
+    int getDriverMaxRows( int maxRows, int maxResultRows ) {
+
+        if ( maxResultRows < 0 )
+            maxResultRows = pool.maxResultRows;
+
+        if ( maxResultRows <= 0 || maxResultRows == Integer.MAX_VALUE )
+            return maxRows;
+
+        if ( maxRows > 0 && maxRows <= maxResultRows )
+            return maxRows;
+
+        return maxResultRows + 1;
+
+    }
+
+    /**
+     * Wrap a statement's result in a {@link DelegatingResultSet} when limits
+     * or stats are on.  Negative limits use the pool's.
+     */
+    /**
+     * Wrap the result set so that it holds the query's bulkhead slot until
+     * it's read to the end or closed.
+     */
+    ResultSet hold( String sql, ResultSet rs, StatementBulkhead bulkhead ) throws SQLException {
+
+        if ( slots == null )
+            slots = ConcurrentHashMap.newKeySet();
+
+        DelegatingResultSet result = new DelegatingResultSet( rs.getStatement(), sql, rs, 0, 0, null );
+
+        result.slot = new BulkheadSlot( bulkhead, slots );
+
+        return result;
+
+    }
+
+    ResultSet guard( Statement stmt, String sql, int maxRows, long maxBytes, ResultSet rs ) {
+
+        if ( rs == null )
+            return null;
+
+        BulkheadSlot slot = null;
+
+        //hold() wrapped it.  One wrapper does both jobs.
+        if ( rs instanceof DelegatingResultSet && ( (DelegatingResultSet)rs ).slot != null ) {
+
+            slot = ( (DelegatingResultSet)rs ).slot;
+            rs = ( (DelegatingResultSet)rs ).getDelegate();
+
+        }
+
+        if ( maxRows < 0 )
+            maxRows = pool.maxResultRows;
+
+        if ( maxBytes < 0 )
+            maxBytes = pool.maxResultBytes;
+
+        if ( maxRows == 0 && maxBytes == 0 && ! pool.recordResultStats && slot == null )
+            return rs;
+
+        DelegatingResultSet result = new DelegatingResultSet( stmt, sql, rs, maxRows, maxBytes, pool );
+
+        result.slot = slot;
+
+        return result;
+
+    }
+
+    /**
+     * Stream the query's rows on this connection, which stays borrowed once
+     * the stream is done.
+     *
+     * @see ResultStream
+     */
+    public ResultStream stream( String sql, Object... params ) throws SQLException {
+        checkOpen();
+        return new ResultStream( this, false ).open( sql, params );
+    }
+
+    String getDriverName() throws SQLException {
+
+        if ( driverName == null )
+            driverName = conn().getMetaData().getDriverName().toLowerCase();
+
+        return driverName;
+
+    }
+
+    /**
+     * The fetch size which makes our driver stream rows rather than read the
+     * whole result.
+     */
+    int getStreamingFetchSize() throws SQLException {
+
+        String driver = getDriverName();
+
+        if ( driver.contains( "mysql" ) || driver.contains( "mariadb" ) )
+            return Integer.MIN_VALUE;
+
+        return pool.streamingFetchSize;
+
+    }
+
+    /**
+     * Get the internal connection.  Use for debug purposes only.  Null for a
+     * lazy connection which hasn't borrowed yet.
      */
     public Connection getDelegate() {
         return _conn;
@@ -91,54 +637,55 @@ public class BasicDatabaseConnection implements Connection {
     public PreparedStatement prepareStatement(String sql) throws SQLException {
 
         checkOpen();
-        return new DelegatingPreparedStatement( this, _conn.prepareStatement(sql) );
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement(sql) );
     }
 
     public Statement createStatement() throws SQLException {
 
         checkOpen();
 
-        return new DelegatingStatement( this, _conn.createStatement() );
+        return new DelegatingStatement( this, conn().createStatement() );
     }
 
     public CallableStatement prepareCall(String sql) throws SQLException {
         checkOpen();
-        return new DelegatingCallableStatement( this, _conn.prepareCall( sql ) );
+        return new DelegatingCallableStatement( this, sql, conn( sql ).prepareCall( sql ) );
     }
 
     public String nativeSQL(String sql) throws SQLException {
         checkOpen();
-        return _conn.nativeSQL( sql );
+        return conn().nativeSQL( sql );
     }
 
     public PreparedStatement prepareStatement( String sql, String columnNames[] )
         throws SQLException {
 
         checkOpen();
-        return new DelegatingPreparedStatement( this, _conn.prepareStatement(sql, columnNames) );
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement(sql, columnNames), false );
 
     }
 
     public java.sql.Savepoint setSavepoint() throws SQLException {
         checkOpen();
-        return _conn.setSavepoint();
+        return conn().setSavepoint();
     }
 
     public java.sql.Savepoint setSavepoint(String name) throws SQLException {
         checkOpen();
-        return _conn.setSavepoint(name);
+        return conn().setSavepoint(name);
     }
 
     public PreparedStatement prepareStatement(String sql, int columnIndexes[])
         throws SQLException {
         checkOpen();
-        return new DelegatingPreparedStatement( this,_conn.prepareStatement(sql, columnIndexes));
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement(sql, columnIndexes), false );
     }
 
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
         throws SQLException {
         checkOpen();
-        return new DelegatingPreparedStatement( this, _conn.prepareStatement(sql, autoGeneratedKeys) );
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement(sql, autoGeneratedKeys),
+                                                autoGeneratedKeys != Statement.RETURN_GENERATED_KEYS );
     }
     
     public PreparedStatement prepareStatement(String sql,
@@ -147,10 +694,10 @@ public class BasicDatabaseConnection implements Connection {
                                               int resultSetHoldability)
         throws SQLException {
         checkOpen();
-        return new DelegatingPreparedStatement( this,_conn.prepareStatement(sql,
-                                                                            resultSetType,
-                                                                            resultSetConcurrency,
-                                                                            resultSetHoldability) );
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement(sql,
+                                                                                 resultSetType,
+                                                                                 resultSetConcurrency,
+                                                                                 resultSetHoldability) );
     }
 
     public PreparedStatement prepareStatement(String sql,
@@ -159,9 +706,9 @@ public class BasicDatabaseConnection implements Connection {
         throws SQLException {
         checkOpen();
 
-        return new DelegatingPreparedStatement( this, _conn.prepareStatement( sql,
-                                                                              resultSetType,
-                                                                              resultSetConcurrency ) );
+        return new DelegatingPreparedStatement( this, sql, conn( sql ).prepareStatement( sql,
+                                                                                   resultSetType,
+                                                                                   resultSetConcurrency ) );
     }
 
     public CallableStatement prepareCall(String sql,
@@ -171,49 +718,113 @@ public class BasicDatabaseConnection implements Connection {
         checkOpen();
 
         return new DelegatingCallableStatement
-            (this, _conn.prepareCall(sql, resultSetType,resultSetConcurrency));
+            ( this, sql, conn( sql ).prepareCall(sql, resultSetType,resultSetConcurrency));
     }
 
-    public boolean isReadOnly() throws SQLException { checkOpen(); return _conn.isReadOnly();}
-    public void rollback() throws SQLException { checkOpen(); _conn.rollback();}
-    public void setAutoCommit(boolean autoCommit) throws SQLException { checkOpen(); _conn.setAutoCommit(autoCommit);}
-    public void setCatalog(String catalog) throws SQLException { checkOpen(); _conn.setCatalog(catalog);}
-    public void setReadOnly(boolean readOnly) throws SQLException { checkOpen(); _conn.setReadOnly(readOnly);}
-    public void setTransactionIsolation(int level) throws SQLException { checkOpen(); _conn.setTransactionIsolation(level);}
-    public void setTypeMap(Map map) throws SQLException { checkOpen(); _conn.setTypeMap(map);}
+    public boolean isReadOnly() throws SQLException {
+        checkOpen();
+
+        if ( _conn == null && readOnly != null )
+            return readOnly;
 
-    public void clearWarnings() throws SQLException { checkOpen(); _conn.clearWarnings();}
+        return conn().isReadOnly();
+    }
+
+    public void rollback() throws SQLException {
+        checkOpen();
+
+        //nothing has run so there's nothing to roll back.
+        if ( _conn != null )
+            _conn.rollback();
+
+        written = null;
+        writtenAll = false;
+
+        release();
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        checkOpen();
+
+        if ( _conn == null )
+            this.autoCommit = autoCommit;
+        else
+            _conn.setAutoCommit(autoCommit);
+
+        //turning autocommit on commits.
+        if ( autoCommit )
+            invalidateWritten();
+    }
+    public void setCatalog(String catalog) throws SQLException {
+        checkOpen();
+
+        if ( _conn == null )
+            this.catalog = catalog;
+        else
+            _conn.setCatalog(catalog);
+
+        namespace = null;
+
+        //would leak into whoever gets the connection next.
+        pinned = true;
+    }
+
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        checkOpen();
+
+        if ( _conn == null )
+            this.readOnly = readOnly;
+        else
+            _conn.setReadOnly(readOnly);
+
+        pinned = true;
+    }
+
+    public void setTransactionIsolation(int level) throws SQLException {
+        checkOpen();
+
+        if ( _conn == null )
+            isolation = level;
+        else
+            _conn.setTransactionIsolation(level);
+
+        pinned = true;
+    }
+
+    public void setTypeMap(Map<String,Class<?>> map) throws SQLException { checkOpen(); conn().setTypeMap(map);}
+
+    public void clearWarnings() throws SQLException { checkOpen(); if ( _conn != null ) _conn.clearWarnings();}
 
     public CallableStatement prepareCall(String sql, int resultSetType,
                                          int resultSetConcurrency,
                                          int resultSetHoldability)
         throws SQLException {
         checkOpen();
-        return new DelegatingCallableStatement( this, _conn.prepareCall(sql, resultSetType,
-                                                                        resultSetConcurrency,
-                                                                        resultSetHoldability ) );
+        return new DelegatingCallableStatement( this, sql, conn( sql ).prepareCall(sql, resultSetType,
+                                                                             resultSetConcurrency,
+                                                                             resultSetHoldability ) );
     }
 
-    public Map getTypeMap() throws SQLException { checkOpen(); return _conn.getTypeMap();}
+    public Map<String,Class<?>> getTypeMap() throws SQLException { checkOpen(); return conn().getTypeMap();}
 
     public int getHoldability() throws SQLException {
         checkOpen();
-        return _conn.getHoldability();
+        return conn().getHoldability();
     }
 
     public void setHoldability(int holdability) throws SQLException {
         checkOpen();
-        _conn.setHoldability(holdability);
+        conn().setHoldability(holdability);
     }
 
     public void rollback(java.sql.Savepoint savepoint) throws SQLException {
         checkOpen();
-        _conn.rollback(savepoint);
+        conn().rollback(savepoint);
     }
 
     public void releaseSavepoint(java.sql.Savepoint savepoint) throws SQLException {
         checkOpen();
-        _conn.releaseSavepoint(savepoint);
+        conn().releaseSavepoint(savepoint);
     }
 
     public Statement createStatement(int resultSetType,
@@ -221,7 +832,7 @@ public class BasicDatabaseConnection implements Connection {
                                      int resultSetHoldability)
         throws SQLException {
         checkOpen();
-        return new DelegatingStatement( this, _conn.createStatement( resultSetType,
+        return new DelegatingStatement( this, conn().createStatement( resultSetType,
                                                                      resultSetConcurrency,
                                                                      resultSetHoldability ) );
     }
@@ -232,25 +843,166 @@ public class BasicDatabaseConnection implements Connection {
         checkOpen();
 
         return new DelegatingStatement
-            (this, _conn.createStatement(resultSetType,resultSetConcurrency));
+            (this, conn().createStatement(resultSetType,resultSetConcurrency));
     }
 
-    public SQLWarning getWarnings() throws SQLException { checkOpen(); return _conn.getWarnings();}
-    public DatabaseMetaData getMetaData() throws SQLException { checkOpen(); return _conn.getMetaData();}
-    public String getCatalog() throws SQLException { checkOpen(); return _conn.getCatalog();}
-    public boolean getAutoCommit() throws SQLException { checkOpen(); return _conn.getAutoCommit();}
+    public SQLWarning getWarnings() throws SQLException { checkOpen(); return _conn != null ? _conn.getWarnings() : null;}
+    public DatabaseMetaData getMetaData() throws SQLException { checkOpen(); return conn().getMetaData();}
+
+    public String getCatalog() throws SQLException {
+        checkOpen();
+
+        if ( _conn == null && catalog != null )
+            return catalog;
+
+        return conn().getCatalog();
+    }
+
+    public boolean getAutoCommit() throws SQLException {
+        checkOpen();
+
+        if ( _conn == null && autoCommit != null )
+            return autoCommit;
+
+        return conn().getAutoCommit();
+    }
 
     public boolean isClosed() throws SQLException {
 
-        if( _closed || _conn.isClosed() ) 
+        if( _closed || ( _conn != null && _conn.isClosed() ) ) 
              return true;
 
          return false;
 
     }
 
-    public void commit() throws SQLException { checkOpen(); _conn.commit();}
+    public void commit() throws SQLException {
+        checkOpen();
+
+        if ( _conn != null )
+            _conn.commit();
+
+        invalidateWritten();
+        release();
+    }
+
+    public int getTransactionIsolation() throws SQLException {
+        checkOpen();
+
+        if ( _conn == null && isolation != null )
+            return isolation;
+
+        return conn().getTransactionIsolation();
+    }
+
+    // **** JDBC 4.x ************************************************************
+
+    public boolean isValid(int timeout) throws SQLException {
+
+        if ( _closed )
+            return false;
+
+        //nothing borrowed yet so there's nothing which could have gone bad.
+        if ( _conn == null )
+            return true;
+
+        return _conn.isValid(timeout);
+    }
+
+    /**
+     * Abort the physical connection and drop it from the pool.  A lazy
+     * connection aborts the connection it's bound to, if any.
+     */
+    public void abort(Executor executor) throws SQLException {
+
+        if ( _closed )
+            return;
+
+        //even a scoped connection is gone once aborted.
+        scope = null;
+
+        if ( borrow == null ) {
+
+            aborted = true;
+            _conn.abort(executor);
+
+        } else if ( physical != null ) {
+            physical.abort(executor);
+        }
+
+        close();
+    }
+
+    public Clob createClob() throws SQLException { checkOpen(); return conn().createClob();}
+    public Blob createBlob() throws SQLException { checkOpen(); return conn().createBlob();}
+    public NClob createNClob() throws SQLException { checkOpen(); return conn().createNClob();}
+    public SQLXML createSQLXML() throws SQLException { checkOpen(); return conn().createSQLXML();}
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException { checkOpen(); return conn().createArrayOf(typeName, elements);}
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException { checkOpen(); return conn().createStruct(typeName, attributes);}
+
+    /**
+     * The physical connection for the client info methods, which may only
+     * throw SQLClientInfoException.
+     */
+    private Connection clientInfo() throws SQLClientInfoException {
+
+        try {
+            checkOpen();
+            return conn();
+        } catch ( SQLClientInfoException e ) {
+            throw e;
+        } catch ( SQLException e ) {
+            throw new SQLClientInfoException( e.getMessage(), null, e );
+        }
+
+    }
+
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        clientInfo().setClientInfo(name, value);
+        pinned = true;
+    }
+
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        clientInfo().setClientInfo(properties);
+        pinned = true;
+    }
+
+    public String getClientInfo(String name) throws SQLException { checkOpen(); return conn().getClientInfo(name);}
+    public Properties getClientInfo() throws SQLException { checkOpen(); return conn().getClientInfo();}
+
+    public void setSchema(String schema) throws SQLException {
+        checkOpen();
+        conn().setSchema(schema);
+        namespace = null;
+        pinned = true;
+    }
+
+    public String getSchema() throws SQLException { checkOpen(); return conn().getSchema();}
+
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        checkOpen();
+        conn().setNetworkTimeout(executor, milliseconds);
+        pinned = true;
+    }
+
+    public int getNetworkTimeout() throws SQLException { checkOpen(); return conn().getNetworkTimeout();}
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
 
-    public int getTransactionIsolation() throws SQLException { checkOpen(); return _conn.getTransactionIsolation();}
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        checkOpen();
+        return conn().unwrap(iface);
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return true;
+
+        checkOpen();
+        return conn().isWrapperFor(iface);
+    }
 
 }
@@ -23,6 +23,7 @@
 package com.spinn3r.bdcp;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import java.sql.*;
@@ -71,16 +72,19 @@ public class BasicDatabaseConnectionPool implements DataSource {
     /**
      * The list of idle connections available for pool use by calling threads.
      */
-    List<Connection> idleConnections = new LinkedList();
+    List<Connection> idleConnections = new LinkedList<Connection>();
 
     /**
      * The list of current connections that are thought to be active.
      */
-    HashMap trackedConnections = new HashMap();
+    HashMap<Connection,TrackedConnection> trackedConnections = new HashMap<Connection,TrackedConnection>();
 
     public int initialSize = 0;
 
-    public int maxActive = DEFAULT_MAX_ACTIVE;
+    /**
+     * Volatile as the AdaptivePoolSizer changes it while borrowers read it.
+     */
+    public volatile int maxActive = DEFAULT_MAX_ACTIVE;
 
     public int maxIdle = DEFAULT_MAX_IDLE;
     
@@ -114,7 +118,176 @@ public class BasicDatabaseConnectionPool implements DataSource {
      * Map which keeps values of when a connection needs to be reconnected.
      *
      */
-    private Map<Connection, Long> reconnectConnectionTrackMap = new TreeMap();
+    private Map<Connection, Long> reconnectConnectionTrackMap = new TreeMap<Connection, Long>();
+
+    /**
+     * How long connections borrowed through withConnection() and
+     * withTransaction() were held, keyed by call site.  Walking the stack for
+     * the site is only done with enableTracking; otherwise only calls given
+     * a site are kept.
+     */
+    ConcurrentHashMap<String,HoldTimeStats> holdTimes = new ConcurrentHashMap<String,HoldTimeStats>();
+
+    /**
+     * Borrow wait, hold time and statement latency for this pool.
+     */
+    public PoolStatistics stats = new PoolStatistics();
+
+    /**
+     * Tune maxActive at runtime from observed wait, hold and statement times.
+     * The sizer is created by initialize() and can be configured afterwards.
+     */
+    public boolean enableAdaptiveSizing = false;
+
+    public AdaptivePoolSizer sizer = null;
+
+    /**
+     * Run a background writer which batches single row writes submitted by
+     * many threads.  The coalescer is created by initialize() and can be
+     * configured afterwards.
+     *
+     * @see #submitWrite
+     */
+    public boolean enableWriteCoalescing = false;
+
+    public WriteCoalescer coalescer = null;
+
+    /**
+     * Run batches of single row INSERT ... VALUES (...) statements as multi
+     * row INSERTs, for drivers which otherwise send one row per round trip.
+     *
+     * @see BatchRewriter
+     */
+    public boolean rewriteBatchedInserts = false;
+
+    /**
+     * Largest statement (in bytes) a rewritten batch may produce.  Keep it
+     * under the server's max_allowed_packet.
+     */
+    public int maxBatchPacketSize = 1024 * 1024;
+
+    /**
+     * Most rows in one rewritten INSERT.
+     */
+    public int maxBatchRows = 1000;
+
+    /**
+     * Cache prepared SELECT results when set.  Statements prepared before
+     * it's set aren't cached.
+     *
+     * @see ResultCache
+     */
+    public ResultCache cache = null;
+
+    /**
+     * Have getConnection() return a connection which only borrows from the
+     * pool once a statement is created or a transaction started, so requests
+     * which never run SQL don't hold a physical connection.  Settings such as
+     * autocommit and read only are remembered until then.
+     */
+    public boolean lazyConnections = false;
+
+    /**
+     * Like lazyConnections, but the physical connection also goes back to the
+     * pool whenever it's idle: in autocommit mode once every statement is
+     * closed, otherwise at commit or rollback.  The next statement borrows
+     * again, so many slow logical connections can share a few physical ones.
+     * <p>
+     * Sessions which change settings or run SQL leaving state on the session
+     * (temporary tables, user variables, SET, LOCK TABLES) are pinned to
+     * their physical connection until closed.  LAST_INSERT_ID() and
+     * FOUND_ROWS() in a later statement may run on another connection, so use
+     * getGeneratedKeys() instead.
+     */
+    public boolean multiplexConnections = false;
+
+    /**
+     * The scope open on each thread.
+     */
+    ThreadLocal<ConnectionScope> scopes = new ThreadLocal<ConnectionScope>();
+
+    /**
+     * Fetch size for streamed queries on drivers other than MySQL, which
+     * only streams with Integer.MIN_VALUE.
+     *
+     * @see ResultStream
+     */
+    public int streamingFetchSize = 1000;
+
+    /**
+     * Most rows a query may return, 0 for unlimited.  Statements can
+     * override it with setMaxResultRows().
+     *
+     * @see DelegatingResultSet
+     */
+    public int maxResultRows = 0;
+
+    /**
+     * Most bytes (roughly) a query may return, 0 for unlimited.
+     */
+    public long maxResultBytes = 0;
+
+    /**
+     * Stop at the limit with a warning instead of failing the query.
+     */
+    public boolean truncateResults = false;
+
+    /**
+     * Count rows and bytes read per statement even without limits.
+     *
+     * @see #getResultStats
+     */
+    public boolean recordResultStats = false;
+
+    ConcurrentHashMap<String,ResultStats> resultStats = new ConcurrentHashMap<String,ResultStats>();
+
+    /**
+     * Connections one scatter-gather runs on at once.
+     */
+    public int scatterParallelism = 8;
+
+    /**
+     * How long (in millis) a scatter-gather's queries may take together.
+     */
+    public long scatterBudget = 5000;
+
+    /**
+     * Connections executeBulk() runs on at once.
+     */
+    public int bulkParallelism = 4;
+
+    /**
+     * Rows executeBulk() commits at a time.
+     */
+    public int bulkPartitionSize = 1000;
+
+    /**
+     * Concurrent executions allowed for statements without a limit of their
+     * own.  0 (the default) leaves them unlimited.
+     *
+     * @see #setStatementLimit
+     */
+    public int defaultStatementLimit = 0;
+
+    /**
+     * How long (in millis) a statement over its limit waits for a running
+     * one to finish.  0 fails fast, a negative value waits forever.  Where
+     * we can we wait before borrowing a connection for the statement
+     * (executeQuery() here, or preparing on a lazy connection that hasn't
+     * borrowed yet).  A statement on a connection already borrowed waits
+     * holding it.
+     */
+    public long statementLimitWait = 0;
+
+    /**
+     * Statement limits keyed by SQL fingerprint.
+     */
+    ConcurrentHashMap<String,StatementBulkhead> bulkheads = new ConcurrentHashMap<String,StatementBulkhead>();
+
+    /**
+     * Fingerprints by SQL, so a prepared statement's is only worked out once.
+     */
+    final ConcurrentHashMap<String,String> fingerprints = new ConcurrentHashMap<String,String>();
     
     public BasicDatabaseConnectionPool() {
 
@@ -126,11 +299,76 @@ public class BasicDatabaseConnectionPool implements DataSource {
     /**
      * Called AFTER we've set all necessary variables.
      */
-    public void initialize() { }
+    public void initialize() {
+
+        if ( enableAdaptiveSizing && sizer == null ) {
+
+            sizer = new AdaptivePoolSizer( this );
+            sizer.maxActiveLimit = Math.max( sizer.maxActiveLimit, maxActive );
+            sizer.start();
+
+        }
+
+        if ( enableWriteCoalescing && coalescer == null ) {
+
+            coalescer = new WriteCoalescer( this );
+            coalescer.start();
+
+        }
+
+    }
+
+    /**
+     * Borrow waiting at most the given number of millis instead of maxWait.
+     * A non positive timeout waits forever.
+     */
+    public Connection getConnection( long timeout ) throws SQLException {
+        return lazy( () -> borrowConnection( timeout ) );
+    }
 
     public Connection getConnection() throws SQLException {
+        return lazy( () -> borrowConnection() );
+    }
+
+    /**
+     * Hand out the connection of the thread's scope if it has one, otherwise
+     * a lazy connection for the borrow when lazyConnections is on, otherwise
+     * borrow now.
+     */
+    Connection lazy( StatementCall<Connection> borrow ) throws SQLException {
+
+        ConnectionScope scope = scopes.get();
+
+        if ( scope != null )
+            return scope.getConnection( borrow );
+
+        return open( borrow );
+
+    }
+
+    Connection open( StatementCall<Connection> borrow ) throws SQLException {
 
-        long duration = 0;
+        if ( lazyConnections || multiplexConnections )
+            return new BasicDatabaseConnection( this, borrow );
+
+        return borrow.call();
+
+    }
+
+    /**
+     * Borrow a physical connection, waiting for one if needed.
+     */
+    protected Connection borrowConnection() throws SQLException {
+        return borrowConnection( maxWait );
+    }
+
+    /**
+     * Borrow a physical connection, waiting at most maxWait millis for one.
+     * A non positive maxWait waits forever.
+     */
+    protected Connection borrowConnection( long maxWait ) throws SQLException {
+
+        long started = System.nanoTime();
 
         // NOTE: http://en.wikipedia.org/wiki/Lamport%27s_bakery_algorithm
         //
@@ -169,7 +407,7 @@ public class BasicDatabaseConnectionPool implements DataSource {
 
                     BasicDatabaseConnection bdc = new BasicDatabaseConnection( conn, this );
                     
-                    return addTrackedConnection( bdc );
+                    return borrowed( started, addTrackedConnection( bdc ) );
                     
                 }
 
@@ -186,30 +424,46 @@ public class BasicDatabaseConnectionPool implements DataSource {
 
                     BasicDatabaseConnection bdc = createConnection();
                     
-                    return addTrackedConnection( bdc );
+                    return borrowed( started, addTrackedConnection( bdc ) );
                 }
 
             }
 
-            //no more connections.  Wait for one.
+            long waited = ( System.nanoTime() - started ) / 1000000;
+
+            if ( maxWait > 0 && waited >= maxWait )
+                throw new SQLException( "Unable to obtain connection to database.  " +
+                                        "Wait time exceeded: " + maxWait );
+
+            //no more connections.  Wait for one, but not past maxWait.
             try { 
 
-                Thread.sleep( WAIT_INTERVAL );
+                Thread.sleep( maxWait > 0 ? Math.min( WAIT_INTERVAL, maxWait - waited ) : WAIT_INTERVAL );
                 
             } catch ( Exception e ) { /* ignore sleep issues*/ }
             
-            duration += WAIT_INTERVAL;
-            
-            //NOTE: we will need to have actions here for when we run out of
-            //duration.
-            if ( maxWait > 0 && duration > maxWait )
-                throw new SQLException( "Unable to obtain connection to database.  " +
-                                        "Wait time exceeded: " + maxWait );
-            
         }
 
     }
 
+    /**
+     * Record how long a borrow waited, for the AdaptivePoolSizer.
+     */
+    Connection borrowed( long started, Connection conn ) {
+
+        stats.recordBorrow( System.nanoTime() - started );
+
+        return conn;
+
+    }
+
+    /**
+     * Change the cap on active connections at runtime.
+     */
+    public void setMaxActive( int maxActive ) {
+        this.maxActive = maxActive;
+    }
+
     /**
      * Physically create a new connection to the database using the JDBC
      * DriverManager.
@@ -233,6 +487,7 @@ public class BasicDatabaseConnectionPool implements DataSource {
             return new BasicDatabaseConnection( conn, this );
 
         } catch ( SQLException e ) {
+            stats.recordConnectFailure();
             log.error( "Couldn't create connection: " + url );
             throw e;
         } finally {
@@ -271,6 +526,524 @@ public class BasicDatabaseConnectionPool implements DataSource {
 
     }
 
+    /**
+     * Drop a connection which can't be lent out again, for example because
+     * it was aborted, freeing its place under maxActive.
+     */
+    public void discardObject( BasicDatabaseConnection conn ) throws SQLException {
+
+        synchronized( idleConnections ) {
+
+            --totalActive;
+
+            removeTrackedConnection( conn );
+
+        }
+
+    }
+
+    // **** scoped execution ****************************************************
+
+    /**
+     * Open a scope on this thread, or enter the one already open.  Until the
+     * outermost scope is closed every getConnection() on the thread returns
+     * the same connection.
+     *
+     * @see ConnectionScope
+     */
+    public ConnectionScope openScope() {
+
+        ConnectionScope scope = scopes.get();
+
+        if ( scope == null ) {
+            scope = new ConnectionScope( this );
+            scopes.set( scope );
+        }
+
+        ++scope.depth;
+
+        return scope;
+
+    }
+
+    /**
+     * The scope open on this thread, or null.
+     */
+    public ConnectionScope getCurrentScope() {
+        return scopes.get();
+    }
+
+    /**
+     * Borrow a connection, run the callback and return the connection as soon
+     * as it finishes.  With enableTracking the hold time is recorded against
+     * the caller's stack frame.
+     */
+    public <T> T withConnection( ConnectionCallback<T> callback ) throws SQLException {
+        return withConnection( enableTracking ? getCallSite() : null, callback );
+    }
+
+    /**
+     * Borrow a connection, run the callback and return the connection as soon
+     * as it finishes.  The hold time is recorded against the given call site,
+     * if any.
+     */
+    public <T> T withConnection( String site,
+                                 ConnectionCallback<T> callback ) throws SQLException {
+
+        Connection conn = getConnection();
+        long started = System.nanoTime();
+
+        try {
+
+            return callback.doInConnection( conn );
+
+        } finally {
+
+            conn.close();
+            recordHoldTime( site, System.nanoTime() - started );
+
+        }
+
+    }
+
+    /**
+     * Like withConnection() but the callback runs in a transaction which is
+     * committed if it returns normally and rolled back if it throws.  In a
+     * scope where an outer withTransaction() is still running the callback
+     * joins that transaction and the outer one commits or rolls back.
+     */
+    public <T> T withTransaction( ConnectionCallback<T> callback ) throws SQLException {
+        return withTransaction( enableTracking ? getCallSite() : null, callback );
+    }
+
+    public <T> T withTransaction( String site,
+                                  ConnectionCallback<T> callback ) throws SQLException {
+
+        Connection conn = getConnection();
+        long started = System.nanoTime();
+
+        ConnectionScope scope = scopes.get();
+
+        //an outer withTransaction() in our scope owns the transaction, so
+        //join it and leave the commit or rollback to it.
+        boolean joined = scope != null && scope.transaction;
+
+        boolean autoCommit = true;
+
+        try {
+
+            if ( ! joined && scope != null )
+                scope.transaction = true;
+
+            autoCommit = conn.getAutoCommit();
+
+            if ( autoCommit )
+                conn.setAutoCommit( false );
+
+            T result = callback.doInConnection( conn );
+
+            if ( ! joined )
+                conn.commit();
+
+            return result;
+
+        } catch ( Throwable t ) {
+
+            try {
+
+                if ( ! joined )
+                    conn.rollback();
+
+            } catch ( SQLException e ) {
+                log.error( "Unable to rollback: ", e );
+            }
+
+            throw t;
+
+        } finally {
+
+            if ( ! joined && scope != null )
+                scope.transaction = false;
+
+            try {
+
+                //don't hand the next borrower a connection in a transaction.
+                if ( autoCommit )
+                    conn.setAutoCommit( true );
+
+            } finally {
+                conn.close();
+                recordHoldTime( site, System.nanoTime() - started );
+            }
+
+        }
+
+    }
+
+    void recordHoldTime( String site, long duration ) {
+
+        if ( site == null )
+            return;
+
+        HoldTimeStats stats = holdTimes.get( site );
+
+        if ( stats == null ) {
+
+            HoldTimeStats created = new HoldTimeStats();
+
+            stats = holdTimes.putIfAbsent( site, created );
+
+            if ( stats == null )
+                stats = created;
+
+        }
+
+        stats.record( duration );
+
+    }
+
+    /**
+     * The first stack frame outside of bdcp.
+     */
+    String getCallSite() {
+
+        for ( StackTraceElement frame : new Exception().getStackTrace() ) {
+
+            if ( ! frame.getClassName().startsWith( "com.spinn3r.bdcp." ) )
+                return frame.toString();
+
+        }
+
+        return "unknown";
+
+    }
+
+    public Map<String,HoldTimeStats> getHoldTimes() {
+        return holdTimes;
+    }
+
+    public void dumpHoldTimes( PrintWriter out ) {
+
+        out.println( "Total call sites: " + holdTimes.size() );
+
+        for ( Map.Entry<String,HoldTimeStats> entry : holdTimes.entrySet() ) {
+            out.println( entry.getKey() + ": " + entry.getValue() );
+        }
+
+    }
+
+    /**
+     * Queue a single row write to be batched with others for the same SQL.
+     * Requires enableWriteCoalescing.
+     *
+     * @see WriteCoalescer#submit
+     */
+    public CompletableFuture<Integer> submitWrite( String sql, Object... params ) {
+
+        if ( coalescer == null ) {
+
+            CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+            future.completeExceptionally( new SQLException( "Write coalescing is not enabled." ) );
+
+            return future;
+
+        }
+
+        return coalescer.submit( sql, params );
+
+    }
+
+    /**
+     * Run the SQL for every row of parameters, in partitions committed
+     * separately across several connections.
+     *
+     * @see BulkExecutor
+     */
+    public int[] executeBulk( String sql, List<Object[]> rows ) throws SQLException {
+
+        BulkExecutor executor = new BulkExecutor( this );
+        executor.parallelism = bulkParallelism;
+        executor.partitionSize = bulkPartitionSize;
+
+        return executor.execute( sql, rows );
+
+    }
+
+    /**
+     * Borrow a connection and stream the query's rows.  The connection goes
+     * back to the pool when the stream is read to the end or closed.
+     *
+     * @see ResultStream
+     */
+    public ResultStream stream( String sql, Object... params ) throws SQLException {
+
+        BasicDatabaseConnection conn = (BasicDatabaseConnection)getConnection();
+
+        return new ResultStream( conn, true ).open( sql, params );
+
+    }
+
+    /**
+     * Stream the query's rows to the handler on a borrowed connection.
+     * Returns the number of rows.
+     */
+    public long forEachRow( String sql, RowHandler handler, Object... params ) throws SQLException {
+        return stream( sql, params ).each( handler );
+    }
+
+    /**
+     * A scatter-gather with the pool's default settings, for running several
+     * independent queries at once.
+     *
+     * @see ScatterGather
+     */
+    public ScatterGather newScatterGather() {
+
+        ScatterGather result = new ScatterGather( this );
+        result.parallelism = scatterParallelism;
+        result.budget = scatterBudget;
+
+        return result;
+
+    }
+
+    /**
+     * Stream the query into memory mapped files named base-00000.bin and so
+     * on, with the default export settings.  Returns the files written.
+     *
+     * @see ResultExporter
+     */
+    public List<File> export( File base, String sql, Object... params ) throws SQLException, IOException {
+        return new ResultExporter( this ).export( base, sql, params );
+    }
+
+    /**
+     * Run a SELECT and return all of its rows, detached from any connection.
+     * <p>
+     * With a cache set a connection is only borrowed when the result isn't
+     * cached and no other thread is already running the same query, so a
+     * stampede on an expired entry costs one connection instead of one per
+     * caller.
+     *
+     * @see ResultCache
+     */
+    public ResultSet executeQuery( String sql, Object... params ) throws SQLException {
+
+        StatementCall<CachedResult> loader = () -> {
+
+            awaitBulkhead( sql );
+
+            BasicDatabaseConnection conn = (BasicDatabaseConnection)getConnection();
+
+            try {
+
+                //the driver's statement, as ours would go back through the
+                //cache and wait on ourselves.
+                PreparedStatement stmt = conn.conn().prepareStatement( sql );
+
+                try {
+
+                    for ( int i = 0; i < params.length; ++i ) {
+                        stmt.setObject( i + 1, params[i] );
+                    }
+
+                    return CachedResultSet.materialize( conn.execute( sql, () -> stmt.executeQuery() ) );
+
+                } finally {
+                    stmt.close();
+                }
+
+            } finally {
+                conn.close();
+            }
+
+        };
+
+        ResultCache cache = this.cache;
+
+        CachedQuery query = cache != null ? cache.parse( sql ) : null;
+
+        if ( query == null )
+            return new CachedResultSet( loader.call(), null );
+
+        Map<Integer,Object> values = new TreeMap<Integer,Object>();
+
+        for ( int i = 0; i < params.length; ++i ) {
+            values.put( i + 1, params[i] );
+        }
+
+        return new CachedResultSet( cache.executeQuery( query, null, values, loader ), null );
+
+    }
+
+    // **** statement bulkheads *************************************************
+
+    /**
+     * Allow at most the given number of concurrent executions of statements
+     * shaped like this SQL, across all connections in the pool.
+     *
+     * @see StatementBulkhead#fingerprint
+     */
+    public void setStatementLimit( String sql, int limit ) {
+
+        String fingerprint = StatementBulkhead.fingerprint( sql );
+
+        bulkheads.put( fingerprint, new StatementBulkhead( fingerprint, limit ) );
+
+    }
+
+    public Map<String,StatementBulkhead> getStatementBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Take a slot in the bulkhead for the given SQL.  Returns the bulkhead to
+     * exit once the statement is done, or null if it isn't limited.
+     */
+    StatementBulkhead enterBulkhead( String sql ) throws SQLException {
+
+        StatementBulkhead bulkhead = getBulkhead( sql );
+
+        if ( bulkhead != null )
+            bulkhead.enter( statementLimitWait );
+
+        return bulkhead;
+
+    }
+
+    /**
+     * Wait, before borrowing a connection for the given SQL, until its
+     * bulkhead has room.
+     */
+    void awaitBulkhead( String sql ) throws SQLException {
+
+        StatementBulkhead bulkhead = getBulkhead( sql );
+
+        if ( bulkhead != null )
+            bulkhead.await( statementLimitWait );
+
+    }
+
+    StatementBulkhead getBulkhead( String sql ) {
+
+        //don't pay for fingerprinting unless limits are configured.
+        if ( sql == null || ( defaultStatementLimit <= 0 && bulkheads.isEmpty() ) )
+            return null;
+
+        String fingerprint = fingerprint( sql );
+
+        StatementBulkhead bulkhead = bulkheads.get( fingerprint );
+
+        if ( bulkhead == null ) {
+
+            if ( defaultStatementLimit <= 0 )
+                return null;
+
+            StatementBulkhead created = new StatementBulkhead( fingerprint, defaultStatementLimit );
+
+            bulkhead = bulkheads.putIfAbsent( fingerprint, created );
+
+            if ( bulkhead == null )
+                bulkhead = created;
+
+        }
+
+        return bulkhead;
+
+    }
+
+    /**
+     * StatementBulkhead.fingerprint(), remembered by SQL.
+     */
+    String fingerprint( String sql ) {
+
+        String result = fingerprints.get( sql );
+
+        if ( result == null ) {
+
+            result = StatementBulkhead.fingerprint( sql );
+
+            //don't let one off statements grow this forever.
+            if ( fingerprints.size() > 1024 )
+                fingerprints.clear();
+
+            fingerprints.put( sql, result );
+
+        }
+
+        return result;
+
+    }
+
+    // **** result stats ********************************************************
+
+    /**
+     * Rows and bytes read by each statement shape.
+     */
+    public Map<String,ResultStats> getResultStats() {
+        return resultStats;
+    }
+
+    ResultStats getResultStats( String sql ) {
+
+        String fingerprint = sql != null ? fingerprint( sql ) : "";
+
+        ResultStats stats = resultStats.get( fingerprint );
+
+        if ( stats == null ) {
+
+            ResultStats created = new ResultStats( fingerprint );
+
+            stats = resultStats.putIfAbsent( fingerprint, created );
+
+            if ( stats == null )
+                stats = created;
+
+        }
+
+        return stats;
+
+    }
+
+    // **** housekeeping ********************************************************
+
+    /**
+     * Run the ping command on every idle connection so that they don't time
+     * out.  Called periodically by the {@link ConnectionPingThread}.
+     */
+    public void pingIdleConnections() {
+
+        synchronized( idleConnections ) {
+
+            Iterator<Connection> it = idleConnections.iterator();
+
+            while( it.hasNext() ) {
+                pingConnection( it.next() );
+            }
+
+        }
+
+    }
+
+    /**
+     * Run the ping command on a single connection, logging any failure.
+     */
+    protected void pingConnection( Connection conn ) {
+
+        try {
+
+            Statement stmt = conn.createStatement();
+            ResultSet results = stmt.executeQuery( ConnectionPingThread.PING_COMMAND );
+
+            results.close();
+            stmt.close();
+
+        } catch ( Exception e ) {
+            log.error( "Unable to ping: ", e );
+        }
+
+    }
+
     // **** connection tracking *************************************************
 
     public BasicDatabaseConnection addTrackedConnection( BasicDatabaseConnection conn ) {
@@ -301,7 +1074,7 @@ public class BasicDatabaseConnectionPool implements DataSource {
         
     }
 
-    public HashMap getTrackedConnections() {
+    public HashMap<Connection,TrackedConnection> getTrackedConnections() {
         return trackedConnections;
     }
 
@@ -315,17 +1088,17 @@ public class BasicDatabaseConnectionPool implements DataSource {
             
         } 
 
-        HashMap connections = getTrackedConnections();
+        HashMap<Connection,TrackedConnection> connections = getTrackedConnections();
         
         out.println( "Total tracked connections: " + connections.size() );
         
         synchronized( trackedConnections ) {
 
-            Iterator it = connections.keySet().iterator();
+            Iterator<Connection> it = connections.keySet().iterator();
 
             while ( it.hasNext() ) {
 
-                TrackedConnection te = (TrackedConnection)connections.get( it.next() );
+                TrackedConnection te = connections.get( it.next() );
 
                 out.println( "---------" );
                 out.println( "duration: " + (System.currentTimeMillis() - te.timestamp) + "ms" );
@@ -352,7 +1125,7 @@ public class BasicDatabaseConnectionPool implements DataSource {
             return;
         } 
 
-        List list = new LinkedList();
+        List<Connection> list = new LinkedList<Connection>();
 
         synchronized( trackedConnections ) {
 
@@ -361,11 +1134,11 @@ public class BasicDatabaseConnectionPool implements DataSource {
         }
 
         out.println( "Total tracked connections: " + list.size() );
-        Iterator it = list.iterator();
+        Iterator<Connection> it = list.iterator();
 
         while ( it.hasNext() ) {
 
-            TrackedConnection te = (TrackedConnection)trackedConnections.get( it.next() );
+            TrackedConnection te = trackedConnections.get( it.next() );
 
             try { 
 
@@ -406,6 +1179,23 @@ public class BasicDatabaseConnectionPool implements DataSource {
         return 1000;
     }
 
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException( "We log with log5j." );
+    }
+
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        throw new SQLException( "Not a wrapper for " + iface.getName() );
+
+    }
+
+    public boolean isWrapperFor( Class<?> iface ) {
+        return iface.isInstance( this );
+    }
+
     class TrackedConnection {
 
         public long timestamp = System.currentTimeMillis();
@@ -429,7 +1219,7 @@ public class BasicDatabaseConnectionPool implements DataSource {
  */
 class ReconnectTrackMapManager {
 
-    private Map<Connection,ReconnectTrackMap> instances = new TreeMap();
+    private Map<Connection,ReconnectTrackMap> instances = new TreeMap<Connection,ReconnectTrackMap>();
 
     private BasicDatabaseConnectionPool pool = null;
 
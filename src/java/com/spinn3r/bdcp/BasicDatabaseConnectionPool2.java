@@ -69,17 +69,15 @@ public class BasicDatabaseConnectionPool2
     /**
      * The list of idle connections available for pool use by calling threads.
      */
-    List idleConnections = new LinkedList();
+    List<Connection> idleConnections = new LinkedList<Connection>();
 
     /**
      * The list of current connections that are thought to be active.
      */
-    HashMap trackedConnections = new HashMap();
+    HashMap<Connection,TrackedConnection> trackedConnections = new HashMap<Connection,TrackedConnection>();
 
     public int initialSize = 0;
 
-    public int maxActive = DEFAULT_MAX_ACTIVE;
-    public long maxWait = DEFAULT_MAX_WAIT;
 
     public int totalActive = 0;
     public int totalIdle = 0;
@@ -99,7 +97,7 @@ public class BasicDatabaseConnectionPool2
     /**
      * Linked list of objects needing notify() for resulting connections.
      */
-    public LinkedList fifo = new LinkedList();
+    public LinkedList<ConnectionMonitor> fifo = new LinkedList<ConnectionMonitor>();
 
     public BasicDatabaseConnectionPool2() {
 
@@ -111,11 +109,13 @@ public class BasicDatabaseConnectionPool2
     /**
      * Called AFTER we've set all necessary variables.
      */
-    public void initialize() { }
-    
-    public Connection getConnection() throws SQLException {
+    public void initialize() {
+        super.initialize();
+    }
+
+    protected Connection borrowConnection( long maxWait ) throws SQLException {
 
-        long duration = 0;
+        long started = System.nanoTime();
             
         while ( true ) {
 
@@ -141,53 +141,77 @@ public class BasicDatabaseConnectionPool2
 
                 if ( idleConnections.size() > 0 ) {
 
-                    conn = (Connection)idleConnections.remove( 0 );
+                    conn = idleConnections.remove( 0 );
                     --totalIdle;
 
-                    return addTrackedConnection( new BasicDatabaseConnection( conn, this ) );
+                    return borrowed( started, addTrackedConnection( new BasicDatabaseConnection( conn, this ) ) );
                     
                 }
 
                 //create a new connection as we haven't hit our limit
                 if ( idleConnections.size() == 0 && totalActive < maxActive ) {
-                    return addTrackedConnection( createConnection() );
+                    return borrowed( started, addTrackedConnection( createConnection() ) );
                 }
 
             }
 
-            //no more connections.  Wait for one.
-            try { 
+            long waited = ( System.nanoTime() - started ) / 1000000;
 
-                //FIXME: I think spinning defeats teh WHOLE point rigght!?!?!!!!
+            if ( maxWait > 0 && waited >= maxWait )
+                throw new SQLException( "Unable to obtain connection to database.  " +
+                                        "Wait time exceeded: " + maxWait );
 
-                ConnectionMonitor monitor = new ConnectionMonitor();
+            //no more connections.  Wait for one.
+            ConnectionMonitor monitor = new ConnectionMonitor();
 
-                //FIXME: I think this is a problem that there might be a gap in
-                //time where we could blead conns
+            //FIXME: I think this is a problem that there might be a gap in
+            //time where we could blead conns
                 
-                //add this to the queue for processing once a conn is available.
-                synchronized( fifo ) {
-                    fifo.addFirst( monitor );
-                }
+            //add this to the queue for processing once a conn is available.
+            synchronized( fifo ) {
+                fifo.addFirst( monitor );
+            }
+
+            try { 
 
                 synchronized( monitor ) {
-                    monitor.wait( WAIT_INTERVAL );
-                    
-                    if ( monitor.conn != null )
-                        //This will already be wrapped.
-                        return monitor.conn;
+
+                    //returnObject() may have handed us one already.
+                    if ( monitor.conn == null )
+                        monitor.wait( maxWait > 0 ? Math.min( WAIT_INTERVAL, maxWait - waited ) : WAIT_INTERVAL );
 
                 }
                 
             } catch ( InterruptedException e ) { /* ignore interrupt() issues*/ }
 
+            //returnObject() hands out connections with the fifo locked, so
+            //once we're out of it nobody can give us one we'd never see.
+            synchronized( fifo ) {
+
+                if ( monitor.conn == null )
+                    fifo.remove( monitor );
+
+            }
+
+            if ( monitor.conn != null )
+                //This will already be wrapped.
+                return borrowed( started, monitor.conn );
+
         }
 
     }
 
     public BasicDatabaseConnection createConnection() throws SQLException {
 
-        Connection conn = DriverManager.getConnection( url, user, password );
+        Connection conn;
+
+        try {
+            conn = DriverManager.getConnection( url, user, password );
+        } catch ( SQLException e ) {
+            stats.recordConnectFailure();
+            throw e;
+        }
+
         ++totalActive;
 
         return new BasicDatabaseConnection( conn, this );
@@ -202,7 +226,7 @@ public class BasicDatabaseConnectionPool2
             //the performance of size() is O(1)
             if ( fifo.size() > 0 ) {
 
-                ConnectionMonitor monitor = (ConnectionMonitor)fifo.removeLast();
+                ConnectionMonitor monitor = fifo.removeLast();
 
                 if ( monitor != null ) {
                     
@@ -237,6 +261,18 @@ public class BasicDatabaseConnectionPool2
 
     }
 
+    public void discardObject( BasicDatabaseConnection conn ) {
+
+        synchronized( idleConnections ) {
+
+            --totalActive;
+
+            removeTrackedConnection( conn );
+
+        }
+
+    }
+
     // **** connection tracking *************************************************
 
     public BasicDatabaseConnection addTrackedConnection( BasicDatabaseConnection conn ) {
@@ -267,7 +303,7 @@ public class BasicDatabaseConnectionPool2
         
     }
 
-    public HashMap getTrackedConnections() {
+    public HashMap<Connection,TrackedConnection> getTrackedConnections() {
         return trackedConnections;
     }
 
@@ -281,17 +317,17 @@ public class BasicDatabaseConnectionPool2
             
         } 
 
-        HashMap connections = getTrackedConnections();
+        HashMap<Connection,TrackedConnection> connections = getTrackedConnections();
         
         out.println( "Total tracked connections: " + connections.size() );
         
         synchronized( trackedConnections ) {
 
-            Iterator it = connections.keySet().iterator();
+            Iterator<Connection> it = connections.keySet().iterator();
 
             while ( it.hasNext() ) {
 
-                TrackedConnection te = (TrackedConnection)connections.get( it.next() );
+                TrackedConnection te = connections.get( it.next() );
 
                 out.println( "---------" );
                 out.println( "duration: " + (System.currentTimeMillis() - te.timestamp) + "ms" );
@@ -318,7 +354,7 @@ public class BasicDatabaseConnectionPool2
             return;
         } 
 
-        List list = new LinkedList();
+        List<Connection> list = new LinkedList<Connection>();
 
         synchronized( trackedConnections ) {
 
@@ -327,11 +363,11 @@ public class BasicDatabaseConnectionPool2
         }
 
         out.println( "Total tracked connections: " + list.size() );
-        Iterator it = list.iterator();
+        Iterator<Connection> it = list.iterator();
 
         while ( it.hasNext() ) {
 
-            TrackedConnection te = (TrackedConnection)trackedConnections.get( it.next() );
+            TrackedConnection te = trackedConnections.get( it.next() );
 
             try { 
 
@@ -372,20 +408,6 @@ public class BasicDatabaseConnectionPool2
         return 1000;
     }
 
-    class TrackedConnection {
-
-        public long timestamp = System.currentTimeMillis();
-        public Exception exception = null;
-        public BasicDatabaseConnection conn = null;
-
-        public TrackedConnection( Exception e,
-                                  BasicDatabaseConnection conn ) {
-            this.exception = e;
-            this.conn = conn;
-        }
-        
-    }
-    
 }
 
 /**
@@ -0,0 +1,1029 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.ref.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import java.sql.*;
+import javax.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Just like BasicDatabaseConnectionPool2 but all coordination between
+ * borrowing and returning threads is done with java.util.concurrent locks and
+ * LockSupport parking instead of synchronized blocks and Object.wait().  A
+ * thread blocked inside a monitor pins its carrier when it is a virtual thread,
+ * so this is the pool to use when request handlers run on virtual threads.
+ * <p>
+ * No JDBC I/O is performed while holding the pool lock.  New connections are
+ * opened after reserving a slot in totalActive, and idle connections are
+ * pinged a few at a time after being taken out of the idle queue.  Returned
+ * connections are handed directly to the oldest waiter so callers get
+ * connections in the order they requested them.
+ * <p>
+ * Borrowers can be given a {@link ConnectionPriority}.  Waiters of a higher
+ * class are served first, and connections can be reserved for a class so that
+ * lower classes can't take all of them.
+ * <p>
+ * Connection tracking (enableTracking) still uses the shared monitor in
+ * BasicDatabaseConnectionPool.  It's a debug facility and off by default.
+ */
+public class BasicDatabaseConnectionPool3
+    extends BasicDatabaseConnectionPool
+    implements DataSource {
+
+    private static final Logger log = Logger.getLogger();
+
+    /**
+     * Guards idle, waiters, totalActive and totalIdle.  Never held across JDBC
+     * calls.
+     */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Idle physical connections, oldest first.
+     */
+    final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+
+    /**
+     * Callers waiting for a connection, one queue per priority class (highest
+     * first), each in the order they asked for one.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final ArrayDeque<ConnectionWaiter>[] waiters = new ArrayDeque[ ConnectionPriority.values().length ];
+
+    /**
+     * Connections reserved for each priority class.  Other classes can't
+     * borrow a connection if that would leave fewer than this many for the
+     * class to use.  Keep the sum below maxActive.
+     */
+    public int[] reserved = new int[ ConnectionPriority.values().length ];
+
+    /**
+     * Connections (and slots reserved for new ones) currently borrowed by
+     * each priority class.  Only updated under the lock, except on the thread
+     * affinity path where it's approximate.
+     */
+    final AtomicIntegerArray borrowed = new AtomicIntegerArray( ConnectionPriority.values().length );
+
+    /**
+     * Number of waiters in the queue, including ones which gave up but haven't
+     * been skipped yet.  Read without the lock by the thread affinity path.
+     */
+    final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Remember the last connection each thread returned so the same thread
+     * can take it back on its next borrow without touching the pool lock.
+     * Other threads steal these connections once the pool is exhausted.
+     * Meant for request loops on a bounded set of threads; leave it off with
+     * thread-per-request virtual threads.
+     */
+    public boolean enableThreadAffinity = false;
+
+    /**
+     * The calling thread's affinity slot, if it ever returned a connection.
+     */
+    final ThreadLocal<AffinitySlot> affinity = new ThreadLocal<AffinitySlot>();
+
+    /**
+     * Every affinity slot so connections parked in them can be stolen.
+     */
+    final ConcurrentLinkedQueue<AffinitySlot> affinitySlots = new ConcurrentLinkedQueue<AffinitySlot>();
+
+    /**
+     * Fails async borrows which waited too long.  Shared by all pools since
+     * the tasks are trivial.
+     */
+    static final ScheduledThreadPoolExecutor ASYNC_TIMER = new ScheduledThreadPoolExecutor( 1, ( r ) -> {
+
+        Thread thread = new Thread( r, "JDBC async borrow timer" );
+        thread.setDaemon( true );
+        return thread;
+
+    } );
+
+    static {
+        ASYNC_TIMER.setRemoveOnCancelPolicy( true );
+    }
+
+    /**
+     * Where new connections are opened for getConnectionAsync().  When null
+     * they're opened on whichever thread handed out the slot, which may be
+     * the caller.
+     */
+    public Executor asyncExecutor = null;
+
+    /**
+     * Fail borrows right away when the predicted wait is longer than they're
+     * willing to wait instead of tying up the caller for maxWait first.
+     *
+     * @see #getPredictedWait
+     */
+    public boolean enableLoadShedding = false;
+
+    /**
+     * Shed a borrow once the predicted wait exceeds this fraction of its
+     * timeout.  Values above 1.0 give borrows the benefit of the doubt.
+     */
+    public double sheddingThreshold = 1.0;
+
+    /**
+     * How many idle connections pingIdleConnections() takes out of the idle
+     * queue at once.  The rest stay available to borrowers while those are
+     * pinged.
+     */
+    public int pingBatchSize = 2;
+
+    /**
+     * Adaptive cap on concurrent borrows in front of maxActive.  Borrows over
+     * its limit fail right away.  Null (the default) disables it.
+     *
+     * @see ConcurrencyLimiter
+     */
+    public ConcurrencyLimiter limiter = null;
+
+    public BasicDatabaseConnectionPool3() {
+
+        for ( int i = 0; i < waiters.length; ++i ) {
+            waiters[i] = new ArrayDeque<ConnectionWaiter>();
+        }
+
+    }
+
+    /**
+     * Reserve connections for a priority class.
+     *
+     * @see #reserved
+     */
+    public void setReserved( ConnectionPriority priority, int connections ) {
+        reserved[ priority.ordinal() ] = connections;
+    }
+
+    /**
+     * Borrow with the priority the calling thread is tagged with.
+     *
+     * @see ConnectionPriority#setCurrent
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection( ConnectionPriority.getCurrent(), maxWait );
+    }
+
+    public Connection getConnection( ConnectionPriority priority ) throws SQLException {
+        return getConnection( priority, maxWait );
+    }
+
+    public Connection getConnection( long timeout ) throws SQLException {
+        return getConnection( ConnectionPriority.getCurrent(), timeout );
+    }
+
+    /**
+     * Borrow waiting at most the given number of millis instead of maxWait.
+     * A non positive timeout waits forever.  Like every getConnection() this
+     * hands out the scope's connection, or a lazy one, when there is one.
+     */
+    public Connection getConnection( ConnectionPriority priority, long timeout ) throws SQLException {
+        return lazy( () -> borrow( priority, timeout ) );
+    }
+
+    /**
+     * Borrow a physical connection now.
+     */
+    Connection borrow( ConnectionPriority priority, long timeout ) throws SQLException {
+        return getConnection( new ParkingConnectionWaiter( priority, null, timeout ) );
+    }
+
+    /**
+     * Borrow on behalf of the given waiter, parking until it's served.
+     */
+    Connection getConnection( ParkingConnectionWaiter waiter ) throws SQLException {
+
+        long started = System.nanoTime();
+
+        acquirePermit( waiter );
+
+        try {
+
+            acquire( waiter );
+
+            //a null connection from the waiter means a slot was reserved for us.
+            Connection conn = waiter.await();
+
+            stats.recordBorrow( System.nanoTime() - started );
+
+            if ( conn != null )
+                return addTrackedConnection( wrap( conn, waiter ) );
+
+            return addTrackedConnection( createReservedConnection( waiter ) );
+
+        } catch ( SQLException | RuntimeException e ) {
+
+            releasePermit( waiter );
+            throw e;
+
+        }
+
+    }
+
+    /**
+     * Borrow a connection without blocking the calling thread, waiting at
+     * most maxWait.
+     *
+     * @see #getConnectionAsync(long, TimeUnit)
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return getConnectionAsync( ConnectionPriority.getCurrent(), maxWait, TimeUnit.MILLISECONDS );
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync( long timeout, TimeUnit unit ) {
+        return getConnectionAsync( ConnectionPriority.getCurrent(), timeout, unit );
+    }
+
+    /**
+     * Borrow a connection without blocking the calling thread.  When the pool
+     * is exhausted the returned future is queued with the other waiters and
+     * completed directly by the thread calling returnObject().  No thread is
+     * held while we wait.
+     * <p>
+     * The future fails with an SQLException once the timeout elapses (a non
+     * positive timeout waits forever).  Cancelling the future gives up our
+     * place in the queue; a connection handed over concurrently goes back to
+     * the pool.
+     */
+    public CompletableFuture<Connection> getConnectionAsync( ConnectionPriority priority,
+                                                             long timeout,
+                                                             TimeUnit unit ) {
+
+        return getConnectionAsync( new FutureConnectionWaiter( priority, null, unit.toMillis( timeout ) ),
+                                   timeout, unit );
+
+    }
+
+    CompletableFuture<Connection> getConnectionAsync( final FutureConnectionWaiter waiter,
+                                                      final long timeout,
+                                                      final TimeUnit unit ) {
+
+        try {
+
+            acquirePermit( waiter );
+
+        } catch ( SQLException e ) {
+
+            waiter.future.completeExceptionally( e );
+            return waiter.future;
+
+        }
+
+        //a connection handed to the caller releases the permit when it's
+        //closed.  Anything else releases it here.
+        waiter.future.whenComplete( ( conn, t ) -> {
+
+            if ( t != null )
+                releasePermit( waiter );
+
+        } );
+
+        try {
+
+            if ( acquire( waiter ) ) {
+                waiter.signal( this );
+                return waiter.future;
+            }
+
+        } catch ( SQLException e ) {
+
+            waiter.future.completeExceptionally( e );
+            return waiter.future;
+
+        }
+
+        if ( timeout > 0 ) {
+
+            final ScheduledFuture<?> task = ASYNC_TIMER.schedule( () -> {
+
+                if ( waiter.cancel() ) {
+                    waiter.future.completeExceptionally
+                        ( new SQLException( "Unable to obtain connection to database.  " +
+                                            "Wait time exceeded: " + unit.toMillis( timeout ) ) );
+                }
+
+            }, timeout, unit );
+
+            waiter.future.whenComplete( ( conn, t ) -> task.cancel( false ) );
+
+        }
+
+        //callers cancelling the future (or completing it themselves) leave
+        //the queue.
+        waiter.future.whenComplete( ( conn, t ) -> waiter.cancel() );
+
+        return waiter.future;
+
+    }
+
+    /**
+     * Serve the waiter right away with an idle connection or a newly reserved
+     * slot, or queue it until a connection is returned.  Returns true if the
+     * waiter was served immediately.
+     *
+     * @throws SQLException if load shedding is on and the waiter wouldn't
+     * get a connection within its timeout anyway.
+     */
+    boolean acquire( ConnectionWaiter waiter ) throws SQLException {
+
+        Connection conn;
+
+        if ( enableThreadAffinity && admit( waiter ) ) {
+
+            AffinitySlot slot = affinity.get();
+
+            if ( slot != null && ( conn = slot.conn.getAndSet( null ) ) != null ) {
+                onBorrow( waiter );
+                return waiter.offer( conn );
+            }
+
+        }
+
+        lock.lock();
+
+        try {
+
+            if ( admit( waiter ) ) {
+
+                conn = idle.pollFirst();
+
+                if ( conn != null ) {
+                    --totalIdle;
+                    onBorrow( waiter );
+                    return waiter.offer( conn );
+                }
+
+                if ( totalActive < maxActive ) {
+                    //reserve the slot now and connect once the lock is released.
+                    ++totalActive;
+                    onBorrow( waiter );
+                    return waiter.offer( null );
+                }
+
+            }
+
+            //announce ourselves before looking at the affinity slots.
+            //Returning threads park a connection and then check waiting so
+            //one of us is guaranteed to see the other.
+            waiting.incrementAndGet();
+
+            if ( enableThreadAffinity && admit( waiter ) && ( conn = stealAffinity() ) != null ) {
+                waiting.decrementAndGet();
+                onBorrow( waiter );
+                return waiter.offer( conn );
+            }
+
+            if ( shed( waiter ) ) {
+
+                waiting.decrementAndGet();
+                stats.recordShed();
+
+                throw new SQLException( String.format( "Unable to obtain connection to database.  " +
+                                                       "Predicted wait %.0fms exceeds timeout %dms",
+                                                       getPredictedWait(), waiter.timeout ) );
+
+            }
+
+            enqueue( waiter );
+
+            return false;
+
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Complete an async borrow that was handed a connection or a slot.  New
+     * connections are opened on the asyncExecutor when one is set.
+     */
+    void completeAsync( final FutureConnectionWaiter waiter ) {
+
+        if ( waiter.conn != null ) {
+            deliverAsync( waiter.future, wrap( waiter.conn, waiter ) );
+            return;
+        }
+
+        Runnable connect = () -> {
+
+            //nobody wants it anymore so don't bother connecting.
+            if ( waiter.future.isDone() ) {
+                releaseSlot( waiter );
+                return;
+            }
+
+            try {
+                deliverAsync( waiter.future, createReservedConnection( waiter ) );
+            } catch ( SQLException e ) {
+                waiter.future.completeExceptionally( e );
+            }
+
+        };
+
+        if ( asyncExecutor != null ) {
+            asyncExecutor.execute( connect );
+        } else {
+            connect.run();
+        }
+
+    }
+
+    /**
+     * Complete the future with the given connection.  If the caller already
+     * gave up the connection goes straight back to the pool.
+     */
+    void deliverAsync( CompletableFuture<Connection> future, BasicDatabaseConnection bdc ) {
+
+        addTrackedConnection( bdc );
+
+        if ( future.complete( bdc ) )
+            return;
+
+        try {
+            returnObject( bdc );
+        } catch ( SQLException e ) {
+            log.error( "Unable to return abandoned async connection: ", e );
+        }
+
+    }
+
+    /**
+     * Physically create a new connection to the database using the JDBC
+     * DriverManager.  Unlike the parent this doesn't touch totalActive; slots
+     * are reserved under the pool lock before we get here.
+     */
+    public BasicDatabaseConnection createConnection() throws SQLException {
+
+        String message = "Took too long to connect to %s with user %s";
+
+        long duration = 5000L;
+
+        CompletionWatcher watcher = new CompletionWatcher( log , duration, message, url, user );
+
+        try {
+
+            watcher.start();
+
+            Connection conn = DriverManager.getConnection( url, user, password );
+
+            return new BasicDatabaseConnection( conn, this );
+
+        } catch ( SQLException e ) {
+            stats.recordConnectFailure();
+            log.error( "Couldn't create connection: " + url );
+            throw e;
+        } finally {
+            watcher.complete();
+        }
+
+    }
+
+    /**
+     * Open a connection for a slot already counted in totalActive.  The slot
+     * is released again if we can't connect.
+     */
+    BasicDatabaseConnection createReservedConnection( ConnectionWaiter waiter )
+        throws SQLException {
+
+        try {
+
+            BasicDatabaseConnection bdc = createConnection();
+            bdc.priority = waiter.priority;
+            bdc.tenant = waiter.tenant;
+            bdc.limiter = waiter.limiter;
+
+            return bdc;
+
+        } catch ( SQLException e ) {
+
+            releaseSlot( waiter );
+            throw e;
+
+        }
+
+    }
+
+    BasicDatabaseConnection wrap( Connection conn, ConnectionWaiter waiter ) {
+
+        BasicDatabaseConnection bdc = new BasicDatabaseConnection( conn, this );
+        bdc.priority = waiter.priority;
+        bdc.tenant = waiter.tenant;
+        bdc.limiter = waiter.limiter;
+
+        return bdc;
+
+    }
+
+    // **** admission ***********************************************************
+
+    /**
+     * Take a permit from the concurrency limiter for the waiter, if we have
+     * one.  The waiter remembers the limiter so the permit goes back to the
+     * same one even if it's swapped at runtime.
+     */
+    void acquirePermit( ConnectionWaiter waiter ) throws SQLException {
+
+        ConcurrencyLimiter limiter = this.limiter;
+
+        if ( limiter == null )
+            return;
+
+        if ( ! limiter.tryAcquire() ) {
+
+            stats.recordShed();
+
+            throw new SQLException( "Unable to obtain connection to database.  " +
+                                    "Concurrency limit reached: " + limiter.getLimit() );
+
+        }
+
+        waiter.limiter = limiter;
+
+    }
+
+    void releasePermit( ConnectionWaiter waiter ) {
+
+        if ( waiter.limiter != null )
+            waiter.limiter.release();
+
+    }
+
+    /**
+     * How long (in millis) a borrower queued now can expect to wait.  Everyone
+     * already waiting is served first and connections come back at a rate of
+     * maxActive per average hold time.  Waiters which gave up but haven't
+     * been skipped yet are counted too so this errs on the long side right
+     * after a burst of timeouts.
+     */
+    public double getPredictedWait() {
+
+        double hold = stats.getAverageHold() / 1000000.0;
+
+        return waiting.get() * hold / Math.max( 1, maxActive );
+
+    }
+
+    /**
+     * True if the waiter should be failed now rather than queued.  We need
+     * at least one hold time sample before we trust the prediction.
+     */
+    boolean shed( ConnectionWaiter waiter ) {
+
+        if ( ! enableLoadShedding || waiter.timeout <= 0 || stats.getHolds() == 0 )
+            return false;
+
+        return getPredictedWait() > waiter.timeout * sheddingThreshold;
+
+    }
+
+    /**
+     * True if the waiter may take a connection when one is available.
+     * Subclasses partitioning the pool override this along with onBorrow(),
+     * onRelease(), enqueue() and nextWaiter().
+     */
+    boolean admit( ConnectionWaiter waiter ) {
+        return admit( waiter.priority.ordinal() );
+    }
+
+    /**
+     * Account for a connection (or slot) handed to the waiter.
+     */
+    void onBorrow( ConnectionWaiter waiter ) {
+        borrowed.incrementAndGet( waiter.priority.ordinal() );
+    }
+
+    /**
+     * Account for a connection (or slot) given back by a borrower.
+     */
+    void onRelease( ConnectionPriority priority, String tenant ) {
+        borrowed.decrementAndGet( priority.ordinal() );
+    }
+
+    /**
+     * Queue a waiter which couldn't be served right away.  Called with the
+     * lock held.
+     */
+    void enqueue( ConnectionWaiter waiter ) {
+        waiters[ waiter.priority.ordinal() ].addLast( waiter );
+    }
+
+    /**
+     * True if a borrower of the given priority class can take a connection
+     * without eating into the connections reserved for the other classes.
+     */
+    boolean admit( int priority ) {
+
+        int inUse = 0;
+        int held = 0;
+
+        for ( int i = 0; i < reserved.length; ++i ) {
+
+            int count = borrowed.get( i );
+
+            inUse += count;
+
+            if ( i != priority && reserved[i] > count )
+                held += reserved[i] - count;
+
+        }
+
+        return inUse + held < maxActive;
+
+    }
+
+    /**
+     * Return an object to the pool for others to use.
+     *
+     */
+    public void returnObject( BasicDatabaseConnection conn ) throws SQLException {
+
+        removeTrackedConnection( conn );
+
+        onRelease( conn.priority, conn.tenant );
+
+        if ( enableThreadAffinity && parkAffinity( conn.getDelegate() ) )
+            return;
+
+        recycle( conn.getDelegate() );
+
+    }
+
+    public void discardObject( BasicDatabaseConnection conn ) throws SQLException {
+
+        removeTrackedConnection( conn );
+
+        releaseSlot( conn.priority, conn.tenant );
+
+    }
+
+    /**
+     * Keep the connection in the calling thread's affinity slot.  Returns
+     * false if anyone is waiting or the slot is already in use, in which case
+     * the connection should be recycled as usual.
+     */
+    boolean parkAffinity( Connection conn ) {
+
+        if ( waiting.get() > 0 )
+            return false;
+
+        AffinitySlot slot = affinity.get();
+
+        if ( slot == null ) {
+
+            slot = new AffinitySlot();
+
+            affinity.set( slot );
+            affinitySlots.add( slot );
+
+        }
+
+        if ( ! slot.conn.compareAndSet( null, conn ) )
+            return false;
+
+        //a waiter may have queued up after we checked.  Take the connection
+        //back and recycle it unless the waiter already stole it.
+        if ( waiting.get() > 0 )
+            return slot.conn.getAndSet( null ) == null;
+
+        return true;
+
+    }
+
+    /**
+     * Take a connection parked in any thread's affinity slot.  Slots of
+     * threads that have exited are dropped once empty.
+     */
+    Connection stealAffinity() {
+
+        Iterator<AffinitySlot> it = affinitySlots.iterator();
+
+        while ( it.hasNext() ) {
+
+            AffinitySlot slot = it.next();
+
+            Connection conn = slot.conn.getAndSet( null );
+
+            if ( conn != null )
+                return conn;
+
+            if ( slot.isAbandoned() )
+                it.remove();
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Hand a physical connection to the oldest waiter or put it back in the
+     * idle queue.
+     */
+    void recycle( Connection conn ) throws SQLException {
+
+        ConnectionWaiter waiter = null;
+        boolean close = false;
+
+        lock.lock();
+
+        try {
+
+            //maxActive was lowered so let connections go as they come back.
+            if ( totalActive > maxActive ) {
+
+                --totalActive;
+                close = true;
+
+            } else {
+
+                waiter = nextWaiter( conn );
+
+                if ( waiter == null ) {
+
+                    //keep the number of idle connections low so that we don't
+                    //waste memory.
+                    if ( maxIdle >= 0 && totalIdle >= maxIdle ) {
+                        --totalActive;
+                        close = true;
+                    } else {
+                        ++totalIdle;
+                        idle.addLast( conn );
+                    }
+
+                }
+
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+        if ( waiter != null )
+            waiter.signal( this );
+
+        if ( close )
+            conn.close();
+
+    }
+
+    /**
+     * Change the cap on active connections at runtime.  Raising it hands new
+     * slots to waiters right away.  Lowering it closes idle connections over
+     * the cap now and borrowed ones as they're returned.
+     */
+    public void setMaxActive( int maxActive ) {
+
+        List<ConnectionWaiter> granted = new ArrayList<ConnectionWaiter>();
+        List<Connection> closed = new ArrayList<Connection>();
+
+        lock.lock();
+
+        try {
+
+            this.maxActive = maxActive;
+
+            while ( totalActive > maxActive && totalIdle > 0 ) {
+
+                closed.add( idle.pollFirst() );
+                --totalIdle;
+                --totalActive;
+
+            }
+
+            while ( totalActive < maxActive ) {
+
+                ConnectionWaiter waiter = nextWaiter( null );
+
+                if ( waiter == null )
+                    break;
+
+                ++totalActive;
+                granted.add( waiter );
+
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+        for ( ConnectionWaiter waiter : granted ) {
+            waiter.signal( this );
+        }
+
+        for ( Connection conn : closed ) {
+
+            try {
+                conn.close();
+            } catch ( SQLException e ) {
+                log.error( "Unable to close connection: ", e );
+            }
+
+        }
+
+    }
+
+    /**
+     * Give up a slot reserved in totalActive.  If anyone is waiting the slot
+     * goes to them instead so they can open their own connection.
+     */
+    void releaseSlot( ConnectionWaiter borrower ) {
+        releaseSlot( borrower.priority, borrower.tenant );
+    }
+
+    void releaseSlot( ConnectionPriority priority, String tenant ) {
+
+        ConnectionWaiter waiter = null;
+
+        lock.lock();
+
+        try {
+
+            onRelease( priority, tenant );
+
+            waiter = nextWaiter( null );
+
+            if ( waiter == null )
+                --totalActive;
+
+        } finally {
+            lock.unlock();
+        }
+
+        if ( waiter != null )
+            waiter.signal( this );
+
+    }
+
+    /**
+     * Find the oldest waiter of the highest priority class that may borrow
+     * and hand it the given connection (or a reserved slot when conn is null).
+     * Must be called with the lock held.  The returned waiter must be
+     * signaled once the lock is released.
+     */
+    ConnectionWaiter nextWaiter( Connection conn ) {
+
+        for ( int priority = 0; priority < waiters.length; ++priority ) {
+
+            if ( waiters[ priority ].isEmpty() || ! admit( priority ) )
+                continue;
+
+            ConnectionWaiter waiter;
+
+            while ( ( waiter = waiters[ priority ].pollFirst() ) != null ) {
+
+                waiting.decrementAndGet();
+
+                //waiters that timed out are skipped here rather than removed
+                //from the middle of the queue.
+                if ( waiter.offer( conn ) ) {
+                    onBorrow( waiter );
+                    return waiter;
+                }
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    // **** housekeeping ********************************************************
+
+    /**
+     * Ping idle connections without holding the pool lock.  We take
+     * pingBatchSize of them out of the idle queue at a time, as though
+     * borrowed, and recycle them afterwards so that any waiters that showed
+     * up in the meantime are served.
+     */
+    public void pingIdleConnections() {
+
+        int batchSize = Math.max( 1, pingBatchSize );
+
+        List<Connection> batch = new ArrayList<Connection>( batchSize );
+
+        int remaining;
+
+        lock.lock();
+
+        try {
+            remaining = idle.size();
+        } finally {
+            lock.unlock();
+        }
+
+        //recycled connections go to the back of the queue, so once we've
+        //taken as many as were idle at the start we've been round once.
+        while ( remaining > 0 ) {
+
+            lock.lock();
+
+            try {
+
+                while ( remaining > 0 && batch.size() < batchSize && ! idle.isEmpty() ) {
+
+                    batch.add( idle.pollFirst() );
+                    --totalIdle;
+                    --remaining;
+
+                }
+
+            } finally {
+                lock.unlock();
+            }
+
+            if ( batch.isEmpty() )
+                break;
+
+            ping( batch );
+
+        }
+
+        //connections parked for thread affinity need pinging too.
+        Connection parked;
+
+        while ( ( parked = stealAffinity() ) != null ) {
+
+            batch.add( parked );
+
+            if ( batch.size() >= batchSize )
+                ping( batch );
+
+        }
+
+        ping( batch );
+
+    }
+
+    /**
+     * Ping connections taken out of the pool and recycle them.
+     */
+    private void ping( List<Connection> batch ) {
+
+        for ( Connection conn : batch ) {
+
+            pingConnection( conn );
+
+            try {
+                recycle( conn );
+            } catch ( SQLException e ) {
+                log.error( "Unable to return pinged connection: ", e );
+            }
+
+        }
+
+        batch.clear();
+
+    }
+
+}
+
+/**
+ * A connection parked by the thread which last returned it.
+ */
+class AffinitySlot {
+
+    final WeakReference<Thread> owner = new WeakReference<Thread>( Thread.currentThread() );
+
+    final AtomicReference<Connection> conn = new AtomicReference<Connection>();
+
+    boolean isAbandoned() {
+
+        Thread thread = owner.get();
+
+        return thread == null || ! thread.isAlive();
+
+    }
+
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.regex.*;
+
+import java.io.*;
+import java.sql.*;
+
+/**
+ * Runs a batch of single row INSERT parameter sets as a few multi row
+ * statements:
+ * <pre>
+ * INSERT INTO t (a,b) VALUES (?,?)
+ * </pre>
+ * with three rows added becomes one round trip with
+ * <pre>
+ * INSERT INTO t (a,b) VALUES (?,?),(?,?),(?,?)
+ * </pre>
+ * Rows are chunked so that no statement is longer than maxPacketSize (as
+ * estimated from the SQL and parameter values) or has more than maxRows rows.
+ * <p>
+ * Every parameter set on the statement is remembered so that it can be bound
+ * again at its new position.  Streams, LOBs, refs and arrays can only be read
+ * once so a batch using them is handed to the driver as a normal batch.
+ * <p>
+ * Each chunk reports one update count for all of its rows.  When it matches
+ * the number of rows each row gets 1, otherwise (INSERT IGNORE skipping rows)
+ * each row gets Statement.SUCCESS_NO_INFO.
+ */
+class BatchRewriter {
+
+    /**
+     * An INSERT ending in a single VALUES tuple.  The greedy match finds the
+     * last VALUES keyword.
+     */
+    private static final Pattern INSERT =
+        Pattern.compile( "^\\s*(insert\\b.*\\bvalues\\s*)(\\(.*\\))\\s*$",
+                         Pattern.CASE_INSENSITIVE | Pattern.DOTALL );
+
+    final String prefix;
+
+    final String tuple;
+
+    final int parameters;
+
+    final int maxPacketSize;
+
+    final int maxRows;
+
+    ParameterValue[] current;
+
+    final List<ParameterValue[]> rows = new ArrayList<ParameterValue[]>();
+
+    /**
+     * Set once a parameter that can't be bound twice is used.
+     */
+    boolean replayOnly = false;
+
+    /**
+     * The chunk statement being run, for cancel().
+     */
+    volatile PreparedStatement running = null;
+
+    /**
+     * Set by cancel() so a cancel landing between two chunks still stops
+     * the batch.
+     */
+    volatile boolean cancelled = false;
+
+    private BatchRewriter( String prefix, String tuple, int parameters, int maxPacketSize, int maxRows ) {
+
+        this.prefix = prefix;
+        this.tuple = tuple;
+        this.parameters = parameters;
+        this.maxPacketSize = maxPacketSize;
+        this.maxRows = maxRows;
+        this.current = new ParameterValue[ parameters ];
+
+    }
+
+    /**
+     * A rewriter for the given SQL, or null if it isn't a single row
+     * INSERT ... VALUES (...) we know how to rewrite.
+     */
+    static BatchRewriter parse( String sql, int maxPacketSize, int maxRows ) {
+
+        if ( sql == null )
+            return null;
+
+        Matcher matcher = INSERT.matcher( sql );
+
+        if ( ! matcher.matches() )
+            return null;
+
+        String prefix = matcher.group( 1 );
+        String tuple = matcher.group( 2 );
+
+        //parameters in the prefix (INSERT ... SELECT and friends) would be
+        //repeated along with the tuple.
+        if ( countParameters( prefix ) != 0 )
+            return null;
+
+        //the tuple has to be one parenthesized group, not "(?),(?)".
+        int depth = 0;
+
+        for ( int i = 0; i < tuple.length(); ++i ) {
+
+            char c = tuple.charAt( i );
+
+            if ( c == '(' ) {
+                ++depth;
+            } else if ( c == ')' ) {
+
+                --depth;
+
+                if ( depth == 0 && i != tuple.length() - 1 )
+                    return null;
+
+            } else if ( c == '\'' || c == '"' ) {
+                return null;
+            }
+
+        }
+
+        int parameters = countParameters( tuple );
+
+        if ( depth != 0 || parameters == 0 )
+            return null;
+
+        return new BatchRewriter( prefix, tuple, parameters, maxPacketSize, maxRows );
+
+    }
+
+    /**
+     * Count ? placeholders outside of quoted strings.
+     */
+    static int countParameters( String sql ) {
+
+        int count = 0;
+        char quote = 0;
+
+        for ( int i = 0; i < sql.length(); ++i ) {
+
+            char c = sql.charAt( i );
+
+            if ( quote != 0 ) {
+
+                if ( c == quote )
+                    quote = 0;
+
+            } else if ( c == '\'' || c == '"' || c == '`' ) {
+                quote = c;
+            } else if ( c == '?' ) {
+                ++count;
+            }
+
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Remember a parameter set on the statement.
+     */
+    void bind( int index, Object value, ParameterBinding binding ) {
+
+        if ( index < 1 || index > parameters )
+            return;
+
+        if ( value instanceof InputStream || value instanceof Reader ||
+             value instanceof Blob || value instanceof Clob ||
+             value instanceof Ref || value instanceof Array ) {
+
+            replayOnly = true;
+
+        }
+
+        current[ index - 1 ] = new ParameterValue( sizeOf( value ), binding );
+
+    }
+
+    void clearParameters() {
+        current = new ParameterValue[ parameters ];
+    }
+
+    void addBatch() throws SQLException {
+
+        for ( int i = 0; i < parameters; ++i ) {
+
+            if ( current[i] == null )
+                throw new SQLException( "No value specified for parameter " + ( i + 1 ) );
+
+        }
+
+        //parameters stay set after addBatch() so the row gets a copy.
+        rows.add( current.clone() );
+
+    }
+
+    void clearBatch() {
+
+        rows.clear();
+        replayOnly = false;
+
+    }
+
+    /**
+     * Run every row added so far.  conn is the physical connection, stmt the
+     * driver's statement for the original SQL which we fall back to.
+     */
+    int[] executeBatch( Connection conn, PreparedStatement stmt ) throws SQLException {
+
+        try {
+
+            if ( replayOnly )
+                return replay( stmt );
+
+            return rewrite( conn, stmt.getQueryTimeout() );
+
+        } finally {
+            clearBatch();
+        }
+
+    }
+
+    /**
+     * Hand the rows to the driver as an ordinary batch.
+     */
+    int[] replay( PreparedStatement stmt ) throws SQLException {
+
+        for ( ParameterValue[] row : rows ) {
+
+            for ( int i = 0; i < parameters; ++i ) {
+                row[i].binding.bind( stmt, i + 1 );
+            }
+
+            stmt.addBatch();
+
+        }
+
+        return stmt.executeBatch();
+
+    }
+
+    /**
+     * Run the rows as multi row statements, each with the query timeout of
+     * the statement we stand in for.
+     */
+    int[] rewrite( Connection conn, int timeout ) throws SQLException {
+
+        int[] counts = new int[ rows.size() ];
+
+        cancelled = false;
+
+        //most chunks have the same number of rows so reuse their statement.
+        Map<Integer,PreparedStatement> statements = new HashMap<Integer,PreparedStatement>();
+
+        try {
+
+            int start = 0;
+
+            while ( start < rows.size() ) {
+
+                int end = chunkEnd( start );
+                int size = end - start;
+
+                PreparedStatement stmt = statements.get( size );
+
+                if ( stmt == null ) {
+                    stmt = conn.prepareStatement( getSQL( size ) );
+                    statements.put( size, stmt );
+
+                    if ( timeout > 0 )
+                        stmt.setQueryTimeout( timeout );
+
+                }
+
+                for ( int row = start; row < end; ++row ) {
+
+                    ParameterValue[] values = rows.get( row );
+                    int offset = ( row - start ) * parameters;
+
+                    for ( int i = 0; i < parameters; ++i ) {
+                        values[i].binding.bind( stmt, offset + i + 1 );
+                    }
+
+                }
+
+                int updated;
+
+                running = stmt;
+
+                try {
+
+                    if ( cancelled )
+                        throw new SQLException( "Statement cancelled." );
+
+                    updated = stmt.executeUpdate();
+
+                } catch ( SQLException e ) {
+
+                    BatchUpdateException failure =
+                        new BatchUpdateException( e.getMessage(), e.getSQLState(), e.getErrorCode(),
+                                                  Arrays.copyOf( counts, start ) );
+
+                    failure.initCause( e );
+                    throw failure;
+
+                }
+
+                for ( int row = start; row < end; ++row ) {
+                    counts[ row ] = updated == size ? 1 : Statement.SUCCESS_NO_INFO;
+                }
+
+                start = end;
+
+            }
+
+        } finally {
+
+            running = null;
+
+            for ( PreparedStatement stmt : statements.values() ) {
+                stmt.close();
+            }
+
+        }
+
+        return counts;
+
+    }
+
+    /**
+     * Cancel the chunk being run, if any.  The chunks after it aren't run
+     * since its failure ends the batch.
+     */
+    void cancel() throws SQLException {
+
+        cancelled = true;
+
+        PreparedStatement stmt = running;
+
+        if ( stmt != null )
+            stmt.cancel();
+
+    }
+
+    /**
+     * Where the chunk starting at the given row ends.  A chunk always has at
+     * least one row even if it's over maxPacketSize on its own.
+     */
+    int chunkEnd( int start ) {
+
+        long bytes = prefix.length();
+        int end = start;
+
+        while ( end < rows.size() && end - start < maxRows ) {
+
+            long row = tuple.length() + 1;
+
+            for ( ParameterValue value : rows.get( end ) ) {
+                row += value.size;
+            }
+
+            if ( end > start && bytes + row > maxPacketSize )
+                break;
+
+            bytes += row;
+            ++end;
+
+        }
+
+        return end;
+
+    }
+
+    String getSQL( int rows ) {
+
+        StringBuilder buff = new StringBuilder( prefix.length() + ( tuple.length() + 1 ) * rows );
+
+        buff.append( prefix );
+
+        for ( int i = 0; i < rows; ++i ) {
+
+            if ( i > 0 )
+                buff.append( ',' );
+
+            buff.append( tuple );
+
+        }
+
+        return buff.toString();
+
+    }
+
+    /**
+     * Rough number of bytes the value adds to the statement once the driver
+     * has inlined and escaped it.
+     */
+    static long sizeOf( Object value ) {
+
+        if ( value == null )
+            return 4;
+
+        if ( value instanceof String )
+            return ( (String)value ).length() * 2 + 2;
+
+        if ( value instanceof byte[] )
+            return ( (byte[])value ).length * 2 + 3;
+
+        return 32;
+
+    }
+
+}
+
+/**
+ * A parameter remembered for a batch row.
+ */
+class ParameterValue {
+
+    final long size;
+
+    final ParameterBinding binding;
+
+    ParameterValue( long size, ParameterBinding binding ) {
+        this.size = size;
+        this.binding = binding;
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Runs one big batch on several pooled connections at once.
+ * <p>
+ * The rows are split into partitions of partitionSize rows.  parallelism
+ * workers each borrow a connection and take partitions off a shared counter
+ * until none are left.  Each partition is one executeBatch() and one commit,
+ * so a failure only rolls back its own partition and the others carry on.
+ * <p>
+ * Once every partition is done the update counts are returned in row order.
+ * If any partition failed a BatchUpdateException is thrown instead: its update
+ * counts have EXECUTE_FAILED for every row of a failed partition and each
+ * partition's error is chained with setNextException().  A partition no
+ * worker could run (say none of them could borrow a connection) fails with
+ * the reason as its cause.
+ * <p>
+ * A worker whose connection is lost (SQLState class 08, or isValid() false
+ * after a failure) stops and aborts it, and its remaining partitions go to
+ * the other workers.
+ * <p>
+ * Workers borrow with the calling thread's priority and tenant.
+ */
+public class BulkExecutor {
+
+    private static final Logger log = Logger.getLogger();
+
+    /**
+     * Connections used at once.  Never more than maxActive.
+     */
+    public int parallelism = 4;
+
+    /**
+     * Rows per partition, and so per transaction.
+     */
+    public int partitionSize = 1000;
+
+    /**
+     * Where workers run.  When null each worker gets its own thread.
+     */
+    public Executor executor = null;
+
+    public BasicDatabaseConnectionPool pool = null;
+
+    public BulkExecutor( BasicDatabaseConnectionPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * Run the SQL once for every row of parameters.
+     */
+    public int[] execute( final String sql, final List<Object[]> rows ) throws SQLException {
+
+        if ( rows.isEmpty() )
+            return new int[0];
+
+        final int partitions = ( rows.size() + partitionSize - 1 ) / partitionSize;
+
+        final int[] counts = new int[ rows.size() ];
+
+        //errors by partition.  Null once a partition has committed.
+        final SQLException[] errors = new SQLException[ partitions ];
+
+        final AtomicInteger next = new AtomicInteger();
+
+        //why a worker stopped before running its partitions.
+        final AtomicReference<SQLException> stopped = new AtomicReference<SQLException>();
+
+        final ConnectionPriority priority = ConnectionPriority.getCurrent();
+        final String tenant = PartitionedDatabaseConnectionPool.getCurrentTenant();
+
+        int workers = Math.max( 1, Math.min( Math.min( parallelism, pool.maxActive ), partitions ) );
+
+        Executor executor = this.executor;
+
+        if ( executor == null ) {
+
+            executor = ( r ) -> {
+
+                Thread thread = new Thread( r, "JDBC bulk executor" );
+                thread.setDaemon( true );
+                thread.start();
+
+            };
+
+        }
+
+        final SQLException notRun = new SQLException( "Never run." );
+
+        Arrays.fill( errors, notRun );
+
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+
+        for ( int i = 0; i < workers; ++i ) {
+
+            futures.add( CompletableFuture.runAsync( () -> {
+
+                ConnectionPriority.setCurrent( priority );
+                PartitionedDatabaseConnectionPool.setCurrentTenant( tenant );
+
+                try {
+                    work( sql, rows, counts, errors, next, stopped );
+                } finally {
+                    ConnectionPriority.clearCurrent();
+                    PartitionedDatabaseConnectionPool.clearCurrentTenant();
+                }
+
+            }, executor ) );
+
+        }
+
+        CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[ futures.size() ] ) ).join();
+
+        for ( int partition = 0; partition < partitions; ++partition ) {
+
+            if ( errors[ partition ] != notRun )
+                continue;
+
+            SQLException cause = stopped.get();
+
+            errors[ partition ] = cause == null ?
+                new SQLException( "Partition " + partition + " was never run." ) :
+                new SQLException( "Partition " + partition + " was never run: " + cause.getMessage(),
+                                  cause.getSQLState(), cause.getErrorCode(), cause );
+
+        }
+
+        SQLException first = null;
+        SQLException last = null;
+
+        for ( int partition = 0; partition < partitions; ++partition ) {
+
+            if ( errors[ partition ] == null )
+                continue;
+
+            int start = partition * partitionSize;
+            int end = Math.min( rows.size(), start + partitionSize );
+
+            Arrays.fill( counts, start, end, Statement.EXECUTE_FAILED );
+
+            if ( first == null ) {
+                first = errors[ partition ];
+            } else {
+                last.setNextException( errors[ partition ] );
+            }
+
+            last = errors[ partition ];
+
+        }
+
+        if ( first != null ) {
+
+            BatchUpdateException failure =
+                new BatchUpdateException( "Bulk execution failed: " + first.getMessage(),
+                                          first.getSQLState(),
+                                          first.getErrorCode(),
+                                          counts );
+
+            failure.setNextException( first );
+
+            throw failure;
+
+        }
+
+        return counts;
+
+    }
+
+    /**
+     * One worker: borrow a connection and run partitions until there are
+     * none left.
+     */
+    void work( String sql,
+               List<Object[]> rows,
+               int[] counts,
+               SQLException[] errors,
+               AtomicInteger next,
+               AtomicReference<SQLException> stopped ) {
+
+        Connection conn;
+
+        try {
+            conn = pool.getConnection();
+        } catch ( SQLException e ) {
+
+            //the remaining workers pick up our partitions.
+            log.error( "Unable to borrow connection for bulk execution: ", e );
+            stopped.compareAndSet( null, e );
+            return;
+
+        }
+
+        boolean broken = false;
+
+        try {
+
+            boolean autoCommit = conn.getAutoCommit();
+
+            conn.setAutoCommit( false );
+
+            try {
+
+                int partition;
+
+                while ( ( partition = next.getAndIncrement() ) < errors.length ) {
+
+                    SQLException error = execute( conn, sql, rows, counts, partition );
+
+                    errors[ partition ] = error;
+
+                    if ( error != null && isBroken( conn, error ) ) {
+
+                        log.error( "Bulk execution worker lost its connection: ", error );
+                        stopped.compareAndSet( null, error );
+                        broken = true;
+                        return;
+
+                    }
+
+                }
+
+            } finally {
+
+                if ( ! broken )
+                    conn.setAutoCommit( autoCommit );
+
+            }
+
+        } catch ( SQLException e ) {
+
+            log.error( "Bulk execution worker failed: ", e );
+            stopped.compareAndSet( null, e );
+
+        } finally {
+
+            try {
+
+                //don't lend a dead connection to anyone else.
+                if ( broken )
+                    conn.abort( Runnable::run );
+                else
+                    conn.close();
+
+            } catch ( SQLException e ) {
+                log.error( "Unable to return connection: ", e );
+            }
+
+        }
+
+    }
+
+    /**
+     * True when the error means the connection is gone rather than the
+     * partition being bad.
+     */
+    static boolean isBroken( Connection conn, SQLException error ) {
+
+        String state = error.getSQLState();
+
+        if ( state != null && state.startsWith( "08" ) )
+            return true;
+
+        try {
+            return ! conn.isValid( 1 );
+        } catch ( SQLException e ) {
+            return true;
+        }
+
+    }
+
+    /**
+     * Run and commit one partition.  Returns the error if it failed.
+     */
+    SQLException execute( Connection conn,
+                          String sql,
+                          List<Object[]> rows,
+                          int[] counts,
+                          int partition ) {
+
+        int start = partition * partitionSize;
+        int end = Math.min( rows.size(), start + partitionSize );
+
+        try {
+
+            PreparedStatement stmt = conn.prepareStatement( sql );
+
+            try {
+
+                for ( int row = start; row < end; ++row ) {
+
+                    Object[] params = rows.get( row );
+
+                    for ( int i = 0; i < params.length; ++i ) {
+                        stmt.setObject( i + 1, params[i] );
+                    }
+
+                    stmt.addBatch();
+
+                }
+
+                int[] result = stmt.executeBatch();
+
+                for ( int row = start; row < end; ++row ) {
+
+                    //some drivers don't report a count per row.
+                    int i = row - start;
+
+                    counts[ row ] = i < result.length ? result[i] : Statement.SUCCESS_NO_INFO;
+
+                }
+
+            } finally {
+                stmt.close();
+            }
+
+            conn.commit();
+
+            return null;
+
+        } catch ( SQLException e ) {
+
+            try {
+                conn.rollback();
+            } catch ( SQLException r ) {
+                log.error( "Unable to roll back partition %d: ", r, partition );
+            }
+
+            return e;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A query's slot in a {@link StatementBulkhead}.  The query is still running
+ * on the server until its rows are read, so the slot is held until its
+ * result set is read to the end or closed, or at the latest until the
+ * connection is closed.
+ */
+class BulkheadSlot {
+
+    final StatementBulkhead bulkhead;
+
+    /**
+     * The slots still held on our connection.
+     */
+    final Set<BulkheadSlot> held;
+
+    private final AtomicBoolean exited = new AtomicBoolean();
+
+    BulkheadSlot( StatementBulkhead bulkhead, Set<BulkheadSlot> held ) {
+
+        this.bulkhead = bulkhead;
+        this.held = held;
+
+        held.add( this );
+
+    }
+
+    /**
+     * Give the slot back.  Only the first call does anything.
+     */
+    void exit() {
+
+        if ( exited.compareAndSet( false, true ) ) {
+
+            held.remove( this );
+            bulkhead.exit();
+
+        }
+
+    }
+
+}
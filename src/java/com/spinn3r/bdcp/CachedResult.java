@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+/**
+ * Rows and column descriptions copied out of a result set.  Never modified
+ * once built so it can be shared, unless it's only the start of a result.
+ */
+class CachedResult {
+
+    final CachedResultSetMetaData metaData;
+
+    final Object[][] rows;
+
+    /**
+     * Rough size of the row data in bytes.
+     */
+    final long bytes;
+
+    /**
+     * When we stopped copying at a row limit, the result set we read from,
+     * still open and on the first row we didn't copy.  Such a result belongs
+     * to whoever ran the query and is never cached.
+     */
+    final ResultSet rest;
+
+    CachedResult( CachedResultSetMetaData metaData, Object[][] rows, long bytes ) {
+        this( metaData, rows, bytes, null );
+    }
+
+    CachedResult( CachedResultSetMetaData metaData, Object[][] rows, long bytes, ResultSet rest ) {
+        this.metaData = metaData;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.rest = rest;
+    }
+
+    static long sizeOf( Object value ) {
+
+        if ( value == null )
+            return 8;
+
+        if ( value instanceof String )
+            return 40 + ( (String)value ).length() * 2;
+
+        if ( value instanceof byte[] )
+            return 16 + ( (byte[])value ).length;
+
+        return 24;
+
+    }
+
+}
@@ -0,0 +1,744 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+import java.sql.*;
+
+/**
+ * A read only, scrollable {@link ResultSet} over rows copied out of another
+ * result set.  It holds no reference to the connection or statement it was
+ * read from so it can be shared between threads and outlive them; each reader
+ * gets its own CachedResultSet with its own cursor over the same rows.
+ * <p>
+ * Getters convert between types the way most drivers do: numbers to and from
+ * strings, dates to timestamps and so on.
+ */
+public class CachedResultSet implements ResultSet {
+
+    final CachedResult result;
+
+    final Statement statement;
+
+    /**
+     * 0 is before the first row, rows.length + 1 after the last.
+     */
+    int cursor = 0;
+
+    boolean wasNull = false;
+
+    boolean closed = false;
+
+    int fetchSize = 0;
+
+    public CachedResultSet( CachedResult result, Statement statement ) {
+        this.result = result;
+        this.statement = statement;
+    }
+
+    /**
+     * Read the rest of the given result set into memory and close it.
+     */
+    public static CachedResult materialize( ResultSet rs ) throws SQLException {
+        return materialize( rs, -1 );
+    }
+
+    /**
+     * Read at most maxRows rows (negative for all of them).  If there are
+     * more the result set is left open on the next row and handed back as the
+     * result's rest, so a big result isn't copied just to be thrown away.
+     */
+    public static CachedResult materialize( ResultSet rs, int maxRows ) throws SQLException {
+
+        boolean open = false;
+
+        try {
+
+            ResultSetMetaData md = rs.getMetaData();
+
+            int columns = md.getColumnCount();
+
+            CachedResultSetMetaData metaData = new CachedResultSetMetaData( md );
+
+            List<Object[]> rows = new ArrayList<Object[]>();
+            long bytes = 0;
+
+            while ( rs.next() ) {
+
+                if ( maxRows >= 0 && rows.size() >= maxRows ) {
+
+                    open = true;
+
+                    return new CachedResult( metaData, rows.toArray( new Object[ rows.size() ][] ), bytes, rs );
+
+                }
+
+                Object[] row = new Object[ columns ];
+
+                for ( int i = 0; i < columns; ++i ) {
+                    row[i] = rs.getObject( i + 1 );
+                    bytes += CachedResult.sizeOf( row[i] );
+                }
+
+                rows.add( row );
+
+            }
+
+            return new CachedResult( metaData, rows.toArray( new Object[ rows.size() ][] ), bytes );
+
+        } finally {
+
+            if ( ! open )
+                rs.close();
+
+        }
+
+    }
+
+    public int size() {
+        return result.rows.length;
+    }
+
+    private void checkOpen() throws SQLException {
+
+        if ( closed )
+            throw new SQLException( "ResultSet is closed." );
+
+    }
+
+    private Object value( int column ) throws SQLException {
+
+        checkOpen();
+
+        if ( cursor < 1 || cursor > result.rows.length )
+            throw new SQLException( "No current row." );
+
+        if ( column < 1 || column > result.metaData.columns )
+            throw new SQLException( "Invalid column index: " + column );
+
+        Object value = result.rows[ cursor - 1 ][ column - 1 ];
+
+        wasNull = value == null;
+
+        return value;
+
+    }
+
+    private Number number( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value == null )
+            return null;
+
+        if ( value instanceof Number )
+            return (Number)value;
+
+        if ( value instanceof Boolean )
+            return ( (Boolean)value ) ? 1 : 0;
+
+        try {
+            return new BigDecimal( value.toString().trim() );
+        } catch ( NumberFormatException e ) {
+            throw new SQLException( "Not a number: " + value );
+        }
+
+    }
+
+    private java.util.Date date( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value == null )
+            return null;
+
+        if ( value instanceof java.util.Date )
+            return (java.util.Date)value;
+
+        try {
+            return Timestamp.valueOf( value.toString() );
+        } catch ( IllegalArgumentException e ) {
+            throw new SQLException( "Not a date: " + value );
+        }
+
+    }
+
+    // **** cursor **************************************************************
+
+    public boolean next() throws SQLException {
+
+        checkOpen();
+
+        if ( cursor <= result.rows.length )
+            ++cursor;
+
+        return cursor <= result.rows.length;
+
+    }
+
+    public boolean previous() throws SQLException {
+
+        checkOpen();
+
+        if ( cursor > 0 )
+            --cursor;
+
+        return cursor > 0;
+
+    }
+
+    public boolean absolute( int row ) throws SQLException {
+
+        checkOpen();
+
+        if ( row < 0 )
+            row = result.rows.length + 1 + row;
+
+        cursor = Math.max( 0, Math.min( result.rows.length + 1, row ) );
+
+        return cursor >= 1 && cursor <= result.rows.length;
+
+    }
+
+    public boolean relative( int rows ) throws SQLException {
+        return absolute( Math.max( 0, cursor + rows ) );
+    }
+
+    public boolean first() throws SQLException { return absolute( 1 ); }
+    public boolean last() throws SQLException { return absolute( -1 ); }
+    public void beforeFirst() throws SQLException { checkOpen(); cursor = 0; }
+    public void afterLast() throws SQLException { checkOpen(); cursor = result.rows.length + 1; }
+    public boolean isBeforeFirst() throws SQLException { checkOpen(); return cursor == 0 && result.rows.length > 0; }
+    public boolean isAfterLast() throws SQLException { checkOpen(); return cursor > result.rows.length && result.rows.length > 0; }
+    public boolean isFirst() throws SQLException { checkOpen(); return cursor == 1 && result.rows.length > 0; }
+    public boolean isLast() throws SQLException { checkOpen(); return cursor == result.rows.length && result.rows.length > 0; }
+
+    public int getRow() throws SQLException {
+        checkOpen();
+        return cursor >= 1 && cursor <= result.rows.length ? cursor : 0;
+    }
+
+    public void close() throws SQLException { closed = true; }
+    public boolean wasNull() throws SQLException { return wasNull; }
+    public SQLWarning getWarnings() throws SQLException { return null; }
+    public void clearWarnings() throws SQLException { }
+    public String getCursorName() throws SQLException { throw new SQLException( "Cached result sets have no cursor." ); }
+    public ResultSetMetaData getMetaData() throws SQLException { return result.metaData; }
+    public Statement getStatement() throws SQLException { return statement; }
+
+    public int findColumn( String columnName ) throws SQLException {
+
+        Integer index = result.metaData.index.get( columnName.toLowerCase() );
+
+        if ( index == null )
+            throw new SQLException( "Column not found: " + columnName );
+
+        return index;
+
+    }
+
+    public void setFetchDirection( int direction ) throws SQLException { }
+    public int getFetchDirection() throws SQLException { return FETCH_FORWARD; }
+    public void setFetchSize( int rows ) throws SQLException { fetchSize = rows; }
+    public int getFetchSize() throws SQLException { return fetchSize; }
+    public int getType() throws SQLException { return TYPE_SCROLL_INSENSITIVE; }
+    public int getConcurrency() throws SQLException { return CONCUR_READ_ONLY; }
+
+    public boolean rowUpdated() throws SQLException { return false; }
+    public boolean rowInserted() throws SQLException { return false; }
+    public boolean rowDeleted() throws SQLException { return false; }
+
+    // **** getters by index ****************************************************
+
+    public Object getObject( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        //don't let callers change the cached copy.
+        if ( value instanceof byte[] )
+            return ( (byte[])value ).clone();
+
+        return value;
+
+    }
+
+    public String getString( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value == null )
+            return null;
+
+        if ( value instanceof byte[] )
+            return new String( (byte[])value );
+
+        return value.toString();
+
+    }
+
+    public boolean getBoolean( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value == null )
+            return false;
+
+        if ( value instanceof Boolean )
+            return (Boolean)value;
+
+        if ( value instanceof Number )
+            return ( (Number)value ).intValue() != 0;
+
+        String s = value.toString().trim();
+
+        return s.equalsIgnoreCase( "true" ) || s.equals( "1" ) || s.equalsIgnoreCase( "y" );
+
+    }
+
+    public byte getByte( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.byteValue();
+    }
+
+    public short getShort( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.shortValue();
+    }
+
+    public int getInt( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.intValue();
+    }
+
+    public long getLong( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.longValue();
+    }
+
+    public float getFloat( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.floatValue();
+    }
+
+    public double getDouble( int column ) throws SQLException {
+        Number n = number( column );
+        return n == null ? 0 : n.doubleValue();
+    }
+
+    public BigDecimal getBigDecimal( int column ) throws SQLException {
+
+        Number n = number( column );
+
+        if ( n == null || n instanceof BigDecimal )
+            return (BigDecimal)n;
+
+        return new BigDecimal( n.toString() );
+
+    }
+
+    /** @deprecated */
+    @Deprecated
+    public BigDecimal getBigDecimal( int column, int scale ) throws SQLException {
+
+        BigDecimal value = getBigDecimal( column );
+
+        return value == null ? null : value.setScale( scale, BigDecimal.ROUND_HALF_UP );
+
+    }
+
+    public byte[] getBytes( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value == null )
+            return null;
+
+        if ( value instanceof byte[] )
+            return ( (byte[])value ).clone();
+
+        return value.toString().getBytes();
+
+    }
+
+    public java.sql.Date getDate( int column ) throws SQLException {
+
+        java.util.Date value = date( column );
+
+        if ( value == null || value instanceof java.sql.Date )
+            return (java.sql.Date)value;
+
+        return new java.sql.Date( value.getTime() );
+
+    }
+
+    public Time getTime( int column ) throws SQLException {
+
+        Object value = value( column );
+
+        if ( value instanceof String )
+            return Time.valueOf( (String)value );
+
+        java.util.Date date = date( column );
+
+        if ( date == null || date instanceof Time )
+            return (Time)date;
+
+        return new Time( date.getTime() );
+
+    }
+
+    public Timestamp getTimestamp( int column ) throws SQLException {
+
+        java.util.Date value = date( column );
+
+        if ( value == null )
+            return null;
+
+        //Timestamps are mutable so every caller gets a copy.
+        if ( value instanceof Timestamp )
+            return (Timestamp)( (Timestamp)value ).clone();
+
+        return new Timestamp( value.getTime() );
+
+    }
+
+    public java.sql.Date getDate( int column, Calendar cal ) throws SQLException {
+
+        java.sql.Date value = getDate( column );
+
+        if ( value == null || cal == null )
+            return value;
+
+        return new java.sql.Date( inZone( value, cal ) );
+
+    }
+
+    public Time getTime( int column, Calendar cal ) throws SQLException {
+
+        Time value = getTime( column );
+
+        if ( value == null || cal == null )
+            return value;
+
+        return new Time( inZone( value, cal ) );
+
+    }
+
+    public Timestamp getTimestamp( int column, Calendar cal ) throws SQLException {
+
+        Timestamp value = getTimestamp( column );
+
+        if ( value == null || cal == null )
+            return value;
+
+        Timestamp result = new Timestamp( inZone( value, cal ) );
+        result.setNanos( value.getNanos() );
+
+        return result;
+
+    }
+
+    /**
+     * The driver read the value in our default time zone.  With a calendar
+     * the same wall clock time is meant in the calendar's zone instead, as
+     * drivers do for a column without a zone of its own.
+     */
+    private static long inZone( java.util.Date value, Calendar cal ) {
+
+        Calendar local = Calendar.getInstance();
+        local.setTime( value );
+
+        Calendar target = (Calendar)cal.clone();
+        target.clear();
+
+        for ( int field : new int[] { Calendar.ERA, Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH,
+                                      Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND, Calendar.MILLISECOND } ) {
+
+            target.set( field, local.get( field ) );
+
+        }
+
+        return target.getTimeInMillis();
+
+    }
+
+    public InputStream getAsciiStream( int column ) throws SQLException {
+        byte[] value = getBytes( column );
+        return value == null ? null : new ByteArrayInputStream( value );
+    }
+
+    /** @deprecated */
+    @Deprecated
+    public InputStream getUnicodeStream( int column ) throws SQLException { return getAsciiStream( column ); }
+    public InputStream getBinaryStream( int column ) throws SQLException { return getAsciiStream( column ); }
+
+    public Reader getCharacterStream( int column ) throws SQLException {
+        String value = getString( column );
+        return value == null ? null : new StringReader( value );
+    }
+
+    public Object getObject( int column, Map<String,Class<?>> map ) throws SQLException { return getObject( column ); }
+
+    public java.net.URL getURL( int column ) throws SQLException {
+
+        String value = getString( column );
+
+        try {
+            return value == null ? null : new java.net.URL( value );
+        } catch ( java.net.MalformedURLException e ) {
+            throw new SQLException( "Not a URL: " + value );
+        }
+
+    }
+
+    public Ref getRef( int column ) throws SQLException { throw new SQLException( "Refs aren't cached." ); }
+    public Blob getBlob( int column ) throws SQLException { throw new SQLException( "Blobs aren't cached." ); }
+    public Clob getClob( int column ) throws SQLException { throw new SQLException( "Clobs aren't cached." ); }
+    public Array getArray( int column ) throws SQLException { throw new SQLException( "Arrays aren't cached." ); }
+
+    // **** getters by name *****************************************************
+
+    public Object getObject( String column ) throws SQLException { return getObject( findColumn( column ) ); }
+    public String getString( String column ) throws SQLException { return getString( findColumn( column ) ); }
+    public boolean getBoolean( String column ) throws SQLException { return getBoolean( findColumn( column ) ); }
+    public byte getByte( String column ) throws SQLException { return getByte( findColumn( column ) ); }
+    public short getShort( String column ) throws SQLException { return getShort( findColumn( column ) ); }
+    public int getInt( String column ) throws SQLException { return getInt( findColumn( column ) ); }
+    public long getLong( String column ) throws SQLException { return getLong( findColumn( column ) ); }
+    public float getFloat( String column ) throws SQLException { return getFloat( findColumn( column ) ); }
+    public double getDouble( String column ) throws SQLException { return getDouble( findColumn( column ) ); }
+    public BigDecimal getBigDecimal( String column ) throws SQLException { return getBigDecimal( findColumn( column ) ); }
+    /** @deprecated */
+    @Deprecated
+    public BigDecimal getBigDecimal( String column, int scale ) throws SQLException { return getBigDecimal( findColumn( column ), scale ); }
+    public byte[] getBytes( String column ) throws SQLException { return getBytes( findColumn( column ) ); }
+    public java.sql.Date getDate( String column ) throws SQLException { return getDate( findColumn( column ) ); }
+    public Time getTime( String column ) throws SQLException { return getTime( findColumn( column ) ); }
+    public Timestamp getTimestamp( String column ) throws SQLException { return getTimestamp( findColumn( column ) ); }
+    public java.sql.Date getDate( String column, Calendar cal ) throws SQLException { return getDate( findColumn( column ), cal ); }
+    public Time getTime( String column, Calendar cal ) throws SQLException { return getTime( findColumn( column ), cal ); }
+    public Timestamp getTimestamp( String column, Calendar cal ) throws SQLException { return getTimestamp( findColumn( column ), cal ); }
+    public InputStream getAsciiStream( String column ) throws SQLException { return getAsciiStream( findColumn( column ) ); }
+    /** @deprecated */
+    @Deprecated
+    public InputStream getUnicodeStream( String column ) throws SQLException { return getUnicodeStream( findColumn( column ) ); }
+    public InputStream getBinaryStream( String column ) throws SQLException { return getBinaryStream( findColumn( column ) ); }
+    public Reader getCharacterStream( String column ) throws SQLException { return getCharacterStream( findColumn( column ) ); }
+    public Object getObject( String column, Map<String,Class<?>> map ) throws SQLException { return getObject( findColumn( column ), map ); }
+    public java.net.URL getURL( String column ) throws SQLException { return getURL( findColumn( column ) ); }
+    public Ref getRef( String column ) throws SQLException { return getRef( findColumn( column ) ); }
+    public Blob getBlob( String column ) throws SQLException { return getBlob( findColumn( column ) ); }
+    public Clob getClob( String column ) throws SQLException { return getClob( findColumn( column ) ); }
+    public Array getArray( String column ) throws SQLException { return getArray( findColumn( column ) ); }
+
+    // **** updates *************************************************************
+
+    private void readOnly() throws SQLException {
+        throw new SQLException( "Cached result sets are read only." );
+    }
+
+    public void updateNull( int column ) throws SQLException { readOnly(); }
+    public void updateBoolean( int column, boolean x ) throws SQLException { readOnly(); }
+    public void updateByte( int column, byte x ) throws SQLException { readOnly(); }
+    public void updateShort( int column, short x ) throws SQLException { readOnly(); }
+    public void updateInt( int column, int x ) throws SQLException { readOnly(); }
+    public void updateLong( int column, long x ) throws SQLException { readOnly(); }
+    public void updateFloat( int column, float x ) throws SQLException { readOnly(); }
+    public void updateDouble( int column, double x ) throws SQLException { readOnly(); }
+    public void updateBigDecimal( int column, BigDecimal x ) throws SQLException { readOnly(); }
+    public void updateString( int column, String x ) throws SQLException { readOnly(); }
+    public void updateBytes( int column, byte x[] ) throws SQLException { readOnly(); }
+    public void updateDate( int column, java.sql.Date x ) throws SQLException { readOnly(); }
+    public void updateTime( int column, Time x ) throws SQLException { readOnly(); }
+    public void updateTimestamp( int column, Timestamp x ) throws SQLException { readOnly(); }
+    public void updateAsciiStream( int column, InputStream x, int length ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( int column, InputStream x, int length ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( int column, Reader x, int length ) throws SQLException { readOnly(); }
+    public void updateObject( int column, Object x, int scale ) throws SQLException { readOnly(); }
+    public void updateObject( int column, Object x ) throws SQLException { readOnly(); }
+    public void updateRef( int column, Ref x ) throws SQLException { readOnly(); }
+    public void updateBlob( int column, Blob x ) throws SQLException { readOnly(); }
+    public void updateClob( int column, Clob x ) throws SQLException { readOnly(); }
+    public void updateArray( int column, Array x ) throws SQLException { readOnly(); }
+
+    public void updateNull( String column ) throws SQLException { readOnly(); }
+    public void updateBoolean( String column, boolean x ) throws SQLException { readOnly(); }
+    public void updateByte( String column, byte x ) throws SQLException { readOnly(); }
+    public void updateShort( String column, short x ) throws SQLException { readOnly(); }
+    public void updateInt( String column, int x ) throws SQLException { readOnly(); }
+    public void updateLong( String column, long x ) throws SQLException { readOnly(); }
+    public void updateFloat( String column, float x ) throws SQLException { readOnly(); }
+    public void updateDouble( String column, double x ) throws SQLException { readOnly(); }
+    public void updateBigDecimal( String column, BigDecimal x ) throws SQLException { readOnly(); }
+    public void updateString( String column, String x ) throws SQLException { readOnly(); }
+    public void updateBytes( String column, byte x[] ) throws SQLException { readOnly(); }
+    public void updateDate( String column, java.sql.Date x ) throws SQLException { readOnly(); }
+    public void updateTime( String column, Time x ) throws SQLException { readOnly(); }
+    public void updateTimestamp( String column, Timestamp x ) throws SQLException { readOnly(); }
+    public void updateAsciiStream( String column, InputStream x, int length ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( String column, InputStream x, int length ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( String column, Reader x, int length ) throws SQLException { readOnly(); }
+    public void updateObject( String column, Object x, int scale ) throws SQLException { readOnly(); }
+    public void updateObject( String column, Object x ) throws SQLException { readOnly(); }
+    public void updateRef( String column, Ref x ) throws SQLException { readOnly(); }
+    public void updateBlob( String column, Blob x ) throws SQLException { readOnly(); }
+    public void updateClob( String column, Clob x ) throws SQLException { readOnly(); }
+    public void updateArray( String column, Array x ) throws SQLException { readOnly(); }
+
+    public void insertRow() throws SQLException { readOnly(); }
+    public void updateRow() throws SQLException { readOnly(); }
+    public void deleteRow() throws SQLException { readOnly(); }
+    public void refreshRow() throws SQLException { }
+    public void cancelRowUpdates() throws SQLException { }
+    public void moveToInsertRow() throws SQLException { readOnly(); }
+    public void moveToCurrentRow() throws SQLException { }
+
+    // **** JDBC 4.x ************************************************************
+
+    public <T> T getObject( int column, Class<T> type ) throws SQLException {
+
+        Object value;
+
+        if ( type == String.class ) {
+            value = getString( column );
+        } else if ( type == Integer.class ) {
+            value = getInt( column );
+        } else if ( type == Long.class ) {
+            value = getLong( column );
+        } else if ( type == Short.class ) {
+            value = getShort( column );
+        } else if ( type == Byte.class ) {
+            value = getByte( column );
+        } else if ( type == Double.class ) {
+            value = getDouble( column );
+        } else if ( type == Float.class ) {
+            value = getFloat( column );
+        } else if ( type == Boolean.class ) {
+            value = getBoolean( column );
+        } else if ( type == BigDecimal.class ) {
+            value = getBigDecimal( column );
+        } else if ( type == byte[].class ) {
+            value = getBytes( column );
+        } else if ( type == java.sql.Date.class ) {
+            value = getDate( column );
+        } else if ( type == Time.class ) {
+            value = getTime( column );
+        } else if ( type == Timestamp.class ) {
+            value = getTimestamp( column );
+        } else if ( type == java.net.URL.class ) {
+            value = getURL( column );
+        } else if ( type == java.time.LocalDate.class ) {
+            java.sql.Date date = getDate( column );
+            value = date == null ? null : date.toLocalDate();
+        } else if ( type == java.time.LocalTime.class ) {
+            Time time = getTime( column );
+            value = time == null ? null : time.toLocalTime();
+        } else if ( type == java.time.LocalDateTime.class ) {
+            Timestamp timestamp = getTimestamp( column );
+            value = timestamp == null ? null : timestamp.toLocalDateTime();
+        } else {
+            value = getObject( column );
+        }
+
+        if ( wasNull )
+            return null;
+
+        if ( ! type.isInstance( value ) )
+            throw new SQLException( "Can't convert " + value.getClass().getName() + " to " + type.getName() );
+
+        return type.cast( value );
+
+    }
+
+    public <T> T getObject( String column, Class<T> type ) throws SQLException { return getObject( findColumn( column ), type ); }
+
+    public boolean isClosed() throws SQLException { return closed; }
+    public int getHoldability() throws SQLException { return HOLD_CURSORS_OVER_COMMIT; }
+
+    public String getNString( int column ) throws SQLException { return getString( column ); }
+    public Reader getNCharacterStream( int column ) throws SQLException { return getCharacterStream( column ); }
+    public RowId getRowId( int column ) throws SQLException { throw new SQLException( "RowIds aren't cached." ); }
+    public NClob getNClob( int column ) throws SQLException { throw new SQLException( "NClobs aren't cached." ); }
+    public SQLXML getSQLXML( int column ) throws SQLException { throw new SQLException( "SQLXML isn't cached." ); }
+
+    public String getNString( String column ) throws SQLException { return getNString( findColumn( column ) ); }
+    public Reader getNCharacterStream( String column ) throws SQLException { return getNCharacterStream( findColumn( column ) ); }
+    public RowId getRowId( String column ) throws SQLException { return getRowId( findColumn( column ) ); }
+    public NClob getNClob( String column ) throws SQLException { return getNClob( findColumn( column ) ); }
+    public SQLXML getSQLXML( String column ) throws SQLException { return getSQLXML( findColumn( column ) ); }
+
+    public void updateAsciiStream( int column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateAsciiStream( int column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( int column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( int column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateBlob( int column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateBlob( int column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( int column, Reader x ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( int column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateClob( int column, Reader x ) throws SQLException { readOnly(); }
+    public void updateClob( int column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNCharacterStream( int column, Reader x ) throws SQLException { readOnly(); }
+    public void updateNCharacterStream( int column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNClob( int column, NClob x ) throws SQLException { readOnly(); }
+    public void updateNClob( int column, Reader x ) throws SQLException { readOnly(); }
+    public void updateNClob( int column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNString( int column, String x ) throws SQLException { readOnly(); }
+    public void updateRowId( int column, RowId x ) throws SQLException { readOnly(); }
+    public void updateSQLXML( int column, SQLXML x ) throws SQLException { readOnly(); }
+
+    public void updateAsciiStream( String column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateAsciiStream( String column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( String column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateBinaryStream( String column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateBlob( String column, InputStream x ) throws SQLException { readOnly(); }
+    public void updateBlob( String column, InputStream x, long length ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( String column, Reader x ) throws SQLException { readOnly(); }
+    public void updateCharacterStream( String column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateClob( String column, Reader x ) throws SQLException { readOnly(); }
+    public void updateClob( String column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNCharacterStream( String column, Reader x ) throws SQLException { readOnly(); }
+    public void updateNCharacterStream( String column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNClob( String column, NClob x ) throws SQLException { readOnly(); }
+    public void updateNClob( String column, Reader x ) throws SQLException { readOnly(); }
+    public void updateNClob( String column, Reader x, long length ) throws SQLException { readOnly(); }
+    public void updateNString( String column, String x ) throws SQLException { readOnly(); }
+    public void updateRowId( String column, RowId x ) throws SQLException { readOnly(); }
+    public void updateSQLXML( String column, SQLXML x ) throws SQLException { readOnly(); }
+
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        throw new SQLException( "Not a wrapper for " + iface.getName() );
+
+    }
+
+    public boolean isWrapperFor( Class<?> iface ) throws SQLException {
+        return iface.isInstance( this );
+    }
+
+}
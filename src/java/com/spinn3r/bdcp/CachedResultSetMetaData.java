@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Column descriptions copied out of the driver's metadata.
+ */
+class CachedResultSetMetaData implements ResultSetMetaData {
+
+    final int columns;
+
+    final String[] labels;
+    final String[] names;
+    final String[] tables;
+    final String[] schemas;
+    final String[] catalogs;
+    final String[] typeNames;
+    final String[] classNames;
+
+    final int[] types;
+    final int[] precisions;
+    final int[] scales;
+    final int[] nullables;
+    final int[] displaySizes;
+
+    final boolean[] signed;
+    final boolean[] autoIncrement;
+    final boolean[] caseSensitive;
+
+    /**
+     * Lower cased label (and name) to index, first column wins.
+     */
+    final Map<String,Integer> index = new HashMap<String,Integer>();
+
+    CachedResultSetMetaData( ResultSetMetaData md ) throws SQLException {
+
+        columns = md.getColumnCount();
+
+        labels = new String[ columns ];
+        names = new String[ columns ];
+        tables = new String[ columns ];
+        schemas = new String[ columns ];
+        catalogs = new String[ columns ];
+        typeNames = new String[ columns ];
+        classNames = new String[ columns ];
+        types = new int[ columns ];
+        precisions = new int[ columns ];
+        scales = new int[ columns ];
+        nullables = new int[ columns ];
+        displaySizes = new int[ columns ];
+        signed = new boolean[ columns ];
+        autoIncrement = new boolean[ columns ];
+        caseSensitive = new boolean[ columns ];
+
+        for ( int i = 0; i < columns; ++i ) {
+
+            int column = i + 1;
+
+            labels[i] = md.getColumnLabel( column );
+            names[i] = md.getColumnName( column );
+            tables[i] = md.getTableName( column );
+            schemas[i] = md.getSchemaName( column );
+            catalogs[i] = md.getCatalogName( column );
+            typeNames[i] = md.getColumnTypeName( column );
+            classNames[i] = md.getColumnClassName( column );
+            types[i] = md.getColumnType( column );
+            precisions[i] = md.getPrecision( column );
+            scales[i] = md.getScale( column );
+            nullables[i] = md.isNullable( column );
+            displaySizes[i] = md.getColumnDisplaySize( column );
+            signed[i] = md.isSigned( column );
+            autoIncrement[i] = md.isAutoIncrement( column );
+            caseSensitive[i] = md.isCaseSensitive( column );
+
+        }
+
+        for ( int i = 0; i < columns; ++i ) {
+
+            if ( labels[i] != null && ! index.containsKey( labels[i].toLowerCase() ) )
+                index.put( labels[i].toLowerCase(), i + 1 );
+
+        }
+
+        for ( int i = 0; i < columns; ++i ) {
+
+            if ( names[i] != null && ! index.containsKey( names[i].toLowerCase() ) )
+                index.put( names[i].toLowerCase(), i + 1 );
+
+        }
+
+    }
+
+    public int getColumnCount() { return columns; }
+    public boolean isAutoIncrement( int column ) { return autoIncrement[ column - 1 ]; }
+    public boolean isCaseSensitive( int column ) { return caseSensitive[ column - 1 ]; }
+    public boolean isSearchable( int column ) { return true; }
+    public boolean isCurrency( int column ) { return false; }
+    public int isNullable( int column ) { return nullables[ column - 1 ]; }
+    public boolean isSigned( int column ) { return signed[ column - 1 ]; }
+    public int getColumnDisplaySize( int column ) { return displaySizes[ column - 1 ]; }
+    public String getColumnLabel( int column ) { return labels[ column - 1 ]; }
+    public String getColumnName( int column ) { return names[ column - 1 ]; }
+    public String getSchemaName( int column ) { return schemas[ column - 1 ]; }
+    public int getPrecision( int column ) { return precisions[ column - 1 ]; }
+    public int getScale( int column ) { return scales[ column - 1 ]; }
+    public String getTableName( int column ) { return tables[ column - 1 ]; }
+    public String getCatalogName( int column ) { return catalogs[ column - 1 ]; }
+    public int getColumnType( int column ) { return types[ column - 1 ]; }
+    public String getColumnTypeName( int column ) { return typeNames[ column - 1 ]; }
+    public boolean isReadOnly( int column ) { return true; }
+    public boolean isWritable( int column ) { return false; }
+    public boolean isDefinitelyWritable( int column ) { return false; }
+    public String getColumnClassName( int column ) { return classNames[ column - 1 ]; }
+
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        throw new SQLException( "Not a wrapper for " + iface.getName() );
+
+    }
+
+    public boolean isWrapperFor( Class<?> iface ) {
+        return iface.isInstance( this );
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+
+import java.sql.*;
+
+/**
+ * A block of rows stored column by column in primitive arrays, so large
+ * scans can be read without boxing every cell into a List<Object[]>.
+ * <p>
+ * Integer, boolean and date/time columns go into a long[] (dates as epoch
+ * millis), floating point columns into a double[], and everything else is
+ * dictionary encoded: each distinct string gets an int code and the column
+ * holds the codes.  DECIMAL, NUMERIC and unsigned BIGINT columns are read as
+ * strings so they stay exact.  Dictionaries start over with every chunk, so
+ * a code only means a string within its chunk and a high cardinality column
+ * can't grow them for the whole scan.
+ * <p>
+ * A chunk is allocated once for a result and refilled for every capacity
+ * rows.  Numeric columns then cost nothing per row.  Strings still allocate
+ * whatever the driver allocates for getString(), but each distinct value is
+ * only kept once per chunk.  Date columns allocate the driver's Timestamp.
+ * <p>
+ * Columns are numbered from 1 like JDBC, rows from 0.  A chunk and its
+ * arrays are only valid until the next fill().
+ */
+public class ColumnChunk {
+
+    public static final int LONG = 0;
+
+    public static final int DOUBLE = 1;
+
+    public static final int STRING = 2;
+
+    final int capacity;
+
+    final int columns;
+
+    final int[] types;
+
+    /**
+     * LONG columns read as Timestamps.
+     */
+    final boolean[] temporal;
+
+    final long[][] longs;
+
+    final double[][] doubles;
+
+    final int[][] codes;
+
+    final boolean[][] nulls;
+
+    final List<Map<String,Integer>> codesByValue = new ArrayList<Map<String,Integer>>();
+
+    final List<List<String>> dictionaries = new ArrayList<List<String>>();
+
+    int rows = 0;
+
+    public ColumnChunk( ResultSetMetaData md, int capacity ) throws SQLException {
+
+        this.capacity = capacity;
+        this.columns = md.getColumnCount();
+
+        types = new int[ columns ];
+        temporal = new boolean[ columns ];
+        longs = new long[ columns ][];
+        doubles = new double[ columns ][];
+        codes = new int[ columns ][];
+        nulls = new boolean[ columns ][];
+
+        for ( int i = 0; i < columns; ++i ) {
+
+            int type = md.getColumnType( i + 1 );
+
+            types[i] = toType( type, md.isSigned( i + 1 ) );
+            temporal[i] = type == Types.DATE || type == Types.TIME || type == Types.TIMESTAMP;
+            nulls[i] = new boolean[ capacity ];
+
+            switch ( types[i] ) {
+
+                case LONG:
+                    longs[i] = new long[ capacity ];
+                    break;
+
+                case DOUBLE:
+                    doubles[i] = new double[ capacity ];
+                    break;
+
+                default:
+                    codes[i] = new int[ capacity ];
+
+            }
+
+            codesByValue.add( types[i] == STRING ? new HashMap<String,Integer>() : null );
+            dictionaries.add( types[i] == STRING ? new ArrayList<String>() : null );
+
+        }
+
+    }
+
+    /**
+     * Which buffer a JDBC type goes in.  Anything a long or double can't hold
+     * exactly is a STRING.
+     */
+    static int toType( int sqlType, boolean signed ) {
+
+        switch ( sqlType ) {
+
+            case Types.BIGINT:
+                return signed ? LONG : STRING;
+
+            case Types.BIT:
+            case Types.BOOLEAN:
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIMESTAMP:
+                return LONG;
+
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+
+            default:
+                return STRING;
+
+        }
+
+    }
+
+    /**
+     * Read up to capacity rows from the result, replacing whatever the chunk
+     * held.  Returns the number of rows read, 0 at the end of the result.
+     */
+    public int fill( ResultSet rs ) throws SQLException {
+
+        rows = 0;
+
+        for ( int i = 0; i < columns; ++i ) {
+
+            if ( types[i] == STRING ) {
+                codesByValue.get( i ).clear();
+                dictionaries.get( i ).clear();
+            }
+
+        }
+
+        while ( rows < capacity && rs.next() ) {
+
+            for ( int i = 0; i < columns; ++i ) {
+                read( rs, i );
+            }
+
+            ++rows;
+
+        }
+
+        return rows;
+
+    }
+
+    private void read( ResultSet rs, int i ) throws SQLException {
+
+        int column = i + 1;
+
+        switch ( types[i] ) {
+
+            case LONG:
+
+                long value;
+
+                if ( temporal[i] ) {
+
+                    java.util.Date date = rs.getTimestamp( column );
+                    value = date != null ? date.getTime() : 0;
+
+                } else {
+                    value = rs.getLong( column );
+                }
+
+                longs[i][ rows ] = value;
+                break;
+
+            case DOUBLE:
+                doubles[i][ rows ] = rs.getDouble( column );
+                break;
+
+            default:
+                codes[i][ rows ] = encode( i, rs.getString( column ) );
+
+        }
+
+        nulls[i][ rows ] = rs.wasNull();
+
+    }
+
+    private int encode( int i, String value ) {
+
+        if ( value == null )
+            return -1;
+
+        Map<String,Integer> index = codesByValue.get( i );
+
+        Integer code = index.get( value );
+
+        if ( code == null ) {
+
+            List<String> dictionary = dictionaries.get( i );
+
+            code = dictionary.size();
+            dictionary.add( value );
+            index.put( value, code );
+
+        }
+
+        return code;
+
+    }
+
+    /**
+     * Rows in the chunk.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    /**
+     * LONG, DOUBLE or STRING.
+     */
+    public int getType( int column ) {
+        return types[ column - 1 ];
+    }
+
+    /**
+     * The values of a LONG column.  Only the first getRows() are valid.
+     */
+    public long[] getLongs( int column ) {
+        return longs[ column - 1 ];
+    }
+
+    public double[] getDoubles( int column ) {
+        return doubles[ column - 1 ];
+    }
+
+    /**
+     * The dictionary codes of a STRING column, -1 for null.
+     */
+    public int[] getCodes( int column ) {
+        return codes[ column - 1 ];
+    }
+
+    /**
+     * Strings of a STRING column by code, for this chunk only.
+     */
+    public List<String> getDictionary( int column ) {
+        return dictionaries.get( column - 1 );
+    }
+
+    public boolean isNull( int column, int row ) {
+        return nulls[ column - 1 ][ row ];
+    }
+
+    public String getString( int column, int row ) {
+
+        int code = codes[ column - 1 ][ row ];
+
+        return code < 0 ? null : dictionaries.get( column - 1 ).get( code );
+
+    }
+
+    /**
+     * Read the whole result a chunk at a time, handing each one to the
+     * handler, and close it.  Returns the number of rows read.
+     */
+    public static long read( ResultSet rs, int capacity, ChunkHandler handler ) throws SQLException {
+
+        long total = 0;
+
+        try {
+
+            ColumnChunk chunk = new ColumnChunk( rs.getMetaData(), capacity );
+
+            while ( chunk.fill( rs ) > 0 ) {
+
+                handler.handle( chunk );
+                total += chunk.getRows();
+
+            }
+
+        } finally {
+            rs.close();
+        }
+
+        return total;
+
+    }
+
+}
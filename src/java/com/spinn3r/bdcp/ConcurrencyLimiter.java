@@ -0,0 +1,221 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Caps how many connections may be borrowed at once and moves the cap with
+ * statement latency, so that we back off when the database slows down instead
+ * of piling more work onto it.
+ * <p>
+ * Latency is averaged over a window of statements and compared with a long
+ * term baseline.  While statements are as fast as the baseline (within
+ * tolerance) the limit grows by a share of sqrt(limit) per window.  Once they
+ * get slower the limit shrinks in proportion to how much slower.  Each new
+ * limit is smoothed against the current one so a single slow window doesn't
+ * halve the pool.  A statement timing out cuts the limit by backoff right
+ * away.  The limit only grows while borrowers actually use at least half of
+ * it.
+ * <p>
+ * The baseline follows latency slowly, so a database which stays slow is
+ * eventually treated as the new normal and the limit recovers.
+ * <p>
+ * Borrows over the limit fail immediately.  Set it on a
+ * BasicDatabaseConnectionPool3 with:
+ * <pre>
+ * pool.limiter = new ConcurrencyLimiter( 20 );
+ * </pre>
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger log = Logger.getLogger();
+
+    public int minLimit = 1;
+
+    public int maxLimit = 200;
+
+    /**
+     * Statements per limit update.
+     */
+    public int window = 100;
+
+    /**
+     * How much slower than the baseline statements may get before we cut the
+     * limit.
+     */
+    public double tolerance = 1.5;
+
+    /**
+     * Weight of each new limit against the current one.
+     */
+    public double smoothing = 0.2;
+
+    /**
+     * Factor applied to the limit when a statement times out.
+     */
+    public double backoff = 0.9;
+
+    volatile double limit;
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Most permits held at once during the current window.
+     */
+    final AtomicInteger peak = new AtomicInteger();
+
+    final AtomicLong samples = new AtomicLong();
+    final AtomicLong sampleTime = new AtomicLong();
+
+    final AtomicBoolean dropped = new AtomicBoolean();
+
+    final AtomicBoolean updating = new AtomicBoolean();
+
+    /**
+     * Long term statement latency in nanos.
+     */
+    final MovingAverage baseline = new MovingAverage( 0.01 );
+
+    public ConcurrencyLimiter( int initialLimit ) {
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Take a permit if we're under the limit.  Every successful call must be
+     * followed by release().
+     */
+    public boolean tryAcquire() {
+
+        while ( true ) {
+
+            int current = inFlight.get();
+
+            if ( current >= getLimit() )
+                return false;
+
+            if ( inFlight.compareAndSet( current, current + 1 ) ) {
+                peak.accumulateAndGet( current + 1, Math::max );
+                return true;
+            }
+
+        }
+
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Record how long a statement took and whether it timed out.  Every
+     * window samples one caller updates the limit.
+     */
+    public void onSample( long duration, boolean timedOut ) {
+
+        if ( timedOut )
+            dropped.set( true );
+
+        sampleTime.addAndGet( duration );
+
+        if ( samples.incrementAndGet() < window )
+            return;
+
+        //somebody else is already updating; our sample counts toward the
+        //next window.
+        if ( ! updating.compareAndSet( false, true ) )
+            return;
+
+        try {
+
+            long count = samples.getAndSet( 0 );
+            long time = sampleTime.getAndSet( 0 );
+
+            if ( count < window )
+                return;
+
+            update( time / (double)count, dropped.getAndSet( false ), peak.getAndSet( inFlight.get() ) );
+
+        } finally {
+            updating.set( false );
+        }
+
+    }
+
+    void update( double latency, boolean timedOut, int used ) {
+
+        baseline.update( latency );
+
+        double current = limit;
+        double next;
+
+        if ( timedOut ) {
+
+            next = current * backoff;
+
+        } else {
+
+            double gradient = Math.max( 0.5, Math.min( 1.0, tolerance * baseline.get() / latency ) );
+
+            next = current * gradient + Math.sqrt( current );
+
+            //borrowers didn't use what they had so latency tells us nothing
+            //about what more connections would do.
+            if ( next > current && used < current / 2 )
+                next = current;
+
+            next = current * ( 1.0 - smoothing ) + next * smoothing;
+
+        }
+
+        next = Math.max( minLimit, Math.min( maxLimit, next ) );
+
+        if ( (int)next != (int)current ) {
+
+            log.debug( "Concurrency limit %d -> %d (latency: %.2fms baseline: %.2fms timeout: %s)",
+                       (int)current, (int)next, latency / 1000000.0, baseline.get() / 1000000.0, timedOut );
+
+        }
+
+        limit = next;
+
+    }
+
+    public int getLimit() {
+        return (int)limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public String toString() {
+
+        return String.format( "limit: %d in flight: %d baseline: %.2fms",
+                              getLimit(), getInFlight(), baseline.get() / 1000000.0 );
+
+    }
+
+}
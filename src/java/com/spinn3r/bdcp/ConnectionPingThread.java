@@ -58,31 +58,7 @@ public class ConnectionPingThread extends Thread {
                 Thread.sleep( INTERVAL );
             } catch ( Exception e ) { }
 
-            synchronized( pool.idleConnections ) {
-
-                Iterator it = pool.idleConnections.iterator();
-
-                while( it.hasNext() ) {
-
-                    //run ping on the command...
-
-                    try { 
-                        
-                        Connection conn = (Connection)it.next();
-                        
-                        Statement stmt = conn.createStatement();
-                        ResultSet results = stmt.executeQuery( PING_COMMAND );
-                        
-                        results.close();
-                        stmt.close();
-                        
-                    } catch ( Exception e ) {
-                        log.error( "Unable to ping: ", e );
-                    }
-
-                }
-
-            }
+            pool.pingIdleConnections();
 
         }
 
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+/**
+ * Priority classes for borrowing from a {@link BasicDatabaseConnectionPool3},
+ * highest first.  Returned connections go to waiters of the highest priority
+ * class first, and each class can have connections reserved for it with
+ * {@link BasicDatabaseConnectionPool3#setReserved}.
+ * <p>
+ * Threads can be tagged with a class so that plain getConnection() calls
+ * (including the ones made by withConnection()) borrow with it.
+ */
+public enum ConnectionPriority {
+
+    /**
+     * User facing requests.
+     */
+    INTERACTIVE,
+
+    /**
+     * The default for untagged threads.
+     */
+    NORMAL,
+
+    /**
+     * Batch jobs which can wait.
+     */
+    BATCH;
+
+    private static final ThreadLocal<ConnectionPriority> current = new ThreadLocal<ConnectionPriority>();
+
+    /**
+     * Borrow with the given priority from this thread until cleared.
+     */
+    public static void setCurrent( ConnectionPriority priority ) {
+        current.set( priority );
+    }
+
+    public static ConnectionPriority getCurrent() {
+
+        ConnectionPriority priority = current.get();
+
+        if ( priority == null )
+            return NORMAL;
+
+        return priority;
+
+    }
+
+    public static void clearCurrent() {
+        current.remove();
+    }
+
+}
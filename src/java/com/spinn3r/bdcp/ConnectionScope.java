@@ -0,0 +1,157 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Binds one connection to the current thread so that every getConnection()
+ * made while the scope is open hands back the same connection, and so the
+ * same transaction.  close() on it does nothing until the outermost scope is
+ * closed, which returns it to the pool once.
+ * <p>
+ * Scopes nest: openScope() on a thread which already has one just returns it
+ * again, and only the matching last close() ends it.
+ * <pre>
+ * try ( ConnectionScope scope = pool.openScope() ) {
+ *     dao1.load();   //borrows
+ *     dao2.update(); //same connection
+ * }                  //returned here
+ * </pre>
+ * The connection is only borrowed by the first getConnection() in the scope,
+ * lazily if lazyConnections is on.  A transaction still open when the scope
+ * ends is rolled back.
+ */
+public class ConnectionScope implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger();
+
+    final BasicDatabaseConnectionPool pool;
+
+    final Thread thread = Thread.currentThread();
+
+    /**
+     * Scopes opened and not yet closed on this thread.
+     */
+    int depth = 0;
+
+    /**
+     * Borrowed by the first getConnection() in the scope.
+     */
+    BasicDatabaseConnection conn = null;
+
+    /**
+     * Times getConnection() was answered with conn instead of borrowing.
+     */
+    long reused = 0;
+
+    /**
+     * Set while a withTransaction() in this scope owns the transaction on
+     * conn, so nested ones join it instead of committing.
+     */
+    boolean transaction = false;
+
+    ConnectionScope( BasicDatabaseConnectionPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * The scope's connection, borrowing it with the given call the first
+     * time.
+     */
+    Connection getConnection( StatementCall<Connection> borrow ) throws SQLException {
+
+        if ( conn != null ) {
+            ++reused;
+            return conn;
+        }
+
+        conn = (BasicDatabaseConnection)pool.open( borrow );
+        conn.scope = this;
+
+        return conn;
+
+    }
+
+    /**
+     * The connection borrowed in this scope, null if nothing has asked for
+     * one yet.
+     */
+    public Connection getConnection() {
+        return conn;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getReused() {
+        return reused;
+    }
+
+    public void close() throws SQLException {
+
+        if ( depth == 0 )
+            return;
+
+        if ( Thread.currentThread() != thread )
+            throw new SQLException( "Scope closed on another thread than it was opened on." );
+
+        if ( --depth > 0 )
+            return;
+
+        pool.scopes.remove();
+
+        BasicDatabaseConnection closing = conn;
+
+        conn = null;
+
+        if ( closing == null )
+            return;
+
+        closing.scope = null;
+
+        try {
+
+            //don't let an unfinished transaction leak into the next borrower.
+            if ( closing.isBound() && ! closing.isClosed() && ! closing.getAutoCommit() ) {
+
+                log.warn( "Scope closed in a transaction.  Rolling back." );
+
+                try {
+                    closing.rollback();
+                } finally {
+                    closing.setAutoCommit( true );
+                }
+
+            }
+
+        } finally {
+            closing.close();
+        }
+
+    }
+
+}
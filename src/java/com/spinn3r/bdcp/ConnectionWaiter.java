@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+import java.sql.*;
+
+/**
+ * A caller waiting for a connection.  The returning thread claims the waiter
+ * with offer() while holding the pool lock and then wakes it with signal()
+ * after releasing the lock.
+ */
+abstract class ConnectionWaiter {
+
+    static final int WAITING   = 0;
+    static final int READY     = 1;
+    static final int CANCELLED = 2;
+
+    final AtomicInteger state = new AtomicInteger( WAITING );
+
+    final ConnectionPriority priority;
+
+    /**
+     * The partition borrowed from, when the pool is partitioned.
+     */
+    final String tenant;
+
+    /**
+     * How long (in millis) the caller is willing to wait.  Non positive
+     * waits forever.
+     */
+    final long timeout;
+
+    /**
+     * The limiter we took a permit from, if any.
+     */
+    ConcurrencyLimiter limiter = null;
+
+    /**
+     * The connection handed to us.  Null when READY means a slot was reserved
+     * and we should open a new connection ourselves.
+     */
+    volatile Connection conn = null;
+
+    ConnectionWaiter( ConnectionPriority priority, String tenant, long timeout ) {
+        this.priority = priority;
+        this.tenant = tenant;
+        this.timeout = timeout;
+    }
+
+    boolean offer( Connection conn ) {
+
+        //written before the CAS so that whoever sees READY sees the connection.
+        this.conn = conn;
+
+        return state.compareAndSet( WAITING, READY );
+
+    }
+
+    boolean cancel() {
+        return state.compareAndSet( WAITING, CANCELLED );
+    }
+
+    abstract void signal( BasicDatabaseConnectionPool3 pool );
+
+}
@@ -41,6 +41,10 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLWarning;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.NClob;
+import java.sql.RowId;
+import java.sql.SQLType;
+import java.sql.SQLXML;
 
 import java.util.List;
 import java.util.Iterator;
@@ -68,6 +72,29 @@ public class DelegatingCallableStatement implements CallableStatement {
     /** The connection that created me. **/
     protected BasicDatabaseConnection _conn = null;
 
+    /** The SQL I was prepared with, if known. **/
+    protected String _sql = null;
+
+    protected boolean _closed = false;
+
+    /**
+     * Limits for results of this statement.  Negative uses the pool's,
+     * 0 is unlimited.
+     *
+     * @see DelegatingResultSet
+     */
+    protected int _maxResultRows = -1;
+
+    protected long _maxResultBytes = -1;
+
+    /**
+     * What the caller gave setMaxRows().  The driver gets our row limit plus
+     * one when that's lower.
+     */
+    protected int _maxRows = 0;
+
+    private int _driverMaxRows = 0;
+
     /**
      * Create a wrapper for the Statement which traces this
      * Statement to the Connection which created it and the
@@ -79,6 +106,14 @@ public class DelegatingCallableStatement implements CallableStatement {
                                         CallableStatement s ) {
         _conn = c;
         _stmt = s;
+        _conn.statementOpened();
+    }
+
+    public DelegatingCallableStatement( BasicDatabaseConnection c,
+                                        String sql,
+                                        CallableStatement s ) {
+        this( c, s );
+        _sql = sql;
     }
 
     /**
@@ -87,7 +122,16 @@ public class DelegatingCallableStatement implements CallableStatement {
      */
     public void close() throws SQLException {
 
-        _stmt.close();
+        if ( _closed )
+            return;
+
+        _closed = true;
+
+        try {
+            _stmt.close();
+        } finally {
+            _conn.statementClosed();
+        }
 
     }
 
@@ -96,15 +140,45 @@ public class DelegatingCallableStatement implements CallableStatement {
     }
 
     public ResultSet executeQuery() throws SQLException {
-        return _stmt.executeQuery();
+        limitRows();
+        return _conn.guard( this, _sql, _maxResultRows, _maxResultBytes,
+                            _conn.execute( _sql, () -> _stmt.executeQuery() ) );
+    }
+
+    public void setMaxResultRows( int maxResultRows ) {
+        _maxResultRows = maxResultRows;
     }
 
+    public void setMaxResultBytes( long maxResultBytes ) {
+        _maxResultBytes = maxResultBytes;
+    }
+
+    /**
+     * Have the driver stop one row past our limit, so it doesn't send rows
+     * we'd only refuse, while the DelegatingResultSet still sees the limit
+     * was passed.  Called before each execution; the driver is only told
+     * when the value changes.
+     */
+    void limitRows() throws SQLException {
+
+        int max = _conn.getDriverMaxRows( _maxRows, _maxResultRows );
+
+        if ( max != _driverMaxRows ) {
+            _stmt.setMaxRows( max );
+            _driverMaxRows = max;
+        }
+
+    }
+
+
     public ResultSet getResultSet() throws SQLException {
-        return _stmt.getResultSet();
+        return _conn.guard( this, _sql, _maxResultRows, _maxResultBytes, _stmt.getResultSet() );
     }
 
     public ResultSet executeQuery(String sql) throws SQLException {
-        return _stmt.executeQuery(sql);
+        limitRows();
+        return _conn.guard( this, sql, _maxResultRows, _maxResultBytes,
+                            _conn.execute( sql, () -> _stmt.executeQuery(sql) ) );
     }
 
     public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException { _stmt.registerOutParameter( parameterIndex,  sqlType);  }
@@ -119,6 +193,7 @@ public class DelegatingCallableStatement implements CallableStatement {
     public float getFloat(int parameterIndex) throws SQLException { return _stmt.getFloat( parameterIndex);  }
     public double getDouble(int parameterIndex) throws SQLException { return _stmt.getDouble( parameterIndex);  }
     /** @deprecated */
+    @Deprecated
     public BigDecimal getBigDecimal(int parameterIndex, int scale) throws SQLException { return _stmt.getBigDecimal( parameterIndex,  scale);  }
     public byte[] getBytes(int parameterIndex) throws SQLException { return _stmt.getBytes( parameterIndex);  }
     public Date getDate(int parameterIndex) throws SQLException { return _stmt.getDate( parameterIndex);  }
@@ -126,7 +201,7 @@ public class DelegatingCallableStatement implements CallableStatement {
     public Timestamp getTimestamp(int parameterIndex) throws SQLException { return _stmt.getTimestamp( parameterIndex);  }
     public Object getObject(int parameterIndex) throws SQLException { return _stmt.getObject( parameterIndex);  }
     public BigDecimal getBigDecimal(int parameterIndex) throws SQLException { return _stmt.getBigDecimal( parameterIndex);  }
-    public Object getObject(int i, Map map) throws SQLException { return _stmt.getObject( i, map);  }
+    public Object getObject(int i, Map<String,Class<?>> map) throws SQLException { return _stmt.getObject( i, map);  }
     public Ref getRef(int i) throws SQLException { return _stmt.getRef( i);  }
     public Blob getBlob(int i) throws SQLException { return _stmt.getBlob( i);  }
     public Clob getClob(int i) throws SQLException { return _stmt.getClob( i);  }
@@ -135,7 +210,7 @@ public class DelegatingCallableStatement implements CallableStatement {
     public Time getTime(int parameterIndex, Calendar cal) throws SQLException { return _stmt.getTime( parameterIndex,  cal);  }
     public Timestamp getTimestamp(int parameterIndex, Calendar cal) throws SQLException { return _stmt.getTimestamp( parameterIndex,  cal);  }
     public void registerOutParameter(int paramIndex, int sqlType, String typeName) throws SQLException { _stmt.registerOutParameter( paramIndex,  sqlType,  typeName);  }
-    public int executeUpdate() throws SQLException { return _stmt.executeUpdate();  }
+    public int executeUpdate() throws SQLException { return _conn.execute( _sql, () -> _stmt.executeUpdate() );  }
     public void setNull(int parameterIndex, int sqlType) throws SQLException { _stmt.setNull( parameterIndex,  sqlType);  }
     public void setBoolean(int parameterIndex, boolean x) throws SQLException { _stmt.setBoolean( parameterIndex,  x);  }
     public void setByte(int parameterIndex, byte x) throws SQLException { _stmt.setByte( parameterIndex,  x);  }
@@ -152,13 +227,14 @@ public class DelegatingCallableStatement implements CallableStatement {
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException { _stmt.setTimestamp( parameterIndex,  x);  }
     public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException { _stmt.setAsciiStream( parameterIndex,  x,  length);  }
     /** @deprecated */
+    @Deprecated
     public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException { _stmt.setUnicodeStream( parameterIndex,  x,  length);  }
     public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException { _stmt.setBinaryStream( parameterIndex,  x,  length);  }
     public void clearParameters() throws SQLException { _stmt.clearParameters();  }
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException { _stmt.setObject( parameterIndex,  x,  targetSqlType,  scale);  }
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException { _stmt.setObject( parameterIndex,  x,  targetSqlType);  }
     public void setObject(int parameterIndex, Object x) throws SQLException { _stmt.setObject( parameterIndex,  x);  }
-    public boolean execute() throws SQLException { return _stmt.execute();  }
+    public boolean execute() throws SQLException { limitRows(); return _conn.execute( _sql, () -> _stmt.execute() );  }
     public void addBatch() throws SQLException { _stmt.addBatch();  }
     public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException { _stmt.setCharacterStream( parameterIndex,  reader,  length);  }
     public void setRef(int i, Ref x) throws SQLException { _stmt.setRef( i,  x);  }
@@ -171,11 +247,11 @@ public class DelegatingCallableStatement implements CallableStatement {
     public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException { _stmt.setTimestamp( parameterIndex,  x,  cal);  }
     public void setNull(int paramIndex, int sqlType, String typeName) throws SQLException { _stmt.setNull( paramIndex,  sqlType,  typeName);  }
 
-    public int executeUpdate(String sql) throws SQLException { return _stmt.executeUpdate( sql);  }
+    public int executeUpdate(String sql) throws SQLException { return _conn.execute( sql, () -> _stmt.executeUpdate( sql) );  }
     public int getMaxFieldSize() throws SQLException { return _stmt.getMaxFieldSize();  }
     public void setMaxFieldSize(int max) throws SQLException { _stmt.setMaxFieldSize( max);  }
-    public int getMaxRows() throws SQLException { return _stmt.getMaxRows();  }
-    public void setMaxRows(int max) throws SQLException { _stmt.setMaxRows( max);  }
+    public int getMaxRows() throws SQLException { return _maxRows;  }
+    public void setMaxRows(int max) throws SQLException { _maxRows = max;  }
     public void setEscapeProcessing(boolean enable) throws SQLException { _stmt.setEscapeProcessing( enable);  }
     public int getQueryTimeout() throws SQLException { return _stmt.getQueryTimeout();  }
     public void setQueryTimeout(int seconds) throws SQLException { _stmt.setQueryTimeout( seconds);  }
@@ -183,7 +259,7 @@ public class DelegatingCallableStatement implements CallableStatement {
     public SQLWarning getWarnings() throws SQLException { return _stmt.getWarnings();  }
     public void clearWarnings() throws SQLException { _stmt.clearWarnings();  }
     public void setCursorName(String name) throws SQLException { _stmt.setCursorName( name);  }
-    public boolean execute(String sql) throws SQLException { return _stmt.execute( sql);  }
+    public boolean execute(String sql) throws SQLException { limitRows(); return _conn.execute( sql, () -> _stmt.execute( sql) );  }
 
 
     public int getUpdateCount() throws SQLException { return _stmt.getUpdateCount();  }
@@ -196,7 +272,7 @@ public class DelegatingCallableStatement implements CallableStatement {
     public int getResultSetType() throws SQLException { return _stmt.getResultSetType();  }
     public void addBatch(String sql) throws SQLException { _stmt.addBatch( sql);  }
     public void clearBatch() throws SQLException { _stmt.clearBatch();  }
-    public int[] executeBatch() throws SQLException { return _stmt.executeBatch();  }
+    public int[] executeBatch() throws SQLException { return _conn.execute( _sql, () -> _stmt.executeBatch() );  }
 
     // ------------------- JDBC 3.0 -----------------------------------------
     // Will be uncommented by the build process on a JDBC 3.0 system
@@ -211,32 +287,35 @@ public class DelegatingCallableStatement implements CallableStatement {
 
     public int executeUpdate(String sql, int autoGeneratedKeys)
         throws SQLException {
-        return _stmt.executeUpdate(sql, autoGeneratedKeys);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, autoGeneratedKeys) );
     }
 
     public int executeUpdate(String sql, int columnIndexes[])
         throws SQLException {
-        return _stmt.executeUpdate(sql, columnIndexes);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnIndexes) );
     }
 
     public int executeUpdate(String sql, String columnNames[])
         throws SQLException {
-        return _stmt.executeUpdate(sql, columnNames);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnNames) );
     }
 
     public boolean execute(String sql, int autoGeneratedKeys)
         throws SQLException {
-        return _stmt.execute(sql, autoGeneratedKeys);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, autoGeneratedKeys) );
     }
 
     public boolean execute(String sql, int columnIndexes[])
         throws SQLException {
-        return _stmt.execute(sql, columnIndexes);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnIndexes) );
     }
 
     public boolean execute(String sql, String columnNames[])
         throws SQLException {
-        return _stmt.execute(sql, columnNames);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnNames) );
     }
 
     public int getResultSetHoldability() throws SQLException {
@@ -455,7 +534,7 @@ public class DelegatingCallableStatement implements CallableStatement {
         return _stmt.getBigDecimal(parameterName);
     }
 
-    public Object getObject(String parameterName, Map map)
+    public Object getObject(String parameterName, Map<String,Class<?>> map)
         throws SQLException {
         return _stmt.getObject(parameterName, map);
     }
@@ -495,4 +574,111 @@ public class DelegatingCallableStatement implements CallableStatement {
         return _stmt.getURL(parameterName);
     }
 
+    // ------------------- JDBC 4.0 -----------------------------------------
+
+    public <T> T getObject(String parameterName, Class<T> type) throws SQLException { return _stmt.getObject(parameterName, type); }
+    public <T> T getObject(int parameterIndex, Class<T> type) throws SQLException { return _stmt.getObject(parameterIndex, type); }
+    public void setAsciiStream(String parameterName, InputStream x) throws SQLException { _stmt.setAsciiStream(parameterName, x); }
+    public void setAsciiStream(String parameterName, InputStream x, long length) throws SQLException { _stmt.setAsciiStream(parameterName, x, length); }
+    public void setBinaryStream(String parameterName, InputStream x, long length) throws SQLException { _stmt.setBinaryStream(parameterName, x, length); }
+    public void setBinaryStream(String parameterName, InputStream x) throws SQLException { _stmt.setBinaryStream(parameterName, x); }
+    public void setCharacterStream(String parameterName, Reader reader) throws SQLException { _stmt.setCharacterStream(parameterName, reader); }
+    public void setCharacterStream(String parameterName, Reader reader, long length) throws SQLException { _stmt.setCharacterStream(parameterName, reader, length); }
+    public void setBlob(String parameterName, Blob x) throws SQLException { _stmt.setBlob(parameterName, x); }
+    public void setBlob(String parameterName, InputStream x, long length) throws SQLException { _stmt.setBlob(parameterName, x, length); }
+    public void setBlob(String parameterName, InputStream x) throws SQLException { _stmt.setBlob(parameterName, x); }
+    public void setClob(String parameterName, Reader reader, long length) throws SQLException { _stmt.setClob(parameterName, reader, length); }
+    public void setClob(String parameterName, Clob x) throws SQLException { _stmt.setClob(parameterName, x); }
+    public void setClob(String parameterName, Reader reader) throws SQLException { _stmt.setClob(parameterName, reader); }
+    public void setRowId(String parameterName, RowId x) throws SQLException { _stmt.setRowId(parameterName, x); }
+    public void setNString(String parameterName, String x) throws SQLException { _stmt.setNString(parameterName, x); }
+    public void setNCharacterStream(String parameterName, Reader reader) throws SQLException { _stmt.setNCharacterStream(parameterName, reader); }
+    public void setNCharacterStream(String parameterName, Reader reader, long length) throws SQLException { _stmt.setNCharacterStream(parameterName, reader, length); }
+    public void setNClob(String parameterName, Reader reader) throws SQLException { _stmt.setNClob(parameterName, reader); }
+    public void setNClob(String parameterName, NClob x) throws SQLException { _stmt.setNClob(parameterName, x); }
+    public void setNClob(String parameterName, Reader reader, long length) throws SQLException { _stmt.setNClob(parameterName, reader, length); }
+    public void setSQLXML(String parameterName, SQLXML x) throws SQLException { _stmt.setSQLXML(parameterName, x); }
+    public RowId getRowId(int parameterIndex) throws SQLException { return _stmt.getRowId(parameterIndex); }
+    public RowId getRowId(String parameterName) throws SQLException { return _stmt.getRowId(parameterName); }
+    public NClob getNClob(String parameterName) throws SQLException { return _stmt.getNClob(parameterName); }
+    public NClob getNClob(int parameterIndex) throws SQLException { return _stmt.getNClob(parameterIndex); }
+    public SQLXML getSQLXML(String parameterName) throws SQLException { return _stmt.getSQLXML(parameterName); }
+    public SQLXML getSQLXML(int parameterIndex) throws SQLException { return _stmt.getSQLXML(parameterIndex); }
+    public String getNString(String parameterName) throws SQLException { return _stmt.getNString(parameterName); }
+    public String getNString(int parameterIndex) throws SQLException { return _stmt.getNString(parameterIndex); }
+    public Reader getNCharacterStream(String parameterName) throws SQLException { return _stmt.getNCharacterStream(parameterName); }
+    public Reader getNCharacterStream(int parameterIndex) throws SQLException { return _stmt.getNCharacterStream(parameterIndex); }
+    public Reader getCharacterStream(int parameterIndex) throws SQLException { return _stmt.getCharacterStream(parameterIndex); }
+    public Reader getCharacterStream(String parameterName) throws SQLException { return _stmt.getCharacterStream(parameterName); }
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException { _stmt.setAsciiStream(parameterIndex, x, length); }
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException { _stmt.setAsciiStream(parameterIndex, x); }
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException { _stmt.setBinaryStream(parameterIndex, x); }
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException { _stmt.setBinaryStream(parameterIndex, x, length); }
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException { _stmt.setCharacterStream(parameterIndex, reader, length); }
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException { _stmt.setCharacterStream(parameterIndex, reader); }
+    public void setBlob(int parameterIndex, InputStream x) throws SQLException { _stmt.setBlob(parameterIndex, x); }
+    public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException { _stmt.setBlob(parameterIndex, x, length); }
+    public void setClob(int parameterIndex, Reader reader) throws SQLException { _stmt.setClob(parameterIndex, reader); }
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException { _stmt.setClob(parameterIndex, reader, length); }
+    public void setRowId(int parameterIndex, RowId x) throws SQLException { _stmt.setRowId(parameterIndex, x); }
+    public void setNString(int parameterIndex, String x) throws SQLException { _stmt.setNString(parameterIndex, x); }
+    public void setNCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException { _stmt.setNCharacterStream(parameterIndex, reader, length); }
+    public void setNCharacterStream(int parameterIndex, Reader reader) throws SQLException { _stmt.setNCharacterStream(parameterIndex, reader); }
+    public void setNClob(int parameterIndex, NClob x) throws SQLException { _stmt.setNClob(parameterIndex, x); }
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException { _stmt.setNClob(parameterIndex, reader); }
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException { _stmt.setNClob(parameterIndex, reader, length); }
+    public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException { _stmt.setSQLXML(parameterIndex, x); }
+
+    public boolean isClosed() throws SQLException {
+        return _closed;
+    }
+
+    public void setPoolable(boolean poolable) throws SQLException {
+        _stmt.setPoolable(poolable);
+    }
+
+    public boolean isPoolable() throws SQLException {
+        return _stmt.isPoolable();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        return _stmt.unwrap( iface );
+
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance( this ) || _stmt.isWrapperFor( iface );
+    }
+
+    // ------------------- JDBC 4.1 -----------------------------------------
+
+    public void closeOnCompletion() throws SQLException { _stmt.closeOnCompletion(); }
+    public boolean isCloseOnCompletion() throws SQLException { return _stmt.isCloseOnCompletion(); }
+
+    // ------------------- JDBC 4.2 -----------------------------------------
+
+    public void registerOutParameter(int parameterIndex, SQLType sqlType) throws SQLException { _stmt.registerOutParameter(parameterIndex, sqlType); }
+    public void registerOutParameter(int parameterIndex, SQLType sqlType, int scale) throws SQLException { _stmt.registerOutParameter(parameterIndex, sqlType, scale); }
+    public void registerOutParameter(int parameterIndex, SQLType sqlType, String typeName) throws SQLException { _stmt.registerOutParameter(parameterIndex, sqlType, typeName); }
+    public void registerOutParameter(String parameterName, SQLType sqlType) throws SQLException { _stmt.registerOutParameter(parameterName, sqlType); }
+    public void registerOutParameter(String parameterName, SQLType sqlType, int scale) throws SQLException { _stmt.registerOutParameter(parameterName, sqlType, scale); }
+    public void registerOutParameter(String parameterName, SQLType sqlType, String typeName) throws SQLException { _stmt.registerOutParameter(parameterName, sqlType, typeName); }
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException { _stmt.setObject(parameterIndex, x, targetSqlType); }
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException { _stmt.setObject(parameterIndex, x, targetSqlType, scaleOrLength); }
+    public void setObject(String parameterName, Object x, SQLType targetSqlType) throws SQLException { _stmt.setObject(parameterName, x, targetSqlType); }
+    public void setObject(String parameterName, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException { _stmt.setObject(parameterName, x, targetSqlType, scaleOrLength); }
+    public long executeLargeUpdate() throws SQLException { return _conn.execute( _sql, () -> _stmt.executeLargeUpdate() ); }
+    public long executeLargeUpdate(String sql) throws SQLException { return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql) ); }
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException { return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, autoGeneratedKeys) ); }
+    public long executeLargeUpdate(String sql, int columnIndexes[]) throws SQLException { return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, columnIndexes) ); }
+    public long executeLargeUpdate(String sql, String columnNames[]) throws SQLException { return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, columnNames) ); }
+    public long[] executeLargeBatch() throws SQLException { return _conn.execute( _sql, () -> _stmt.executeLargeBatch() ); }
+    public long getLargeUpdateCount() throws SQLException { return _stmt.getLargeUpdateCount(); }
+    public void setLargeMaxRows(long max) throws SQLException { _maxRows = (int)Math.min( max, Integer.MAX_VALUE ); }
+    public long getLargeMaxRows() throws SQLException { return _maxRows; }
+
 }
@@ -23,11 +23,14 @@
 package com.spinn3r.bdcp;
 
 import java.sql.*;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Iterator;
 
 /**
@@ -53,6 +56,51 @@ public class DelegatingPreparedStatement implements PreparedStatement {
     /** The connection that created me. **/
     protected BasicDatabaseConnection _conn = null;
 
+    /** The SQL I was prepared with, if known. **/
+    protected String _sql = null;
+
+    /**
+     * Rewrites batches into multi row INSERTs when the pool has
+     * rewriteBatchedInserts on and our SQL allows it.
+     */
+    protected BatchRewriter _rewriter = null;
+
+    /**
+     * Set when the pool has a result cache and our SQL can be cached.
+     */
+    protected ResultCache _cache = null;
+
+    protected CachedQuery _query = null;
+
+    /**
+     * Parameters bound so far, by index.  Only kept when _query is set.
+     */
+    protected Map<Integer,Object> _values = null;
+
+    /**
+     * Set when there's a rewriter or a cache to bind for, so the setters
+     * only box values and build bindings when someone uses them.
+     */
+    protected boolean _binding = false;
+
+    /**
+     * Limits for results of this statement.  Negative uses the pool's,
+     * 0 is unlimited.
+     *
+     * @see DelegatingResultSet
+     */
+    protected int _maxResultRows = -1;
+
+    protected long _maxResultBytes = -1;
+
+    /**
+     * What the caller gave setMaxRows().  The driver gets our row limit plus
+     * one when that's lower.
+     */
+    protected int _maxRows = 0;
+
+    private int _driverMaxRows = 0;
+
     protected boolean _closed = false;
 
     /**
@@ -67,6 +115,67 @@ public class DelegatingPreparedStatement implements PreparedStatement {
                                         PreparedStatement s ) {
         _stmt = s;
         _conn = c;
+        _conn.statementOpened();
+    }
+
+    public DelegatingPreparedStatement( BasicDatabaseConnection c,
+                                        String sql,
+                                        PreparedStatement s ) {
+        this( c, sql, s, true );
+    }
+
+    /**
+     * @param rewrite false when the statement was prepared to return
+     * generated keys.  The keys of a rewritten batch would belong to the
+     * chunk statements so getGeneratedKeys() on ours would come back empty.
+     */
+    public DelegatingPreparedStatement( BasicDatabaseConnection c,
+                                        String sql,
+                                        PreparedStatement s,
+                                        boolean rewrite ) {
+        this( c, s );
+        _sql = sql;
+
+        if ( rewrite && c.pool.rewriteBatchedInserts )
+            _rewriter = BatchRewriter.parse( sql, c.pool.maxBatchPacketSize, c.pool.maxBatchRows );
+
+        if ( c.pool.cache != null ) {
+
+            _cache = c.pool.cache;
+            _query = _cache.parse( sql );
+
+            if ( _query != null )
+                _values = new TreeMap<Integer,Object>();
+
+        }
+
+        _binding = _rewriter != null || _values != null;
+    }
+
+    /**
+     * Remember a parameter for the batch rewriter and the result cache.
+     */
+    private void bind( int index, Object value, ParameterBinding binding ) {
+
+        if ( _rewriter != null )
+            _rewriter.bind( index, value, binding );
+
+        if ( _values != null )
+            _values.put( index, value );
+
+    }
+
+    /**
+     * The same instant read in another time zone is another value, so the
+     * cache keys on the zone too.
+     */
+    private static Object withZone( Object x, Calendar cal ) {
+
+        if ( x == null || cal == null )
+            return x;
+
+        return Arrays.asList( x, cal.getTimeZone().getID() );
+
     }
 
     /**
@@ -113,7 +222,18 @@ public class DelegatingPreparedStatement implements PreparedStatement {
      * any ResultSets that were not explicitly closed.
      */
     public void close() throws SQLException {
-        _stmt.close();
+
+        if ( _closed )
+            return;
+
+        _closed = true;
+
+        try {
+            _stmt.close();
+        } finally {
+            _conn.statementClosed();
+        }
+
     }
 
     public Connection getConnection() throws SQLException {
@@ -123,35 +243,99 @@ public class DelegatingPreparedStatement implements PreparedStatement {
 
     public ResultSet executeQuery(String sql) throws SQLException {
         checkOpen();
+        limitRows();
 
-        return _stmt.executeQuery(sql);
+        return _conn.guard( this, sql, _maxResultRows, _maxResultBytes,
+                            _conn.execute( sql, () -> _stmt.executeQuery(sql) ) );
     }
 
     public ResultSet getResultSet() throws SQLException {
         checkOpen();
 
-        return _stmt.getResultSet();
+        return _conn.guard( this, _sql, _maxResultRows, _maxResultBytes, _stmt.getResultSet() );
     }
 
     public ResultSet executeQuery() throws SQLException {
         checkOpen();
+        limitRows();
 
-        return _stmt.executeQuery();
+        ResultSet rs;
+
+        //cached results are only shared outside of transactions, and only
+        //when the driver won't cut them short.  We stop copying at the
+        //cache's maxRows so anything the driver's limit cut isn't kept.
+        if ( _query != null && _maxRows == 0 && _conn.getAutoCommit() &&
+             ( _driverMaxRows == 0 || _driverMaxRows > _cache.maxRows ) ) {
+            rs = _cache.executeQuery( _query, _conn.getNamespace(), _values, this,
+                                      () -> _conn.execute( _sql, () -> _stmt.executeQuery() ) );
+        } else {
+            rs = _conn.execute( _sql, () -> _stmt.executeQuery() );
+        }
+
+        return _conn.guard( this, _sql, _maxResultRows, _maxResultBytes, rs );
+    }
+
+    public void setMaxResultRows( int maxResultRows ) {
+        _maxResultRows = maxResultRows;
+    }
+
+    public void setMaxResultBytes( long maxResultBytes ) {
+        _maxResultBytes = maxResultBytes;
     }
 
-    public int executeUpdate(String sql) throws SQLException { checkOpen(); return _stmt.executeUpdate(sql);}
+    /**
+     * Have the driver stop one row past our limit, so it doesn't send rows
+     * we'd only refuse, while the DelegatingResultSet still sees the limit
+     * was passed.  Called before each execution; the driver is only told
+     * when the value changes.
+     */
+    void limitRows() throws SQLException {
+
+        int max = _conn.getDriverMaxRows( _maxRows, _maxResultRows );
+
+        if ( max != _driverMaxRows ) {
+            _stmt.setMaxRows( max );
+            _driverMaxRows = max;
+        }
+
+    }
+
+    /**
+     * Run the query and read it into column major primitive buffers, chunkSize
+     * rows at a time.  Returns the number of rows read.  The result cache is
+     * skipped as it would box every cell.
+     *
+     * @see ColumnChunk
+     */
+    public long executeColumnar( int chunkSize, ChunkHandler handler ) throws SQLException {
+        checkOpen();
+
+        ResultSet rs = _conn.execute( _sql, () -> _stmt.executeQuery() );
+
+        return ColumnChunk.read( rs, chunkSize, handler );
+    }
+
+    public int executeUpdate(String sql) throws SQLException { checkOpen(); return _conn.execute( sql, () -> _stmt.executeUpdate(sql) );}
     public int getMaxFieldSize() throws SQLException { checkOpen(); return _stmt.getMaxFieldSize();}
     public void setMaxFieldSize(int max) throws SQLException { checkOpen();_stmt.setMaxFieldSize(max);}
-    public int getMaxRows() throws SQLException { checkOpen();return _stmt.getMaxRows();}
-    public void setMaxRows(int max) throws SQLException { checkOpen(); _stmt.setMaxRows(max);}
+    public int getMaxRows() throws SQLException { checkOpen(); return _maxRows;}
+    public void setMaxRows(int max) throws SQLException { checkOpen(); _maxRows = max;}
     public void setEscapeProcessing(boolean enable) throws SQLException { checkOpen();_stmt.setEscapeProcessing(enable);}
     public int getQueryTimeout() throws SQLException { checkOpen(); return _stmt.getQueryTimeout();}
     public void setQueryTimeout(int seconds) throws SQLException { checkOpen(); _stmt.setQueryTimeout(seconds);}
-    public void cancel() throws SQLException { checkOpen(); _stmt.cancel();}
+    public void cancel() throws SQLException {
+        checkOpen();
+
+        //a rewritten batch runs on the chunk statements, not ours.
+        if ( _rewriter != null )
+            _rewriter.cancel();
+
+        _stmt.cancel();
+    }
     public SQLWarning getWarnings() throws SQLException { checkOpen(); return _stmt.getWarnings();}
     public void clearWarnings() throws SQLException { checkOpen(); _stmt.clearWarnings();}
     public void setCursorName(String name) throws SQLException { checkOpen(); _stmt.setCursorName(name);}
-    public boolean execute(String sql) throws SQLException { checkOpen(); return _stmt.execute(sql);}
+    public boolean execute(String sql) throws SQLException { checkOpen(); limitRows(); return _conn.execute( sql, () -> _stmt.execute(sql) );}
     public int getUpdateCount() throws SQLException { checkOpen(); return _stmt.getUpdateCount();}
     public boolean getMoreResults() throws SQLException { checkOpen(); return _stmt.getMoreResults();}
     public void setFetchDirection(int direction) throws SQLException { checkOpen(); _stmt.setFetchDirection(direction);}
@@ -161,44 +345,70 @@ public class DelegatingPreparedStatement implements PreparedStatement {
     public int getResultSetConcurrency() throws SQLException { checkOpen(); return _stmt.getResultSetConcurrency();}
     public int getResultSetType() throws SQLException { checkOpen(); return _stmt.getResultSetType();}
     public void addBatch(String sql) throws SQLException { checkOpen(); _stmt.addBatch(sql);}
-    public void clearBatch() throws SQLException { checkOpen(); _stmt.clearBatch();}
-    public int[] executeBatch() throws SQLException { checkOpen(); return _stmt.executeBatch();}
-
-    public int executeUpdate() throws SQLException { checkOpen(); return _stmt.executeUpdate();}
-    public void setNull(int parameterIndex, int sqlType) throws SQLException { checkOpen(); _stmt.setNull(parameterIndex,sqlType);}
-    public void setBoolean(int parameterIndex, boolean x) throws SQLException { checkOpen(); _stmt.setBoolean(parameterIndex,x);}
-    public void setByte(int parameterIndex, byte x) throws SQLException { checkOpen(); _stmt.setByte(parameterIndex,x);}
-    public void setShort(int parameterIndex, short x) throws SQLException { checkOpen(); _stmt.setShort(parameterIndex,x);}
-    public void setInt(int parameterIndex, int x) throws SQLException { checkOpen(); _stmt.setInt(parameterIndex,x);}
-    public void setLong(int parameterIndex, long x) throws SQLException { checkOpen(); _stmt.setLong(parameterIndex,x);}
-    public void setFloat(int parameterIndex, float x) throws SQLException { checkOpen(); _stmt.setFloat(parameterIndex,x);}
-    public void setDouble(int parameterIndex, double x) throws SQLException { checkOpen(); _stmt.setDouble(parameterIndex,x);}
-    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException { checkOpen(); _stmt.setBigDecimal(parameterIndex,x);}
-    public void setString(int parameterIndex, String x) throws SQLException { checkOpen(); _stmt.setString(parameterIndex,x);}
-    public void setBytes(int parameterIndex, byte x[]) throws SQLException { checkOpen(); _stmt.setBytes(parameterIndex,x);}
-    public void setDate(int parameterIndex, java.sql.Date x) throws SQLException { checkOpen(); _stmt.setDate(parameterIndex,x);}
-    public void setTime(int parameterIndex, java.sql.Time x) throws SQLException { checkOpen(); _stmt.setTime(parameterIndex,x);}
-    public void setTimestamp(int parameterIndex, java.sql.Timestamp x) throws SQLException { checkOpen(); _stmt.setTimestamp(parameterIndex,x);}
-    public void setAsciiStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException { checkOpen(); _stmt.setAsciiStream(parameterIndex,x,length);}
+
+    public void clearBatch() throws SQLException {
+        checkOpen();
+
+        if ( _rewriter != null )
+            _rewriter.clearBatch();
+
+        _stmt.clearBatch();
+    }
+
+    public int[] executeBatch() throws SQLException {
+        checkOpen();
+
+        if ( _rewriter != null && _rewriter.rows.size() > 0 )
+            return _conn.execute( _sql, () -> _rewriter.executeBatch( _conn.getDelegate(), _stmt ) );
+
+        return _conn.execute( _sql, () -> _stmt.executeBatch() );
+    }
+
+    public int executeUpdate() throws SQLException { checkOpen(); return _conn.execute( _sql, () -> _stmt.executeUpdate() );}
+    public void setNull(int parameterIndex, int sqlType) throws SQLException { checkOpen(); _stmt.setNull(parameterIndex,sqlType); if ( _binding ) bind( parameterIndex, null, ( s, index ) -> s.setNull( index, sqlType ) );}
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException { checkOpen(); _stmt.setBoolean(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBoolean( index, x ) );}
+    public void setByte(int parameterIndex, byte x) throws SQLException { checkOpen(); _stmt.setByte(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setByte( index, x ) );}
+    public void setShort(int parameterIndex, short x) throws SQLException { checkOpen(); _stmt.setShort(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setShort( index, x ) );}
+    public void setInt(int parameterIndex, int x) throws SQLException { checkOpen(); _stmt.setInt(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setInt( index, x ) );}
+    public void setLong(int parameterIndex, long x) throws SQLException { checkOpen(); _stmt.setLong(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setLong( index, x ) );}
+    public void setFloat(int parameterIndex, float x) throws SQLException { checkOpen(); _stmt.setFloat(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setFloat( index, x ) );}
+    public void setDouble(int parameterIndex, double x) throws SQLException { checkOpen(); _stmt.setDouble(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setDouble( index, x ) );}
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException { checkOpen(); _stmt.setBigDecimal(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBigDecimal( index, x ) );}
+    public void setString(int parameterIndex, String x) throws SQLException { checkOpen(); _stmt.setString(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setString( index, x ) );}
+    public void setBytes(int parameterIndex, byte x[]) throws SQLException { checkOpen(); _stmt.setBytes(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBytes( index, x ) );}
+    public void setDate(int parameterIndex, java.sql.Date x) throws SQLException { checkOpen(); _stmt.setDate(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setDate( index, x ) );}
+    public void setTime(int parameterIndex, java.sql.Time x) throws SQLException { checkOpen(); _stmt.setTime(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setTime( index, x ) );}
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x) throws SQLException { checkOpen(); _stmt.setTimestamp(parameterIndex,x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setTimestamp( index, x ) );}
+    public void setAsciiStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException { checkOpen(); _stmt.setAsciiStream(parameterIndex,x,length); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setAsciiStream( index, x, length ) );}
     /** @deprecated */
-    public void setUnicodeStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException { checkOpen(); _stmt.setUnicodeStream(parameterIndex,x,length);}
-    public void setBinaryStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException{ checkOpen(); _stmt.setBinaryStream(parameterIndex,x,length);}
-    public void clearParameters() throws SQLException { checkOpen(); _stmt.clearParameters();}
-    public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType, scale);}
-    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType);}
-    public void setObject(int parameterIndex, Object x) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x);}
-    public boolean execute() throws SQLException { checkOpen(); return _stmt.execute();}
-    public void addBatch() throws SQLException { checkOpen(); _stmt.addBatch();}
-    public void setCharacterStream(int parameterIndex, java.io.Reader reader, int length) throws SQLException { checkOpen(); _stmt.setCharacterStream(parameterIndex,reader,length);}
-    public void setRef (int i, Ref x) throws SQLException { checkOpen(); _stmt.setRef(i,x);}
-    public void setBlob (int i, Blob x) throws SQLException { checkOpen(); _stmt.setBlob(i,x);}
-    public void setClob (int i, Clob x) throws SQLException { checkOpen(); _stmt.setClob(i,x);}
-    public void setArray (int i, Array x) throws SQLException { checkOpen(); _stmt.setArray(i,x);}
+    @Deprecated
+    public void setUnicodeStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException { checkOpen(); _stmt.setUnicodeStream(parameterIndex,x,length); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setUnicodeStream( index, x, length ) );}
+    public void setBinaryStream(int parameterIndex, java.io.InputStream x, int length) throws SQLException{ checkOpen(); _stmt.setBinaryStream(parameterIndex,x,length); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBinaryStream( index, x, length ) );}
+    public void clearParameters() throws SQLException { checkOpen(); _stmt.clearParameters(); if ( _rewriter != null ) _rewriter.clearParameters(); if ( _values != null ) _values.clear();}
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType, scale); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setObject( index, x, targetSqlType, scale ) );}
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setObject( index, x, targetSqlType ) );}
+    public void setObject(int parameterIndex, Object x) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setObject( index, x ) );}
+    public boolean execute() throws SQLException { checkOpen(); limitRows(); return _conn.execute( _sql, () -> _stmt.execute() );}
+    public void addBatch() throws SQLException {
+        checkOpen();
+
+        //rows are kept by the rewriter instead of the driver.
+        if ( _rewriter != null ) {
+            _rewriter.addBatch();
+        } else {
+            _stmt.addBatch();
+        }
+    }
+    public void setCharacterStream(int parameterIndex, java.io.Reader reader, int length) throws SQLException { checkOpen(); _stmt.setCharacterStream(parameterIndex,reader,length); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setCharacterStream( index, reader, length ) );}
+    public void setRef (int i, Ref x) throws SQLException { checkOpen(); _stmt.setRef(i,x); if ( _binding ) bind( i, x, ( s, index ) -> s.setRef( index, x ) );}
+    public void setBlob (int i, Blob x) throws SQLException { checkOpen(); _stmt.setBlob(i,x); if ( _binding ) bind( i, x, ( s, index ) -> s.setBlob( index, x ) );}
+    public void setClob (int i, Clob x) throws SQLException { checkOpen(); _stmt.setClob(i,x); if ( _binding ) bind( i, x, ( s, index ) -> s.setClob( index, x ) );}
+    public void setArray (int i, Array x) throws SQLException { checkOpen(); _stmt.setArray(i,x); if ( _binding ) bind( i, x, ( s, index ) -> s.setArray( index, x ) );}
     public ResultSetMetaData getMetaData() throws SQLException { checkOpen(); return _stmt.getMetaData();}
-    public void setDate(int parameterIndex, java.sql.Date x, Calendar cal) throws SQLException { checkOpen(); _stmt.setDate(parameterIndex,x,cal);}
-    public void setTime(int parameterIndex, java.sql.Time x, Calendar cal) throws SQLException { checkOpen(); _stmt.setTime(parameterIndex,x,cal);}
-    public void setTimestamp(int parameterIndex, java.sql.Timestamp x, Calendar cal) throws SQLException { checkOpen(); _stmt.setTimestamp(parameterIndex,x,cal);}
-    public void setNull (int paramIndex, int sqlType, String typeName) throws SQLException { checkOpen(); _stmt.setNull(paramIndex,sqlType,typeName);}
+    public void setDate(int parameterIndex, java.sql.Date x, Calendar cal) throws SQLException { checkOpen(); _stmt.setDate(parameterIndex,x,cal); if ( _binding ) bind( parameterIndex, withZone( x, cal ), ( s, index ) -> s.setDate( index, x, cal ) );}
+    public void setTime(int parameterIndex, java.sql.Time x, Calendar cal) throws SQLException { checkOpen(); _stmt.setTime(parameterIndex,x,cal); if ( _binding ) bind( parameterIndex, withZone( x, cal ), ( s, index ) -> s.setTime( index, x, cal ) );}
+    public void setTimestamp(int parameterIndex, java.sql.Timestamp x, Calendar cal) throws SQLException { checkOpen(); _stmt.setTimestamp(parameterIndex,x,cal); if ( _binding ) bind( parameterIndex, withZone( x, cal ), ( s, index ) -> s.setTimestamp( index, x, cal ) );}
+    public void setNull (int paramIndex, int sqlType, String typeName) throws SQLException { checkOpen(); _stmt.setNull(paramIndex,sqlType,typeName); if ( _binding ) bind( paramIndex, null, ( s, index ) -> s.setNull( index, sqlType, typeName ) );}
 
     protected void checkOpen() throws SQLException {
         if(_closed) {
@@ -219,37 +429,40 @@ public class DelegatingPreparedStatement implements PreparedStatement {
     public int executeUpdate(String sql, int autoGeneratedKeys)
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, autoGeneratedKeys);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, autoGeneratedKeys) );
     }
 
     public int executeUpdate(String sql, int columnIndexes[])
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, columnIndexes);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnIndexes) );
     }
 
     public int executeUpdate(String sql, String columnNames[])
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, columnNames);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnNames) );
     }
 
     public boolean execute(String sql, int autoGeneratedKeys)
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, autoGeneratedKeys);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, autoGeneratedKeys) );
     }
 
     public boolean execute(String sql, int columnIndexes[])
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, columnIndexes);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnIndexes) );
     }
 
     public boolean execute(String sql, String columnNames[])
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, columnNames);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnNames) );
     }
 
     public int getResultSetHoldability() throws SQLException {
@@ -261,6 +474,8 @@ public class DelegatingPreparedStatement implements PreparedStatement {
         throws SQLException {
         checkOpen();
         _stmt.setURL(parameterIndex, x);
+        if ( _binding )
+            bind( parameterIndex, x, ( s, index ) -> s.setURL( index, x ) );
     }
 
     public ParameterMetaData getParameterMetaData() throws SQLException {
@@ -268,4 +483,84 @@ public class DelegatingPreparedStatement implements PreparedStatement {
         return _stmt.getParameterMetaData();
     }
 
+    // ------------------- JDBC 4.0 -----------------------------------------
+
+    public void setAsciiStream(int parameterIndex, java.io.InputStream x, long length) throws SQLException { checkOpen(); _stmt.setAsciiStream(parameterIndex, x, length); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setAsciiStream( index, x, length ) );}
+    public void setBinaryStream(int parameterIndex, java.io.InputStream x, long length) throws SQLException { checkOpen(); _stmt.setBinaryStream(parameterIndex, x, length); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBinaryStream( index, x, length ) );}
+    public void setCharacterStream(int parameterIndex, java.io.Reader reader, long length) throws SQLException { checkOpen(); _stmt.setCharacterStream(parameterIndex, reader, length); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setCharacterStream( index, reader, length ) );}
+    public void setAsciiStream(int parameterIndex, java.io.InputStream x) throws SQLException { checkOpen(); _stmt.setAsciiStream(parameterIndex, x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setAsciiStream( index, x ) );}
+    public void setBinaryStream(int parameterIndex, java.io.InputStream x) throws SQLException { checkOpen(); _stmt.setBinaryStream(parameterIndex, x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setBinaryStream( index, x ) );}
+    public void setCharacterStream(int parameterIndex, java.io.Reader reader) throws SQLException { checkOpen(); _stmt.setCharacterStream(parameterIndex, reader); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setCharacterStream( index, reader ) );}
+    public void setNString(int parameterIndex, String value) throws SQLException { checkOpen(); _stmt.setNString(parameterIndex, value); if ( _binding ) bind( parameterIndex, value, ( s, index ) -> s.setNString( index, value ) );}
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException { checkOpen(); _stmt.setNCharacterStream(parameterIndex, value, length); if ( _binding ) bind( parameterIndex, value, ( s, index ) -> s.setNCharacterStream( index, value, length ) );}
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException { checkOpen(); _stmt.setNCharacterStream(parameterIndex, value); if ( _binding ) bind( parameterIndex, value, ( s, index ) -> s.setNCharacterStream( index, value ) );}
+    public void setNClob(int parameterIndex, NClob value) throws SQLException { checkOpen(); _stmt.setNClob(parameterIndex, value); if ( _binding ) bind( parameterIndex, value, ( s, index ) -> s.setNClob( index, value ) );}
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException { checkOpen(); _stmt.setNClob(parameterIndex, reader, length); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setNClob( index, reader, length ) );}
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException { checkOpen(); _stmt.setNClob(parameterIndex, reader); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setNClob( index, reader ) );}
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException { checkOpen(); _stmt.setClob(parameterIndex, reader, length); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setClob( index, reader, length ) );}
+    public void setClob(int parameterIndex, Reader reader) throws SQLException { checkOpen(); _stmt.setClob(parameterIndex, reader); if ( _binding ) bind( parameterIndex, reader, ( s, index ) -> s.setClob( index, reader ) );}
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException { checkOpen(); _stmt.setBlob(parameterIndex, inputStream, length); if ( _binding ) bind( parameterIndex, inputStream, ( s, index ) -> s.setBlob( index, inputStream, length ) );}
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException { checkOpen(); _stmt.setBlob(parameterIndex, inputStream); if ( _binding ) bind( parameterIndex, inputStream, ( s, index ) -> s.setBlob( index, inputStream ) );}
+    public void setRowId(int parameterIndex, RowId x) throws SQLException { checkOpen(); _stmt.setRowId(parameterIndex, x); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setRowId( index, x ) );}
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException { checkOpen(); _stmt.setSQLXML(parameterIndex, xmlObject); if ( _binding ) bind( parameterIndex, xmlObject, ( s, index ) -> s.setSQLXML( index, xmlObject ) );}
+
+    public boolean isClosed() throws SQLException {
+        return _closed;
+    }
+
+    public void setPoolable(boolean poolable) throws SQLException {
+        checkOpen();
+        _stmt.setPoolable(poolable);
+    }
+
+    public boolean isPoolable() throws SQLException {
+        checkOpen();
+        return _stmt.isPoolable();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        return _stmt.unwrap( iface );
+
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance( this ) || _stmt.isWrapperFor( iface );
+    }
+
+    // ------------------- JDBC 4.1 -----------------------------------------
+
+    public void closeOnCompletion() throws SQLException {
+        checkOpen();
+        _stmt.closeOnCompletion();
+    }
+
+    public boolean isCloseOnCompletion() throws SQLException {
+        checkOpen();
+        return _stmt.isCloseOnCompletion();
+    }
+
+    // ------------------- JDBC 4.2 -----------------------------------------
+
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType, scaleOrLength); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setObject( index, x, targetSqlType, scaleOrLength ) );}
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException { checkOpen(); _stmt.setObject(parameterIndex, x, targetSqlType); if ( _binding ) bind( parameterIndex, x, ( s, index ) -> s.setObject( index, x, targetSqlType ) );}
+    public long executeLargeUpdate() throws SQLException { checkOpen(); return _conn.execute( _sql, () -> _stmt.executeLargeUpdate() );}
+    public long executeLargeUpdate(String sql) throws SQLException { checkOpen(); return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql) );}
+    public long getLargeUpdateCount() throws SQLException { checkOpen(); return _stmt.getLargeUpdateCount();}
+    public void setLargeMaxRows(long max) throws SQLException { checkOpen(); _maxRows = (int)Math.min( max, Integer.MAX_VALUE );}
+    public long getLargeMaxRows() throws SQLException { checkOpen(); return _maxRows;}
+
+    public long[] executeLargeBatch() throws SQLException {
+        checkOpen();
+
+        //rewritten batches never come near int counts.
+        if ( _rewriter != null && _rewriter.rows.size() > 0 )
+            return Arrays.stream( executeBatch() ).asLongStream().toArray();
+
+        return _conn.execute( _sql, () -> _stmt.executeLargeBatch() );
+    }
+
 }
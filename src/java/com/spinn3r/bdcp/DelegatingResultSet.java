@@ -0,0 +1,532 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * A {@link ResultSet} which stops one accidental unbounded query from pulling
+ * millions of rows into the heap.
+ * <p>
+ * Rows are counted as the cursor reaches them, by next() or by scrolling.
+ * Bytes are counted as values are read (string lengths, byte array lengths,
+ * 8 bytes for anything else), each column once per row however often it's
+ * read, and checked against the limit as each row ends.  Once either passes
+ * its limit we throw an SQLException, or with the pool's truncateResults on
+ * log a warning and report the end of the result.  A limit of 0 means
+ * unlimited.
+ * <p>
+ * When the result is closed or read to the end its rows and bytes are added
+ * to the pool's per statement {@link ResultStats}.
+ */
+public class DelegatingResultSet implements ResultSet {
+
+    private static final Logger log = Logger.getLogger();
+
+    /** My delegate. */
+    protected ResultSet _rs = null;
+
+    /** The statement that created me. */
+    protected Statement _stmt = null;
+
+    protected String _sql = null;
+
+    protected BasicDatabaseConnectionPool pool = null;
+
+    final int maxRows;
+
+    final long maxBytes;
+
+    long rows = 0;
+
+    long bytes = 0;
+
+    /**
+     * Set once we've hit a limit with truncateResults on.
+     */
+    boolean truncated = false;
+
+    boolean rejected = false;
+
+    boolean recorded = false;
+
+    /**
+     * The bulkhead slot our query holds until we're read or closed.
+     */
+    BulkheadSlot slot = null;
+
+    /**
+     * Bytes read from the current row so far.
+     */
+    long rowBytes = 0;
+
+    /**
+     * Columns of the current row we've counted.
+     */
+    final BitSet counted = new BitSet();
+
+    /**
+     * Column indexes by label, for counting the by name getters.
+     */
+    Map<String,Integer> columns = null;
+
+    /**
+     * Set once the cursor is moved other than by next(), after which we
+     * count rows by position.
+     */
+    boolean scrolled = false;
+
+    public DelegatingResultSet( Statement stmt,
+                                String sql,
+                                ResultSet rs,
+                                int maxRows,
+                                long maxBytes,
+                                BasicDatabaseConnectionPool pool ) {
+
+        _stmt = stmt;
+        _sql = sql;
+        _rs = rs;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.pool = pool;
+
+    }
+
+    /**
+     * Returns my underlying {@link ResultSet}.
+     */
+    public ResultSet getDelegate() {
+        return _rs;
+    }
+
+    public boolean next() throws SQLException {
+
+        endRow();
+
+        if ( truncated )
+            return false;
+
+        if ( ! _rs.next() ) {
+            record();
+            exitBulkhead();
+            return false;
+        }
+
+        return reached();
+
+    }
+
+    /**
+     * Count the row the cursor just moved onto.  False if that's past our
+     * limit.
+     */
+    boolean reached() throws SQLException {
+
+        long row = scrolled ? Math.max( rows, _rs.getRow() ) : rows + 1;
+
+        if ( maxRows > 0 && row > maxRows ) {
+            exceeded( maxRows, "rows" );
+            return false;
+        }
+
+        rows = row;
+
+        return true;
+
+    }
+
+    /**
+     * After a scroll, which may move the cursor past the rows next() counted.
+     */
+    boolean moved( boolean onRow ) throws SQLException {
+
+        if ( ! onRow || truncated )
+            return false;
+
+        return reached();
+
+    }
+
+    /**
+     * Add the row we're leaving to the bytes read.
+     */
+    void endRow() throws SQLException {
+
+        counted.clear();
+
+        if ( rowBytes == 0 )
+            return;
+
+        bytes += rowBytes;
+        rowBytes = 0;
+
+        if ( maxBytes > 0 && bytes > maxBytes && ! truncated )
+            exceeded( maxBytes, "bytes" );
+
+    }
+
+    public void close() throws SQLException {
+
+        try {
+            record();
+            _rs.close();
+        } finally {
+            exitBulkhead();
+        }
+
+    }
+
+    void exitBulkhead() {
+
+        if ( slot != null )
+            slot.exit();
+
+    }
+
+    public Statement getStatement() throws SQLException {
+        return _stmt;
+    }
+
+    /**
+     * Fail or start truncating.
+     */
+    void exceeded( long limit, String unit ) throws SQLException {
+
+        if ( pool.truncateResults ) {
+
+            log.warn( "Truncating result at %d %s: %s", limit, unit, _sql );
+
+            truncated = true;
+            return;
+
+        }
+
+        rejected = true;
+        close();
+
+        throw new SQLException( String.format( "Result exceeded %d %s: %s", limit, unit, _sql ) );
+
+    }
+
+    void count( int column, long size ) {
+
+        if ( counted.get( column ) )
+            return;
+
+        counted.set( column );
+        rowBytes += size;
+
+    }
+
+    void count( String column, long size ) throws SQLException {
+
+        if ( columns == null )
+            columns = new HashMap<String,Integer>();
+
+        Integer index = columns.get( column );
+
+        if ( index == null ) {
+            index = _rs.findColumn( column );
+            columns.put( column, index );
+        }
+
+        count( index, size );
+
+    }
+
+    static long sizeOf( Object value ) {
+
+        if ( value instanceof String )
+            return ( (String)value ).length() * 2;
+
+        if ( value instanceof byte[] )
+            return ( (byte[])value ).length;
+
+        return value == null ? 0 : 8;
+
+    }
+
+    <T> T read( int column, T value ) throws SQLException { count( column, sizeOf( value ) ); return value; }
+    boolean read( int column, boolean value ) throws SQLException { count( column, 8 ); return value; }
+    byte read( int column, byte value ) throws SQLException { count( column, 8 ); return value; }
+    short read( int column, short value ) throws SQLException { count( column, 8 ); return value; }
+    int read( int column, int value ) throws SQLException { count( column, 8 ); return value; }
+    long read( int column, long value ) throws SQLException { count( column, 8 ); return value; }
+    float read( int column, float value ) throws SQLException { count( column, 8 ); return value; }
+    double read( int column, double value ) throws SQLException { count( column, 8 ); return value; }
+
+    <T> T read( String column, T value ) throws SQLException { count( column, sizeOf( value ) ); return value; }
+    boolean read( String column, boolean value ) throws SQLException { count( column, 8 ); return value; }
+    byte read( String column, byte value ) throws SQLException { count( column, 8 ); return value; }
+    short read( String column, short value ) throws SQLException { count( column, 8 ); return value; }
+    int read( String column, int value ) throws SQLException { count( column, 8 ); return value; }
+    long read( String column, long value ) throws SQLException { count( column, 8 ); return value; }
+    float read( String column, float value ) throws SQLException { count( column, 8 ); return value; }
+    double read( String column, double value ) throws SQLException { count( column, 8 ); return value; }
+
+    /**
+     * Add what we read to the statement's stats, once.
+     */
+    void record() {
+
+        if ( recorded )
+            return;
+
+        recorded = true;
+
+        bytes += rowBytes;
+        rowBytes = 0;
+
+        if ( pool != null && pool.recordResultStats )
+            pool.getResultStats( _sql ).record( rows, bytes, truncated, rejected );
+
+    }
+
+    public boolean previous() throws SQLException { endRow(); scrolled = true; return moved( _rs.previous() ); }
+    public boolean absolute(int row) throws SQLException { endRow(); scrolled = true; return moved( _rs.absolute(row) ); }
+    public boolean relative(int rows) throws SQLException { endRow(); scrolled = true; return moved( _rs.relative(rows) ); }
+    public boolean first() throws SQLException { endRow(); scrolled = true; return moved( _rs.first() ); }
+    public boolean last() throws SQLException { endRow(); scrolled = true; return moved( _rs.last() ); }
+    public void beforeFirst() throws SQLException { endRow(); scrolled = true; _rs.beforeFirst(); }
+    public void afterLast() throws SQLException { endRow(); scrolled = true; _rs.afterLast(); }
+    public boolean isBeforeFirst() throws SQLException { return _rs.isBeforeFirst(); }
+    public boolean isAfterLast() throws SQLException { return _rs.isAfterLast(); }
+    public boolean isFirst() throws SQLException { return _rs.isFirst(); }
+    public boolean isLast() throws SQLException { return _rs.isLast(); }
+    public int getRow() throws SQLException { return _rs.getRow(); }
+    public boolean wasNull() throws SQLException { return _rs.wasNull(); }
+    public SQLWarning getWarnings() throws SQLException { return _rs.getWarnings(); }
+    public void clearWarnings() throws SQLException { _rs.clearWarnings(); }
+    public String getCursorName() throws SQLException { return _rs.getCursorName(); }
+    public ResultSetMetaData getMetaData() throws SQLException { return _rs.getMetaData(); }
+    public int findColumn(String columnName) throws SQLException { return _rs.findColumn(columnName); }
+    public void setFetchDirection(int direction) throws SQLException { _rs.setFetchDirection(direction); }
+    public int getFetchDirection() throws SQLException { return _rs.getFetchDirection(); }
+    public void setFetchSize(int rows) throws SQLException { _rs.setFetchSize(rows); }
+    public int getFetchSize() throws SQLException { return _rs.getFetchSize(); }
+    public int getType() throws SQLException { return _rs.getType(); }
+    public int getConcurrency() throws SQLException { return _rs.getConcurrency(); }
+    public boolean rowUpdated() throws SQLException { return _rs.rowUpdated(); }
+    public boolean rowInserted() throws SQLException { return _rs.rowInserted(); }
+    public boolean rowDeleted() throws SQLException { return _rs.rowDeleted(); }
+    public Object getObject(int column) throws SQLException { return read( column, _rs.getObject(column) ); }
+    public String getString(int column) throws SQLException { return read( column, _rs.getString(column) ); }
+    public boolean getBoolean(int column) throws SQLException { return read( column, _rs.getBoolean(column) ); }
+    public byte getByte(int column) throws SQLException { return read( column, _rs.getByte(column) ); }
+    public short getShort(int column) throws SQLException { return read( column, _rs.getShort(column) ); }
+    public int getInt(int column) throws SQLException { return read( column, _rs.getInt(column) ); }
+    public long getLong(int column) throws SQLException { return read( column, _rs.getLong(column) ); }
+    public float getFloat(int column) throws SQLException { return read( column, _rs.getFloat(column) ); }
+    public double getDouble(int column) throws SQLException { return read( column, _rs.getDouble(column) ); }
+    public BigDecimal getBigDecimal(int column) throws SQLException { return read( column, _rs.getBigDecimal(column) ); }
+    /** @deprecated */
+    @Deprecated
+    public BigDecimal getBigDecimal(int column, int scale) throws SQLException { return read( column, _rs.getBigDecimal(column,scale) ); }
+    public byte[] getBytes(int column) throws SQLException { return read( column, _rs.getBytes(column) ); }
+    public java.sql.Date getDate(int column) throws SQLException { return read( column, _rs.getDate(column) ); }
+    public Time getTime(int column) throws SQLException { return read( column, _rs.getTime(column) ); }
+    public Timestamp getTimestamp(int column) throws SQLException { return read( column, _rs.getTimestamp(column) ); }
+    public java.sql.Date getDate(int column, Calendar cal) throws SQLException { return read( column, _rs.getDate(column,cal) ); }
+    public Time getTime(int column, Calendar cal) throws SQLException { return read( column, _rs.getTime(column,cal) ); }
+    public Timestamp getTimestamp(int column, Calendar cal) throws SQLException { return read( column, _rs.getTimestamp(column,cal) ); }
+    public InputStream getAsciiStream(int column) throws SQLException { return read( column, _rs.getAsciiStream(column) ); }
+    /** @deprecated */
+    @Deprecated
+    public InputStream getUnicodeStream(int column) throws SQLException { return read( column, _rs.getUnicodeStream(column) ); }
+    public InputStream getBinaryStream(int column) throws SQLException { return read( column, _rs.getBinaryStream(column) ); }
+    public Reader getCharacterStream(int column) throws SQLException { return read( column, _rs.getCharacterStream(column) ); }
+    public Object getObject(int column, Map<String,Class<?>> map) throws SQLException { return read( column, _rs.getObject(column,map) ); }
+    public java.net.URL getURL(int column) throws SQLException { return read( column, _rs.getURL(column) ); }
+    public Ref getRef(int column) throws SQLException { return read( column, _rs.getRef(column) ); }
+    public Blob getBlob(int column) throws SQLException { return read( column, _rs.getBlob(column) ); }
+    public Clob getClob(int column) throws SQLException { return read( column, _rs.getClob(column) ); }
+    public Array getArray(int column) throws SQLException { return read( column, _rs.getArray(column) ); }
+    public Object getObject(String column) throws SQLException { return read( column, _rs.getObject(column) ); }
+    public String getString(String column) throws SQLException { return read( column, _rs.getString(column) ); }
+    public boolean getBoolean(String column) throws SQLException { return read( column, _rs.getBoolean(column) ); }
+    public byte getByte(String column) throws SQLException { return read( column, _rs.getByte(column) ); }
+    public short getShort(String column) throws SQLException { return read( column, _rs.getShort(column) ); }
+    public int getInt(String column) throws SQLException { return read( column, _rs.getInt(column) ); }
+    public long getLong(String column) throws SQLException { return read( column, _rs.getLong(column) ); }
+    public float getFloat(String column) throws SQLException { return read( column, _rs.getFloat(column) ); }
+    public double getDouble(String column) throws SQLException { return read( column, _rs.getDouble(column) ); }
+    public BigDecimal getBigDecimal(String column) throws SQLException { return read( column, _rs.getBigDecimal(column) ); }
+    /** @deprecated */
+    @Deprecated
+    public BigDecimal getBigDecimal(String column, int scale) throws SQLException { return read( column, _rs.getBigDecimal(column,scale) ); }
+    public byte[] getBytes(String column) throws SQLException { return read( column, _rs.getBytes(column) ); }
+    public java.sql.Date getDate(String column) throws SQLException { return read( column, _rs.getDate(column) ); }
+    public Time getTime(String column) throws SQLException { return read( column, _rs.getTime(column) ); }
+    public Timestamp getTimestamp(String column) throws SQLException { return read( column, _rs.getTimestamp(column) ); }
+    public java.sql.Date getDate(String column, Calendar cal) throws SQLException { return read( column, _rs.getDate(column,cal) ); }
+    public Time getTime(String column, Calendar cal) throws SQLException { return read( column, _rs.getTime(column,cal) ); }
+    public Timestamp getTimestamp(String column, Calendar cal) throws SQLException { return read( column, _rs.getTimestamp(column,cal) ); }
+    public InputStream getAsciiStream(String column) throws SQLException { return read( column, _rs.getAsciiStream(column) ); }
+    /** @deprecated */
+    @Deprecated
+    public InputStream getUnicodeStream(String column) throws SQLException { return read( column, _rs.getUnicodeStream(column) ); }
+    public InputStream getBinaryStream(String column) throws SQLException { return read( column, _rs.getBinaryStream(column) ); }
+    public Reader getCharacterStream(String column) throws SQLException { return read( column, _rs.getCharacterStream(column) ); }
+    public Object getObject(String column, Map<String,Class<?>> map) throws SQLException { return read( column, _rs.getObject(column,map) ); }
+    public java.net.URL getURL(String column) throws SQLException { return read( column, _rs.getURL(column) ); }
+    public Ref getRef(String column) throws SQLException { return read( column, _rs.getRef(column) ); }
+    public Blob getBlob(String column) throws SQLException { return read( column, _rs.getBlob(column) ); }
+    public Clob getClob(String column) throws SQLException { return read( column, _rs.getClob(column) ); }
+    public Array getArray(String column) throws SQLException { return read( column, _rs.getArray(column) ); }
+    public void updateNull(int column) throws SQLException { _rs.updateNull(column); }
+    public void updateBoolean(int column, boolean x) throws SQLException { _rs.updateBoolean(column,x); }
+    public void updateByte(int column, byte x) throws SQLException { _rs.updateByte(column,x); }
+    public void updateShort(int column, short x) throws SQLException { _rs.updateShort(column,x); }
+    public void updateInt(int column, int x) throws SQLException { _rs.updateInt(column,x); }
+    public void updateLong(int column, long x) throws SQLException { _rs.updateLong(column,x); }
+    public void updateFloat(int column, float x) throws SQLException { _rs.updateFloat(column,x); }
+    public void updateDouble(int column, double x) throws SQLException { _rs.updateDouble(column,x); }
+    public void updateBigDecimal(int column, BigDecimal x) throws SQLException { _rs.updateBigDecimal(column,x); }
+    public void updateString(int column, String x) throws SQLException { _rs.updateString(column,x); }
+    public void updateBytes(int column, byte x[]) throws SQLException { _rs.updateBytes(column,x); }
+    public void updateDate(int column, java.sql.Date x) throws SQLException { _rs.updateDate(column,x); }
+    public void updateTime(int column, Time x) throws SQLException { _rs.updateTime(column,x); }
+    public void updateTimestamp(int column, Timestamp x) throws SQLException { _rs.updateTimestamp(column,x); }
+    public void updateAsciiStream(int column, InputStream x, int length) throws SQLException { _rs.updateAsciiStream(column,x,length); }
+    public void updateBinaryStream(int column, InputStream x, int length) throws SQLException { _rs.updateBinaryStream(column,x,length); }
+    public void updateCharacterStream(int column, Reader x, int length) throws SQLException { _rs.updateCharacterStream(column,x,length); }
+    public void updateObject(int column, Object x, int scale) throws SQLException { _rs.updateObject(column,x,scale); }
+    public void updateObject(int column, Object x) throws SQLException { _rs.updateObject(column,x); }
+    public void updateRef(int column, Ref x) throws SQLException { _rs.updateRef(column,x); }
+    public void updateBlob(int column, Blob x) throws SQLException { _rs.updateBlob(column,x); }
+    public void updateClob(int column, Clob x) throws SQLException { _rs.updateClob(column,x); }
+    public void updateArray(int column, Array x) throws SQLException { _rs.updateArray(column,x); }
+    public void updateNull(String column) throws SQLException { _rs.updateNull(column); }
+    public void updateBoolean(String column, boolean x) throws SQLException { _rs.updateBoolean(column,x); }
+    public void updateByte(String column, byte x) throws SQLException { _rs.updateByte(column,x); }
+    public void updateShort(String column, short x) throws SQLException { _rs.updateShort(column,x); }
+    public void updateInt(String column, int x) throws SQLException { _rs.updateInt(column,x); }
+    public void updateLong(String column, long x) throws SQLException { _rs.updateLong(column,x); }
+    public void updateFloat(String column, float x) throws SQLException { _rs.updateFloat(column,x); }
+    public void updateDouble(String column, double x) throws SQLException { _rs.updateDouble(column,x); }
+    public void updateBigDecimal(String column, BigDecimal x) throws SQLException { _rs.updateBigDecimal(column,x); }
+    public void updateString(String column, String x) throws SQLException { _rs.updateString(column,x); }
+    public void updateBytes(String column, byte x[]) throws SQLException { _rs.updateBytes(column,x); }
+    public void updateDate(String column, java.sql.Date x) throws SQLException { _rs.updateDate(column,x); }
+    public void updateTime(String column, Time x) throws SQLException { _rs.updateTime(column,x); }
+    public void updateTimestamp(String column, Timestamp x) throws SQLException { _rs.updateTimestamp(column,x); }
+    public void updateAsciiStream(String column, InputStream x, int length) throws SQLException { _rs.updateAsciiStream(column,x,length); }
+    public void updateBinaryStream(String column, InputStream x, int length) throws SQLException { _rs.updateBinaryStream(column,x,length); }
+    public void updateCharacterStream(String column, Reader x, int length) throws SQLException { _rs.updateCharacterStream(column,x,length); }
+    public void updateObject(String column, Object x, int scale) throws SQLException { _rs.updateObject(column,x,scale); }
+    public void updateObject(String column, Object x) throws SQLException { _rs.updateObject(column,x); }
+    public void updateRef(String column, Ref x) throws SQLException { _rs.updateRef(column,x); }
+    public void updateBlob(String column, Blob x) throws SQLException { _rs.updateBlob(column,x); }
+    public void updateClob(String column, Clob x) throws SQLException { _rs.updateClob(column,x); }
+    public void updateArray(String column, Array x) throws SQLException { _rs.updateArray(column,x); }
+    public void insertRow() throws SQLException { _rs.insertRow(); }
+    public void updateRow() throws SQLException { _rs.updateRow(); }
+    public void deleteRow() throws SQLException { _rs.deleteRow(); }
+    public void refreshRow() throws SQLException { _rs.refreshRow(); }
+    public void cancelRowUpdates() throws SQLException { _rs.cancelRowUpdates(); }
+    public void moveToInsertRow() throws SQLException { _rs.moveToInsertRow(); }
+    public void moveToCurrentRow() throws SQLException { _rs.moveToCurrentRow(); }
+
+    // ------------------- JDBC 4.0 -----------------------------------------
+
+    public boolean isClosed() throws SQLException { return _rs.isClosed(); }
+    public int getHoldability() throws SQLException { return _rs.getHoldability(); }
+    public Reader getNCharacterStream(int column) throws SQLException { return read( column, _rs.getNCharacterStream(column) ); }
+    public NClob getNClob(int column) throws SQLException { return read( column, _rs.getNClob(column) ); }
+    public String getNString(int column) throws SQLException { return read( column, _rs.getNString(column) ); }
+    public <T> T getObject(int column, Class<T> type) throws SQLException { return read( column, _rs.getObject(column,type) ); }
+    public RowId getRowId(int column) throws SQLException { return read( column, _rs.getRowId(column) ); }
+    public SQLXML getSQLXML(int column) throws SQLException { return read( column, _rs.getSQLXML(column) ); }
+    public Reader getNCharacterStream(String column) throws SQLException { return read( column, _rs.getNCharacterStream(column) ); }
+    public NClob getNClob(String column) throws SQLException { return read( column, _rs.getNClob(column) ); }
+    public String getNString(String column) throws SQLException { return read( column, _rs.getNString(column) ); }
+    public <T> T getObject(String column, Class<T> type) throws SQLException { return read( column, _rs.getObject(column,type) ); }
+    public RowId getRowId(String column) throws SQLException { return read( column, _rs.getRowId(column) ); }
+    public SQLXML getSQLXML(String column) throws SQLException { return read( column, _rs.getSQLXML(column) ); }
+    public void updateAsciiStream(int column, InputStream x) throws SQLException { _rs.updateAsciiStream(column,x); }
+    public void updateAsciiStream(int column, InputStream x, long length) throws SQLException { _rs.updateAsciiStream(column,x,length); }
+    public void updateBinaryStream(int column, InputStream x) throws SQLException { _rs.updateBinaryStream(column,x); }
+    public void updateBinaryStream(int column, InputStream x, long length) throws SQLException { _rs.updateBinaryStream(column,x,length); }
+    public void updateBlob(int column, InputStream x) throws SQLException { _rs.updateBlob(column,x); }
+    public void updateBlob(int column, InputStream x, long length) throws SQLException { _rs.updateBlob(column,x,length); }
+    public void updateCharacterStream(int column, Reader x) throws SQLException { _rs.updateCharacterStream(column,x); }
+    public void updateCharacterStream(int column, Reader x, long length) throws SQLException { _rs.updateCharacterStream(column,x,length); }
+    public void updateClob(int column, Reader x) throws SQLException { _rs.updateClob(column,x); }
+    public void updateClob(int column, Reader x, long length) throws SQLException { _rs.updateClob(column,x,length); }
+    public void updateNCharacterStream(int column, Reader x) throws SQLException { _rs.updateNCharacterStream(column,x); }
+    public void updateNCharacterStream(int column, Reader x, long length) throws SQLException { _rs.updateNCharacterStream(column,x,length); }
+    public void updateNClob(int column, NClob x) throws SQLException { _rs.updateNClob(column,x); }
+    public void updateNClob(int column, Reader x) throws SQLException { _rs.updateNClob(column,x); }
+    public void updateNClob(int column, Reader x, long length) throws SQLException { _rs.updateNClob(column,x,length); }
+    public void updateNString(int column, String x) throws SQLException { _rs.updateNString(column,x); }
+    public void updateRowId(int column, RowId x) throws SQLException { _rs.updateRowId(column,x); }
+    public void updateSQLXML(int column, SQLXML x) throws SQLException { _rs.updateSQLXML(column,x); }
+    public void updateAsciiStream(String column, InputStream x) throws SQLException { _rs.updateAsciiStream(column,x); }
+    public void updateAsciiStream(String column, InputStream x, long length) throws SQLException { _rs.updateAsciiStream(column,x,length); }
+    public void updateBinaryStream(String column, InputStream x) throws SQLException { _rs.updateBinaryStream(column,x); }
+    public void updateBinaryStream(String column, InputStream x, long length) throws SQLException { _rs.updateBinaryStream(column,x,length); }
+    public void updateBlob(String column, InputStream x) throws SQLException { _rs.updateBlob(column,x); }
+    public void updateBlob(String column, InputStream x, long length) throws SQLException { _rs.updateBlob(column,x,length); }
+    public void updateCharacterStream(String column, Reader x) throws SQLException { _rs.updateCharacterStream(column,x); }
+    public void updateCharacterStream(String column, Reader x, long length) throws SQLException { _rs.updateCharacterStream(column,x,length); }
+    public void updateClob(String column, Reader x) throws SQLException { _rs.updateClob(column,x); }
+    public void updateClob(String column, Reader x, long length) throws SQLException { _rs.updateClob(column,x,length); }
+    public void updateNCharacterStream(String column, Reader x) throws SQLException { _rs.updateNCharacterStream(column,x); }
+    public void updateNCharacterStream(String column, Reader x, long length) throws SQLException { _rs.updateNCharacterStream(column,x,length); }
+    public void updateNClob(String column, NClob x) throws SQLException { _rs.updateNClob(column,x); }
+    public void updateNClob(String column, Reader x) throws SQLException { _rs.updateNClob(column,x); }
+    public void updateNClob(String column, Reader x, long length) throws SQLException { _rs.updateNClob(column,x,length); }
+    public void updateNString(String column, String x) throws SQLException { _rs.updateNString(column,x); }
+    public void updateRowId(String column, RowId x) throws SQLException { _rs.updateRowId(column,x); }
+    public void updateSQLXML(String column, SQLXML x) throws SQLException { _rs.updateSQLXML(column,x); }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        return _rs.unwrap( iface );
+
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance( this ) || _rs.isWrapperFor( iface );
+    }
+
+    // ------------------- JDBC 4.2 -----------------------------------------
+
+    public void updateObject(int column, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException { _rs.updateObject(column,x,targetSqlType,scaleOrLength); }
+    public void updateObject(int column, Object x, SQLType targetSqlType) throws SQLException { _rs.updateObject(column,x,targetSqlType); }
+    public void updateObject(String column, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException { _rs.updateObject(column,x,targetSqlType,scaleOrLength); }
+    public void updateObject(String column, Object x, SQLType targetSqlType) throws SQLException { _rs.updateObject(column,x,targetSqlType); }
+
+}
@@ -52,6 +52,27 @@ public class DelegatingStatement implements Statement {
     /** The connection that created me. **/
     protected BasicDatabaseConnection _conn = null;
 
+    /** The SQL last run through execute(), for getResultSet(). **/
+    protected String _sql = null;
+
+    /**
+     * Limits for results of this statement.  Negative uses the pool's,
+     * 0 is unlimited.
+     *
+     * @see DelegatingResultSet
+     */
+    protected int _maxResultRows = -1;
+
+    protected long _maxResultBytes = -1;
+
+    /**
+     * What the caller gave setMaxRows().  The driver gets our row limit plus
+     * one when that's lower.
+     */
+    protected int _maxRows = 0;
+
+    private int _driverMaxRows = 0;
+
     /**
      * Create a wrapper for the Statement which traces this
      * Statement to the Connection which created it and the
@@ -63,6 +84,7 @@ public class DelegatingStatement implements Statement {
     public DelegatingStatement( BasicDatabaseConnection c, Statement s) {
         _stmt = s;
         _conn = c;
+        _conn.statementOpened();
     }
 
     /**
@@ -109,7 +131,18 @@ public class DelegatingStatement implements Statement {
      * any ResultSets that were not explicitly closed.
      */
     public void close() throws SQLException {
-        _stmt.close();
+
+        if ( _closed )
+            return;
+
+        _closed = true;
+
+        try {
+            _stmt.close();
+        } finally {
+            _conn.statementClosed();
+        }
+
     }
 
     public Connection getConnection() throws SQLException {
@@ -119,21 +152,82 @@ public class DelegatingStatement implements Statement {
 
     public ResultSet executeQuery(String sql) throws SQLException {
         checkOpen();
+        limitRows();
+
+        return _conn.guard( this, sql, _maxResultRows, _maxResultBytes,
+                            _conn.execute( sql, () -> _stmt.executeQuery(sql) ) );
+    }
+
+    public void setMaxResultRows( int maxResultRows ) {
+        _maxResultRows = maxResultRows;
+    }
+
+    public void setMaxResultBytes( long maxResultBytes ) {
+        _maxResultBytes = maxResultBytes;
+    }
+
+    /**
+     * Have the driver stop one row past our limit, so it doesn't send rows
+     * we'd only refuse, while the DelegatingResultSet still sees the limit
+     * was passed.  Called before each execution; the driver is only told
+     * when the value changes.
+     */
+    void limitRows() throws SQLException {
+
+        int max = _conn.getDriverMaxRows( _maxRows, _maxResultRows );
+
+        if ( max != _driverMaxRows ) {
+            _stmt.setMaxRows( max );
+            _driverMaxRows = max;
+        }
+
+    }
+
+    /**
+     * Run the query and read it into column major primitive buffers, chunkSize
+     * rows at a time.  Returns the number of rows read.  Combine with a
+     * streaming fetch size (see executeStreamingQuery) for big scans.
+     *
+     * @see ColumnChunk
+     */
+    public long executeColumnar(String sql, int chunkSize, ChunkHandler handler) throws SQLException {
+        checkOpen();
+
+        ResultSet rs = _conn.execute( sql, () -> _stmt.executeQuery(sql) );
+
+        return ColumnChunk.read( rs, chunkSize, handler );
+    }
+
+    /**
+     * Run the query with the fetch size which makes the driver stream rows
+     * instead of reading the whole result into memory.  Statements from
+     * createStatement() are forward only and read only, which streaming
+     * needs.  On MySQL nothing else can run on the connection until the
+     * result is closed.
+     *
+     * @see ResultStream
+     */
+    public ResultSet executeStreamingQuery(String sql) throws SQLException {
+        checkOpen();
+
+        _stmt.setFetchSize( _conn.getStreamingFetchSize() );
+        limitRows();
 
-        return _stmt.executeQuery(sql);
+        return _conn.guard( this, sql, _maxResultRows, _maxResultBytes,
+                            _conn.execute( sql, () -> _stmt.executeQuery(sql) ) );
     }
 
     public ResultSet getResultSet() throws SQLException {
         checkOpen();
 
-        return _stmt.getResultSet();
+        return _conn.guard( this, _sql, _maxResultRows, _maxResultBytes, _stmt.getResultSet() );
     }
 
-    public int executeUpdate(String sql) throws SQLException { checkOpen(); return _stmt.executeUpdate(sql);}
+    public int executeUpdate(String sql) throws SQLException { checkOpen(); return _conn.execute( sql, () -> _stmt.executeUpdate(sql) );}
     public int getMaxFieldSize() throws SQLException { checkOpen(); return _stmt.getMaxFieldSize();}
     public void setMaxFieldSize(int max) throws SQLException { checkOpen(); _stmt.setMaxFieldSize(max);}
-    public int getMaxRows() throws SQLException { checkOpen(); return _stmt.getMaxRows();}
-    public void setMaxRows(int max) throws SQLException { checkOpen(); _stmt.setMaxRows(max);}
+    public int getMaxRows() throws SQLException { checkOpen(); return _maxRows;}
+    public void setMaxRows(int max) throws SQLException { checkOpen(); _maxRows = max;}
     public void setEscapeProcessing(boolean enable) throws SQLException { checkOpen(); _stmt.setEscapeProcessing(enable);}
     public int getQueryTimeout() throws SQLException { checkOpen(); return _stmt.getQueryTimeout();}
     public void setQueryTimeout(int seconds) throws SQLException { checkOpen(); _stmt.setQueryTimeout(seconds);}
@@ -141,7 +235,7 @@ public class DelegatingStatement implements Statement {
     public SQLWarning getWarnings() throws SQLException { checkOpen(); return _stmt.getWarnings();}
     public void clearWarnings() throws SQLException { checkOpen(); _stmt.clearWarnings();}
     public void setCursorName(String name) throws SQLException { checkOpen(); _stmt.setCursorName(name);}
-    public boolean execute(String sql) throws SQLException { checkOpen(); return _stmt.execute(sql);}
+    public boolean execute(String sql) throws SQLException { checkOpen(); _sql = sql; limitRows(); return _conn.execute( sql, () -> _stmt.execute(sql) );}
     public int getUpdateCount() throws SQLException { checkOpen(); return _stmt.getUpdateCount();}
     public boolean getMoreResults() throws SQLException { checkOpen(); return _stmt.getMoreResults();}
     public void setFetchDirection(int direction) throws SQLException { checkOpen(); _stmt.setFetchDirection(direction);}
@@ -152,7 +246,7 @@ public class DelegatingStatement implements Statement {
     public int getResultSetType() throws SQLException { checkOpen(); return _stmt.getResultSetType();}
     public void addBatch(String sql) throws SQLException { checkOpen(); _stmt.addBatch(sql);}
     public void clearBatch() throws SQLException { checkOpen(); _stmt.clearBatch();}
-    public int[] executeBatch() throws SQLException { checkOpen(); return _stmt.executeBatch();}
+    public int[] executeBatch() throws SQLException { checkOpen(); return _conn.execute( () -> _stmt.executeBatch() );}
 
     protected void checkOpen() throws SQLException {
         if(_closed) {
@@ -178,37 +272,40 @@ public class DelegatingStatement implements Statement {
     public int executeUpdate(String sql, int autoGeneratedKeys)
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, autoGeneratedKeys);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, autoGeneratedKeys) );
     }
 
     public int executeUpdate(String sql, int columnIndexes[])
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, columnIndexes);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnIndexes) );
     }
 
     public int executeUpdate(String sql, String columnNames[])
         throws SQLException {
         checkOpen();
-        return _stmt.executeUpdate(sql, columnNames);
+        return _conn.execute( sql, () -> _stmt.executeUpdate(sql, columnNames) );
     }
 
     public boolean execute(String sql, int autoGeneratedKeys)
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, autoGeneratedKeys);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, autoGeneratedKeys) );
     }
 
     public boolean execute(String sql, int columnIndexes[])
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, columnIndexes);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnIndexes) );
     }
 
     public boolean execute(String sql, String columnNames[])
         throws SQLException {
         checkOpen();
-        return _stmt.execute(sql, columnNames);
+        limitRows();
+        return _conn.execute( sql, () -> _stmt.execute(sql, columnNames) );
     }
 
     public int getResultSetHoldability() throws SQLException {
@@ -216,5 +313,72 @@ public class DelegatingStatement implements Statement {
         return _stmt.getResultSetHoldability();
     }
 
+    // ------------------- JDBC 4.0 -----------------------------------------
+
+    public boolean isClosed() throws SQLException {
+        return _closed;
+    }
+
+    public void setPoolable(boolean poolable) throws SQLException {
+        checkOpen();
+        _stmt.setPoolable(poolable);
+    }
+
+    public boolean isPoolable() throws SQLException {
+        checkOpen();
+        return _stmt.isPoolable();
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        return _stmt.unwrap( iface );
+
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance( this ) || _stmt.isWrapperFor( iface );
+    }
+
+    // ------------------- JDBC 4.1 -----------------------------------------
+
+    public void closeOnCompletion() throws SQLException {
+        checkOpen();
+        _stmt.closeOnCompletion();
+    }
+
+    public boolean isCloseOnCompletion() throws SQLException {
+        checkOpen();
+        return _stmt.isCloseOnCompletion();
+    }
+
+    // ------------------- JDBC 4.2 -----------------------------------------
+
+    public long getLargeUpdateCount() throws SQLException { checkOpen(); return _stmt.getLargeUpdateCount();}
+    public void setLargeMaxRows(long max) throws SQLException { checkOpen(); _maxRows = (int)Math.min( max, Integer.MAX_VALUE );}
+    public long getLargeMaxRows() throws SQLException { checkOpen(); return _maxRows;}
+    public long[] executeLargeBatch() throws SQLException { checkOpen(); return _conn.execute( () -> _stmt.executeLargeBatch() );}
+    public long executeLargeUpdate(String sql) throws SQLException { checkOpen(); return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql) );}
+
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys)
+        throws SQLException {
+        checkOpen();
+        return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, autoGeneratedKeys) );
+    }
+
+    public long executeLargeUpdate(String sql, int columnIndexes[])
+        throws SQLException {
+        checkOpen();
+        return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, columnIndexes) );
+    }
+
+    public long executeLargeUpdate(String sql, String columnNames[])
+        throws SQLException {
+        checkOpen();
+        return _conn.execute( sql, () -> _stmt.executeLargeUpdate(sql, columnNames) );
+    }
+
 }
 
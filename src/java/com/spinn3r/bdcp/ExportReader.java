@@ -0,0 +1,253 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/**
+ * Reads back a file written by {@link ResultExporter}, binary or CSV, one
+ * row at a time.  Binary files are mapped whole so can't be bigger than 2GB.
+ * <p>
+ * Rows come back as Object[] with Long, Double, String or byte[] values
+ * (binary) or Strings (CSV), null for NULL.  Meant for verifying exports
+ * rather than speed.
+ */
+public class ExportReader implements AutoCloseable {
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    final boolean binary;
+
+    String[] columns;
+
+    byte[] types;
+
+    MappedByteBuffer buffer = null;
+
+    BufferedReader reader = null;
+
+    public ExportReader( File file ) throws IOException {
+
+        FileChannel channel = new RandomAccessFile( file, "r" ).getChannel();
+
+        try {
+
+            if ( channel.size() > Integer.MAX_VALUE )
+                throw new IOException( "Export file too large to map: " + file );
+
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+        } finally {
+            channel.close();
+        }
+
+        binary = buffer.remaining() >= 4 && buffer.getInt( 0 ) == ResultExporter.MAGIC;
+
+        if ( binary ) {
+            readHeader();
+        } else {
+
+            buffer = null;
+
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), UTF8 ) );
+
+            List<String> header = readCSV();
+
+            if ( header == null )
+                throw new IOException( "Missing CSV header: " + file );
+
+            columns = header.toArray( new String[ header.size() ] );
+
+        }
+
+    }
+
+    void readHeader() throws IOException {
+
+        buffer.getInt();
+
+        byte version = buffer.get();
+
+        if ( version != ResultExporter.VERSION )
+            throw new IOException( "Unknown export version: " + version );
+
+        int count = buffer.getShort();
+
+        columns = new String[ count ];
+        types = new byte[ count ];
+
+        for ( int i = 0; i < count; ++i ) {
+
+            byte[] name = new byte[ buffer.getShort() ];
+            buffer.get( name );
+
+            columns[i] = new String( name, UTF8 );
+            types[i] = buffer.get();
+
+        }
+
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * The next row, or null at the end of the file.
+     */
+    public Object[] next() throws IOException {
+
+        if ( ! binary ) {
+
+            List<String> row = readCSV();
+
+            return row == null ? null : row.toArray();
+
+        }
+
+        if ( ! buffer.hasRemaining() )
+            return null;
+
+        Object[] row = new Object[ columns.length ];
+
+        try {
+
+            for ( int i = 0; i < row.length; ++i ) {
+
+                byte type = buffer.get();
+
+                switch ( type ) {
+
+                    case ResultExporter.NULL:
+                        break;
+
+                    case ResultExporter.LONG:
+                        row[i] = buffer.getLong();
+                        break;
+
+                    case ResultExporter.DOUBLE:
+                        row[i] = buffer.getDouble();
+                        break;
+
+                    case ResultExporter.STRING:
+                    case ResultExporter.BYTES:
+
+                        byte[] bytes = new byte[ buffer.getInt() ];
+                        buffer.get( bytes );
+
+                        row[i] = type == ResultExporter.STRING ? new String( bytes, UTF8 ) : bytes;
+                        break;
+
+                    default:
+                        throw new IOException( "Corrupt export: unknown type " + type + " at " + buffer.position() );
+
+                }
+
+            }
+
+        } catch ( BufferUnderflowException e ) {
+            throw new IOException( "Truncated export at row ending " + buffer.position() );
+        }
+
+        return row;
+
+    }
+
+    /**
+     * Read one CSV record.  Quoted fields may contain newlines.  An unquoted
+     * \N is null.
+     */
+    List<String> readCSV() throws IOException {
+
+        int c = reader.read();
+
+        if ( c < 0 )
+            return null;
+
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        while ( true ) {
+
+            if ( c < 0 && quoted )
+                throw new IOException( "Unterminated quoted CSV field." );
+
+            if ( quoted ) {
+
+                if ( c == '"' ) {
+
+                    reader.mark( 1 );
+
+                    if ( reader.read() == '"' ) {
+                        field.append( '"' );
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+
+                } else {
+                    field.append( (char)c );
+                }
+
+            } else if ( c == '"' ) {
+                quoted = true;
+                wasQuoted = true;
+            } else if ( c == ',' || c == '\n' || c < 0 ) {
+
+                String value = field.toString();
+
+                fields.add( ! wasQuoted && value.equals( "\\N" ) ? null : value );
+
+                field.setLength( 0 );
+                wasQuoted = false;
+
+                if ( c != ',' )
+                    return fields;
+
+            } else if ( c != '\r' ) {
+                field.append( (char)c );
+            }
+
+            c = reader.read();
+
+        }
+
+    }
+
+    public void close() throws IOException {
+
+        buffer = null;
+
+        if ( reader != null )
+            reader.close();
+
+    }
+
+}
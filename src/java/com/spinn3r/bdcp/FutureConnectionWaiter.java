@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.*;
+import java.sql.*;
+
+/**
+ * A waiter which completes a future instead of blocking a thread.
+ */
+class FutureConnectionWaiter extends ConnectionWaiter {
+
+    final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+
+    FutureConnectionWaiter( ConnectionPriority priority, String tenant, long timeout ) {
+        super( priority, tenant, timeout );
+    }
+
+    void signal( BasicDatabaseConnectionPool3 pool ) {
+        pool.completeAsync( this );
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * How long connections borrowed from a single call site were held.
+ */
+public class HoldTimeStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record that a connection was held for the given number of nanoseconds.
+     */
+    public void record( long duration ) {
+
+        count.incrementAndGet();
+        total.addAndGet( duration );
+
+        long current;
+
+        while ( duration > ( current = max.get() ) ) {
+
+            if ( max.compareAndSet( current, duration ) )
+                break;
+
+        }
+
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Mean hold time in millis.
+     */
+    public double getMean() {
+
+        long n = count.get();
+
+        if ( n == 0 )
+            return 0;
+
+        return total.get() / (double)n / 1000000.0;
+
+    }
+
+    /**
+     * Longest hold time in millis.
+     */
+    public double getMax() {
+        return max.get() / 1000000.0;
+    }
+
+    public String toString() {
+        return String.format( "count: %d mean: %.2fms max: %.2fms", getCount(), getMean(), getMax() );
+    }
+
+}
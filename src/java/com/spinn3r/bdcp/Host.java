@@ -0,0 +1,162 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+/**
+ * One database host and what the outlier detector knows about it.
+ */
+class Host {
+
+    final String name;
+
+    final BasicDatabaseConnectionPool pool;
+
+    /**
+     * When the host comes back into the rotation, 0 while it's in it.
+     */
+    volatile long ejectedUntil = 0;
+
+    /**
+     * Ejections in a row, which double the next ejection time.  Counts down
+     * again while the host stays healthy.
+     */
+    int ejections = 0;
+
+    /**
+     * The last replication lag probe, null if never probed.
+     */
+    volatile LagSample lag = null;
+
+    // **** observed during the last interval ***********************************
+
+    long statements = 0;
+
+    double errorRate = 0;
+
+    long connectFailures = 0;
+
+    /**
+     * Statement latency at the detector's percentile, in millis.
+     */
+    double latency = 0;
+
+    /**
+     * How far over the worst of its thresholds the host is.  Above 1.0 it's
+     * an outlier.
+     */
+    double score = 0;
+
+    private long lastStatements = 0;
+    private long lastErrors = 0;
+    private long lastConnectFailures = 0;
+    private long[] lastLatencies = new long[ LatencyHistogram.BUCKETS ];
+
+    Host( String name, BasicDatabaseConnectionPool pool ) {
+        this.name = name;
+        this.pool = pool;
+    }
+
+    boolean isEjected() {
+        return ejectedUntil != 0;
+    }
+
+    /**
+     * How far behind the primary the host may be: the lag it reported plus
+     * the time since it did.  A host never probed, or whose lag is unknown,
+     * is infinitely stale.
+     */
+    long staleness( long now ) {
+
+        LagSample sample = lag;
+
+        if ( sample == null || sample.lag < 0 )
+            return Long.MAX_VALUE;
+
+        return sample.lag + Math.max( 0, now - sample.sampled );
+
+    }
+
+    /**
+     * Whether the host is known to be at most maxStaleness behind.
+     */
+    boolean isWithin( long maxStaleness, long now ) {
+        return staleness( now ) <= maxStaleness;
+    }
+
+    /**
+     * Replication lag in millis at the last probe, -1 if it hasn't been
+     * probed or the lag is unknown.
+     */
+    long getLag() {
+
+        LagSample sample = lag;
+
+        return sample == null ? -1 : sample.lag;
+
+    }
+
+    /**
+     * Read the interval's numbers from the pool's statistics.
+     */
+    void sample( double percentile ) {
+
+        PoolStatistics stats = pool.stats;
+
+        long total = stats.getStatements();
+        long errors = stats.getStatementErrors() - lastErrors;
+        long failures = stats.getConnectFailures();
+        long[] latencies = stats.latencies.snapshot();
+
+        statements = total - lastStatements;
+        errorRate = statements > 0 ? errors / (double)statements : 0;
+        connectFailures = failures - lastConnectFailures;
+
+        long[] interval = new long[ latencies.length ];
+
+        for ( int i = 0; i < latencies.length; ++i ) {
+            interval[i] = latencies[i] - lastLatencies[i];
+        }
+
+        latency = LatencyHistogram.percentile( interval, percentile ) / 1000000.0;
+
+        lastStatements = total;
+        lastErrors += errors;
+        lastConnectFailures = failures;
+        lastLatencies = latencies;
+
+    }
+
+    public String toString() {
+
+        return String.format( "%s (%s statements: %d errors: %.1f%% latency: %.2fms connect failures: %d lag: %dms)",
+                              name,
+                              isEjected() ? "ejected" : "admitted",
+                              statements,
+                              errorRate * 100,
+                              latency,
+                              connectFailures,
+                              getLag() );
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+/**
+ * One replication lag probe of a host.  Immutable so the lag and when it was
+ * probed are always read together.
+ */
+class LagSample {
+
+    /**
+     * Millis behind the primary, -1 when the probe failed or replication
+     * isn't running.
+     */
+    final long lag;
+
+    final long sampled;
+
+    LagSample( long lag, long sampled ) {
+        this.lag = lag;
+        this.sampled = sampled;
+    }
+
+}
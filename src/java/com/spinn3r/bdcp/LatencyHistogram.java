@@ -0,0 +1,114 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts of latencies in log scale buckets: four per power of two, so any
+ * duration lands in a bucket at most ~19% wide.  Recording is one atomic
+ * increment.  Take snapshots and subtract them to get an interval.
+ */
+class LatencyHistogram {
+
+    /**
+     * Enough for every positive long.
+     */
+    static final int BUCKETS = 248;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+
+    void record( long duration ) {
+        counts.incrementAndGet( bucket( duration ) );
+    }
+
+    long[] snapshot() {
+
+        long[] result = new long[ BUCKETS ];
+
+        for ( int i = 0; i < BUCKETS; ++i ) {
+            result[i] = counts.get( i );
+        }
+
+        return result;
+
+    }
+
+    static int bucket( long value ) {
+
+        if ( value < 4 )
+            return (int)Math.max( 0, value );
+
+        int bit = 63 - Long.numberOfLeadingZeros( value );
+
+        //the two bits after the highest pick the quarter.
+        return ( bit - 1 ) * 4 + (int)( ( value >>> ( bit - 2 ) ) & 3 );
+
+    }
+
+    /**
+     * The largest value which lands in the bucket.
+     */
+    static long upperBound( int bucket ) {
+
+        if ( bucket < 4 )
+            return bucket;
+
+        int bit = bucket / 4 + 1;
+
+        long lower = (long)( 4 + bucket % 4 ) << ( bit - 2 );
+
+        return lower + ( 1L << ( bit - 2 ) ) - 1;
+
+    }
+
+    /**
+     * The value at the percentile of the counts, or 0 when there are none.
+     */
+    static long percentile( long[] counts, double percentile ) {
+
+        long total = 0;
+
+        for ( long count : counts ) {
+            total += count;
+        }
+
+        if ( total == 0 )
+            return 0;
+
+        long rank = Math.max( 1, (long)Math.ceil( percentile * total ) );
+
+        for ( int i = 0; i < counts.length; ++i ) {
+
+            rank -= counts[i];
+
+            if ( rank <= 0 )
+                return upperBound( i );
+
+        }
+
+        return upperBound( counts.length - 1 );
+
+    }
+
+}
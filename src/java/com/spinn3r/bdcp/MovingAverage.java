@@ -0,0 +1,78 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * An exponentially weighted moving average updated without locking.
+ */
+class MovingAverage {
+
+    private final AtomicLong bits = new AtomicLong( Double.doubleToLongBits( Double.NaN ) );
+
+    /**
+     * Weight of each new sample.  NaN uses PoolStatistics.ALPHA.
+     */
+    private final double alpha;
+
+    MovingAverage() {
+        this( Double.NaN );
+    }
+
+    MovingAverage( double alpha ) {
+        this.alpha = alpha;
+    }
+
+    void update( double sample ) {
+
+        double weight = Double.isNaN( alpha ) ? PoolStatistics.ALPHA : alpha;
+
+        while ( true ) {
+
+            long current = bits.get();
+            double value = Double.longBitsToDouble( current );
+
+            //the first sample seeds the average.
+            double next = Double.isNaN( value ) ?
+                sample : value + weight * ( sample - value );
+
+            if ( bits.compareAndSet( current, Double.doubleToLongBits( next ) ) )
+                return;
+
+        }
+
+    }
+
+    /**
+     * The current average, or 0 before the first sample.
+     */
+    double get() {
+
+        double value = Double.longBitsToDouble( bits.get() );
+
+        return Double.isNaN( value ) ? 0 : value;
+
+    }
+
+}
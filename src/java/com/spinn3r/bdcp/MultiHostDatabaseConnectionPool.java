@@ -0,0 +1,328 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.sql.*;
+import javax.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Spreads borrows over one pool per database host, for example a set of
+ * replicas serving the same reads.
+ * <p>
+ * Hosts are used round robin.  If a host can't give us a connection within
+ * hostTimeout we try the next one.  A lazy connection from a host's pool is
+ * bound before we hand it out, so a host that's down fails the borrow here
+ * and we can fail over, rather than failing the caller's first statement.
+ * <p>
+ * With enableOutlierDetection an {@link OutlierDetector} watches the
+ * statistics each host's connections gather and takes sick hosts out of the
+ * rotation for a while; ejected hosts are only used when every other host
+ * has failed.
+ * <p>
+ * For replicas, enableLagMonitor starts a {@link ReplicationLagMonitor}
+ * which probes each host's replication lag.  Hosts further behind than
+ * maxLag are only used when every fresh host has failed, and
+ * getFreshConnection( maxStaleness ) only ever uses hosts known to be within
+ * the bound.
+ */
+public class MultiHostDatabaseConnectionPool implements DataSource {
+
+    private static final Logger log = Logger.getLogger();
+
+    /**
+     * Start an OutlierDetector in initialize().
+     */
+    public boolean enableOutlierDetection = false;
+
+    public OutlierDetector detector = null;
+
+    /**
+     * Start a ReplicationLagMonitor in initialize().
+     */
+    public boolean enableLagMonitor = false;
+
+    public ReplicationLagMonitor lagMonitor = null;
+
+    /**
+     * Hosts whose staleness (in millis), the lag they last reported plus the
+     * time since, is over this are only used when no fresh host could be.
+     * Hosts not probed yet, or whose lag is unknown, count as over.  0
+     * ignores lag.
+     */
+    public long maxLag = 0;
+
+    /**
+     * How long (in millis) to wait for one host's pool before trying the
+     * next.  Non positive waits as long as that pool's maxWait.
+     */
+    public long hostTimeout = 1000;
+
+    final List<Host> hosts = new CopyOnWriteArrayList<Host>();
+
+    /**
+     * Where the next borrow starts looking.
+     */
+    final AtomicInteger cursor = new AtomicInteger();
+
+    /**
+     * Add a host.  The pool should already be configured.
+     */
+    public void addHost( String name, BasicDatabaseConnectionPool pool ) {
+        hosts.add( new Host( name, pool ) );
+    }
+
+    /**
+     * Called AFTER we've added hosts and set all necessary variables.
+     */
+    public void initialize() {
+
+        if ( enableOutlierDetection && detector == null ) {
+
+            detector = new OutlierDetector( this );
+            detector.start();
+
+        }
+
+        if ( enableLagMonitor && lagMonitor == null ) {
+
+            lagMonitor = new ReplicationLagMonitor( this );
+            lagMonitor.start();
+
+        }
+
+    }
+
+    public Connection getConnection() throws SQLException {
+        return getFreshConnection( -1 );
+    }
+
+    /**
+     * Borrow from a host known to be at most maxStaleness millis behind, for
+     * reads which can't see older data.  Throws if there's none so the
+     * caller can go to the primary instead.  Negative takes any host.
+     */
+    public Connection getFreshConnection( long maxStaleness ) throws SQLException {
+
+        List<Host> hosts = this.hosts;
+
+        if ( hosts.size() == 0 )
+            throw new SQLException( "No hosts to borrow from." );
+
+        int start = cursor.getAndIncrement() & Integer.MAX_VALUE;
+
+        long now = System.currentTimeMillis();
+
+        SQLException failure = null;
+
+        //admitted fresh hosts first, then lagging ones.  A sick host is still
+        //better than no host.
+        for ( int pass = 0; pass < 3; ++pass ) {
+
+            for ( int i = 0; i < hosts.size(); ++i ) {
+
+                Host host = hosts.get( ( start + i ) % hosts.size() );
+
+                if ( pass( host, now ) != pass )
+                    continue;
+
+                if ( maxStaleness >= 0 && ! host.isWithin( maxStaleness, now ) )
+                    continue;
+
+                try {
+                    return borrow( host );
+                } catch ( SQLException e ) {
+
+                    log.warn( "Unable to borrow from %s: %s", host.name, e.getMessage() );
+
+                    if ( failure != null )
+                        e.setNextException( failure );
+
+                    failure = e;
+
+                }
+
+            }
+
+        }
+
+        if ( failure == null )
+            throw new SQLException( "No host within " + maxStaleness + "ms of the primary." );
+
+        throw failure;
+
+    }
+
+    /**
+     * Borrow from the host's pool, binding a lazy connection so we find out
+     * now whether the host can serve us.
+     */
+    private Connection borrow( Host host ) throws SQLException {
+
+        Connection conn = hostTimeout > 0 ? host.pool.getConnection( hostTimeout ) : host.pool.getConnection();
+
+        if ( conn instanceof BasicDatabaseConnection ) {
+
+            BasicDatabaseConnection bdc = (BasicDatabaseConnection)conn;
+
+            try {
+                bdc.conn();
+            } catch ( SQLException e ) {
+
+                try {
+                    bdc.close();
+                } catch ( SQLException c ) {
+                    log.warn( "Unable to close connection to %s: %s", host.name, c.getMessage() );
+                }
+
+                throw e;
+
+            }
+
+        }
+
+        return conn;
+
+    }
+
+    /**
+     * Which pass of getConnection() tries the host.
+     */
+    private int pass( Host host, long now ) {
+
+        if ( host.isEjected() )
+            return 2;
+
+        if ( maxLag > 0 && host.staleness( now ) > maxLag )
+            return 1;
+
+        return 0;
+
+    }
+
+    public BasicDatabaseConnectionPool getPool( String name ) {
+
+        Host host = getHost( name );
+
+        return host == null ? null : host.pool;
+
+    }
+
+    public boolean isEjected( String name ) {
+
+        Host host = getHost( name );
+
+        return host != null && host.isEjected();
+
+    }
+
+    /**
+     * Replication lag of the host at its last probe in millis, or -1 if it
+     * hasn't been probed or the probe failed.
+     */
+    public long getLag( String name ) {
+
+        Host host = getHost( name );
+
+        return host == null ? -1 : host.getLag();
+
+    }
+
+    /**
+     * Names of the hosts currently out of the rotation.
+     */
+    public List<String> getEjectedHosts() {
+
+        List<String> result = new ArrayList<String>();
+
+        for ( Host host : hosts ) {
+
+            if ( host.isEjected() )
+                result.add( host.name );
+
+        }
+
+        return result;
+
+    }
+
+    Host getHost( String name ) {
+
+        for ( Host host : hosts ) {
+
+            if ( host.name.equals( name ) )
+                return host;
+
+        }
+
+        return null;
+
+    }
+
+    public String toString() {
+        return hosts.toString();
+    }
+
+    // **** DataSource **********************************************************
+
+    public Connection getConnection(String username, String password)
+        throws SQLException {
+
+        return getConnection();
+
+    }
+
+    public java.io.PrintWriter getLogWriter() throws SQLException {
+        return new PrintWriter( System.out );
+    }
+
+    public void setLogWriter(java.io.PrintWriter out) throws SQLException {}
+    public void setLoginTimeout(int seconds) throws SQLException {}
+    public int getLoginTimeout() throws SQLException {
+        return 1000;
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException( "We log with log5j." );
+    }
+
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+
+        if ( iface.isInstance( this ) )
+            return iface.cast( this );
+
+        throw new SQLException( "Not a wrapper for " + iface.getName() );
+
+    }
+
+    public boolean isWrapperFor( Class<?> iface ) {
+        return iface.isInstance( this );
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * A thread which takes sick hosts of a {@link MultiHostDatabaseConnectionPool}
+ * out of the rotation.
+ * <p>
+ * Every interval each host is scored from what its connections recorded in
+ * its {@link PoolStatistics} during the interval:
+ * <ul>
+ * <li>connect failures against maxConnectFailures.</li>
+ * <li>the statement error rate against maxErrorRate.</li>
+ * <li>statement latency at latencyPercentile against latencyFactor times
+ * the median of the other hosts.</li>
+ * </ul>
+ * Error rate and latency are only judged once a host ran minStatements in
+ * the interval.  A host scoring over 1.0 on any of them is ejected for
+ * baseEjectionTime, doubled for every ejection in a row up to
+ * maxEjectionTime, and is admitted again once that's up.  Each healthy
+ * interval takes one off the ejections in a row.
+ * <p>
+ * No more than maxEjectedFraction of the hosts are ejected at once, worst
+ * scores first, so a problem on every host (or in the database they share)
+ * doesn't take the whole pool out.
+ */
+public class OutlierDetector extends Thread {
+
+    private static final Logger log = Logger.getLogger();
+
+    public long interval = 10000L;
+
+    /**
+     * Statements a host has to run in an interval before its error rate and
+     * latency count.
+     */
+    public long minStatements = 100;
+
+    public int maxConnectFailures = 5;
+
+    public double maxErrorRate = 0.05;
+
+    public double latencyPercentile = 0.99;
+
+    /**
+     * How many times slower than the median of the other hosts a host may
+     * be.
+     */
+    public double latencyFactor = 3.0;
+
+    /**
+     * Latency (in millis) below which a host is never slow, so hosts all
+     * answering in a few millis don't get ejected over noise.
+     */
+    public double minLatency = 10.0;
+
+    public long baseEjectionTime = 30000L;
+
+    public long maxEjectionTime = 300000L;
+
+    public double maxEjectedFraction = 0.5;
+
+    public MultiHostDatabaseConnectionPool pool = null;
+
+    public OutlierDetector( MultiHostDatabaseConnectionPool pool ) {
+
+        super( "JDBC outlier detector" );
+
+        this.pool = pool;
+        this.setDaemon( true );
+
+    }
+
+    public void run() {
+
+        while( true ) {
+
+            try {
+                Thread.sleep( interval );
+            } catch ( InterruptedException e ) {
+                return;
+            }
+
+            try {
+                detect();
+            } catch ( Exception e ) {
+                log.error( "Unable to detect outliers: ", e );
+            }
+
+        }
+
+    }
+
+    /**
+     * Score every host, admit hosts whose ejection is up and eject outliers.
+     * Called once per interval.
+     */
+    public synchronized void detect() {
+
+        long now = System.currentTimeMillis();
+
+        List<Host> hosts = new ArrayList<Host>( pool.hosts );
+
+        for ( Host host : hosts ) {
+            host.sample( latencyPercentile );
+        }
+
+        int ejected = 0;
+
+        List<Host> outliers = new ArrayList<Host>();
+
+        for ( Host host : hosts ) {
+
+            if ( host.isEjected() && now >= host.ejectedUntil ) {
+
+                log.info( "Admitting %s again after %d ejections", host.name, host.ejections );
+                host.ejectedUntil = 0;
+
+            }
+
+            host.score = score( host, hosts );
+
+            if ( host.isEjected() ) {
+                ++ejected;
+            } else if ( host.score > 1.0 ) {
+                outliers.add( host );
+            } else if ( host.ejections > 0 ) {
+                --host.ejections;
+            }
+
+        }
+
+        Collections.sort( outliers, ( a, b ) -> Double.compare( b.score, a.score ) );
+
+        int maxEjected = (int)( hosts.size() * maxEjectedFraction );
+
+        for ( Host host : outliers ) {
+
+            if ( ejected >= maxEjected ) {
+
+                log.warn( "Not ejecting %s; %d of %d hosts are already ejected", host, ejected, hosts.size() );
+                continue;
+
+            }
+
+            long duration = Math.min( maxEjectionTime, baseEjectionTime << Math.min( host.ejections, 20 ) );
+
+            ++host.ejections;
+            host.ejectedUntil = now + duration;
+
+            ++ejected;
+
+            log.warn( "Ejecting %s for %dms", host, duration );
+
+        }
+
+    }
+
+    /**
+     * How far over the worst of its thresholds the host was in the last
+     * interval.
+     */
+    double score( Host host, List<Host> hosts ) {
+
+        double score = host.connectFailures / (double)Math.max( 1, maxConnectFailures );
+
+        if ( host.statements < minStatements )
+            return score;
+
+        score = Math.max( score, host.errorRate / maxErrorRate );
+
+        List<Double> others = new ArrayList<Double>();
+
+        for ( Host other : hosts ) {
+
+            if ( other != host && other.statements >= minStatements )
+                others.add( other.latency );
+
+        }
+
+        if ( others.size() > 0 && host.latency > minLatency ) {
+
+            Collections.sort( others );
+
+            double median = others.get( others.size() / 2 );
+
+            if ( others.size() % 2 == 0 )
+                median = ( median + others.get( others.size() / 2 - 1 ) ) / 2;
+
+            if ( median > 0 )
+                score = Math.max( score, host.latency / ( median * latencyFactor ) );
+
+        }
+
+        return score;
+
+    }
+
+}
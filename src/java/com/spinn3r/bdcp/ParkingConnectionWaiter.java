@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.sql.*;
+
+/**
+ * A waiter which parks the calling thread until a connection is available.
+ */
+class ParkingConnectionWaiter extends ConnectionWaiter {
+
+    final Thread thread = Thread.currentThread();
+
+    ParkingConnectionWaiter( ConnectionPriority priority, String tenant, long timeout ) {
+        super( priority, tenant, timeout );
+    }
+
+    void signal( BasicDatabaseConnectionPool3 pool ) {
+        LockSupport.unpark( thread );
+    }
+
+    /**
+     * Park until we're handed a connection or our timeout elapses.  Returns
+     * null if a slot was reserved for us instead of a connection.
+     */
+    Connection await() throws SQLException {
+
+        long maxWait = timeout;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( maxWait );
+        boolean interrupted = false;
+
+        while ( state.get() == WAITING ) {
+
+            if ( maxWait > 0 ) {
+
+                long remaining = deadline - System.nanoTime();
+
+                if ( remaining <= 0 )
+                    break;
+
+                LockSupport.parkNanos( this, remaining );
+
+            } else {
+                LockSupport.park( this );
+            }
+
+            if ( Thread.interrupted() ) {
+                interrupted = true;
+                break;
+            }
+
+        }
+
+        if ( interrupted )
+            Thread.currentThread().interrupt();
+
+        if ( cancel() ) {
+
+            if ( interrupted )
+                throw new SQLException( "Interrupted while waiting for connection to database." );
+
+            throw new SQLException( "Unable to obtain connection to database.  " +
+                                    "Wait time exceeded: " + maxWait );
+
+        }
+
+        //we lost the race with a returning thread so the connection is ours.
+        return conn;
+
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.sql.*;
+import javax.sql.*;
+
+/**
+ * A BasicDatabaseConnectionPool3 split into per tenant partitions so one
+ * tenant can't use up every connection in the pool.
+ * <p>
+ * Each partition has a quota of connections guaranteed to it.  Whatever
+ * maxActive leaves over after the quotas is a shared overflow region any
+ * tenant can borrow from once it's over quota.  Quota a partition isn't using
+ * is lent out too, up to lendFraction of it, so a spike in one tenant doesn't
+ * leave connections sitting unused.  Lent connections come back as they're
+ * returned: waiters still under their quota are always served before
+ * anyone borrowing over quota.
+ * <p>
+ * All partitions share the same physical connections; a partition is only
+ * accounting.  Priority classes aren't used to order waiters here.
+ */
+public class PartitionedDatabaseConnectionPool
+    extends BasicDatabaseConnectionPool3
+    implements DataSource {
+
+    /**
+     * Quota for tenants which weren't given one with setQuota().  They can
+     * only use the overflow region and lent quota.
+     */
+    public int defaultQuota = 0;
+
+    /**
+     * Fraction of a partition's unused quota that other tenants may borrow.
+     * Lent connections only come back as they're returned, so at 1.0 a
+     * tenant can find its whole quota lent out and have to wait for it; the
+     * rest of the quota is always free for its owner.  0.0 keeps quotas
+     * strictly for their owners.
+     */
+    public double lendFraction = 0.5;
+
+    private static final ThreadLocal<String> currentTenant = new ThreadLocal<String>();
+
+    final ConcurrentHashMap<String,Partition> partitions = new ConcurrentHashMap<String,Partition>();
+
+    /**
+     * The partitions in the order they were created, for nextWaiter() to
+     * index into.  Partitions are never removed.
+     */
+    final List<Partition> order = new CopyOnWriteArrayList<Partition>();
+
+    /**
+     * Where nextWaiter() starts scanning partitions so that none of them is
+     * always served first.  Guarded by the lock.
+     */
+    int cursor = 0;
+
+    /**
+     * Borrow for the given tenant from this thread until cleared.  Plain
+     * getConnection() calls (including withConnection()) use it.
+     */
+    public static void setCurrentTenant( String tenant ) {
+        currentTenant.set( tenant );
+    }
+
+    public static String getCurrentTenant() {
+        return currentTenant.get();
+    }
+
+    public static void clearCurrentTenant() {
+        currentTenant.remove();
+    }
+
+    /**
+     * Guarantee the tenant the given number of connections.  Keep the sum of
+     * all quotas below maxActive.
+     */
+    public void setQuota( String tenant, int quota ) {
+        getPartition( tenant ).quota = quota;
+    }
+
+    /**
+     * Borrow for the tenant the calling thread is tagged with.
+     *
+     * @see #setCurrentTenant
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection( ConnectionPriority.getCurrent(), getCurrentTenant(), maxWait );
+    }
+
+    public Connection getConnection( String tenant ) throws SQLException {
+        return getConnection( ConnectionPriority.getCurrent(), tenant, maxWait );
+    }
+
+    public Connection getConnection( ConnectionPriority priority ) throws SQLException {
+        return getConnection( priority, getCurrentTenant(), maxWait );
+    }
+
+    public Connection getConnection( long timeout ) throws SQLException {
+        return getConnection( ConnectionPriority.getCurrent(), getCurrentTenant(), timeout );
+    }
+
+    public Connection getConnection( ConnectionPriority priority,
+                                     String tenant ) throws SQLException {
+        return getConnection( priority, tenant, maxWait );
+    }
+
+    /**
+     * Borrow for the current tenant waiting at most the given number of
+     * millis.
+     */
+    public Connection getConnection( ConnectionPriority priority, long timeout ) throws SQLException {
+        return getConnection( priority, getCurrentTenant(), timeout );
+    }
+
+    /**
+     * Borrow for the tenant waiting at most the given number of millis.  The
+     * tenant is taken now even if the borrow is put off by lazyConnections.
+     */
+    public Connection getConnection( ConnectionPriority priority,
+                                     String tenant,
+                                     long timeout ) throws SQLException {
+
+        if ( tenant == null )
+            throw new SQLException( "No tenant given for partitioned pool." );
+
+        return lazy( () -> getConnection( new ParkingConnectionWaiter( priority, tenant, timeout ) ) );
+
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync( String tenant,
+                                                             long timeout,
+                                                             TimeUnit unit ) {
+
+        return getConnectionAsync( ConnectionPriority.getCurrent(), tenant, timeout, unit );
+
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync( ConnectionPriority priority,
+                                                             long timeout,
+                                                             TimeUnit unit ) {
+
+        return getConnectionAsync( priority, getCurrentTenant(), timeout, unit );
+
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync( ConnectionPriority priority,
+                                                             String tenant,
+                                                             long timeout,
+                                                             TimeUnit unit ) {
+
+        if ( tenant == null ) {
+
+            CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+            future.completeExceptionally( new SQLException( "No tenant given for partitioned pool." ) );
+
+            return future;
+
+        }
+
+        return getConnectionAsync( new FutureConnectionWaiter( priority, tenant, unit.toMillis( timeout ) ),
+                                   timeout, unit );
+
+    }
+
+    Partition getPartition( String tenant ) {
+
+        Partition partition = partitions.get( tenant );
+
+        if ( partition == null ) {
+
+            Partition created = new Partition( tenant, defaultQuota );
+
+            partition = partitions.putIfAbsent( tenant, created );
+
+            if ( partition == null ) {
+
+                order.add( created );
+                partition = created;
+
+            }
+
+        }
+
+        return partition;
+
+    }
+
+    /**
+     * Connections borrowed by each tenant, for monitoring.
+     */
+    public Map<String,Integer> getBorrowedByTenant() {
+
+        Map<String,Integer> result = new TreeMap<String,Integer>();
+
+        for ( Partition partition : partitions.values() ) {
+            result.put( partition.tenant, partition.borrowed.get() );
+        }
+
+        return result;
+
+    }
+
+    // **** admission ***********************************************************
+
+    /**
+     * Tenants under quota are always admitted.  Over quota they may use
+     * whatever isn't held back for other partitions' unused quota.
+     */
+    boolean admit( ConnectionWaiter waiter ) {
+
+        Partition partition = getPartition( waiter.tenant );
+
+        if ( partition.borrowed.get() < partition.quota )
+            return true;
+
+        int inUse = 0;
+        int held = 0;
+
+        for ( Partition other : partitions.values() ) {
+
+            int count = other.borrowed.get();
+
+            inUse += count;
+
+            if ( other != partition && other.quota > count )
+                held += (int)Math.ceil( ( other.quota - count ) * ( 1.0 - lendFraction ) );
+
+        }
+
+        return inUse + held < maxActive;
+
+    }
+
+    void onBorrow( ConnectionWaiter waiter ) {
+
+        super.onBorrow( waiter );
+
+        getPartition( waiter.tenant ).borrowed.incrementAndGet();
+
+    }
+
+    void onRelease( ConnectionPriority priority, String tenant ) {
+
+        super.onRelease( priority, tenant );
+
+        getPartition( tenant ).borrowed.decrementAndGet();
+
+    }
+
+    void enqueue( ConnectionWaiter waiter ) {
+        getPartition( waiter.tenant ).waiters.addLast( waiter );
+    }
+
+    /**
+     * Serve waiters still under their quota first, then anyone over quota who
+     * is admitted.  Partitions are scanned round robin within each pass.
+     */
+    ConnectionWaiter nextWaiter( Connection conn ) {
+
+        int size = order.size();
+
+        if ( size == 0 )
+            return null;
+
+        cursor = ( cursor + 1 ) % size;
+
+        for ( int pass = 0; pass < 2; ++pass ) {
+
+            for ( int i = 0; i < size; ++i ) {
+
+                Partition partition = order.get( ( cursor + i ) % size );
+
+                if ( partition.waiters.isEmpty() )
+                    continue;
+
+                boolean underQuota = partition.borrowed.get() < partition.quota;
+
+                if ( pass == 0 && ! underQuota )
+                    continue;
+
+                ConnectionWaiter waiter = partition.waiters.peekFirst();
+
+                if ( pass == 1 && ! admit( waiter ) )
+                    continue;
+
+                while ( ( waiter = partition.waiters.pollFirst() ) != null ) {
+
+                    waiting.decrementAndGet();
+
+                    if ( waiter.offer( conn ) ) {
+                        onBorrow( waiter );
+                        return waiter;
+                    }
+
+                }
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+}
+
+/**
+ * Accounting for one tenant's share of a partitioned pool.
+ */
+class Partition {
+
+    final String tenant;
+
+    volatile int quota;
+
+    final AtomicInteger borrowed = new AtomicInteger();
+
+    /**
+     * Guarded by the pool lock.
+     */
+    final ArrayDeque<ConnectionWaiter> waiters = new ArrayDeque<ConnectionWaiter>();
+
+    Partition( String tenant, int quota ) {
+        this.tenant = tenant;
+        this.quota = quota;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Running totals of how long borrowers wait for connections, how long they
+ * hold them and how long the database takes to answer statements.  All times
+ * are in nanoseconds.
+ * <p>
+ * Totals only ever grow; take the difference between two readings to get
+ * the numbers for an interval.  The moving averages follow recent behavior
+ * and are cheap enough to read on every borrow.
+ */
+public class PoolStatistics {
+
+    /**
+     * Weight of each new sample in the moving averages.
+     */
+    public static double ALPHA = 0.05;
+
+    final AtomicLong borrows = new AtomicLong();
+    final AtomicLong borrowWait = new AtomicLong();
+
+    final AtomicLong holds = new AtomicLong();
+    final AtomicLong holdTime = new AtomicLong();
+
+    final AtomicLong statements = new AtomicLong();
+    final AtomicLong statementTime = new AtomicLong();
+    final AtomicLong statementErrors = new AtomicLong();
+
+    final AtomicLong shed = new AtomicLong();
+
+    final AtomicLong connectFailures = new AtomicLong();
+
+    final MovingAverage averageWait = new MovingAverage();
+    final MovingAverage averageHold = new MovingAverage();
+    final MovingAverage averageStatement = new MovingAverage();
+
+    final LatencyHistogram latencies = new LatencyHistogram();
+
+    public void recordBorrow( long wait ) {
+
+        borrows.incrementAndGet();
+        borrowWait.addAndGet( wait );
+        averageWait.update( wait );
+
+    }
+
+    public void recordHold( long duration ) {
+
+        holds.incrementAndGet();
+        holdTime.addAndGet( duration );
+        averageHold.update( duration );
+
+    }
+
+    public void recordStatement( long duration, boolean failed ) {
+
+        statements.incrementAndGet();
+        statementTime.addAndGet( duration );
+        averageStatement.update( duration );
+        latencies.record( duration );
+
+        if ( failed )
+            statementErrors.incrementAndGet();
+
+    }
+
+    /**
+     * A borrow was rejected because it couldn't be served in time.
+     */
+    public void recordShed() {
+        shed.incrementAndGet();
+    }
+
+    /**
+     * We couldn't open a physical connection to the database.
+     */
+    public void recordConnectFailure() {
+        connectFailures.incrementAndGet();
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    public long getBorrowWait() {
+        return borrowWait.get();
+    }
+
+    public long getHolds() {
+        return holds.get();
+    }
+
+    public long getHoldTime() {
+        return holdTime.get();
+    }
+
+    public long getStatements() {
+        return statements.get();
+    }
+
+    public long getStatementTime() {
+        return statementTime.get();
+    }
+
+    public long getStatementErrors() {
+        return statementErrors.get();
+    }
+
+    public long getShed() {
+        return shed.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    /**
+     * Statement latency at the given percentile (0.99 for p99) since the
+     * pool was created.  Accurate to within a quarter of a power of two.
+     */
+    public long getStatementPercentile( double percentile ) {
+        return LatencyHistogram.percentile( latencies.snapshot(), percentile );
+    }
+
+    public double getAverageWait() {
+        return averageWait.get();
+    }
+
+    public double getAverageHold() {
+        return averageHold.get();
+    }
+
+    public double getAverageStatement() {
+        return averageStatement.get();
+    }
+
+    public String toString() {
+
+        return String.format( "borrows: %d shed: %d wait: %.2fms hold: %.2fms statements: %d latency: %.2fms errors: %d",
+                              getBorrows(),
+                              getShed(),
+                              getAverageWait() / 1000000.0,
+                              getAverageHold() / 1000000.0,
+                              getStatements(),
+                              getAverageStatement() / 1000000.0,
+                              getStatementErrors() );
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * A thread which probes the replication lag of every host of a
+ * {@link MultiHostDatabaseConnectionPool} so the pool can route reads away
+ * from replicas which have fallen behind.  Hosts are probed in parallel on
+ * the monitor's own threads, never a borrower's.  A probe which hasn't
+ * answered within probeTimeout leaves its host's lag unknown, and the host
+ * isn't probed again until it does, so one hung replica can't stall the
+ * others or pile up probes.
+ * <p>
+ * The probe is any query returning the lag in seconds; the value is read
+ * from probeColumn, or the first column when that's null.  The default is
+ * for MySQL.  On PostgreSQL use something like:
+ * <pre>
+ * SELECT COALESCE( EXTRACT( EPOCH FROM now() - pg_last_xact_replay_timestamp() ), 0 )
+ * </pre>
+ * A probe returning no rows means the host isn't a replica and has no lag.
+ * A NULL (replication stopped) or a failed probe makes the lag unknown,
+ * which the pool treats as infinitely stale.
+ */
+public class ReplicationLagMonitor extends Thread {
+
+    private static final Logger log = Logger.getLogger();
+
+    public long interval = 1000L;
+
+    public String probe = "SHOW SLAVE STATUS";
+
+    public String probeColumn = "Seconds_Behind_Master";
+
+    /**
+     * Millis to wait for a connection and for the probe to answer.
+     */
+    public long probeTimeout = 5000L;
+
+    public MultiHostDatabaseConnectionPool pool = null;
+
+    private final ExecutorService probes = Executors.newCachedThreadPool( ( r ) -> {
+
+        Thread thread = new Thread( r, "JDBC replication lag probe" );
+        thread.setDaemon( true );
+        return thread;
+
+    } );
+
+    /**
+     * The last probe started for each host.  Only used by the monitor.
+     */
+    private final Map<Host,Future<Long>> running = new HashMap<Host,Future<Long>>();
+
+    public ReplicationLagMonitor( MultiHostDatabaseConnectionPool pool ) {
+
+        super( "JDBC replication lag monitor" );
+
+        this.pool = pool;
+        this.setDaemon( true );
+
+    }
+
+    public void run() {
+
+        while( true ) {
+
+            try {
+                probe();
+            } catch ( Exception e ) {
+                log.error( "Unable to probe replication lag: ", e );
+            }
+
+            try {
+                Thread.sleep( interval );
+            } catch ( InterruptedException e ) {
+
+                probes.shutdownNow();
+                return;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Probe every host once, all at the same time, waiting at most
+     * probeTimeout for them.  Called once per interval.
+     */
+    public void probe() {
+
+        long deadline = System.currentTimeMillis() + probeTimeout;
+
+        running.keySet().retainAll( pool.hosts );
+
+        Map<Host,Future<Long>> round = new LinkedHashMap<Host,Future<Long>>();
+
+        for ( Host host : pool.hosts ) {
+
+            Future<Long> last = running.get( host );
+
+            if ( last != null && ! last.isDone() ) {
+
+                log.warn( "Replication lag probe of %s still hasn't answered", host.name );
+                record( host, -1 );
+                continue;
+
+            }
+
+            Future<Long> probe = probes.submit( () -> probe( host ) );
+
+            running.put( host, probe );
+            round.put( host, probe );
+
+        }
+
+        for ( Map.Entry<Host,Future<Long>> entry : round.entrySet() ) {
+
+            Host host = entry.getKey();
+
+            long lag;
+
+            try {
+                lag = entry.getValue().get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+            } catch ( TimeoutException e ) {
+
+                log.warn( "Replication lag probe of %s didn't answer within %dms", host.name, probeTimeout );
+                lag = -1;
+
+            } catch ( ExecutionException e ) {
+
+                log.warn( "Unable to probe replication lag of %s: %s", host.name, e.getCause().getMessage() );
+                lag = -1;
+
+            } catch ( InterruptedException e ) {
+
+                Thread.currentThread().interrupt();
+                return;
+
+            }
+
+            record( host, lag );
+
+        }
+
+    }
+
+    private void record( Host host, long lag ) {
+
+        LagSample last = host.lag;
+
+        if ( lag < 0 && ( last == null || last.lag >= 0 ) )
+            log.warn( "Replication lag of %s is unknown", host.name );
+
+        host.lag = new LagSample( lag, System.currentTimeMillis() );
+
+    }
+
+    /**
+     * The host's lag in millis, or -1 if replication isn't running.
+     */
+    long probe( Host host ) throws SQLException {
+
+        Connection conn = host.pool.getConnection( probeTimeout );
+
+        try {
+
+            Statement stmt = conn.createStatement();
+
+            try {
+
+                stmt.setQueryTimeout( (int)Math.max( 1, probeTimeout / 1000 ) );
+
+                ResultSet rs = stmt.executeQuery( probe );
+
+                if ( ! rs.next() )
+                    return 0;
+
+                double seconds = probeColumn == null ? rs.getDouble( 1 ) : rs.getDouble( probeColumn );
+
+                if ( rs.wasNull() )
+                    return -1;
+
+                return (long)( seconds * 1000 );
+
+            } finally {
+                stmt.close();
+            }
+
+        } finally {
+            conn.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,1081 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import java.io.*;
+import java.sql.*;
+
+/**
+ * A read through cache of query results for prepared statements, keyed by
+ * SQL, the connection's catalog and schema, and bound parameters.
+ * <p>
+ * Results are copied into a {@link CachedResultSet} so an entry holds no
+ * connection or driver state.  Entries expire after ttl millis and the least
+ * recently used ones are evicted once there are more than maxEntries or they
+ * hold more than maxBytes.
+ * <p>
+ * Every table has a generation which is bumped whenever a statement writing
+ * to it goes through the pool (and again when its transaction commits).  An
+ * entry remembers the generations of its tables from before the query ran and
+ * is dropped once any of them moves, so a write racing with a read can't leave
+ * stale rows behind.  Statements we can't work out the tables of (CALL, DDL
+ * on views and so on) invalidate everything.  Writes which bypass the pool
+ * are only picked up when the ttl expires.
+ * <p>
+ * Only SELECTs whose tables we can find are cached, and only outside of
+ * transactions.  Queries calling NOW(), RAND() and friends, using user
+ * variables, or locking rows are never cached.  A cacheable query is read
+ * into memory up to maxRows rows.  Bigger results are read from the
+ * database from there on and not kept.
+ * <p>
+ * With coalesce on, a miss for a query that's already running waits for and
+ * shares that result instead of running it again.  When an entry expires
+ * under load only one caller goes to the database.  Callers only join a
+ * query which started after the last write to its tables, so a thread still
+ * reads its own writes.
+ */
+public class ResultCache {
+
+    /**
+     * How long (in millis) an entry may be served.
+     */
+    public long ttl = 60000L;
+
+    public int maxEntries = 10000;
+
+    /**
+     * Rough cap on the memory held by cached rows.
+     */
+    public long maxBytes = 64L * 1024 * 1024;
+
+    /**
+     * Results with more rows than this aren't kept.
+     */
+    public int maxRows = 1000;
+
+    /**
+     * Share one execution between concurrent misses for the same query.
+     */
+    public boolean coalesce = true;
+
+    /**
+     * Marks statements which invalidate every table.
+     */
+    private static final String[] ALL = new String[0];
+
+    private static final String[] NONE = new String[0];
+
+    private static final Set<String> KEYWORDS = new HashSet<String>( Arrays.asList(
+        "where", "join", "inner", "left", "right", "outer", "cross", "natural",
+        "straight_join", "on", "using", "group", "order", "limit", "union",
+        "having", "for", "lock", "procedure", "into", "set", "values", "select",
+        "from", "partition", "force", "use", "ignore", "window" ) );
+
+    /**
+     * Words whose results we can't cache, whether or not they're called
+     * like functions.
+     */
+    private static final Set<String> VOLATILE = new HashSet<String>( Arrays.asList(
+        "current_timestamp", "current_date", "current_time", "utc_timestamp",
+        "utc_date", "utc_time", "localtime", "localtimestamp", "current_user",
+        "sql_no_cache", "into", "@" ) );
+
+    /**
+     * Functions whose results we can't cache.  Only followed by ( are they
+     * calls, so a table or column called user doesn't stop caching.
+     */
+    private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<String>( Arrays.asList(
+        "now", "rand", "uuid", "uuid_short", "sysdate", "curdate", "curtime",
+        "unix_timestamp", "last_insert_id", "found_rows", "row_count",
+        "connection_id", "user", "session_user", "system_user", "database",
+        "schema", "sleep", "get_lock", "release_lock" ) );
+
+    private static final Set<String> READ_ONLY = new HashSet<String>( Arrays.asList(
+        "select", "show", "set", "use", "begin", "start", "commit", "rollback",
+        "savepoint", "release", "explain", "describe", "desc", "do", "values" ) );
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Access ordered so the eldest entry is the least recently used.
+     * Guarded by the lock.
+     */
+    final LinkedHashMap<List<Object>,CacheEntry> entries =
+        new LinkedHashMap<List<Object>,CacheEntry>( 16, 0.75f, true );
+
+    /**
+     * Guarded by the lock.
+     */
+    long bytes = 0;
+
+    final ConcurrentHashMap<String,AtomicLong> generations = new ConcurrentHashMap<String,AtomicLong>();
+
+    /**
+     * Bumped by invalidateAll().
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Tables written by each write statement we've seen.
+     */
+    final ConcurrentHashMap<String,String[]> writes = new ConcurrentHashMap<String,String[]>();
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong invalidations = new AtomicLong();
+    final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Queries being run for a miss, by key.
+     */
+    final ConcurrentHashMap<List<Object>,Flight> flights = new ConcurrentHashMap<List<Object>,Flight>();
+
+    /**
+     * parse() results by SQL.  UNCACHEABLE stands in for null.
+     */
+    final ConcurrentHashMap<String,CachedQuery> queries = new ConcurrentHashMap<String,CachedQuery>();
+
+    private static final CachedQuery UNCACHEABLE = new CachedQuery( null, null );
+
+    /**
+     * How the given SQL can be cached, or null if it can't.
+     */
+    public CachedQuery parse( String sql ) {
+
+        if ( sql == null )
+            return null;
+
+        CachedQuery result = queries.get( sql );
+
+        if ( result == null ) {
+
+            result = doParse( sql );
+
+            if ( result == null )
+                result = UNCACHEABLE;
+
+            //don't let one off statements grow this forever.
+            if ( queries.size() > 1024 )
+                queries.clear();
+
+            queries.put( sql, result );
+
+        }
+
+        return result == UNCACHEABLE ? null : result;
+
+    }
+
+    private CachedQuery doParse( String sql ) {
+
+        List<String> tokens = tokenize( sql );
+
+        if ( tokens.isEmpty() || ! tokens.get( 0 ).equals( "select" ) )
+            return null;
+
+        for ( int i = 0; i < tokens.size(); ++i ) {
+
+            String token = tokens.get( i );
+
+            if ( VOLATILE.contains( token ) )
+                return null;
+
+            if ( VOLATILE_FUNCTIONS.contains( token ) && i + 1 < tokens.size() && tokens.get( i + 1 ).equals( "(" ) )
+                return null;
+
+            //FOR UPDATE and LOCK IN SHARE MODE
+            if ( token.equals( "for" ) || token.equals( "lock" ) )
+                return null;
+
+        }
+
+        Set<String> tables = readTables( tokens );
+
+        if ( tables.isEmpty() )
+            return null;
+
+        return new CachedQuery( sql, tables.toArray( new String[ tables.size() ] ) );
+
+    }
+
+    /**
+     * Run the query through the cache.  call runs it against the database on
+     * a miss.  We stop copying a result once it has more than maxRows rows
+     * and hand back the rest straight from the driver.  We wait on another
+     * thread running the same query no longer than the statement's query
+     * timeout.
+     */
+    ResultSet executeQuery( CachedQuery query,
+                            String namespace,
+                            Map<Integer,Object> params,
+                            Statement statement,
+                            StatementCall<ResultSet> call ) throws SQLException {
+
+        List<Object> key = getKey( query, namespace, params );
+
+        if ( key == null )
+            return call.call();
+
+        long timeout = statement != null ? statement.getQueryTimeout() * 1000L : 0;
+
+        CachedResult result = load( key, query, timeout, () -> CachedResultSet.materialize( call.call(), maxRows ) );
+
+        if ( result.rest != null )
+            return new ResumedResultSet( result, statement );
+
+        return new CachedResultSet( result, statement );
+
+    }
+
+    /**
+     * Run a query for the pool rather than a statement.  The loader, which
+     * borrows a connection, is only called if there's no cached or running
+     * result to use.  Pool queries have no query timeout so we wait on a
+     * running query for as long as it takes.
+     */
+    CachedResult executeQuery( CachedQuery query,
+                               String namespace,
+                               Map<Integer,Object> params,
+                               StatementCall<CachedResult> loader ) throws SQLException {
+
+        List<Object> key = getKey( query, namespace, params );
+
+        if ( key == null )
+            return loader.call();
+
+        return load( key, query, 0, loader );
+
+    }
+
+    /**
+     * Get the result from the cache, from a running query for the same key,
+     * or else from the loader.  If the running query takes longer than
+     * timeout millis we stop waiting and run our own.  Zero waits forever.
+     */
+    CachedResult load( List<Object> key,
+                       CachedQuery query,
+                       long timeout,
+                       StatementCall<CachedResult> loader ) throws SQLException {
+
+        CachedResult result = get( key );
+
+        if ( result != null ) {
+            hits.incrementAndGet();
+            return result;
+        }
+
+        //taken before the query so a write landing while it runs
+        //invalidates what we read.
+        long[] before = getGenerations( query );
+
+        Flight flight = null;
+
+        if ( coalesce ) {
+
+            flight = new Flight( before );
+
+            Flight running = flights.putIfAbsent( key, flight );
+
+            if ( running != null ) {
+
+                //a query which started before a write we may have made
+                //could miss it.  Run our own.
+                if ( Arrays.equals( running.generations, before ) ) {
+
+                    result = running.await( timeout );
+
+                    //null when it was too big to share or took too long.
+                    if ( result != null ) {
+                        coalesced.incrementAndGet();
+                        return result;
+                    }
+
+                }
+
+                flight = null;
+
+            }
+
+        }
+
+        misses.incrementAndGet();
+
+        Throwable failure = null;
+
+        try {
+
+            result = loader.call();
+
+            //the rest of a partly copied result is ours alone.
+            boolean complete = result.rest == null && result.rows.length <= maxRows;
+
+            if ( complete )
+                put( key, query, before, result );
+
+            if ( flight != null )
+                flight.future.complete( complete ? result : null );
+
+            return result;
+
+        } catch ( Throwable t ) {
+
+            failure = t;
+            throw t;
+
+        } finally {
+
+            //followers are woken whatever went wrong, Errors included, or
+            //they'd wait on us forever.
+            if ( flight != null ) {
+
+                if ( ! flight.future.isDone() )
+                    flight.future.completeExceptionally( failure != null ? failure : new SQLException( "Query failed." ) );
+
+                flights.remove( key, flight );
+
+            }
+
+        }
+
+    }
+
+    /**
+     * The SQL and namespace followed by the parameter values, or null if a
+     * parameter can't be compared by value.
+     */
+    List<Object> getKey( CachedQuery query, String namespace, Map<Integer,Object> params ) {
+
+        List<Object> key = new ArrayList<Object>( params.size() + 2 );
+
+        key.add( query.sql );
+        key.add( namespace );
+
+        for ( Object value : params.values() ) {
+
+            if ( value instanceof InputStream || value instanceof Reader ||
+                 value instanceof Blob || value instanceof Clob ||
+                 value instanceof Ref || value instanceof Array ||
+                 value instanceof RowId || value instanceof SQLXML ) {
+
+                return null;
+
+            }
+
+            if ( value instanceof byte[] )
+                value = ByteBuffer.wrap( ( (byte[])value ).clone() );
+
+            key.add( value );
+
+        }
+
+        return key;
+
+    }
+
+    CachedResult get( List<Object> key ) {
+
+        lock.lock();
+
+        try {
+
+            CacheEntry entry = entries.get( key );
+
+            if ( entry == null )
+                return null;
+
+            if ( entry.expires < System.currentTimeMillis() || ! entry.isCurrent( this ) ) {
+                remove( key );
+                return null;
+            }
+
+            return entry.result;
+
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    void put( List<Object> key, CachedQuery query, long[] before, CachedResult result ) {
+
+        CacheEntry entry = new CacheEntry( result, query, before, System.currentTimeMillis() + ttl );
+
+        lock.lock();
+
+        try {
+
+            remove( key );
+
+            entries.put( key, entry );
+            bytes += entry.result.bytes;
+
+            Iterator<CacheEntry> it = entries.values().iterator();
+
+            while ( it.hasNext() && ( entries.size() > maxEntries || bytes > maxBytes ) ) {
+
+                bytes -= it.next().result.bytes;
+                it.remove();
+
+            }
+
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void remove( List<Object> key ) {
+
+        CacheEntry removed = entries.remove( key );
+
+        if ( removed != null )
+            bytes -= removed.result.bytes;
+
+    }
+
+    // **** invalidation ********************************************************
+
+    AtomicLong getGeneration( String table ) {
+
+        AtomicLong result = generations.get( table );
+
+        if ( result == null ) {
+
+            AtomicLong created = new AtomicLong();
+
+            result = generations.putIfAbsent( table, created );
+
+            if ( result == null )
+                result = created;
+
+        }
+
+        return result;
+
+    }
+
+    long[] getGenerations( CachedQuery query ) {
+
+        long[] result = new long[ query.tables.length + 1 ];
+
+        result[0] = generation.get();
+
+        for ( int i = 0; i < query.tables.length; ++i ) {
+            result[ i + 1 ] = getGeneration( query.tables[i] ).get();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Invalidate whatever the given statement writes to.  Returns the tables
+     * written, or null if it could have written to any of them.
+     */
+    public String[] invalidate( String sql ) {
+
+        int start = 0;
+
+        while ( start < sql.length() && Character.isWhitespace( sql.charAt( start ) ) ) {
+            ++start;
+        }
+
+        //the common case, and one we don't want to tokenize every time.
+        if ( sql.regionMatches( true, start, "select", 0, 6 ) )
+            return NONE;
+
+        String[] tables = writes.get( sql );
+
+        if ( tables == null ) {
+
+            List<String> tokens = tokenize( sql );
+
+            tables = writeTables( tokens );
+
+            //don't let one off statements grow this forever.
+            if ( writes.size() > 1024 )
+                writes.clear();
+
+            writes.put( sql, tables );
+
+        }
+
+        if ( tables == ALL ) {
+            invalidateAll();
+            return null;
+        }
+
+        for ( String table : tables ) {
+            invalidateTable( table );
+        }
+
+        return tables;
+
+    }
+
+    public void invalidateTable( String table ) {
+
+        getGeneration( table ).incrementAndGet();
+        invalidations.incrementAndGet();
+
+    }
+
+    public void invalidateAll() {
+
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+
+    }
+
+    // **** SQL parsing *********************************************************
+
+    /**
+     * Split SQL into lower cased words and punctuation.  Quoted identifiers
+     * lose their quotes, string literals become ? and comments are dropped.
+     */
+    static List<String> tokenize( String sql ) {
+
+        List<String> tokens = new ArrayList<String>();
+
+        int i = 0;
+        int length = sql.length();
+
+        while ( i < length ) {
+
+            char c = sql.charAt( i );
+
+            if ( Character.isWhitespace( c ) ) {
+                ++i;
+            } else if ( c == '-' && sql.startsWith( "--", i ) || c == '#' ) {
+
+                while ( i < length && sql.charAt( i ) != '\n' ) {
+                    ++i;
+                }
+
+            } else if ( c == '/' && sql.startsWith( "/*", i ) ) {
+
+                int end = sql.indexOf( "*/", i + 2 );
+                i = end < 0 ? length : end + 2;
+
+            } else if ( c == '\'' ) {
+
+                ++i;
+
+                while ( i < length ) {
+
+                    char d = sql.charAt( i++ );
+
+                    if ( d == '\\' )
+                        ++i;
+                    else if ( d == '\'' )
+                        break;
+
+                }
+
+                tokens.add( "?" );
+
+            } else if ( c == '`' || c == '"' ) {
+
+                int end = sql.indexOf( c, i + 1 );
+
+                if ( end < 0 )
+                    end = length;
+
+                addWord( tokens, sql.substring( i + 1, end ).toLowerCase() );
+                i = end + 1;
+
+            } else if ( Character.isLetterOrDigit( c ) || c == '_' || c == '$' ) {
+
+                int start = i;
+
+                while ( i < length ) {
+
+                    char d = sql.charAt( i );
+
+                    if ( ! ( Character.isLetterOrDigit( d ) || d == '_' || d == '$' || d == '.' ) )
+                        break;
+
+                    ++i;
+
+                }
+
+                addWord( tokens, sql.substring( start, i ).toLowerCase() );
+
+            } else if ( c == '.' && tokens.size() > 0 && isIdentifier( tokens.get( tokens.size() - 1 ) ) ) {
+
+                //`schema`.table
+                addWord( tokens, "." );
+                ++i;
+
+            } else {
+
+                tokens.add( String.valueOf( c ) );
+                ++i;
+
+            }
+
+        }
+
+        return tokens;
+
+    }
+
+    /**
+     * Add a word, joining it to the previous one if that ended in a dot.
+     */
+    private static void addWord( List<String> tokens, String word ) {
+
+        int last = tokens.size() - 1;
+
+        if ( last >= 0 && ( word.equals( "." ) || tokens.get( last ).endsWith( "." ) ) && isIdentifier( tokens.get( last ) ) ) {
+            tokens.set( last, tokens.get( last ) + word );
+        } else {
+            tokens.add( word );
+        }
+
+    }
+
+    /**
+     * Tables named after FROM and JOIN, including inside subqueries.
+     */
+    static Set<String> readTables( List<String> tokens ) {
+
+        Set<String> tables = new TreeSet<String>();
+
+        for ( int i = 0; i < tokens.size(); ++i ) {
+
+            String token = tokens.get( i );
+
+            if ( token.equals( "from" ) || token.equals( "join" ) )
+                readTableList( tokens, i + 1, tables );
+
+        }
+
+        return tables;
+
+    }
+
+    /**
+     * Read "a, b x, c AS y" starting at the given token.
+     */
+    static int readTableList( List<String> tokens, int i, Set<String> tables ) {
+
+        while ( i < tokens.size() ) {
+
+            String token = tokens.get( i );
+
+            //a derived table.  Its own FROM is found separately.
+            if ( ! isIdentifier( token ) || KEYWORDS.contains( token ) )
+                return i;
+
+            tables.add( getTableName( token ) );
+            ++i;
+
+            //skip an alias.
+            if ( i < tokens.size() && tokens.get( i ).equals( "as" ) ) {
+                i += 2;
+            } else if ( i < tokens.size() && isIdentifier( tokens.get( i ) ) && ! KEYWORDS.contains( tokens.get( i ) ) ) {
+                ++i;
+            }
+
+            if ( i >= tokens.size() || ! tokens.get( i ).equals( "," ) )
+                return i;
+
+            ++i;
+
+        }
+
+        return i;
+
+    }
+
+    /**
+     * Tables a statement may write to.  NONE for statements which don't
+     * write and ALL when we can't tell.
+     */
+    static String[] writeTables( List<String> tokens ) {
+
+        if ( tokens.isEmpty() )
+            return NONE;
+
+        String verb = tokens.get( 0 );
+
+        if ( READ_ONLY.contains( verb ) )
+            return NONE;
+
+        if ( verb.equals( "with" ) )
+            return withTables( tokens );
+
+        Set<String> tables = new TreeSet<String>();
+
+        int i = 1;
+
+        if ( verb.equals( "insert" ) || verb.equals( "replace" ) ) {
+
+            while ( i < tokens.size() && ( tokens.get( i ).equals( "into" ) || isModifier( tokens.get( i ) ) ) ) {
+                ++i;
+            }
+
+            readTableList( tokens, i, tables );
+
+        } else if ( verb.equals( "update" ) ) {
+
+            while ( i < tokens.size() && isModifier( tokens.get( i ) ) ) {
+                ++i;
+            }
+
+            readTableList( tokens, i, tables );
+
+            tables.addAll( readTables( tokens ) );
+
+        } else if ( verb.equals( "delete" ) ) {
+
+            //multi table deletes name their targets before FROM.
+            while ( i < tokens.size() && ! tokens.get( i ).equals( "from" ) ) {
+
+                String token = tokens.get( i++ );
+
+                if ( isIdentifier( token ) && ! isModifier( token ) )
+                    tables.add( getTableName( token ) );
+
+            }
+
+            tables.addAll( readTables( tokens ) );
+
+        } else if ( verb.equals( "truncate" ) || verb.equals( "alter" ) || verb.equals( "drop" ) ||
+                    verb.equals( "rename" ) || verb.equals( "create" ) || verb.equals( "optimize" ) ||
+                    verb.equals( "repair" ) || verb.equals( "load" ) ) {
+
+            int table = tokens.indexOf( "table" );
+
+            if ( table < 0 ) {
+
+                //TRUNCATE t
+                if ( ! verb.equals( "truncate" ) )
+                    return ALL;
+
+                table = 0;
+
+            }
+
+            i = table + 1;
+
+            //DROP TABLE IF EXISTS, CREATE TABLE IF NOT EXISTS
+            while ( i < tokens.size() && ( tokens.get( i ).equals( "if" ) ||
+                                           tokens.get( i ).equals( "not" ) ||
+                                           tokens.get( i ).equals( "exists" ) ) ) {
+                ++i;
+            }
+
+            readTableList( tokens, i, tables );
+
+            //RENAME TABLE a TO b
+            for ( int j = i; j < tokens.size() - 1; ++j ) {
+
+                if ( tokens.get( j ).equals( "to" ) )
+                    tables.add( getTableName( tokens.get( j + 1 ) ) );
+
+            }
+
+        } else {
+            return ALL;
+        }
+
+        if ( tables.isEmpty() )
+            return ALL;
+
+        return tables.toArray( new String[ tables.size() ] );
+
+    }
+
+    /**
+     * WITH a AS ( ... ), b ( x, y ) AS ( ... ) statement.  Only the common
+     * table expressions and the statement which write count, so a WITH
+     * around a SELECT writes nothing.
+     */
+    static String[] withTables( List<String> tokens ) {
+
+        Set<String> tables = new TreeSet<String>();
+
+        int i = 1;
+
+        if ( i < tokens.size() && tokens.get( i ).equals( "recursive" ) )
+            ++i;
+
+        while ( true ) {
+
+            //the name, and maybe its columns.
+            ++i;
+
+            if ( i < tokens.size() && tokens.get( i ).equals( "(" ) )
+                i = skipParens( tokens, i );
+
+            if ( i + 1 >= tokens.size() || ! tokens.get( i ).equals( "as" ) || ! tokens.get( i + 1 ).equals( "(" ) )
+                return ALL;
+
+            int end = skipParens( tokens, i + 1 );
+
+            if ( ! tokens.get( end - 1 ).equals( ")" ) )
+                return ALL;
+
+            if ( ! addWriteTables( tokens.subList( i + 2, end - 1 ), tables ) )
+                return ALL;
+
+            i = end;
+
+            if ( i >= tokens.size() || ! tokens.get( i ).equals( "," ) )
+                break;
+
+            ++i;
+
+        }
+
+        if ( ! addWriteTables( tokens.subList( i, tokens.size() ), tables ) )
+            return ALL;
+
+        if ( tables.isEmpty() )
+            return NONE;
+
+        return tables.toArray( new String[ tables.size() ] );
+
+    }
+
+    /**
+     * Add what the statement writes.  False if it could write anything.
+     */
+    private static boolean addWriteTables( List<String> tokens, Set<String> tables ) {
+
+        String[] written = writeTables( tokens );
+
+        if ( written == ALL )
+            return false;
+
+        Collections.addAll( tables, written );
+
+        return true;
+
+    }
+
+    /**
+     * The index after the ) closing the ( at i, or the end if it's never
+     * closed.
+     */
+    static int skipParens( List<String> tokens, int i ) {
+
+        int depth = 0;
+
+        for ( ; i < tokens.size(); ++i ) {
+
+            String token = tokens.get( i );
+
+            if ( token.equals( "(" ) ) {
+                ++depth;
+            } else if ( token.equals( ")" ) && --depth == 0 ) {
+                return i + 1;
+            }
+
+        }
+
+        return i;
+
+    }
+
+    static boolean isModifier( String token ) {
+
+        return token.equals( "low_priority" ) || token.equals( "high_priority" ) ||
+               token.equals( "delayed" ) || token.equals( "ignore" ) || token.equals( "quick" );
+
+    }
+
+    /**
+     * Quoted identifiers may start with a digit so numbers count too.
+     * Taking a number for a table only costs an extra invalidation.
+     */
+    static boolean isIdentifier( String token ) {
+
+        if ( token.length() == 0 )
+            return false;
+
+        char c = token.charAt( 0 );
+
+        return Character.isLetterOrDigit( c ) || c == '_' || c == '$';
+
+    }
+
+    /**
+     * Drop the schema from schema.table.
+     */
+    static String getTableName( String token ) {
+        return token.substring( token.lastIndexOf( '.' ) + 1 );
+    }
+
+    // **** statistics **********************************************************
+
+    public int size() {
+
+        lock.lock();
+
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Misses which shared another caller's query.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public void clear() {
+
+        lock.lock();
+
+        try {
+            entries.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    public String toString() {
+
+        return String.format( "entries: %d hits: %d misses: %d coalesced: %d invalidations: %d",
+                              size(), getHits(), getMisses(), getCoalesced(), getInvalidations() );
+
+    }
+
+}
+
+/**
+ * A cached result and the table generations it was read at.
+ */
+class CacheEntry {
+
+    final CachedResult result;
+
+    final CachedQuery query;
+
+    final long[] generations;
+
+    final long expires;
+
+    CacheEntry( CachedResult result, CachedQuery query, long[] generations, long expires ) {
+        this.result = result;
+        this.query = query;
+        this.generations = generations;
+        this.expires = expires;
+    }
+
+    boolean isCurrent( ResultCache cache ) {
+        return Arrays.equals( generations, cache.getGenerations( query ) );
+    }
+
+}
+
+/**
+ * A query being run for a miss, which other misses for the same key can wait
+ * on.
+ */
+class Flight {
+
+    final long[] generations;
+
+    final CompletableFuture<CachedResult> future = new CompletableFuture<CachedResult>();
+
+    Flight( long[] generations ) {
+        this.generations = generations;
+    }
+
+    /**
+     * Wait at most timeout millis, or forever when zero, for the result.
+     * Returns null when it can't be shared or didn't come in time, in which
+     * case the caller runs the query itself.
+     * <p>
+     * A failure is wrapped in a new exception for each waiter since several
+     * threads rethrowing (and adding suppressed exceptions to) the same
+     * instance would trample each other.
+     */
+    CachedResult await( long timeout ) throws SQLException {
+
+        try {
+
+            if ( timeout > 0 )
+                return future.get( timeout, TimeUnit.MILLISECONDS );
+
+            return future.get();
+
+        } catch ( TimeoutException e ) {
+
+            return null;
+
+        } catch ( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted while waiting for query." );
+
+        } catch ( ExecutionException e ) {
+
+            Throwable cause = e.getCause();
+
+            if ( cause instanceof SQLException ) {
+
+                SQLException sqle = (SQLException)cause;
+
+                throw new SQLException( sqle.getMessage(), sqle.getSQLState(), sqle.getErrorCode(), sqle );
+
+            }
+
+            throw new SQLException( "Query failed: " + cause, cause );
+
+        }
+
+    }
+
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Dumps a query to disk by streaming its rows (see {@link ResultStream}) and
+ * encoding them into memory mapped files, rolling over to a new file once
+ * one reaches maxFileSize.  Files are named base-00000.bin, base-00001.bin
+ * and so on (.csv for CSV).
+ * <p>
+ * Each row is encoded into one reusable buffer and copied into the mapping
+ * with a single put(), so rows never become Java objects beyond what the
+ * driver hands us and the OS writes pages back at its own pace.  The mapping
+ * is moved along the file mapSize bytes at a time, unmapping the last window
+ * as we go.  When a file is closed it's trimmed to what was written and
+ * synced to disk once.
+ * <p>
+ * The binary format is, for every file:
+ * <pre>
+ * int    MAGIC
+ * byte   VERSION
+ * short  column count
+ * per column: short name length, UTF-8 name, byte type
+ * per row, per column: byte type (NULL, LONG, DOUBLE, STRING, BYTES)
+ *   LONG long, DOUBLE double, STRING/BYTES int length then the bytes
+ * </pre>
+ * Dates are LONG epoch millis.  DECIMAL, NUMERIC and unsigned BIGINT are
+ * STRING so they round trip exactly.  CSV has a header line, quotes fields as
+ * needed and writes null as \N.  Read either back with {@link ExportReader}.
+ */
+public class ResultExporter {
+
+    private static final Logger log = Logger.getLogger();
+
+    public static final int BINARY = 0;
+
+    public static final int CSV = 1;
+
+    public static final int MAGIC = 0x42444350; // BDCP
+
+    public static final byte VERSION = 1;
+
+    public static final byte NULL = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte STRING = 3;
+    public static final byte BYTES = 4;
+
+    public int format = BINARY;
+
+    /**
+     * Roll over to a new file past this size.  A row bigger than this still
+     * gets a file of its own.
+     */
+    public long maxFileSize = 1024L * 1024 * 1024;
+
+    /**
+     * How much of the file is mapped at once.
+     */
+    public int mapSize = 64 * 1024 * 1024;
+
+    public BasicDatabaseConnectionPool pool = null;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final CharsetEncoder encoder = UTF8.newEncoder();
+
+    /**
+     * The row being encoded.
+     */
+    private ByteBuffer row = ByteBuffer.allocate( 64 * 1024 );
+
+    private ByteBuffer header = null;
+
+    private byte[] types = null;
+
+    private boolean[] temporal = null;
+
+    private File base = null;
+
+    private List<File> files = null;
+
+    private FileChannel channel = null;
+
+    private MappedByteBuffer mapped = null;
+
+    /**
+     * File offset the current mapping starts at.
+     */
+    private long mappedAt = 0;
+
+    /**
+     * Bytes written to the current file.
+     */
+    private long written = 0;
+
+    private long rows = 0;
+
+    public ResultExporter( BasicDatabaseConnectionPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * Run the query and write its rows.  Returns the files written, in order.
+     */
+    public List<File> export( File base, String sql, Object... params ) throws SQLException, IOException {
+
+        this.base = base;
+        this.files = new ArrayList<File>();
+        this.rows = 0;
+
+        ResultStream stream = pool.stream( sql, params );
+
+        try {
+
+            writeHeader( stream.getMetaData() );
+            open();
+
+            stream.each( ( rs ) -> {
+
+                try {
+
+                    encode( rs );
+                    append();
+
+                } catch ( IOException e ) {
+                    throw new SQLException( "Unable to write export: " + e.getMessage(), e );
+                }
+
+            } );
+
+        } finally {
+
+            stream.close();
+            close();
+
+        }
+
+        log.info( "Exported %d rows to %d files: %s", rows, files.size(), sql );
+
+        return files;
+
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Encode the file header once, as every file repeats it.
+     */
+    void writeHeader( ResultSetMetaData md ) throws SQLException {
+
+        int columns = md.getColumnCount();
+
+        types = new byte[ columns ];
+        temporal = new boolean[ columns ];
+
+        row.clear();
+
+        if ( format == CSV ) {
+
+            for ( int i = 0; i < columns; ++i ) {
+
+                if ( i > 0 )
+                    put( (byte)',' );
+
+                putCSV( md.getColumnLabel( i + 1 ) );
+
+            }
+
+            put( (byte)'\n' );
+
+        } else {
+
+            ensure( 7 );
+            row.putInt( MAGIC );
+            row.put( VERSION );
+            row.putShort( (short)columns );
+
+            for ( int i = 0; i < columns; ++i ) {
+
+                int type = md.getColumnType( i + 1 );
+
+                temporal[i] = type == Types.DATE || type == Types.TIME || type == Types.TIMESTAMP;
+
+                switch ( type ) {
+
+                    case Types.BINARY:
+                    case Types.VARBINARY:
+                    case Types.LONGVARBINARY:
+                    case Types.BLOB:
+                        types[i] = BYTES;
+                        break;
+
+                    default:
+
+                        int buffer = ColumnChunk.toType( type, md.isSigned( i + 1 ) );
+
+                        types[i] = buffer == ColumnChunk.LONG ? LONG : buffer == ColumnChunk.DOUBLE ? DOUBLE : STRING;
+
+                }
+
+                byte[] name = md.getColumnLabel( i + 1 ).getBytes( UTF8 );
+
+                ensure( 3 + name.length );
+                row.putShort( (short)name.length );
+                row.put( name );
+                row.put( types[i] );
+
+            }
+
+        }
+
+        row.flip();
+
+        header = ByteBuffer.allocate( row.remaining() );
+        header.put( row );
+        header.flip();
+
+    }
+
+    /**
+     * Encode the current row into the row buffer.
+     */
+    void encode( ResultSet rs ) throws SQLException {
+
+        row.clear();
+
+        for ( int i = 0; i < types.length; ++i ) {
+
+            int column = i + 1;
+
+            if ( format == CSV ) {
+
+                if ( i > 0 )
+                    put( (byte)',' );
+
+                String value = rs.getString( column );
+
+                if ( value == null ) {
+                    put( (byte)'\\' );
+                    put( (byte)'N' );
+                } else {
+                    putCSV( value );
+                }
+
+                continue;
+
+            }
+
+            switch ( types[i] ) {
+
+                case LONG:
+
+                    long value;
+
+                    if ( temporal[i] ) {
+                        java.util.Date date = rs.getTimestamp( column );
+                        value = date != null ? date.getTime() : 0;
+                    } else {
+                        value = rs.getLong( column );
+                    }
+
+                    if ( rs.wasNull() ) {
+                        put( NULL );
+                    } else {
+                        ensure( 9 );
+                        row.put( LONG ).putLong( value );
+                    }
+
+                    break;
+
+                case DOUBLE:
+
+                    double d = rs.getDouble( column );
+
+                    if ( rs.wasNull() ) {
+                        put( NULL );
+                    } else {
+                        ensure( 9 );
+                        row.put( DOUBLE ).putDouble( d );
+                    }
+
+                    break;
+
+                case BYTES:
+
+                    byte[] bytes = rs.getBytes( column );
+
+                    if ( bytes == null ) {
+                        put( NULL );
+                    } else {
+                        ensure( 5 + bytes.length );
+                        row.put( BYTES ).putInt( bytes.length ).put( bytes );
+                    }
+
+                    break;
+
+                default:
+
+                    String s = rs.getString( column );
+
+                    if ( s == null ) {
+                        put( NULL );
+                    } else {
+
+                        put( STRING );
+
+                        //length goes in front once we know it.
+                        ensure( 4 );
+                        int at = row.position();
+                        row.putInt( 0 );
+
+                        putUTF8( s );
+
+                        row.putInt( at, row.position() - at - 4 );
+
+                    }
+
+            }
+
+        }
+
+        if ( format == CSV )
+            put( (byte)'\n' );
+
+        row.flip();
+
+    }
+
+    void put( byte b ) {
+        ensure( 1 );
+        row.put( b );
+    }
+
+    void putUTF8( String s ) {
+
+        CharBuffer chars = CharBuffer.wrap( s );
+
+        encoder.reset();
+
+        while ( true ) {
+
+            CoderResult result = encoder.encode( chars, row, true );
+
+            if ( result.isOverflow() ) {
+                ensure( row.capacity() );
+                continue;
+            }
+
+            if ( result.isUnderflow() )
+                break;
+
+            //unpaired surrogates and such.
+            chars.position( chars.position() + result.length() );
+            put( (byte)'?' );
+
+        }
+
+    }
+
+    void putCSV( String value ) {
+
+        boolean quote = value.length() == 0 || value.equals( "\\N" );
+
+        for ( int i = 0; ! quote && i < value.length(); ++i ) {
+
+            char c = value.charAt( i );
+
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+
+        }
+
+        if ( ! quote ) {
+            putUTF8( value );
+            return;
+        }
+
+        put( (byte)'"' );
+        putUTF8( value.replace( "\"", "\"\"" ) );
+        put( (byte)'"' );
+
+    }
+
+    /**
+     * Make room for at least the given number of bytes in the row buffer.
+     */
+    void ensure( int bytes ) {
+
+        if ( row.remaining() >= bytes )
+            return;
+
+        ByteBuffer grown = ByteBuffer.allocate( Math.max( row.capacity() * 2, row.position() + bytes ) );
+
+        row.flip();
+        grown.put( row );
+
+        row = grown;
+
+    }
+
+    /**
+     * Copy the encoded row into the mapping, rolling over or moving the
+     * mapping first as needed.
+     */
+    void append() throws IOException {
+
+        int size = row.remaining();
+
+        if ( written + size > maxFileSize && written > header.limit() ) {
+            close();
+            open();
+        }
+
+        if ( mapped.remaining() < size )
+            map( size );
+
+        mapped.put( row );
+
+        written += size;
+        ++rows;
+
+    }
+
+    void open() throws IOException {
+
+        String name = String.format( "%s-%05d.%s", base.getPath(), files.size(), format == CSV ? "csv" : "bin" );
+
+        File file = new File( name );
+
+        channel = new RandomAccessFile( file, "rw" ).getChannel();
+        files.add( file );
+
+        written = 0;
+        mappedAt = 0;
+        mapped = null;
+
+        map( header.limit() );
+
+        header.rewind();
+        mapped.put( header );
+
+        written = header.limit();
+
+    }
+
+    /**
+     * Map the next window of the file starting at what we've written, big
+     * enough for at least the given number of bytes.
+     */
+    void map( int needed ) throws IOException {
+
+        //the pages are the file's now.  close() syncs them.
+        if ( mapped != null )
+            unmap( mapped );
+
+        mappedAt = written;
+        mapped = channel.map( FileChannel.MapMode.READ_WRITE, mappedAt, Math.max( mapSize, needed ) );
+
+    }
+
+    void close() throws IOException {
+
+        if ( channel == null )
+            return;
+
+        try {
+
+            //some platforms won't truncate a file that's still mapped.
+            if ( mapped != null )
+                unmap( mapped );
+
+            mapped = null;
+
+            //drop the unused tail of the last mapping.
+            channel.truncate( written );
+            channel.force( true );
+
+        } finally {
+
+            channel.close();
+            channel = null;
+
+        }
+
+    }
+
+    /**
+     * Release a mapping now instead of whenever it's garbage collected.
+     * There's no public API for this so we use the JDK's cleaner: through
+     * Unsafe.invokeCleaner on Java 9 and later, DirectBuffer.cleaner() on 8.
+     * If neither works the mapping is left to the collector.
+     */
+    static void unmap( MappedByteBuffer buffer ) {
+
+        try {
+
+            Class<?> type = Class.forName( "sun.misc.Unsafe" );
+
+            try {
+
+                Method invokeCleaner = type.getMethod( "invokeCleaner", ByteBuffer.class );
+
+                Field theUnsafe = type.getDeclaredField( "theUnsafe" );
+                theUnsafe.setAccessible( true );
+
+                invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+
+            } catch ( NoSuchMethodException e ) {
+
+                Method cleaner = buffer.getClass().getMethod( "cleaner" );
+                cleaner.setAccessible( true );
+
+                Object result = cleaner.invoke( buffer );
+
+                if ( result != null )
+                    result.getClass().getMethod( "clean" ).invoke( result );
+
+            }
+
+        } catch ( Exception e ) {
+            log.warn( "Unable to unmap export buffer: %s", e );
+        }
+
+    }
+
+}
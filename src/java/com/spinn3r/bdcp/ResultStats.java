@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Rows and bytes read from the results of one statement shape, for capacity
+ * planning.  Statements are grouped by {@link StatementBulkhead#fingerprint}.
+ *
+ * @see DelegatingResultSet
+ */
+public class ResultStats {
+
+    final String fingerprint;
+
+    final AtomicLong results = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong maxRows = new AtomicLong();
+    final AtomicLong maxBytes = new AtomicLong();
+    final AtomicLong truncated = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+
+    public ResultStats( String fingerprint ) {
+        this.fingerprint = fingerprint;
+    }
+
+    void record( long rows, long bytes, boolean truncated, boolean rejected ) {
+
+        results.incrementAndGet();
+        this.rows.addAndGet( rows );
+        this.bytes.addAndGet( bytes );
+
+        max( maxRows, rows );
+        max( maxBytes, bytes );
+
+        if ( truncated )
+            this.truncated.incrementAndGet();
+
+        if ( rejected )
+            this.rejected.incrementAndGet();
+
+    }
+
+    private static void max( AtomicLong max, long value ) {
+
+        long current;
+
+        while ( value > ( current = max.get() ) ) {
+
+            if ( max.compareAndSet( current, value ) )
+                break;
+
+        }
+
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getResults() {
+        return results.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getMaxRows() {
+        return maxRows.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes.get();
+    }
+
+    public long getTruncated() {
+        return truncated.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public String toString() {
+
+        long n = getResults();
+
+        return String.format( "results: %d rows: %d (avg %.1f max %d) bytes: %d (avg %.1f max %d) truncated: %d rejected: %d",
+                              n,
+                              getRows(), n > 0 ? getRows() / (double)n : 0.0, getMaxRows(),
+                              getBytes(), n > 0 ? getBytes() / (double)n : 0.0, getMaxBytes(),
+                              getTruncated(), getRejected() );
+
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Reads a query's rows one at a time without the driver buffering the whole
+ * result, so a scan of any size runs in constant memory.
+ * <p>
+ * The statement is forward only and read only with a fetch size the driver
+ * will actually stream with (Integer.MIN_VALUE for MySQL, streamingFetchSize
+ * otherwise, inside a transaction for PostgreSQL which only uses cursors
+ * there).  Rows are read off the socket as they're asked for, so a slow
+ * consumer slows the server down rather than filling the heap.
+ * <p>
+ * Use it as an Iterator, where each next() returns the ResultSet positioned
+ * on the next row, or hand each() a callback.  The stream closes itself once
+ * the last row has been read, and returns its connection to the pool if it
+ * borrowed one.  Close it when stopping early.
+ * <p>
+ * MySQL can't run anything else on the connection while a stream is open.
+ */
+public class ResultStream implements Iterator<ResultSet>, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger();
+
+    final BasicDatabaseConnection conn;
+
+    /**
+     * Whether closing the stream closes (returns) the connection.
+     */
+    final boolean release;
+
+    PreparedStatement stmt = null;
+
+    ResultSet rs = null;
+
+    /**
+     * Autocommit to restore if we had to turn it off.
+     */
+    boolean restoreAutoCommit = false;
+
+    /**
+     * Whether rs is on a row next() hasn't returned yet.
+     */
+    boolean pending = false;
+
+    /**
+     * Set once rs.next() has returned false.
+     */
+    boolean exhausted = false;
+
+    boolean closed = false;
+
+    long rows = 0;
+
+    ResultStream( BasicDatabaseConnection conn, boolean release ) {
+        this.conn = conn;
+        this.release = release;
+    }
+
+    /**
+     * Run the query.  On failure the stream is closed.
+     */
+    ResultStream open( String sql, Object... params ) throws SQLException {
+
+        try {
+
+            Connection delegate = conn.conn();
+
+            boolean postgres = conn.getDriverName().contains( "postgresql" );
+
+            if ( postgres && delegate.getAutoCommit() ) {
+                delegate.setAutoCommit( false );
+                restoreAutoCommit = true;
+            }
+
+            //the driver's statement.  Ours could send it through the result
+            //cache, which reads everything into memory.
+            stmt = delegate.prepareStatement( sql,
+                                              ResultSet.TYPE_FORWARD_ONLY,
+                                              ResultSet.CONCUR_READ_ONLY );
+
+            conn.statementOpened();
+
+            stmt.setFetchSize( conn.getStreamingFetchSize() );
+
+            for ( int i = 0; i < params.length; ++i ) {
+                stmt.setObject( i + 1, params[i] );
+            }
+
+            rs = conn.execute( sql, () -> stmt.executeQuery() );
+
+            return this;
+
+        } catch ( SQLException | RuntimeException e ) {
+
+            close();
+            throw e;
+
+        }
+
+    }
+
+    /**
+     * Read the next row, closing the stream after the last one.
+     */
+    boolean advance() throws SQLException {
+
+        if ( closed )
+            return false;
+
+        if ( ! pending ) {
+
+            pending = rs.next();
+
+            if ( ! pending ) {
+                exhausted = true;
+                close();
+                return false;
+            }
+
+        }
+
+        return true;
+
+    }
+
+    public boolean hasNext() {
+
+        try {
+            return advance();
+        } catch ( SQLException e ) {
+
+            close();
+            throw new IllegalStateException( "Unable to read next row: " + e.getMessage(), e );
+
+        }
+
+    }
+
+    public ResultSet next() {
+
+        if ( ! hasNext() )
+            throw new NoSuchElementException();
+
+        pending = false;
+        ++rows;
+
+        return rs;
+
+    }
+
+    /**
+     * Call the handler for every remaining row and close the stream.
+     * Returns the number of rows handled.
+     */
+    public long each( RowHandler handler ) throws SQLException {
+
+        long handled = 0;
+
+        try {
+
+            while ( advance() ) {
+
+                pending = false;
+                ++rows;
+
+                handler.handle( rs );
+                ++handled;
+
+            }
+
+        } finally {
+            close();
+        }
+
+        return handled;
+
+    }
+
+    /**
+     * Read every remaining row into column major primitive buffers and close
+     * the stream.  Returns the number of rows read.
+     *
+     * @see ColumnChunk
+     */
+    public long eachChunk( int capacity, ChunkHandler handler ) throws SQLException {
+
+        if ( closed )
+            return 0;
+
+        //a row hasNext() already moved to would be skipped.
+        if ( pending )
+            throw new SQLException( "Can't read chunks after hasNext()." );
+
+        try {
+
+            long read = ColumnChunk.read( rs, capacity, handler );
+
+            exhausted = true;
+            rows += read;
+
+            return read;
+
+        } finally {
+            close();
+        }
+
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return rs.getMetaData();
+    }
+
+    /**
+     * Rows read so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public void close() {
+
+        if ( closed )
+            return;
+
+        closed = true;
+
+        //every step runs even if the ones before it failed.
+        try {
+
+            try {
+
+                //closing a MySQL stream early reads the rest of the rows off
+                //the socket.  Cancelling first means we don't have to wait
+                //for them.
+                if ( rs != null && ! exhausted && stmt.getFetchSize() == Integer.MIN_VALUE )
+                    stmt.cancel();
+
+            } finally {
+
+                try {
+
+                    if ( rs != null )
+                        rs.close();
+
+                } finally {
+
+                    try {
+
+                        if ( stmt != null )
+                            stmt.close();
+
+                    } finally {
+
+                        if ( stmt != null )
+                            conn.statementClosed();
+
+                    }
+
+                }
+
+            }
+
+        } catch ( SQLException e ) {
+            log.error( "Unable to close stream: ", e );
+        } finally {
+
+            boolean restored = ! restoreAutoCommit || restoreAutoCommit();
+
+            if ( release )
+                release( restored );
+
+        }
+
+    }
+
+    /**
+     * End the transaction we opened to stream in and turn autocommit back
+     * on.  Returns false if the connection may still be in it.
+     */
+    private boolean restoreAutoCommit() {
+
+        Connection delegate = conn.getDelegate();
+
+        try {
+
+            try {
+                delegate.commit();
+            } finally {
+                delegate.setAutoCommit( true );
+            }
+
+            return true;
+
+        } catch ( SQLException | RuntimeException e ) {
+
+            log.error( "Unable to restore autocommit: ", e );
+            return false;
+
+        }
+
+    }
+
+    private void release( boolean restored ) {
+
+        try {
+
+            //a connection stuck in our transaction mustn't be lent again.
+            if ( restored )
+                conn.close();
+            else
+                conn.abort( Runnable::run );
+
+        } catch ( SQLException e ) {
+            log.error( "Unable to return connection: ", e );
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+/**
+ * A result too big for the {@link ResultCache}: the rows copied before we
+ * hit its maxRows, then the rest read straight from the database.
+ */
+class ResumedResultSet extends DelegatingResultSet {
+
+    /**
+     * The driver's result set, already on the first row after the copied
+     * ones.
+     */
+    final ResultSet live;
+
+    ResumedResultSet( CachedResult result, Statement stmt ) {
+
+        super( stmt, null, new CachedResultSet( result, stmt ), 0, 0, null );
+
+        live = result.rest;
+
+    }
+
+    public boolean next() throws SQLException {
+
+        if ( _rs == live )
+            return live.next();
+
+        if ( _rs.next() )
+            return true;
+
+        //done with the copied rows.  The live one is on the next row already.
+        _rs.close();
+        _rs = live;
+
+        return true;
+
+    }
+
+    public void close() throws SQLException {
+
+        try {
+            _rs.close();
+        } finally {
+            live.close();
+        }
+
+    }
+
+}
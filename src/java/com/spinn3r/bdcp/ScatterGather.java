@@ -0,0 +1,351 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Runs a set of independent SELECTs at the same time on several pooled
+ * connections and gathers their results, so a request issuing ten queries
+ * waits for the slowest one instead of the sum of all of them.
+ * <p>
+ * <pre>
+ * ScatterGather sg = pool.newScatterGather();
+ * int users = sg.add( "SELECT * FROM user WHERE id = ?", id );
+ * int posts = sg.add( "SELECT * FROM post WHERE user_id = ?", id );
+ * ResultSet[] results = sg.execute();
+ * </pre>
+ * Up to parallelism workers each borrow a connection and take queries until
+ * none are left.  Borrows go through the pool as usual so maxActive bounds
+ * how many connections all scatter-gathers use between them.
+ * <p>
+ * Everything has to finish within budget millis: borrows wait at most the
+ * time left (on pools which support bounded waits), statements get a query
+ * timeout and, once the budget is gone, running statements are cancelled
+ * and given cancelWait millis to return.
+ * Results are read fully into detached {@link CachedResultSet}s.  If any
+ * query fails or runs out of time an SQLException is thrown with each
+ * query's error chained with setNextException().  A query no worker got to
+ * because none could borrow a connection has the borrow failure as its
+ * cause.
+ * <p>
+ * Workers borrow with the calling thread's priority and tenant.
+ */
+public class ScatterGather {
+
+    private static final Logger log = Logger.getLogger();
+
+    /**
+     * Shared by every scatter-gather that isn't given an executor.  Threads
+     * are created as needed and die after a minute idle.
+     */
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool( ( r ) -> {
+
+        Thread thread = new Thread( r, "JDBC scatter-gather worker" );
+        thread.setDaemon( true );
+        return thread;
+
+    } );
+
+    /**
+     * Connections used at once.  Never more than maxActive.
+     */
+    public int parallelism = 8;
+
+    /**
+     * How long (in millis) all the queries may take together.
+     */
+    public long budget = 5000;
+
+    /**
+     * How long (in millis) past the budget to wait for cancelled queries to
+     * return.  A driver which ignores cancel() can't hold us up longer.
+     */
+    public long cancelWait = 1000;
+
+    public Executor executor = null;
+
+    public BasicDatabaseConnectionPool pool = null;
+
+    final List<String> sql = new ArrayList<String>();
+
+    final List<Object[]> params = new ArrayList<Object[]>();
+
+    public ScatterGather( BasicDatabaseConnectionPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * Add a query.  Returns its index in the results.
+     */
+    public int add( String sql, Object... params ) {
+
+        this.sql.add( sql );
+        this.params.add( params );
+
+        return this.sql.size() - 1;
+
+    }
+
+    /**
+     * Run every query added and return their results in the order they were
+     * added.
+     */
+    public ResultSet[] execute() throws SQLException {
+
+        final int queries = sql.size();
+
+        final long deadline = System.currentTimeMillis() + budget;
+
+        //atomic since we may read them while a worker we gave up on after
+        //cancelWait is still writing.
+        final AtomicReferenceArray<ResultSet> results = new AtomicReferenceArray<ResultSet>( queries );
+
+        final AtomicReferenceArray<SQLException> errors = new AtomicReferenceArray<SQLException>( queries );
+
+        //statements running right now, so we can cancel them.
+        final AtomicReferenceArray<Statement> running = new AtomicReferenceArray<Statement>( queries );
+
+        final AtomicInteger next = new AtomicInteger();
+
+        //why a worker couldn't borrow a connection.
+        final AtomicReference<SQLException> stopped = new AtomicReference<SQLException>();
+
+        final ConnectionPriority priority = ConnectionPriority.getCurrent();
+        final String tenant = PartitionedDatabaseConnectionPool.getCurrentTenant();
+
+        int workers = Math.max( 1, Math.min( Math.min( parallelism, pool.maxActive ), queries ) );
+
+        Executor executor = this.executor != null ? this.executor : WORKERS;
+
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+
+        for ( int i = 0; i < workers; ++i ) {
+
+            futures.add( CompletableFuture.runAsync( () -> {
+
+                ConnectionPriority.setCurrent( priority );
+                PartitionedDatabaseConnectionPool.setCurrentTenant( tenant );
+
+                try {
+                    work( deadline, results, errors, running, next, stopped );
+                } finally {
+                    ConnectionPriority.clearCurrent();
+                    PartitionedDatabaseConnectionPool.clearCurrentTenant();
+                }
+
+            }, executor ) );
+
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[ futures.size() ] ) );
+
+        try {
+            all.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        } catch ( TimeoutException e ) {
+
+            //stop workers taking new queries and cancel the ones running.
+            next.set( queries );
+
+            for ( int i = 0; i < queries; ++i ) {
+
+                Statement stmt = running.get( i );
+
+                if ( stmt != null ) {
+
+                    try {
+                        stmt.cancel();
+                    } catch ( SQLException c ) {
+                        log.warn( "Unable to cancel query %d: %s", i, c.getMessage() );
+                    }
+
+                }
+
+            }
+
+            //cancelled statements should return quickly.  Whatever hasn't
+            //by then is reported as out of time.
+            try {
+                all.get( cancelWait, TimeUnit.MILLISECONDS );
+            } catch ( TimeoutException | ExecutionException t ) {
+                log.warn( "Queries still running %dms after cancel: %s", cancelWait, t );
+            } catch ( InterruptedException i ) {
+                Thread.currentThread().interrupt();
+            }
+
+        } catch ( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            next.set( queries );
+
+            throw new SQLException( "Interrupted while waiting for queries." );
+
+        } catch ( ExecutionException e ) {
+            throw new SQLException( "Scatter-gather worker failed: " + e.getCause(), e.getCause() );
+        }
+
+        ResultSet[] result = new ResultSet[ queries ];
+
+        SQLException first = null;
+        SQLException last = null;
+
+        for ( int i = 0; i < queries; ++i ) {
+
+            result[i] = results.get( i );
+
+            SQLException error = errors.get( i );
+
+            if ( error == null && result[i] == null ) {
+
+                SQLException cause = stopped.get();
+
+                error = cause == null ?
+                    new SQLTimeoutException( String.format( "Query %d not run within %dms budget: %s", i, budget, sql.get( i ) ) ) :
+                    new SQLException( String.format( "Query %d never run: %s", i, cause.getMessage() ),
+                                      cause.getSQLState(), cause.getErrorCode(), cause );
+
+            }
+
+            if ( error == null )
+                continue;
+
+            if ( first == null ) {
+                first = new SQLException( "Scatter-gather failed: " + error.getMessage(), error.getSQLState(), error.getErrorCode() );
+                first.setNextException( error );
+            } else {
+                last.setNextException( error );
+            }
+
+            last = error;
+
+        }
+
+        if ( first != null )
+            throw first;
+
+        return result;
+
+    }
+
+    /**
+     * One worker: borrow a connection and run queries until there are none
+     * left or the budget is gone.
+     */
+    void work( long deadline,
+               AtomicReferenceArray<ResultSet> results,
+               AtomicReferenceArray<SQLException> errors,
+               AtomicReferenceArray<Statement> running,
+               AtomicInteger next,
+               AtomicReference<SQLException> stopped ) {
+
+        //don't borrow if there's nothing left for us.
+        if ( next.get() >= results.length() )
+            return;
+
+        long remaining = deadline - System.currentTimeMillis();
+
+        if ( remaining <= 0 )
+            return;
+
+        Connection conn;
+
+        try {
+            conn = pool.getConnection( remaining );
+        } catch ( SQLException e ) {
+
+            //the remaining workers pick up our queries.
+            log.warn( "Unable to borrow connection for scatter-gather: %s", e.getMessage() );
+            stopped.compareAndSet( null, e );
+            return;
+
+        }
+
+        try {
+
+            int query;
+
+            while ( ( query = next.getAndIncrement() ) < results.length() ) {
+
+                remaining = deadline - System.currentTimeMillis();
+
+                if ( remaining <= 0 )
+                    break;
+
+                try {
+                    results.set( query, execute( conn, query, remaining, running ) );
+                } catch ( SQLException e ) {
+                    errors.set( query, e );
+                }
+
+            }
+
+        } finally {
+
+            try {
+                conn.close();
+            } catch ( SQLException e ) {
+                log.error( "Unable to return connection: ", e );
+            }
+
+        }
+
+    }
+
+    ResultSet execute( Connection conn,
+                       int query,
+                       long remaining,
+                       AtomicReferenceArray<Statement> running ) throws SQLException {
+
+        PreparedStatement stmt = conn.prepareStatement( sql.get( query ) );
+
+        try {
+
+            Object[] values = params.get( query );
+
+            for ( int i = 0; i < values.length; ++i ) {
+                stmt.setObject( i + 1, values[i] );
+            }
+
+            //whole seconds, rounded up.
+            stmt.setQueryTimeout( (int)Math.max( 1, ( remaining + 999 ) / 1000 ) );
+
+            running.set( query, stmt );
+
+            return new CachedResultSet( CachedResultSet.materialize( stmt.executeQuery() ), null );
+
+        } finally {
+
+            running.set( query, null );
+            stmt.close();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+import java.sql.*;
+
+/**
+ * Caps how many executions of one statement shape may run at once so a few
+ * heavy queries can't tie up every connection in the pool.
+ * <p>
+ * Statements are grouped by fingerprint: the SQL with literals replaced by
+ * ? and whitespace and case normalized, so "SELECT * FROM a WHERE id = 1"
+ * and "select * from a where id=2" share a bulkhead.
+ * <p>
+ * A query holds its slot until its result set is read to the end or closed,
+ * since that's when the server is done with it.  Other statements hold
+ * theirs until they return.
+ * <p>
+ * A statement over the limit waits up to the pool's statementLimitWait for
+ * a slot.  On a connection that's already borrowed it waits holding the
+ * connection.  With lazyConnections the wait happens before a connection is
+ * borrowed, see {@link #await}, so statements queued here don't tie up the
+ * pool's connections.
+ */
+public class StatementBulkhead {
+
+    private static final Pattern COMMENT  = Pattern.compile( "/\\*.*?\\*/|--[^\\n]*", Pattern.DOTALL );
+    private static final Pattern STRING   = Pattern.compile( "'(?:[^'\\\\]|\\\\.|'')*'" );
+    private static final Pattern NUMBER   = Pattern.compile( "\\b\\d+(?:\\.\\d+)?\\b" );
+    private static final Pattern LIST     = Pattern.compile( "\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)" );
+    private static final Pattern SPACE    = Pattern.compile( "\\s+" );
+    private static final Pattern OPERATOR = Pattern.compile( "\\s*([=<>!,()])\\s*" );
+
+    final String fingerprint;
+
+    final int limit;
+
+    final Semaphore permits;
+
+    final AtomicLong executions = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+
+    public StatementBulkhead( String fingerprint, int limit ) {
+
+        this.fingerprint = fingerprint;
+        this.limit = limit;
+        this.permits = new Semaphore( limit, true );
+
+    }
+
+    /**
+     * Reduce SQL to the shape of the statement.  IN lists of any length map
+     * to the same fingerprint.
+     */
+    public static String fingerprint( String sql ) {
+
+        String result = COMMENT.matcher( sql ).replaceAll( " " );
+        result = STRING.matcher( result ).replaceAll( "?" );
+        result = NUMBER.matcher( result ).replaceAll( "?" );
+        result = SPACE.matcher( result ).replaceAll( " " );
+        result = OPERATOR.matcher( result ).replaceAll( "$1" );
+        result = LIST.matcher( result ).replaceAll( "(?+)" );
+
+        return result.trim().toLowerCase();
+
+    }
+
+    /**
+     * Take a slot, waiting at most wait millis for one (0 fails fast, a
+     * negative wait blocks until one is free).
+     */
+    void enter( long wait ) throws SQLException {
+
+        acquire( wait );
+
+        executions.incrementAndGet();
+
+    }
+
+    /**
+     * Wait until there's a free slot without taking it, at most wait millis
+     * (0 fails fast, a negative wait blocks until one is free).  Called
+     * before borrowing a connection for the statement.  Another caller can
+     * still take the slot before we enter(), and then we wait again, this
+     * time holding the connection.
+     */
+    void await( long wait ) throws SQLException {
+
+        acquire( wait );
+
+        permits.release();
+
+    }
+
+    private void acquire( long wait ) throws SQLException {
+
+        boolean acquired;
+
+        try {
+
+            if ( wait < 0 ) {
+                permits.acquire();
+                acquired = true;
+            } else if ( wait == 0 ) {
+                acquired = permits.tryAcquire();
+            } else {
+                acquired = permits.tryAcquire( wait, TimeUnit.MILLISECONDS );
+            }
+
+        } catch ( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted while waiting to execute: " + fingerprint );
+
+        }
+
+        if ( ! acquired ) {
+
+            rejected.incrementAndGet();
+
+            throw new SQLException( String.format( "Too many concurrent executions (limit %d) of: %s",
+                                                   limit, fingerprint ) );
+
+        }
+
+    }
+
+    void exit() {
+        permits.release();
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Executions running right now.
+     */
+    public int getActive() {
+        return limit - permits.availablePermits();
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public String toString() {
+
+        return String.format( "active: %d/%d executions: %d rejected: %d",
+                              getActive(), limit, getExecutions(), getRejected() );
+
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import java.sql.*;
+
+import com.spinn3r.log5j.*;
+
+/**
+ * Groups single row writes submitted by many threads into JDBC batches run by
+ * one background thread, so a thousand crawler threads doing one INSERT each
+ * cost a handful of round trips and commits instead of a thousand.
+ * <p>
+ * The writer waits at most linger millis after the first write of a batch for
+ * more to arrive, and never puts more than maxBatchSize writes in one batch.
+ * Writes for the same SQL are run as one addBatch()/executeBatch() and
+ * committed together.  If a batch fails it's rolled back and its rows are
+ * retried one at a time so only the bad rows fail.
+ * <p>
+ * Each submit() gets a future with the row's update count.  submit() blocks
+ * once maxPending writes are queued so callers can't outrun the database.
+ * <p>
+ * Writes are run with the priority and tenant (see
+ * {@link PartitionedDatabaseConnectionPool#setCurrentTenant}) of the thread
+ * which submitted them, one connection per tenant and priority.
+ */
+public class WriteCoalescer extends Thread {
+
+    private static final Logger log = Logger.getLogger();
+
+    /**
+     * Queued by shutdown() to wake the writer.  Never written.
+     */
+    static final PendingWrite SHUTDOWN = new PendingWrite( null, null );
+
+    /**
+     * Most writes run in one batch.
+     */
+    public int maxBatchSize = 500;
+
+    /**
+     * How long (in millis) to wait for more writes once we have one.
+     */
+    public long linger = 5;
+
+    public BasicDatabaseConnectionPool pool = null;
+
+    final LinkedBlockingQueue<PendingWrite> queue;
+
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    public WriteCoalescer( BasicDatabaseConnectionPool pool ) {
+        this( pool, 10000 );
+    }
+
+    public WriteCoalescer( BasicDatabaseConnectionPool pool, int maxPending ) {
+
+        super( "JDBC write coalescer" );
+
+        this.pool = pool;
+        this.queue = new LinkedBlockingQueue<PendingWrite>( maxPending );
+        this.setDaemon( true );
+
+    }
+
+    /**
+     * Queue an INSERT/UPDATE/DELETE with the given parameters.  The future
+     * completes with the update count once the batch holding it commits.
+     */
+    public CompletableFuture<Integer> submit( String sql, Object... params ) {
+
+        PendingWrite write = new PendingWrite( sql, params );
+
+        if ( ! running ) {
+            write.future.completeExceptionally( new SQLException( "Write coalescer is shut down." ) );
+            return write.future;
+        }
+
+        try {
+            queue.put( write );
+        } catch ( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            write.future.completeExceptionally( new SQLException( "Interrupted while queueing write." ) );
+
+        }
+
+        //we raced with shutdown() and the writer may already be gone.  If it
+        //didn't take the write we fail it ourselves.
+        if ( ! running && queue.remove( write ) )
+            write.future.completeExceptionally( new SQLException( "Write coalescer is shut down." ) );
+
+        return write.future;
+
+    }
+
+    /**
+     * Stop accepting writes.  Whatever is already queued is written first.
+     * <p>
+     * We wake the writer with a sentinel rather than interrupt() since an
+     * interrupt landing in flush() would break the driver's I/O.  If the
+     * queue is full the writer isn't waiting and sees running on its own.
+     */
+    public void shutdown() {
+
+        running = false;
+        queue.offer( SHUTDOWN );
+
+    }
+
+    public void run() {
+
+        List<PendingWrite> batch = new ArrayList<PendingWrite>();
+
+        while ( running || ! queue.isEmpty() ) {
+
+            try {
+
+                if ( running ) {
+                    batch.add( queue.take() );
+                } else {
+                    queue.drainTo( batch, maxBatchSize );
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( linger );
+
+                while ( running && batch.size() < maxBatchSize ) {
+
+                    queue.drainTo( batch, maxBatchSize - batch.size() );
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if ( batch.size() >= maxBatchSize || remaining <= 0 )
+                        break;
+
+                    PendingWrite next = queue.poll( remaining, TimeUnit.NANOSECONDS );
+
+                    if ( next == null )
+                        break;
+
+                    batch.add( next );
+
+                }
+
+            } catch ( InterruptedException e ) {
+                //flush what we have.  We stop once shutdown() is called.
+            }
+
+            batch.removeIf( write -> write == SHUTDOWN );
+
+            if ( batch.size() > 0 )
+                flush( batch );
+
+            batch.clear();
+
+        }
+
+        //anything submitted after we last looked.
+        queue.drainTo( batch );
+
+        batch.removeIf( write -> write == SHUTDOWN );
+
+        fail( batch, new SQLException( "Write coalescer is shut down." ) );
+
+    }
+
+    /**
+     * Write one batch, on one pooled connection for each tenant and priority
+     * in it.
+     */
+    void flush( List<PendingWrite> batch ) {
+
+        Map<List<Object>,List<PendingWrite>> owners = new LinkedHashMap<List<Object>,List<PendingWrite>>();
+
+        for ( PendingWrite write : batch ) {
+
+            List<Object> owner = Arrays.asList( write.priority, write.tenant );
+
+            List<PendingWrite> writes = owners.get( owner );
+
+            if ( writes == null ) {
+                writes = new ArrayList<PendingWrite>();
+                owners.put( owner, writes );
+            }
+
+            writes.add( write );
+
+        }
+
+        for ( List<PendingWrite> writes : owners.values() ) {
+
+            PendingWrite first = writes.get( 0 );
+
+            ConnectionPriority.setCurrent( first.priority );
+            PartitionedDatabaseConnectionPool.setCurrentTenant( first.tenant );
+
+            try {
+                write( writes );
+            } finally {
+                ConnectionPriority.clearCurrent();
+                PartitionedDatabaseConnectionPool.clearCurrentTenant();
+            }
+
+        }
+
+    }
+
+    /**
+     * Write the batch on a single pooled connection, borrowed with the
+     * calling thread's priority and tenant.
+     */
+    void write( List<PendingWrite> batch ) {
+
+        //keep submission order within each statement.
+        Map<String,List<PendingWrite>> groups = new LinkedHashMap<String,List<PendingWrite>>();
+
+        for ( PendingWrite write : batch ) {
+
+            List<PendingWrite> group = groups.get( write.sql );
+
+            if ( group == null ) {
+                group = new ArrayList<PendingWrite>();
+                groups.put( write.sql, group );
+            }
+
+            group.add( write );
+
+        }
+
+        Connection conn;
+
+        try {
+            conn = pool.getConnection();
+        } catch ( SQLException e ) {
+
+            fail( batch, e );
+            return;
+
+        }
+
+        try {
+
+            boolean autoCommit = conn.getAutoCommit();
+
+            conn.setAutoCommit( false );
+
+            try {
+
+                for ( Map.Entry<String,List<PendingWrite>> entry : groups.entrySet() ) {
+                    write( conn, entry.getKey(), entry.getValue() );
+                }
+
+            } finally {
+                conn.setAutoCommit( autoCommit );
+            }
+
+        } catch ( SQLException e ) {
+
+            log.error( "Unable to write batch: ", e );
+
+            //groups written before the failure stay written.
+            fail( batch, e );
+
+        } finally {
+
+            try {
+                conn.close();
+            } catch ( SQLException e ) {
+                log.error( "Unable to return connection: ", e );
+            }
+
+        }
+
+    }
+
+    void write( Connection conn, String sql, List<PendingWrite> group ) throws SQLException {
+
+        int[] counts;
+
+        try {
+
+            PreparedStatement stmt = conn.prepareStatement( sql );
+
+            try {
+
+                for ( PendingWrite write : group ) {
+                    write.bind( stmt );
+                    stmt.addBatch();
+                }
+
+                counts = stmt.executeBatch();
+
+            } finally {
+                stmt.close();
+            }
+
+            conn.commit();
+
+        } catch ( SQLException e ) {
+
+            conn.rollback();
+
+            if ( group.size() == 1 ) {
+                fail( group, e );
+                return;
+            }
+
+            log.warn( "Batch of %d writes failed, retrying one at a time: %s", group.size(), e.getMessage() );
+
+            for ( PendingWrite write : group ) {
+                write( conn, sql, Collections.singletonList( write ) );
+            }
+
+            return;
+
+        }
+
+        batches.incrementAndGet();
+        rows.addAndGet( group.size() );
+
+        for ( int i = 0; i < group.size(); ++i ) {
+
+            //some drivers don't report a count per row.
+            int count = i < counts.length ? counts[i] : Statement.SUCCESS_NO_INFO;
+
+            group.get( i ).future.complete( count );
+
+        }
+
+    }
+
+    /**
+     * Fail the writes which haven't completed yet.
+     */
+    void fail( List<PendingWrite> writes, SQLException e ) {
+
+        for ( PendingWrite write : writes ) {
+
+            if ( write.future.completeExceptionally( e ) )
+                failures.incrementAndGet();
+
+        }
+
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public String toString() {
+
+        long n = getBatches();
+
+        return String.format( "pending: %d batches: %d rows: %d (%.1f per batch) failures: %d",
+                              getPending(), n, getRows(), n > 0 ? getRows() / (double)n : 0.0, getFailures() );
+
+    }
+
+}
+
+/**
+ * One row waiting to be written.
+ */
+class PendingWrite {
+
+    final String sql;
+
+    final Object[] params;
+
+    /**
+     * Who submitted it.
+     */
+    final ConnectionPriority priority = ConnectionPriority.getCurrent();
+
+    final String tenant = PartitionedDatabaseConnectionPool.getCurrentTenant();
+
+    final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+    PendingWrite( String sql, Object[] params ) {
+        this.sql = sql;
+        this.params = params;
+    }
+
+    void bind( PreparedStatement stmt ) throws SQLException {
+
+        for ( int i = 0; i < params.length; ++i ) {
+            stmt.setObject( i + 1, params[i] );
+        }
+
+    }
+
+}
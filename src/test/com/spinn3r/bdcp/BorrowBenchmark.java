@@ -0,0 +1,214 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Measures how long borrowing a connection takes when more threads want one
+ * than the pool has, for each pool implementation.
+ * <p>
+ * Every thread borrows, holds the connection for a while (as if running a
+ * statement) and gives it back, over and over.  Borrow latency is recorded
+ * per borrow and reported as percentiles, along with throughput.  The
+ * database is {@link FakeDatabase} so only the pool is measured.
+ * <p>
+ * <pre>
+ * java com.spinn3r.bdcp.BorrowBenchmark [threads] [maxActive] [borrows] [holdMicros] [virtual]
+ * </pre>
+ * or ant benchmark.
+ * <p>
+ * With virtual the workers are virtual threads, which is where a pool that
+ * blocks inside synchronized pins its carrier threads.  That needs JDK 21
+ * (we still compile for 8 so the threads are made by reflection).  ant
+ * benchmark.virtual runs 10,000 of them when ant itself is on JDK 21.
+ */
+public class BorrowBenchmark {
+
+    int threads = 64;
+
+    int maxActive = 8;
+
+    /**
+     * Borrows per thread.
+     */
+    int borrows = 2000;
+
+    long holdMicros = 50;
+
+    /**
+     * Run the workers on virtual threads.
+     */
+    boolean virtual = false;
+
+    /**
+     * Thread.ofVirtual() when virtual is set.
+     */
+    Object builder = null;
+
+    Method unstarted = null;
+
+    public static void main( String[] args ) throws Exception {
+
+        BorrowBenchmark benchmark = new BorrowBenchmark();
+
+        if ( args.length > 0 )
+            benchmark.threads = Integer.parseInt( args[0] );
+
+        if ( args.length > 1 )
+            benchmark.maxActive = Integer.parseInt( args[1] );
+
+        if ( args.length > 2 )
+            benchmark.borrows = Integer.parseInt( args[2] );
+
+        if ( args.length > 3 )
+            benchmark.holdMicros = Long.parseLong( args[3] );
+
+        if ( args.length > 4 )
+            benchmark.virtual = args[4].equals( "virtual" );
+
+        if ( benchmark.virtual ) {
+
+            try {
+
+                benchmark.builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+                benchmark.unstarted = Class.forName( "java.lang.Thread$Builder" ).getMethod( "unstarted", Runnable.class );
+
+            } catch ( ReflectiveOperationException e ) {
+
+                System.out.printf( "Virtual threads need JDK 21, this is %s\n", System.getProperty( "java.version" ) );
+                return;
+
+            }
+
+        }
+
+        System.out.printf( "%d %sthreads, maxActive %d, %d borrows each, held %dus\n",
+                           benchmark.threads, benchmark.virtual ? "virtual " : "",
+                           benchmark.maxActive, benchmark.borrows, benchmark.holdMicros );
+
+        //twice over so the second round runs on warm code.
+        for ( int round = 0; round < 2; ++round ) {
+
+            benchmark.run( new BasicDatabaseConnectionPool2() );
+            benchmark.run( new BasicDatabaseConnectionPool3() );
+
+        }
+
+    }
+
+    void run( BasicDatabaseConnectionPool pool ) throws Exception {
+
+        pool.maxActive = maxActive;
+        pool.maxWait = 60000;
+
+        FakeDatabase.create().pool( pool );
+
+        final long[][] latencies = new long[ threads ][ borrows ];
+
+        final CyclicBarrier start = new CyclicBarrier( threads + 1 );
+
+        List<Thread> workers = new ArrayList<Thread>();
+
+        for ( int i = 0; i < threads; ++i ) {
+
+            final long[] latency = latencies[i];
+
+            Thread worker = newThread( () -> {
+
+                try {
+
+                    start.await();
+
+                    for ( int j = 0; j < borrows; ++j ) {
+
+                        long before = System.nanoTime();
+
+                        Connection conn = pool.getConnection();
+
+                        latency[j] = System.nanoTime() - before;
+
+                        LockSupport.parkNanos( holdMicros * 1000 );
+
+                        conn.close();
+
+                    }
+
+                } catch ( Exception e ) {
+                    throw new RuntimeException( e );
+                }
+
+            } );
+
+            worker.start();
+            workers.add( worker );
+
+        }
+
+        start.await();
+
+        long started = System.nanoTime();
+
+        for ( Thread worker : workers ) {
+            worker.join();
+        }
+
+        long elapsed = System.nanoTime() - started;
+
+        long[] all = new long[ threads * borrows ];
+
+        for ( int i = 0; i < threads; ++i ) {
+            System.arraycopy( latencies[i], 0, all, i * borrows, borrows );
+        }
+
+        Arrays.sort( all );
+
+        System.out.printf( "%-28s %8.0f borrows/s  p50 %8.1fus  p90 %8.1fus  p99 %8.1fus  p99.9 %8.1fus  max %8.1fus\n",
+                           pool.getClass().getSimpleName(),
+                           all.length / ( elapsed / 1e9 ),
+                           micros( all, 0.50 ),
+                           micros( all, 0.90 ),
+                           micros( all, 0.99 ),
+                           micros( all, 0.999 ),
+                           all[ all.length - 1 ] / 1000.0 );
+
+    }
+
+    Thread newThread( Runnable task ) throws ReflectiveOperationException {
+
+        if ( builder == null )
+            return new Thread( task );
+
+        return (Thread)unstarted.invoke( builder, task );
+
+    }
+
+    static double micros( long[] sorted, double percentile ) {
+        return sorted[ (int)Math.min( sorted.length - 1, sorted.length * percentile ) ] / 1000.0;
+    }
+
+}
@@ -0,0 +1,960 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.lang.reflect.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import java.sql.*;
+
+/**
+ * An in memory database for the tests, reached through DriverManager with
+ * the url of create().  Connections, statements and result sets are proxies
+ * which count what was done to them.  Queries answer with the rows given to
+ * setResult() for their SQL, and with no rows otherwise; everything else
+ * updates one row.
+ */
+public class FakeDatabase {
+
+    static final Map<String,FakeDatabase> databases = new ConcurrentHashMap<String,FakeDatabase>();
+
+    static final AtomicInteger sequence = new AtomicInteger();
+
+    static {
+
+        try {
+            DriverManager.registerDriver( new FakeDriver() );
+        } catch ( SQLException e ) {
+            throw new ExceptionInInitializerError( e );
+        }
+
+    }
+
+    final String url;
+
+    final Map<String,Object[][]> results = new ConcurrentHashMap<String,Object[][]>();
+
+    /**
+     * Every statement run, in order, batches once per row.
+     */
+    final List<String> executed = Collections.synchronizedList( new ArrayList<String>() );
+
+    /**
+     * Parameters of every prepared statement run, in the same order as
+     * executed.
+     */
+    final List<List<Object>> parameters = Collections.synchronizedList( new ArrayList<List<Object>>() );
+
+    /**
+     * Query timeout of every update run, in the same order as executed.
+     */
+    final List<Integer> timeouts = Collections.synchronizedList( new ArrayList<Integer>() );
+
+    final AtomicInteger connects = new AtomicInteger();
+
+    /**
+     * Physical connections not closed yet.
+     */
+    final AtomicInteger open = new AtomicInteger();
+
+    final AtomicInteger queries = new AtomicInteger();
+    final AtomicInteger commits = new AtomicInteger();
+    final AtomicInteger rollbacks = new AtomicInteger();
+
+    /**
+     * Millis each connect and each statement takes.
+     */
+    volatile long connectDelay = 0;
+    volatile long queryDelay = 0;
+
+    /**
+     * Refuse connections.
+     */
+    volatile boolean down = false;
+
+    /**
+     * Statements containing this fail.
+     */
+    volatile String failOn = null;
+
+    /**
+     * Statements run with this among their parameters fail.
+     */
+    volatile Object failOnParameter = null;
+
+    /**
+     * SQLState of the failures above.
+     */
+    volatile String failState = null;
+
+    /**
+     * What the driver calls itself, for code which looks at that.
+     */
+    volatile String driverName = "fake";
+
+    FakeDatabase( String url ) {
+        this.url = url;
+    }
+
+    /**
+     * A new empty database with its own url.
+     */
+    public static FakeDatabase create() {
+
+        FakeDatabase db = new FakeDatabase( "jdbc:fake:db" + sequence.incrementAndGet() );
+
+        databases.put( db.url, db );
+
+        return db;
+
+    }
+
+    /**
+     * Answer the query with the given rows.  The first row holds the column
+     * labels.
+     */
+    public void setResult( String sql, Object[]... rows ) {
+        results.put( sql, rows );
+    }
+
+    /**
+     * A pool of the given class connected to this database, initialized.
+     */
+    public <T extends BasicDatabaseConnectionPool> T pool( T pool ) {
+
+        pool.url = url;
+        pool.user = "test";
+        pool.password = "test";
+
+        //BasicDatabaseConnectionPool2 has its own copies of these.
+        if ( pool instanceof BasicDatabaseConnectionPool2 ) {
+
+            BasicDatabaseConnectionPool2 pool2 = (BasicDatabaseConnectionPool2)pool;
+
+            pool2.url = url;
+            pool2.user = "test";
+            pool2.password = "test";
+
+        }
+
+        pool.initialize();
+
+        return pool;
+
+    }
+
+    public int count( String sql ) {
+
+        int result = 0;
+
+        synchronized( executed ) {
+
+            for ( String current : executed ) {
+
+                if ( current.equals( sql ) )
+                    ++result;
+
+            }
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Wait up to timeout millis for the condition, for tests watching other
+     * threads.  Returns whether it came true.
+     */
+    static boolean waitFor( BooleanSupplier condition, long timeout ) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while ( ! condition.getAsBoolean() ) {
+
+            if ( System.currentTimeMillis() > deadline )
+                return false;
+
+            Thread.sleep( 1 );
+
+        }
+
+        return true;
+
+    }
+
+    Connection connect() throws SQLException {
+
+        sleep( connectDelay );
+
+        if ( down )
+            throw new SQLException( "Connection refused: " + url );
+
+        connects.incrementAndGet();
+        open.incrementAndGet();
+
+        return proxy( Connection.class, new FakeConnection() );
+
+    }
+
+    void run( String sql, List<Object> params ) throws SQLException {
+
+        sleep( queryDelay );
+
+        String fail = failOn;
+
+        if ( fail != null && sql.contains( fail ) )
+            throw new SQLException( "Failed: " + sql, failState );
+
+        Object parameter = failOnParameter;
+
+        if ( parameter != null && params.contains( parameter ) )
+            throw new SQLException( "Failed on " + parameter + ": " + sql, failState );
+
+        executed.add( sql );
+        parameters.add( params );
+
+    }
+
+    static void sleep( long millis ) throws SQLException {
+
+        if ( millis <= 0 )
+            return;
+
+        try {
+            Thread.sleep( millis );
+        } catch ( InterruptedException e ) {
+
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted" );
+
+        }
+
+    }
+
+    static boolean isQuery( String sql ) {
+
+        String head = sql.trim().toLowerCase();
+
+        return head.startsWith( "select" ) || head.startsWith( "show" ) || head.startsWith( "with" );
+
+    }
+
+    static <T> T proxy( Class<T> iface, InvocationHandler handler ) {
+
+        return iface.cast( Proxy.newProxyInstance( FakeDatabase.class.getClassLoader(),
+                                                   new Class<?>[] { iface },
+                                                   handler ) );
+
+    }
+
+    /**
+     * What a method we don't implement returns.
+     */
+    static Object defaultValue( Class<?> type ) {
+
+        if ( type == boolean.class )
+            return false;
+
+        if ( type == int.class )
+            return 0;
+
+        if ( type == long.class )
+            return 0L;
+
+        if ( type == double.class )
+            return 0.0;
+
+        if ( type == float.class )
+            return 0.0f;
+
+        if ( type == short.class )
+            return (short)0;
+
+        if ( type == byte.class )
+            return (byte)0;
+
+        return null;
+
+    }
+
+    /**
+     * Handles the methods of Object for a proxy.
+     */
+    static Object object( Object proxy, Method method, Object[] args ) {
+
+        switch( method.getName() ) {
+
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode( proxy );
+        default:
+            return proxy.getClass().getInterfaces()[0].getSimpleName() + "@" +
+                Integer.toHexString( System.identityHashCode( proxy ) );
+
+        }
+
+    }
+
+    // **** connections *********************************************************
+
+    class FakeConnection implements InvocationHandler {
+
+        boolean closed = false;
+        boolean autoCommit = true;
+        boolean readOnly = false;
+        String catalog = "test";
+        String schema = null;
+        int isolation = Connection.TRANSACTION_READ_COMMITTED;
+
+        Connection self;
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+            self = (Connection)proxy;
+
+            String name = method.getName();
+
+            if ( method.getDeclaringClass() == Object.class )
+                return object( proxy, method, args );
+
+            switch( name ) {
+
+            case "close":
+            case "abort":
+
+                if ( ! closed ) {
+                    closed = true;
+                    open.decrementAndGet();
+                }
+
+                return null;
+
+            case "isClosed":
+                return closed;
+            case "isValid":
+                return ! closed;
+
+            }
+
+            if ( closed )
+                throw new SQLException( "Connection is closed." );
+
+            switch( name ) {
+
+            case "getAutoCommit":
+                return autoCommit;
+            case "setAutoCommit":
+                autoCommit = (Boolean)args[0];
+                return null;
+            case "commit":
+                commits.incrementAndGet();
+                return null;
+            case "rollback":
+                rollbacks.incrementAndGet();
+                return null;
+            case "isReadOnly":
+                return readOnly;
+            case "setReadOnly":
+                readOnly = (Boolean)args[0];
+                return null;
+            case "getCatalog":
+                return catalog;
+            case "setCatalog":
+                catalog = (String)args[0];
+                return null;
+            case "getSchema":
+                return schema;
+            case "setSchema":
+                schema = (String)args[0];
+                return null;
+            case "getTransactionIsolation":
+                return isolation;
+            case "setTransactionIsolation":
+                isolation = (Integer)args[0];
+                return null;
+            case "createStatement":
+                return proxy( Statement.class, new FakeStatement( self, null ) );
+            case "prepareStatement":
+                return proxy( PreparedStatement.class, new FakeStatement( self, (String)args[0] ) );
+            case "prepareCall":
+                return proxy( CallableStatement.class, new FakeStatement( self, (String)args[0] ) );
+            case "nativeSQL":
+                return args[0];
+            case "getMetaData":
+                return proxy( DatabaseMetaData.class, new FakeMetaData() );
+
+            }
+
+            return defaultValue( method.getReturnType() );
+
+        }
+
+    }
+
+    class FakeMetaData implements InvocationHandler {
+
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+
+            if ( method.getDeclaringClass() == Object.class )
+                return object( proxy, method, args );
+
+            switch( method.getName() ) {
+
+            case "getDriverName":
+            case "getDatabaseProductName":
+                return driverName;
+            case "getURL":
+                return url;
+
+            }
+
+            return defaultValue( method.getReturnType() );
+
+        }
+
+    }
+
+    // **** statements **********************************************************
+
+    class FakeStatement implements InvocationHandler {
+
+        final Connection conn;
+
+        /**
+         * The SQL of a prepared statement.
+         */
+        final String prepared;
+
+        final Map<Integer,Object> params = new TreeMap<Integer,Object>();
+
+        final List<Object> batch = new ArrayList<Object>();
+
+        boolean closed = false;
+
+        int maxRows = 0;
+
+        ResultSet current = null;
+
+        int updateCount = -1;
+
+        volatile int queryTimeout = 0;
+
+        /**
+         * Set by cancel(), fails the statement running once its delay is up.
+         */
+        volatile boolean cancelled = false;
+
+        FakeStatement( Connection conn, String prepared ) {
+            this.conn = conn;
+            this.prepared = prepared;
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+            String name = method.getName();
+
+            if ( method.getDeclaringClass() == Object.class )
+                return object( proxy, method, args );
+
+            switch( name ) {
+
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+
+            }
+
+            if ( closed || conn.isClosed() )
+                throw new SQLException( "Statement is closed." );
+
+            //setters of prepared statement parameters.
+            if ( name.startsWith( "set" ) && args != null && args.length >= 2 &&
+                 args[0] instanceof Integer && prepared != null ) {
+
+                params.put( (Integer)args[0], name.equals( "setNull" ) ? null : args[1] );
+                return null;
+
+            }
+
+            switch( name ) {
+
+            case "getConnection":
+                return conn;
+            case "setMaxRows":
+                maxRows = (Integer)args[0];
+                return null;
+            case "getMaxRows":
+                return maxRows;
+            case "setLargeMaxRows":
+                maxRows = (int)(long)(Long)args[0];
+                return null;
+            case "getLargeMaxRows":
+                return (long)maxRows;
+            case "clearParameters":
+                params.clear();
+                return null;
+            case "setQueryTimeout":
+                queryTimeout = (Integer)args[0];
+                return null;
+            case "getQueryTimeout":
+                return queryTimeout;
+            case "cancel":
+                cancelled = true;
+                return null;
+            case "executeQuery":
+                return query( proxy, sql( args ) );
+            case "executeUpdate":
+            case "executeLargeUpdate":
+
+                update( sql( args ) );
+                return name.equals( "executeUpdate" ) ? (Object)updateCount : (Object)(long)updateCount;
+
+            case "execute":
+
+                String sql = sql( args );
+
+                if ( isQuery( sql ) ) {
+                    query( proxy, sql );
+                    return true;
+                }
+
+                update( sql );
+                return false;
+
+            case "getResultSet":
+                return current;
+            case "getUpdateCount":
+                return updateCount;
+            case "getLargeUpdateCount":
+                return (long)updateCount;
+            case "getMoreResults":
+                current = null;
+                updateCount = -1;
+                return false;
+            case "addBatch":
+                batch.add( args == null ? (Object)new ArrayList<Object>( params.values() ) : args[0] );
+                return null;
+            case "clearBatch":
+                batch.clear();
+                return null;
+            case "executeBatch":
+            case "executeLargeBatch":
+                return executeBatch( name.equals( "executeBatch" ) );
+            case "getGeneratedKeys":
+                return proxy( ResultSet.class, new FakeResultSet( proxy, new Object[][] { { "id" } }, 0 ) );
+
+            }
+
+            return defaultValue( method.getReturnType() );
+
+        }
+
+        String sql( Object[] args ) {
+            return args != null && args.length > 0 && args[0] instanceof String ? (String)args[0] : prepared;
+        }
+
+        ResultSet query( Object proxy, String sql ) throws SQLException {
+
+            queries.incrementAndGet();
+
+            run( sql, new ArrayList<Object>( params.values() ) );
+
+            Object[][] rows = results.get( sql );
+
+            if ( rows == null )
+                rows = new Object[][] { { "result" } };
+
+            current = proxy( ResultSet.class, new FakeResultSet( proxy, rows, maxRows ) );
+            updateCount = -1;
+
+            return current;
+
+        }
+
+        void update( String sql ) throws SQLException {
+
+            run( sql, new ArrayList<Object>( params.values() ) );
+
+            timeouts.add( queryTimeout );
+
+            if ( cancelled ) {
+                cancelled = false;
+                throw new SQLException( "Statement cancelled." );
+            }
+
+            current = null;
+
+            //one row for each tuple of a multi-row INSERT.
+            updateCount = sql.split( "\\),\\(", -1 ).length;
+
+        }
+
+        @SuppressWarnings( "unchecked" )
+        Object executeBatch( boolean ints ) throws SQLException {
+
+            int size = batch.size();
+
+            try {
+
+                for ( Object entry : batch ) {
+
+                    if ( entry instanceof String )
+                        run( (String)entry, new ArrayList<Object>() );
+                    else
+                        run( prepared, (List<Object>)entry );
+
+                }
+
+            } finally {
+                batch.clear();
+            }
+
+            if ( ints ) {
+
+                int[] result = new int[ size ];
+                Arrays.fill( result, 1 );
+                return result;
+
+            }
+
+            long[] result = new long[ size ];
+            Arrays.fill( result, 1 );
+            return result;
+
+        }
+
+    }
+
+    // **** results *************************************************************
+
+    class FakeResultSet implements InvocationHandler {
+
+        final Object statement;
+
+        final Object[][] rows;
+
+        /**
+         * Rows after the labels we hand out.
+         */
+        final int size;
+
+        int row = 0;
+
+        boolean wasNull = false;
+
+        boolean closed = false;
+
+        FakeResultSet( Object statement, Object[][] rows, int maxRows ) {
+
+            this.statement = statement;
+            this.rows = rows;
+
+            int size = rows.length - 1;
+
+            this.size = maxRows > 0 ? Math.min( size, maxRows ) : size;
+
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+
+            String name = method.getName();
+
+            if ( method.getDeclaringClass() == Object.class )
+                return object( proxy, method, args );
+
+            switch( name ) {
+
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+
+            }
+
+            if ( closed )
+                throw new SQLException( "Result set is closed." );
+
+            switch( name ) {
+
+            case "next":
+
+                if ( row <= size )
+                    ++row;
+
+                return row <= size;
+
+            case "getStatement":
+                return statement;
+            case "getRow":
+                return row <= size ? row : 0;
+            case "isBeforeFirst":
+                return row == 0 && size > 0;
+            case "isAfterLast":
+                return row > size && size > 0;
+            case "wasNull":
+                return wasNull;
+            case "findColumn":
+                return column( args[0] );
+            case "getType":
+                return ResultSet.TYPE_FORWARD_ONLY;
+            case "getConcurrency":
+                return ResultSet.CONCUR_READ_ONLY;
+            case "getMetaData":
+                return proxy( ResultSetMetaData.class, new FakeResultSetMetaData( rows ) );
+
+            }
+
+            if ( name.startsWith( "get" ) && args != null && args.length >= 1 &&
+                 ( args[0] instanceof Integer || args[0] instanceof String ) ) {
+
+                if ( row < 1 || row > size )
+                    throw new SQLException( "Not on a row." );
+
+                Object value = rows[ row ][ column( args[0] ) - 1 ];
+
+                wasNull = value == null;
+
+                return convert( value, method.getReturnType() );
+
+            }
+
+            return defaultValue( method.getReturnType() );
+
+        }
+
+        int column( Object column ) throws SQLException {
+
+            if ( column instanceof Integer )
+                return (Integer)column;
+
+            for ( int i = 0; i < rows[0].length; ++i ) {
+
+                if ( rows[0][i].toString().equalsIgnoreCase( (String)column ) )
+                    return i + 1;
+
+            }
+
+            throw new SQLException( "No such column: " + column );
+
+        }
+
+    }
+
+    static Object convert( Object value, Class<?> type ) throws SQLException {
+
+        if ( value == null )
+            return defaultValue( type );
+
+        if ( type == Object.class || type.isInstance( value ) )
+            return value;
+
+        if ( type == String.class )
+            return value.toString();
+
+        if ( value instanceof Number ) {
+
+            Number number = (Number)value;
+
+            if ( type == int.class )
+                return number.intValue();
+            if ( type == long.class )
+                return number.longValue();
+            if ( type == double.class )
+                return number.doubleValue();
+            if ( type == float.class )
+                return number.floatValue();
+            if ( type == short.class )
+                return number.shortValue();
+            if ( type == byte.class )
+                return number.byteValue();
+            if ( type == boolean.class )
+                return number.intValue() != 0;
+            if ( type == BigDecimal.class )
+                return new BigDecimal( number.toString() );
+
+        }
+
+        if ( value instanceof String ) {
+
+            try {
+
+                if ( type == int.class )
+                    return Integer.parseInt( (String)value );
+                if ( type == long.class )
+                    return Long.parseLong( (String)value );
+                if ( type == double.class )
+                    return Double.parseDouble( (String)value );
+                if ( type == BigDecimal.class )
+                    return new BigDecimal( (String)value );
+
+            } catch ( NumberFormatException e ) {
+                throw new SQLException( "Not a number: " + value );
+            }
+
+            if ( type == byte[].class )
+                return ( (String)value ).getBytes();
+
+        }
+
+        if ( value instanceof Boolean && type == boolean.class )
+            return value;
+
+        throw new SQLException( "Can't read " + value.getClass().getName() + " as " + type.getName() );
+
+    }
+
+    static class FakeResultSetMetaData implements InvocationHandler {
+
+        final Object[][] rows;
+
+        FakeResultSetMetaData( Object[][] rows ) {
+            this.rows = rows;
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args ) {
+
+            if ( method.getDeclaringClass() == Object.class )
+                return object( proxy, method, args );
+
+            switch( method.getName() ) {
+
+            case "getColumnCount":
+                return rows[0].length;
+            case "getColumnName":
+            case "getColumnLabel":
+                return rows[0][ (Integer)args[0] - 1 ].toString();
+            case "getColumnType":
+                return type( sample( (Integer)args[0] ) );
+            case "getColumnTypeName":
+                return JDBCType.valueOf( type( sample( (Integer)args[0] ) ) ).getName();
+            case "getColumnClassName":
+
+                Object sample = sample( (Integer)args[0] );
+
+                return sample == null ? String.class.getName() : sample.getClass().getName();
+
+            case "isSigned":
+                return true;
+            case "isNullable":
+                return ResultSetMetaData.columnNullable;
+            case "getTableName":
+            case "getSchemaName":
+            case "getCatalogName":
+                return "";
+
+            }
+
+            return defaultValue( method.getReturnType() );
+
+        }
+
+        Object sample( int column ) {
+
+            for ( int i = 1; i < rows.length; ++i ) {
+
+                if ( rows[i][ column - 1 ] != null )
+                    return rows[i][ column - 1 ];
+
+            }
+
+            return null;
+
+        }
+
+        static int type( Object sample ) {
+
+            if ( sample instanceof Integer )
+                return Types.INTEGER;
+            if ( sample instanceof Long )
+                return Types.BIGINT;
+            if ( sample instanceof Double )
+                return Types.DOUBLE;
+            if ( sample instanceof Float )
+                return Types.REAL;
+            if ( sample instanceof BigDecimal )
+                return Types.DECIMAL;
+            if ( sample instanceof Boolean )
+                return Types.BOOLEAN;
+            if ( sample instanceof byte[] )
+                return Types.VARBINARY;
+            if ( sample instanceof Timestamp )
+                return Types.TIMESTAMP;
+
+            return Types.VARCHAR;
+
+        }
+
+    }
+
+}
+
+/**
+ * Hands out connections to the FakeDatabase with the url asked for.
+ */
+class FakeDriver implements Driver {
+
+    public Connection connect( String url, Properties info ) throws SQLException {
+
+        FakeDatabase db = FakeDatabase.databases.get( url );
+
+        if ( db == null )
+            return null;
+
+        return db.connect();
+
+    }
+
+    public boolean acceptsURL( String url ) {
+        return FakeDatabase.databases.containsKey( url );
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo( String url, Properties info ) {
+        return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import junit.framework.*;
+
+public class TestAdaptivePoolSizer extends TestCase {
+
+    BasicDatabaseConnectionPool3 pool;
+
+    AdaptivePoolSizer sizer;
+
+    protected void setUp() throws Exception {
+
+        pool = FakeDatabase.create().pool( new BasicDatabaseConnectionPool3() );
+        pool.setMaxActive( 2 );
+
+        //not started; we call adjust() ourselves.
+        sizer = new AdaptivePoolSizer( pool );
+        sizer.interval = 1000;
+
+    }
+
+    public void testGrowsWhenBorrowersWait() throws Exception {
+
+        borrow( 10, 5000000L );
+        sizer.adjust();
+
+        assertEquals( AdaptivePoolSizer.GROW, sizer.lastAction );
+        assertEquals( 3, pool.maxActive );
+
+    }
+
+    public void testHoldsWhenGrowingDidNotHelp() throws Exception {
+
+        borrow( 10, 5000000L );
+        sizer.adjust();
+
+        //just as many borrows and they still wait.
+        for ( int i = 0; i < sizer.holdIntervals; ++i ) {
+
+            borrow( 10, 5000000L );
+            sizer.adjust();
+
+            assertEquals( AdaptivePoolSizer.HOLD, sizer.lastAction );
+            assertEquals( 3, pool.maxActive );
+
+        }
+
+        borrow( 10, 5000000L );
+        sizer.adjust();
+
+        assertEquals( AdaptivePoolSizer.GROW, sizer.lastAction );
+
+    }
+
+    public void testShrinksWhenLatencyRisesWithoutThroughput() throws Exception {
+
+        statements( 100, 1000000L );
+        sizer.adjust();
+
+        statements( 100, 2000000L );
+        sizer.adjust();
+
+        assertEquals( AdaptivePoolSizer.SHRINK, sizer.lastAction );
+        assertEquals( 1, pool.maxActive );
+
+    }
+
+    public void testStaysWithinBounds() throws Exception {
+
+        sizer.maxActiveLimit = 2;
+
+        borrow( 10, 5000000L );
+        sizer.adjust();
+
+        assertEquals( 2, pool.maxActive );
+
+        sizer.minActive = 2;
+
+        statements( 100, 1000000L );
+        sizer.adjust();
+
+        statements( 100, 2000000L );
+        sizer.adjust();
+
+        assertEquals( 2, pool.maxActive );
+
+    }
+
+    void borrow( int count, long wait ) {
+
+        for ( int i = 0; i < count; ++i ) {
+            pool.stats.recordBorrow( wait );
+        }
+
+    }
+
+    void statements( int count, long duration ) {
+
+        for ( int i = 0; i < count; ++i ) {
+            pool.stats.recordStatement( duration, false );
+        }
+
+    }
+
+}
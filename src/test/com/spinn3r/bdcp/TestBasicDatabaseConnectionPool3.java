@@ -0,0 +1,417 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+public class TestBasicDatabaseConnectionPool3 extends TestCase {
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new BasicDatabaseConnectionPool3();
+        pool.maxActive = 2;
+
+        db.pool( pool );
+
+    }
+
+    public void testReturnedConnectionsAreReused() throws Exception {
+
+        pool.getConnection().close();
+        pool.getConnection().close();
+
+        assertEquals( 1, db.connects.get() );
+        assertEquals( 1, pool.totalIdle );
+        assertEquals( 1, pool.totalActive );
+
+    }
+
+    public void testBorrowTimesOutWhenExhausted() throws Exception {
+
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+
+        pool.maxWait = 100;
+
+        long started = System.currentTimeMillis();
+
+        try {
+            pool.getConnection();
+            fail( "Borrowed past maxActive" );
+        } catch ( SQLException e ) {
+            assertTrue( System.currentTimeMillis() - started >= 90 );
+        }
+
+        first.close();
+        second.close();
+
+        assertEquals( 2, db.connects.get() );
+        assertEquals( 0, pool.waiting.get() );
+
+    }
+
+    public void testWaitersAreServedInOrder() throws Exception {
+
+        pool.setMaxActive( 1 );
+        pool.maxWait = 5000;
+
+        Connection held = pool.getConnection();
+
+        final List<Integer> served = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for ( int i = 0; i < 3; ++i ) {
+
+            final int id = i;
+
+            Thread thread = new Thread( () -> {
+
+                try {
+
+                    Connection conn = pool.getConnection();
+                    served.add( id );
+                    conn.close();
+
+                } catch ( SQLException e ) {
+                    served.add( -1 );
+                }
+
+            } );
+
+            thread.start();
+            threads.add( thread );
+
+            final int queued = i + 1;
+            assertTrue( FakeDatabase.waitFor( () -> pool.waiting.get() == queued, 5000 ) );
+
+        }
+
+        held.close();
+
+        for ( Thread thread : threads ) {
+            thread.join( 5000 );
+        }
+
+        assertEquals( Arrays.asList( 0, 1, 2 ), served );
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testAsyncBorrowCompletesOnReturn() throws Exception {
+
+        pool.setMaxActive( 1 );
+
+        Connection held = pool.getConnection();
+
+        CompletableFuture<Connection> future = pool.getConnectionAsync( 5, TimeUnit.SECONDS );
+
+        assertFalse( future.isDone() );
+
+        held.close();
+
+        Connection conn = future.get( 1, TimeUnit.SECONDS );
+
+        assertNotNull( conn );
+
+        conn.close();
+
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testAsyncBorrowTimesOut() throws Exception {
+
+        pool.setMaxActive( 1 );
+
+        Connection held = pool.getConnection();
+
+        CompletableFuture<Connection> future = pool.getConnectionAsync( 50, TimeUnit.MILLISECONDS );
+
+        try {
+            future.get( 5, TimeUnit.SECONDS );
+            fail( "Async borrow didn't time out" );
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof SQLException );
+        }
+
+        held.close();
+
+        //the timed out waiter mustn't swallow the returned connection.
+        assertEquals( 1, pool.totalIdle );
+
+    }
+
+    public void testReservedConnectionsAreHeldForTheirClass() throws Exception {
+
+        pool.setReserved( ConnectionPriority.INTERACTIVE, 1 );
+
+        pool.maxWait = 50;
+
+        Connection batch = pool.getConnection( ConnectionPriority.BATCH );
+
+        try {
+            pool.getConnection( ConnectionPriority.BATCH );
+            fail( "Batch borrow took the reserved connection" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        Connection interactive = pool.getConnection( ConnectionPriority.INTERACTIVE );
+
+        interactive.close();
+        batch.close();
+
+    }
+
+    public void testReturnedConnectionGoesToHigherPriorityFirst() throws Exception {
+
+        pool.setMaxActive( 1 );
+
+        Connection held = pool.getConnection();
+
+        CompletableFuture<Connection> batch =
+            pool.getConnectionAsync( ConnectionPriority.BATCH, 5, TimeUnit.SECONDS );
+
+        CompletableFuture<Connection> interactive =
+            pool.getConnectionAsync( ConnectionPriority.INTERACTIVE, 5, TimeUnit.SECONDS );
+
+        held.close();
+
+        interactive.get( 1, TimeUnit.SECONDS ).close();
+        batch.get( 1, TimeUnit.SECONDS ).close();
+
+    }
+
+    public void testThreadAffinityKeepsTheSameConnection() throws Exception {
+
+        pool.enableThreadAffinity = true;
+
+        BasicDatabaseConnection first = (BasicDatabaseConnection)pool.getConnection();
+        Connection delegate = first.getDelegate();
+        first.close();
+
+        assertEquals( 0, pool.totalIdle );
+
+        BasicDatabaseConnection second = (BasicDatabaseConnection)pool.getConnection();
+
+        assertSame( delegate, second.getDelegate() );
+
+        second.close();
+
+    }
+
+    public void testParkedConnectionsAreStolenWhenExhausted() throws Exception {
+
+        pool.setMaxActive( 1 );
+        pool.maxWait = 1000;
+        pool.enableThreadAffinity = true;
+
+        pool.getConnection().close();
+
+        final Connection[] stolen = new Connection[1];
+
+        Thread thread = new Thread( () -> {
+
+            try {
+                stolen[0] = pool.getConnection();
+                stolen[0].close();
+            } catch ( SQLException e ) {
+                //leaves stolen null.
+            }
+
+        } );
+
+        thread.start();
+        thread.join( 5000 );
+
+        assertNotNull( stolen[0] );
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testIdleConnectionsArePingedInBatches() throws Exception {
+
+        pool.setMaxActive( 5 );
+        pool.pingBatchSize = 2;
+
+        List<Connection> borrowed = new ArrayList<Connection>();
+
+        for ( int i = 0; i < 5; ++i ) {
+            borrowed.add( pool.getConnection() );
+        }
+
+        for ( Connection conn : borrowed ) {
+            conn.close();
+        }
+
+        db.queryDelay = 20;
+
+        final int[] fewest = { Integer.MAX_VALUE };
+
+        Thread watcher = new Thread( () -> {
+
+            while ( ! Thread.currentThread().isInterrupted() ) {
+
+                pool.lock.lock();
+
+                try {
+                    fewest[0] = Math.min( fewest[0], pool.totalIdle );
+                } finally {
+                    pool.lock.unlock();
+                }
+
+            }
+
+        } );
+
+        watcher.start();
+
+        pool.pingIdleConnections();
+
+        watcher.interrupt();
+        watcher.join();
+
+        //never more than a batch out of the pool at once.
+        assertEquals( 3, fewest[0] );
+
+        assertEquals( 5, db.count( ConnectionPingThread.PING_COMMAND ) );
+        assertEquals( 5, pool.totalIdle );
+        assertEquals( 5, pool.idle.size() );
+
+    }
+
+    public void testRaisingMaxActiveServesWaiters() throws Exception {
+
+        pool.setMaxActive( 1 );
+
+        Connection held = pool.getConnection();
+
+        CompletableFuture<Connection> future = pool.getConnectionAsync( 5, TimeUnit.SECONDS );
+
+        pool.setMaxActive( 2 );
+
+        future.get( 1, TimeUnit.SECONDS ).close();
+        held.close();
+
+        assertEquals( 2, db.connects.get() );
+
+    }
+
+    public void testLoadSheddingFailsFast() throws Exception {
+
+        pool.setMaxActive( 1 );
+        pool.enableLoadShedding = true;
+
+        //a second per hold.
+        pool.stats.recordHold( 1000000000L );
+
+        Connection held = pool.getConnection();
+
+        CompletableFuture<Connection> queued = pool.getConnectionAsync( 10, TimeUnit.SECONDS );
+
+        long started = System.currentTimeMillis();
+
+        try {
+            pool.getConnection( ConnectionPriority.NORMAL, 100 );
+            fail( "Borrow wasn't shed" );
+        } catch ( SQLException e ) {
+            assertTrue( System.currentTimeMillis() - started < 100 );
+        }
+
+        assertEquals( 1, pool.stats.getShed() );
+
+        held.close();
+        queued.get( 1, TimeUnit.SECONDS ).close();
+
+    }
+
+    public void testConcurrencyLimiterFailsFast() throws Exception {
+
+        pool.limiter = new ConcurrencyLimiter( 1 );
+
+        Connection held = pool.getConnection();
+
+        try {
+            pool.getConnection( ConnectionPriority.NORMAL, 1000 );
+            fail( "Borrowed over the concurrency limit" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        held.close();
+
+        pool.getConnection().close();
+
+        assertEquals( 0, pool.limiter.getInFlight() );
+
+    }
+
+    public void testAbortedConnectionIsDropped() throws Exception {
+
+        Connection conn = pool.getConnection();
+
+        conn.abort( Runnable::run );
+
+        assertTrue( conn.isClosed() );
+        assertEquals( 0, pool.totalActive );
+        assertEquals( 0, pool.totalIdle );
+        assertEquals( 0, db.open.get() );
+
+        pool.getConnection().close();
+
+        assertEquals( 2, db.connects.get() );
+
+    }
+
+    public void testFailedConnectGivesBackTheSlot() throws Exception {
+
+        db.down = true;
+
+        try {
+            pool.getConnection();
+            fail( "Connected to a database that's down" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        assertEquals( 0, pool.totalActive );
+
+        db.down = false;
+
+        pool.getConnection().close();
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+public class TestBatchRewriter extends TestCase {
+
+    static final String INSERT = "INSERT INTO t (a, b) VALUES (?, ?)";
+
+    public void testParseOnlySingleRowInserts() throws Exception {
+
+        BatchRewriter rewriter = BatchRewriter.parse( INSERT, 1024, 10 );
+
+        assertNotNull( rewriter );
+        assertEquals( 2, rewriter.parameters );
+        assertEquals( "INSERT INTO t (a, b) VALUES (?, ?),(?, ?)", rewriter.getSQL( 2 ) );
+
+        assertNotNull( BatchRewriter.parse( "insert into t values (?, now())", 1024, 10 ) );
+
+        assertNull( BatchRewriter.parse( "UPDATE t SET a = ?", 1024, 10 ) );
+        assertNull( BatchRewriter.parse( "INSERT INTO t (a) VALUES (?), (?)", 1024, 10 ) );
+        assertNull( BatchRewriter.parse( "INSERT INTO t (a) SELECT a FROM u WHERE b = ?", 1024, 10 ) );
+        assertNull( BatchRewriter.parse( "INSERT INTO t (a, b) VALUES (?, 'x')", 1024, 10 ) );
+        assertNull( BatchRewriter.parse( "INSERT INTO t (a) VALUES (1)", 1024, 10 ) );
+
+    }
+
+    public void testCountParametersSkipsQuotes() throws Exception {
+
+        assertEquals( 2, BatchRewriter.countParameters( "a = ? and b = '?' and c = \"?\" and d = `?` and e = ?" ) );
+
+    }
+
+    public void testChunksByRowsAndPacketSize() throws Exception {
+
+        BatchRewriter rewriter = BatchRewriter.parse( INSERT, 1024 * 1024, 3 );
+
+        for ( int i = 0; i < 7; ++i ) {
+            row( rewriter, i, "x" );
+        }
+
+        assertEquals( 3, rewriter.chunkEnd( 0 ) );
+        assertEquals( 6, rewriter.chunkEnd( 3 ) );
+        assertEquals( 7, rewriter.chunkEnd( 6 ) );
+
+        //a row over the packet size still goes out, alone.
+        rewriter = BatchRewriter.parse( INSERT, 100, 1000 );
+
+        row( rewriter, 1, new String( new char[200] ) );
+        row( rewriter, 2, "x" );
+
+        assertEquals( 1, rewriter.chunkEnd( 0 ) );
+        assertEquals( 2, rewriter.chunkEnd( 1 ) );
+
+    }
+
+    public void testStreamsAreReplayed() throws Exception {
+
+        BatchRewriter rewriter = BatchRewriter.parse( INSERT, 1024, 10 );
+
+        rewriter.bind( 1, 1, (stmt, index) -> stmt.setInt( index, 1 ) );
+        rewriter.bind( 2, new StringReader( "x" ), (stmt, index) -> stmt.setString( index, "x" ) );
+
+        assertTrue( rewriter.replayOnly );
+
+        rewriter.addBatch();
+        rewriter.clearBatch();
+
+        assertFalse( rewriter.replayOnly );
+
+    }
+
+    public void testMissingParameterFailsTheRow() throws Exception {
+
+        BatchRewriter rewriter = BatchRewriter.parse( INSERT, 1024, 10 );
+
+        rewriter.bind( 1, 1, (stmt, index) -> stmt.setInt( index, 1 ) );
+
+        try {
+            rewriter.addBatch();
+            fail( "Added a row missing a parameter" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+    }
+
+    public void testPoolRewritesBatches() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = new BasicDatabaseConnectionPool3();
+        pool.rewriteBatchedInserts = true;
+        pool.maxBatchRows = 2;
+
+        db.pool( pool );
+
+        Connection conn = pool.getConnection();
+
+        try {
+
+            PreparedStatement stmt = conn.prepareStatement( INSERT );
+
+            for ( int i = 0; i < 5; ++i ) {
+
+                stmt.setInt( 1, i );
+                stmt.setString( 2, "row" + i );
+                stmt.addBatch();
+
+            }
+
+            int[] counts = stmt.executeBatch();
+
+            assertEquals( 5, counts.length );
+
+            for ( int count : counts ) {
+                assertEquals( 1, count );
+            }
+
+            stmt.close();
+
+        } finally {
+            conn.close();
+        }
+
+        assertEquals( 2, db.count( "INSERT INTO t (a, b) VALUES (?, ?),(?, ?)" ) );
+        assertEquals( 1, db.count( INSERT ) );
+
+        assertEquals( Arrays.<Object>asList( 0, "row0", 1, "row1" ), db.parameters.get( 0 ) );
+        assertEquals( Arrays.<Object>asList( 4, "row4" ), db.parameters.get( 2 ) );
+
+    }
+
+    public void testStatementsReturningKeysAreNotRewritten() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = new BasicDatabaseConnectionPool3();
+        pool.rewriteBatchedInserts = true;
+
+        db.pool( pool );
+
+        Connection conn = pool.getConnection();
+
+        try {
+
+            PreparedStatement stmt = conn.prepareStatement( INSERT, Statement.RETURN_GENERATED_KEYS );
+
+            for ( int i = 0; i < 3; ++i ) {
+
+                stmt.setInt( 1, i );
+                stmt.setString( 2, "row" + i );
+                stmt.addBatch();
+
+            }
+
+            assertEquals( 3, stmt.executeBatch().length );
+
+            stmt.close();
+
+        } finally {
+            conn.close();
+        }
+
+        assertEquals( 3, db.count( INSERT ) );
+        assertEquals( 0, db.count( "INSERT INTO t (a, b) VALUES (?, ?),(?, ?)" ) );
+
+    }
+
+    public void testChunksKeepTheTimeoutAndCanBeCancelled() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = new BasicDatabaseConnectionPool3();
+        pool.rewriteBatchedInserts = true;
+        pool.maxBatchRows = 2;
+
+        db.pool( pool );
+
+        Connection conn = pool.getConnection();
+
+        ExecutorService threads = Executors.newFixedThreadPool( 1 );
+
+        try {
+
+            PreparedStatement stmt = conn.prepareStatement( INSERT );
+            stmt.setQueryTimeout( 7 );
+
+            for ( int i = 0; i < 5; ++i ) {
+
+                stmt.setInt( 1, i );
+                stmt.setString( 2, "row" + i );
+                stmt.addBatch();
+
+            }
+
+            db.queryDelay = 300;
+
+            Future<int[]> counts = threads.submit( () -> stmt.executeBatch() );
+
+            Thread.sleep( 100 );
+            stmt.cancel();
+
+            try {
+                counts.get( 5, TimeUnit.SECONDS );
+                fail( "Cancelled batch finished" );
+            } catch ( ExecutionException e ) {
+                assertTrue( e.getCause() instanceof BatchUpdateException );
+            }
+
+            //the chunks after the cancelled one never ran.
+            assertEquals( Arrays.asList( 7 ), db.timeouts );
+
+            stmt.close();
+
+        } finally {
+            threads.shutdown();
+            conn.close();
+        }
+
+    }
+
+    void row( BatchRewriter rewriter, int a, String b ) throws SQLException {
+
+        rewriter.bind( 1, a, (stmt, index) -> stmt.setInt( index, a ) );
+        rewriter.bind( 2, b, (stmt, index) -> stmt.setString( index, b ) );
+        rewriter.addBatch();
+
+    }
+
+}
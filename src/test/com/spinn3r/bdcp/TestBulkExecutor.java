@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.*;
+
+public class TestBulkExecutor extends TestCase {
+
+    static final String INSERT = "INSERT INTO t (a) VALUES (?)";
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new BasicDatabaseConnectionPool3();
+        pool.bulkParallelism = 2;
+        pool.bulkPartitionSize = 3;
+
+        db.pool( pool );
+
+    }
+
+    public void testPartitionsAreCommittedSeparately() throws Exception {
+
+        int[] counts = pool.executeBulk( INSERT, rows( 10 ) );
+
+        assertEquals( 10, counts.length );
+
+        for ( int count : counts ) {
+            assertEquals( 1, count );
+        }
+
+        assertEquals( 10, db.count( INSERT ) );
+        assertEquals( 4, db.commits.get() );
+        assertTrue( db.connects.get() <= 2 );
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+    }
+
+    public void testNoRows() throws Exception {
+
+        assertEquals( 0, pool.executeBulk( INSERT, new ArrayList<Object[]>() ).length );
+        assertEquals( 0, db.connects.get() );
+
+    }
+
+    public void testLostConnectionStopsTheWorker() throws Exception {
+
+        pool.bulkParallelism = 1;
+
+        db.failOnParameter = 0;
+        db.failState = "08S01";
+
+        try {
+            pool.executeBulk( INSERT, rows( 9 ) );
+            fail( "Bulk execution on a lost connection succeeded" );
+        } catch ( BatchUpdateException e ) {
+
+            for ( int count : e.getUpdateCounts() ) {
+                assertEquals( Statement.EXECUTE_FAILED, count );
+            }
+
+            SQLException first = e.getNextException();
+
+            assertEquals( "08S01", first.getSQLState() );
+
+            //the other two partitions never ran, because of the first.
+            SQLException second = first.getNextException();
+
+            assertSame( first, second.getCause() );
+            assertSame( first, second.getNextException().getCause() );
+
+        }
+
+        assertEquals( 0, db.count( INSERT ) );
+        assertEquals( 0, db.open.get() );
+
+    }
+
+    public void testFailedPartitionDoesNotStopTheOthers() throws Exception {
+
+        db.failOnParameter = 4;
+
+        try {
+            pool.executeBulk( INSERT, rows( 10 ) );
+            fail( "Bulk execution with a bad row succeeded" );
+        } catch ( BatchUpdateException e ) {
+
+            int[] counts = e.getUpdateCounts();
+
+            for ( int i = 0; i < counts.length; ++i ) {
+
+                //the second partition holds row 4.
+                int expected = i >= 3 && i < 6 ? Statement.EXECUTE_FAILED : 1;
+
+                assertEquals( "row " + i, expected, counts[i] );
+
+            }
+
+            assertNotNull( e.getNextException() );
+            assertNull( e.getNextException().getNextException() );
+
+        }
+
+        assertEquals( 3, db.commits.get() );
+        assertEquals( 1, db.rollbacks.get() );
+
+    }
+
+    public void testPartitionsNeverRunAreReported() throws Exception {
+
+        db.down = true;
+
+        try {
+            pool.executeBulk( INSERT, rows( 4 ) );
+            fail( "Bulk execution without a database succeeded" );
+        } catch ( BatchUpdateException e ) {
+
+            for ( int count : e.getUpdateCounts() ) {
+                assertEquals( Statement.EXECUTE_FAILED, count );
+            }
+
+            assertTrue( e.getMessage(), e.getMessage().contains( "never run" ) );
+
+        }
+
+    }
+
+    List<Object[]> rows( int count ) {
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+
+        for ( int i = 0; i < count; ++i ) {
+            rows.add( new Object[] { i } );
+        }
+
+        return rows;
+
+    }
+
+}
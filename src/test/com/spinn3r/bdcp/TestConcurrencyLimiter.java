@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import junit.framework.*;
+
+public class TestConcurrencyLimiter extends TestCase {
+
+    public void testPermitsAreCappedAtTheLimit() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 2 );
+
+        assertTrue( limiter.tryAcquire() );
+        assertTrue( limiter.tryAcquire() );
+        assertFalse( limiter.tryAcquire() );
+
+        limiter.release();
+
+        assertTrue( limiter.tryAcquire() );
+        assertEquals( 2, limiter.getInFlight() );
+
+    }
+
+    public void testLimitGrowsWhileLatencyHolds() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+
+        for ( int i = 0; i < 20; ++i ) {
+            limiter.update( 1000000, false, 10 );
+        }
+
+        assertTrue( "limit " + limiter.getLimit(), limiter.getLimit() > 10 );
+
+    }
+
+    public void testLimitDoesNotGrowWhenUnused() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+
+        for ( int i = 0; i < 20; ++i ) {
+            limiter.update( 1000000, false, 2 );
+        }
+
+        assertEquals( 10, limiter.getLimit() );
+
+    }
+
+    public void testLimitShrinksAsLatencyRises() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 50 );
+
+        for ( int i = 0; i < 10; ++i ) {
+            limiter.update( 1000000, false, 50 );
+        }
+
+        int before = limiter.getLimit();
+
+        for ( int i = 0; i < 10; ++i ) {
+            limiter.update( 10000000, false, before );
+        }
+
+        assertTrue( limiter.getLimit() + " >= " + before, limiter.getLimit() < before );
+
+    }
+
+    public void testTimeoutBacksOff() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 100 );
+        limiter.window = 1;
+
+        limiter.onSample( 1000000, true );
+
+        assertEquals( 90, limiter.getLimit() );
+
+    }
+
+    public void testLimitStaysInBounds() throws Exception {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter( 5 );
+        limiter.minLimit = 4;
+
+        for ( int i = 0; i < 50; ++i ) {
+            limiter.update( 1000000, true, 5 );
+        }
+
+        assertEquals( 4, limiter.getLimit() );
+
+    }
+
+}
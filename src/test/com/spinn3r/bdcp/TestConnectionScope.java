@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+/**
+ * Scopes, withConnection() and withTransaction().
+ */
+public class TestConnectionScope extends TestCase {
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+    }
+
+    public void testWithConnectionReturnsTheConnection() throws Exception {
+
+        int result = pool.withConnection( ( conn ) -> {
+
+            assertEquals( 1, pool.totalActive );
+            assertEquals( 0, pool.totalIdle );
+
+            return 42;
+
+        } );
+
+        assertEquals( 42, result );
+        assertEquals( 1, pool.totalIdle );
+
+    }
+
+    public void testWithTransactionCommits() throws Exception {
+
+        pool.withTransaction( ( conn ) -> {
+
+            assertFalse( conn.getAutoCommit() );
+            return conn.createStatement().executeUpdate( "UPDATE a SET b = 1" );
+
+        } );
+
+        assertEquals( 1, db.commits.get() );
+        assertEquals( 0, db.rollbacks.get() );
+
+        pool.withConnection( ( conn ) -> {
+
+            assertTrue( "Returned in a transaction", conn.getAutoCommit() );
+            return null;
+
+        } );
+
+    }
+
+    public void testWithTransactionRollsBack() throws Exception {
+
+        try {
+
+            pool.withTransaction( ( conn ) -> {
+                throw new SQLException( "failed" );
+            } );
+
+            fail( "Exception was swallowed" );
+
+        } catch ( SQLException e ) {
+            assertEquals( "failed", e.getMessage() );
+        }
+
+        assertEquals( 0, db.commits.get() );
+        assertEquals( 1, db.rollbacks.get() );
+
+    }
+
+    public void testScopeSharesOneConnection() throws Exception {
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            Connection first = pool.getConnection();
+            first.close();
+
+            Connection second = pool.getConnection();
+
+            assertSame( first, second );
+            assertFalse( second.isClosed() );
+            assertEquals( 1, scope.getReused() );
+
+            try ( ConnectionScope nested = pool.openScope() ) {
+
+                assertSame( scope, nested );
+                assertSame( first, pool.getConnection() );
+
+            }
+
+            assertEquals( 0, pool.totalIdle );
+
+        }
+
+        assertNull( pool.getCurrentScope() );
+        assertEquals( 1, pool.totalIdle );
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testEveryOverloadUsesTheScope() throws Exception {
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            Connection conn = pool.getConnection();
+
+            assertSame( conn, pool.getConnection( 1000 ) );
+            assertSame( conn, pool.getConnection( ConnectionPriority.BATCH ) );
+            assertSame( conn, pool.getConnection( ConnectionPriority.BATCH, 1000 ) );
+            assertEquals( 3, scope.getReused() );
+
+        }
+
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testEveryOverloadIsLazy() throws Exception {
+
+        pool.lazyConnections = true;
+
+        Connection[] conns = {
+            pool.getConnection( 1000 ),
+            pool.getConnection( ConnectionPriority.BATCH ),
+            pool.getConnection( ConnectionPriority.BATCH, 1000 )
+        };
+
+        for ( Connection conn : conns ) {
+            assertFalse( ( (BasicDatabaseConnection)conn ).isBound() );
+            conn.close();
+        }
+
+        assertEquals( 0, db.connects.get() );
+
+    }
+
+    public void testNestedTransactionsJoinTheOuterOne() throws Exception {
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            pool.withTransaction( ( outer ) -> {
+
+                assertSame( scope.getConnection(), outer );
+
+                pool.withTransaction( ( inner ) -> {
+
+                    assertSame( outer, inner );
+                    return null;
+
+                } );
+
+                assertEquals( "Inner transaction committed", 0, db.commits.get() );
+
+                return null;
+
+            } );
+
+        }
+
+        assertEquals( 1, db.commits.get() );
+
+    }
+
+    public void testTransactionOpenedByHandIsNotJoined() throws Exception {
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            Connection conn = pool.getConnection();
+            conn.setAutoCommit( false );
+
+            //no withTransaction() owns this transaction so this one does.
+            pool.withTransaction( ( inner ) -> null );
+
+            assertEquals( 1, db.commits.get() );
+            assertSame( conn, scope.getConnection() );
+
+            conn.setAutoCommit( true );
+
+        }
+
+    }
+
+    public void testScopeEndingInATransactionRollsBack() throws Exception {
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            Connection conn = pool.getConnection();
+            conn.setAutoCommit( false );
+            conn.createStatement().executeUpdate( "UPDATE a SET b = 1" );
+
+            assertSame( conn, scope.getConnection() );
+
+        }
+
+        assertEquals( 1, db.rollbacks.get() );
+
+        pool.withConnection( ( conn ) -> {
+
+            assertTrue( conn.getAutoCommit() );
+            return null;
+
+        } );
+
+    }
+
+    public void testHoldTimesOnlyWalkTheStackWithTracking() throws Exception {
+
+        pool.withConnection( ( conn ) -> null );
+
+        assertTrue( pool.getHoldTimes().isEmpty() );
+
+        pool.withConnection( "site", ( conn ) -> null );
+
+        assertEquals( 1, pool.getHoldTimes().get( "site" ).getCount() );
+
+        pool.enableTracking = true;
+
+        pool.withConnection( ( conn ) -> null );
+
+        assertEquals( 2, pool.getHoldTimes().size() );
+
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+/**
+ * Lazy and multiplexed logical connections.
+ */
+public class TestLazyConnections extends TestCase {
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new BasicDatabaseConnectionPool3();
+        pool.maxActive = 1;
+
+        db.pool( pool );
+
+    }
+
+    public void testLazyConnectionBorrowsOnFirstStatement() throws Exception {
+
+        pool.lazyConnections = true;
+
+        BasicDatabaseConnection conn = (BasicDatabaseConnection)pool.getConnection();
+
+        conn.setAutoCommit( false );
+        conn.setReadOnly( true );
+
+        assertFalse( conn.isBound() );
+        assertEquals( 0, pool.totalActive );
+        assertFalse( conn.getAutoCommit() );
+
+        conn.createStatement().executeQuery( "SELECT 1" ).close();
+
+        assertTrue( conn.isBound() );
+        assertEquals( 1, pool.totalActive );
+        assertFalse( conn.getDelegate().getAutoCommit() );
+        assertTrue( conn.getDelegate().isReadOnly() );
+
+        conn.rollback();
+        conn.setAutoCommit( true );
+        conn.close();
+
+        assertEquals( 1, pool.totalIdle );
+
+    }
+
+    public void testUnusedLazyConnectionNeverBorrows() throws Exception {
+
+        pool.lazyConnections = true;
+
+        Connection conn = pool.getConnection();
+        conn.close();
+
+        assertEquals( 0, db.connects.get() );
+        assertEquals( 0, pool.totalActive );
+
+    }
+
+    public void testMultiplexedConnectionsShareAPhysicalOne() throws Exception {
+
+        pool.multiplexConnections = true;
+
+        BasicDatabaseConnection first = (BasicDatabaseConnection)pool.getConnection();
+        BasicDatabaseConnection second = (BasicDatabaseConnection)pool.getConnection();
+
+        update( first, "UPDATE a SET b = 1" );
+
+        assertFalse( "Kept the connection after the statement", first.isBound() );
+
+        update( second, "UPDATE a SET b = 2" );
+
+        first.close();
+        second.close();
+
+        assertEquals( 1, db.connects.get() );
+        assertEquals( 2, db.executed.size() );
+
+    }
+
+    public void testTransactionKeepsThePhysicalConnection() throws Exception {
+
+        pool.multiplexConnections = true;
+
+        BasicDatabaseConnection conn = (BasicDatabaseConnection)pool.getConnection();
+
+        conn.setAutoCommit( false );
+
+        update( conn, "UPDATE a SET b = 1" );
+
+        assertTrue( conn.isBound() );
+        assertEquals( 0, pool.totalIdle );
+
+        conn.commit();
+
+        assertFalse( conn.isBound() );
+        assertEquals( 1, pool.totalIdle );
+
+        //the next statement starts a transaction again.
+        update( conn, "UPDATE a SET b = 2" );
+
+        assertTrue( conn.isBound() );
+        assertFalse( conn.getDelegate().getAutoCommit() );
+
+        conn.rollback();
+        conn.close();
+
+    }
+
+    public void testSessionStatePinsTheConnection() throws Exception {
+
+        pool.multiplexConnections = true;
+
+        BasicDatabaseConnection conn = (BasicDatabaseConnection)pool.getConnection();
+
+        update( conn, "SET @x = 1" );
+
+        assertTrue( conn.isPinned() );
+        assertTrue( conn.isBound() );
+
+        conn.close();
+
+        assertEquals( 1, pool.totalIdle );
+
+    }
+
+    void update( Connection conn, String sql ) throws SQLException {
+
+        Statement stmt = conn.createStatement();
+
+        try {
+            stmt.executeUpdate( sql );
+        } finally {
+            stmt.close();
+        }
+
+    }
+
+}
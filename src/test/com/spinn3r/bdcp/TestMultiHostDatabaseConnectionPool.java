@@ -0,0 +1,286 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Failover, outlier ejection and replication lag routing.
+ */
+public class TestMultiHostDatabaseConnectionPool extends TestCase {
+
+    static final String PROBE = "SHOW SLAVE STATUS";
+
+    MultiHostDatabaseConnectionPool pool;
+
+    Map<String,FakeDatabase> databases = new LinkedHashMap<String,FakeDatabase>();
+
+    protected void setUp() throws Exception {
+
+        pool = new MultiHostDatabaseConnectionPool();
+        pool.hostTimeout = 100;
+
+        for ( String name : new String[] { "a", "b", "c" } ) {
+
+            FakeDatabase db = FakeDatabase.create();
+
+            databases.put( name, db );
+            pool.addHost( name, db.pool( new BasicDatabaseConnectionPool3() ) );
+
+        }
+
+        pool.initialize();
+
+    }
+
+    public void testBorrowsAreSpreadOverHosts() throws Exception {
+
+        for ( int i = 0; i < 6; ++i ) {
+            borrow();
+        }
+
+        for ( FakeDatabase db : databases.values() ) {
+            assertEquals( 2, db.count( "SELECT 1" ) );
+        }
+
+    }
+
+    public void testDownHostIsSkipped() throws Exception {
+
+        databases.get( "b" ).down = true;
+
+        for ( int i = 0; i < 6; ++i ) {
+            borrow();
+        }
+
+        assertEquals( 0, databases.get( "b" ).count( "SELECT 1" ) );
+        assertEquals( 6, databases.get( "a" ).count( "SELECT 1" ) + databases.get( "c" ).count( "SELECT 1" ) );
+
+    }
+
+    public void testEveryHostDownChainsTheFailures() throws Exception {
+
+        for ( FakeDatabase db : databases.values() ) {
+            db.down = true;
+        }
+
+        try {
+            pool.getConnection();
+            fail( "Borrowed with every host down" );
+        } catch ( SQLException e ) {
+
+            int failures = 0;
+
+            for ( SQLException next = e; next != null; next = next.getNextException() ) {
+                ++failures;
+            }
+
+            assertEquals( 3, failures );
+
+        }
+
+    }
+
+    public void testErrorsEjectAHost() throws Exception {
+
+        OutlierDetector detector = new OutlierDetector( pool );
+
+        statements( "a", 200, 1000000L, 0 );
+        statements( "b", 200, 1000000L, 0 );
+        statements( "c", 200, 1000000L, 50 );
+
+        detector.detect();
+
+        assertEquals( Arrays.asList( "c" ), pool.getEjectedHosts() );
+
+        //an ejected host still beats no host.  Down only refuses new
+        //connections so this has to come before a and b have idle ones.
+        databases.get( "a" ).down = true;
+        databases.get( "b" ).down = true;
+
+        borrow();
+
+        assertEquals( 1, databases.get( "c" ).count( "SELECT 1" ) );
+
+        databases.get( "a" ).down = false;
+        databases.get( "b" ).down = false;
+
+        for ( int i = 0; i < 6; ++i ) {
+            borrow();
+        }
+
+        assertEquals( 1, databases.get( "c" ).count( "SELECT 1" ) );
+
+    }
+
+    public void testSlowHostIsEjected() throws Exception {
+
+        OutlierDetector detector = new OutlierDetector( pool );
+
+        statements( "a", 200, 1000000L, 0 );
+        statements( "b", 200, 2000000L, 0 );
+        statements( "c", 200, 100000000L, 0 );
+
+        detector.detect();
+
+        assertEquals( Arrays.asList( "c" ), pool.getEjectedHosts() );
+
+    }
+
+    public void testEjectionsAreBoundedAndExpire() throws Exception {
+
+        OutlierDetector detector = new OutlierDetector( pool );
+        detector.baseEjectionTime = 50;
+
+        for ( String name : databases.keySet() ) {
+            statements( name, 200, 1000000L, 100 );
+        }
+
+        detector.detect();
+
+        //half of three hosts rounds down to one.
+        assertEquals( 1, pool.getEjectedHosts().size() );
+
+        Thread.sleep( 100 );
+
+        //healthy now, so it's admitted again.
+        detector.detect();
+
+        assertEquals( 0, pool.getEjectedHosts().size() );
+
+    }
+
+    public void testLagRoutesReadsToFreshHosts() throws Exception {
+
+        lag( "a", 0 );
+        lag( "b", 100 );
+        lag( "c", null );
+
+        ReplicationLagMonitor monitor = new ReplicationLagMonitor( pool );
+        monitor.probe();
+
+        assertEquals( 0, pool.getLag( "a" ) );
+        assertEquals( 100000, pool.getLag( "b" ) );
+        assertEquals( -1, pool.getLag( "c" ) );
+
+        pool.maxLag = 1000;
+
+        for ( int i = 0; i < 3; ++i ) {
+            borrow();
+        }
+
+        assertEquals( 3, databases.get( "a" ).count( "SELECT 1" ) );
+
+        pool.getFreshConnection( 1000 ).close();
+
+        //staleness grows with the time since the probe.
+        Thread.sleep( 20 );
+
+        try {
+            pool.getFreshConnection( 10 ).close();
+            fail( "Borrowed from a stale host" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+    }
+
+    public void testStaleHostsServeWhenNoneAreFresh() throws Exception {
+
+        lag( "b", 100 );
+        lag( "c", null );
+
+        //a's probe fails so its lag is unknown.
+        databases.get( "a" ).down = true;
+
+        ReplicationLagMonitor monitor = new ReplicationLagMonitor( pool );
+        monitor.probe();
+
+        assertEquals( -1, pool.getLag( "a" ) );
+
+        pool.maxLag = 1000;
+
+        borrow();
+
+        assertEquals( 1, databases.get( "b" ).count( "SELECT 1" ) + databases.get( "c" ).count( "SELECT 1" ) );
+
+    }
+
+    public void testHungProbeIsNotRepeated() throws Exception {
+
+        lag( "a", 0 );
+        lag( "b", 0 );
+        lag( "c", 0 );
+
+        databases.get( "c" ).queryDelay = 1000;
+
+        ReplicationLagMonitor monitor = new ReplicationLagMonitor( pool );
+        monitor.probeTimeout = 100;
+
+        long started = System.currentTimeMillis();
+
+        monitor.probe();
+
+        assertTrue( System.currentTimeMillis() - started < 1000 );
+
+        assertEquals( 0, pool.getLag( "a" ) );
+        assertEquals( -1, pool.getLag( "c" ) );
+
+        monitor.probe();
+
+        //c's first probe is still sleeping, so it only ever got one.
+        assertEquals( 1, databases.get( "c" ).queries.get() );
+        assertEquals( 2, databases.get( "a" ).count( PROBE ) );
+
+    }
+
+    void borrow() throws SQLException {
+
+        Connection conn = pool.getConnection();
+
+        try {
+            conn.createStatement().executeQuery( "SELECT 1" ).close();
+        } finally {
+            conn.close();
+        }
+
+    }
+
+    void statements( String host, int count, long duration, int errors ) {
+
+        PoolStatistics stats = pool.getPool( host ).stats;
+
+        for ( int i = 0; i < count; ++i ) {
+            stats.recordStatement( duration, i < errors );
+        }
+
+    }
+
+    void lag( String host, Integer seconds ) {
+        databases.get( host ).setResult( PROBE, new Object[] { "Seconds_Behind_Master" }, new Object[] { seconds } );
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+public class TestPartitionedDatabaseConnectionPool extends TestCase {
+
+    FakeDatabase db;
+
+    PartitionedDatabaseConnectionPool pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new PartitionedDatabaseConnectionPool();
+        pool.maxActive = 4;
+        pool.setQuota( "a", 2 );
+        pool.setQuota( "b", 2 );
+
+        db.pool( pool );
+
+    }
+
+    public void testTenantIsRequired() throws Exception {
+
+        try {
+            pool.getConnection();
+            fail( "Borrowed without a tenant" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+    }
+
+    public void testCurrentTenantIsUsed() throws Exception {
+
+        PartitionedDatabaseConnectionPool.setCurrentTenant( "a" );
+
+        try {
+
+            Connection conn = pool.getConnection();
+
+            assertEquals( Integer.valueOf( 1 ), pool.getBorrowedByTenant().get( "a" ) );
+
+            conn.close();
+
+        } finally {
+            PartitionedDatabaseConnectionPool.clearCurrentTenant();
+        }
+
+        assertEquals( Integer.valueOf( 0 ), pool.getBorrowedByTenant().get( "a" ) );
+
+    }
+
+    public void testTenantOverloadsAreLazyAndScoped() throws Exception {
+
+        pool.lazyConnections = true;
+
+        Connection conn = pool.getConnection( "a" );
+
+        assertFalse( ( (BasicDatabaseConnection)conn ).isBound() );
+        assertEquals( 0, db.connects.get() );
+
+        conn.close();
+
+        PartitionedDatabaseConnectionPool.setCurrentTenant( "a" );
+
+        try ( ConnectionScope scope = pool.openScope() ) {
+
+            conn = pool.getConnection();
+
+            assertSame( conn, pool.getConnection( "a" ) );
+            assertSame( conn, pool.getConnection( ConnectionPriority.BATCH, "a" ) );
+            assertSame( conn, pool.getConnection( 1000 ) );
+            assertEquals( 3, scope.getReused() );
+
+        } finally {
+            PartitionedDatabaseConnectionPool.clearCurrentTenant();
+        }
+
+    }
+
+    public void testQuotaIsKeptForItsOwner() throws Exception {
+
+        pool.lendFraction = 0.0;
+
+        List<Connection> held = new ArrayList<Connection>();
+
+        held.add( borrow( "a" ) );
+        held.add( borrow( "a" ) );
+
+        try {
+            borrow( "a" );
+            fail( "Borrowed b's quota" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        held.add( borrow( "b" ) );
+        held.add( borrow( "b" ) );
+
+        for ( Connection conn : held ) {
+            conn.close();
+        }
+
+    }
+
+    public void testUnusedQuotaIsLentUpToLendFraction() throws Exception {
+
+        assertTrue( "Lending all of a quota breaks its guarantee", pool.lendFraction < 1.0 );
+
+        pool.lendFraction = 0.5;
+
+        List<Connection> held = new ArrayList<Connection>();
+
+        held.add( borrow( "a" ) );
+        held.add( borrow( "a" ) );
+
+        //half of b's unused quota.
+        held.add( borrow( "a" ) );
+
+        try {
+            borrow( "a" );
+            fail( "Borrowed all of b's quota" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        //b still gets the half that was kept for it.
+        held.add( borrow( "b" ) );
+
+        for ( Connection conn : held ) {
+            conn.close();
+        }
+
+        assertEquals( 0, db.open.get() - pool.totalIdle );
+
+    }
+
+    public void testWaitersUnderQuotaAreServedFirst() throws Exception {
+
+        pool.maxActive = 2;
+        pool.setQuota( "a", 1 );
+        pool.setQuota( "b", 1 );
+        pool.lendFraction = 1.0;
+
+        Connection first = borrow( "a" );
+        Connection lent = borrow( "a" );
+
+        CompletableFuture<Connection> over = pool.getConnectionAsync( "a", 5, TimeUnit.SECONDS );
+        CompletableFuture<Connection> under = pool.getConnectionAsync( "b", 5, TimeUnit.SECONDS );
+
+        lent.close();
+
+        Connection conn = under.get( 1, TimeUnit.SECONDS );
+
+        assertFalse( over.isDone() );
+
+        conn.close();
+        first.close();
+
+        over.get( 1, TimeUnit.SECONDS ).close();
+
+    }
+
+    public void testPartitionsAreScannedRoundRobin() throws Exception {
+
+        pool.maxActive = 1;
+        pool.setQuota( "a", 0 );
+        pool.setQuota( "b", 0 );
+
+        Connection held = borrow( "a" );
+
+        final List<String> served = Collections.synchronizedList( new ArrayList<String>() );
+
+        List<CompletableFuture<Connection>> futures = new ArrayList<CompletableFuture<Connection>>();
+
+        for ( int i = 0; i < 2; ++i ) {
+
+            for ( String tenant : Arrays.asList( "a", "b" ) ) {
+
+                CompletableFuture<Connection> future = pool.getConnectionAsync( tenant, 5, TimeUnit.SECONDS );
+
+                future.thenAccept( ( conn ) -> {
+
+                    served.add( tenant );
+
+                    try {
+                        conn.close();
+                    } catch ( SQLException e ) {
+                        throw new RuntimeException( e );
+                    }
+
+                } );
+
+                futures.add( future );
+
+            }
+
+        }
+
+        held.close();
+
+        for ( CompletableFuture<Connection> future : futures ) {
+            future.get( 1, TimeUnit.SECONDS );
+        }
+
+        //neither tenant got two in a row.
+        for ( int i = 1; i < served.size(); ++i ) {
+            assertFalse( served.toString(), served.get( i ).equals( served.get( i - 1 ) ) );
+        }
+
+    }
+
+    Connection borrow( String tenant ) throws SQLException {
+
+        PartitionedDatabaseConnectionPool.setCurrentTenant( tenant );
+
+        try {
+            return pool.getConnection( ConnectionPriority.NORMAL, 50 );
+        } finally {
+            PartitionedDatabaseConnectionPool.clearCurrentTenant();
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import junit.framework.*;
+
+/**
+ * PoolStatistics and the LatencyHistogram and MovingAverage behind it.
+ */
+public class TestPoolStatistics extends TestCase {
+
+    public void testCountersAndAverages() throws Exception {
+
+        PoolStatistics stats = new PoolStatistics();
+
+        stats.recordBorrow( 1000 );
+        stats.recordBorrow( 3000 );
+        stats.recordHold( 5000 );
+        stats.recordStatement( 2000, false );
+        stats.recordStatement( 4000, true );
+        stats.recordShed();
+
+        assertEquals( 2, stats.getBorrows() );
+        assertEquals( 4000, stats.getBorrowWait() );
+        assertEquals( 1, stats.getHolds() );
+        assertEquals( 2, stats.getStatements() );
+        assertEquals( 6000, stats.getStatementTime() );
+        assertEquals( 1, stats.getStatementErrors() );
+        assertEquals( 1, stats.getShed() );
+
+        //the first sample seeds the average, the next moves it by ALPHA.
+        assertEquals( 1000 + PoolStatistics.ALPHA * 2000, stats.getAverageWait(), 0.001 );
+        assertEquals( 5000, stats.getAverageHold(), 0.001 );
+
+    }
+
+    public void testMovingAverageStartsAtZero() throws Exception {
+
+        MovingAverage average = new MovingAverage();
+
+        assertEquals( 0.0, average.get(), 0.0 );
+
+        average.update( 10 );
+        average.update( 20 );
+
+        assertEquals( 10 + PoolStatistics.ALPHA * 10, average.get(), 0.001 );
+
+    }
+
+    public void testHistogramBucketsCoverTheirValues() throws Exception {
+
+        long[] values = { 0, 1, 3, 4, 5, 7, 8, 100, 1000, 123456789L, Long.MAX_VALUE };
+
+        for ( long value : values ) {
+
+            int bucket = LatencyHistogram.bucket( value );
+
+            assertTrue( "bucket " + bucket + " of " + value, bucket < LatencyHistogram.BUCKETS );
+            assertTrue( value + " over its bucket", value <= LatencyHistogram.upperBound( bucket ) );
+
+            if ( bucket > 0 )
+                assertTrue( value + " under its bucket", value > LatencyHistogram.upperBound( bucket - 1 ) );
+
+        }
+
+    }
+
+    public void testPercentiles() throws Exception {
+
+        PoolStatistics stats = new PoolStatistics();
+
+        assertEquals( 0, stats.getStatementPercentile( 0.99 ) );
+
+        for ( int i = 1; i <= 100; ++i ) {
+            stats.recordStatement( i * 1000000L, false );
+        }
+
+        long p50 = stats.getStatementPercentile( 0.50 );
+        long p99 = stats.getStatementPercentile( 0.99 );
+
+        //within a bucket, about a fifth either way.
+        assertTrue( "p50 " + p50, p50 >= 50000000L && p50 < 50000000L * 1.25 );
+        assertTrue( "p99 " + p99, p99 >= 99000000L && p99 < 99000000L * 1.25 );
+
+    }
+
+    public void testHoldTimeStats() throws Exception {
+
+        HoldTimeStats stats = new HoldTimeStats();
+
+        assertEquals( 0.0, stats.getMean(), 0.0 );
+
+        stats.record( 1000000L );
+        stats.record( 3000000L );
+
+        assertEquals( 2, stats.getCount() );
+        assertEquals( 2.0, stats.getMean(), 0.0001 );
+        assertEquals( 3.0, stats.getMax(), 0.0001 );
+
+    }
+
+}
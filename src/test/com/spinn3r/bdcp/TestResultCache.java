@@ -0,0 +1,374 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+public class TestResultCache extends TestCase {
+
+    static final String SELECT = "SELECT name FROM user WHERE id = ?";
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new BasicDatabaseConnectionPool3();
+        pool.cache = new ResultCache();
+
+        db.pool( pool );
+
+        db.setResult( SELECT, new Object[] { "name" }, new Object[] { "bob" } );
+
+    }
+
+    public void testParseFindsTablesAndSkipsVolatileQueries() throws Exception {
+
+        ResultCache cache = pool.cache;
+
+        CachedQuery query = cache.parse( "SELECT * FROM a JOIN b ON a.id = b.id WHERE a.x = ?" );
+
+        assertNotNull( query );
+        assertEquals( new HashSet<String>( Arrays.asList( "a", "b" ) ),
+                      new HashSet<String>( Arrays.asList( query.tables ) ) );
+
+        //a table called user isn't the USER() function.
+        assertNotNull( cache.parse( "SELECT * FROM user" ) );
+
+        assertNull( cache.parse( "SELECT NOW()" ) );
+        assertNull( cache.parse( "SELECT * FROM a WHERE t < now()" ) );
+        assertNull( cache.parse( "SELECT * FROM a FOR UPDATE" ) );
+        assertNull( cache.parse( "SELECT * FROM a LOCK IN SHARE MODE" ) );
+        assertNull( cache.parse( "SELECT @x" ) );
+        assertNull( cache.parse( "UPDATE a SET x = 1" ) );
+
+    }
+
+    public void testInvalidateFindsWrittenTables() throws Exception {
+
+        ResultCache cache = pool.cache;
+
+        assertEquals( Arrays.asList( "a" ), Arrays.asList( cache.invalidate( "UPDATE a SET x = 1" ) ) );
+        assertEquals( Arrays.asList( "b" ), Arrays.asList( cache.invalidate( "INSERT INTO b (x) VALUES (1)" ) ) );
+        assertEquals( Arrays.asList( "c" ), Arrays.asList( cache.invalidate( "DELETE FROM c WHERE x = 1" ) ) );
+        assertEquals( 0, cache.invalidate( "SELECT * FROM a" ).length );
+
+        //we don't know what a procedure writes.
+        assertNull( cache.invalidate( "CALL cleanup()" ) );
+
+    }
+
+    public void testRepeatedQueriesAreServedFromTheCache() throws Exception {
+
+        assertEquals( "bob", name( 1 ) );
+        assertEquals( "bob", name( 1 ) );
+
+        assertEquals( 1, db.queries.get() );
+        assertEquals( 1, pool.cache.getHits() );
+
+        //other parameters are another entry.
+        name( 2 );
+
+        assertEquals( 2, db.queries.get() );
+
+    }
+
+    public void testWritesThroughThePoolInvalidate() throws Exception {
+
+        name( 1 );
+
+        Connection conn = pool.getConnection();
+
+        try {
+            conn.createStatement().executeUpdate( "UPDATE user SET name = 'alice' WHERE id = 1" );
+        } finally {
+            conn.close();
+        }
+
+        name( 1 );
+
+        assertEquals( 2, db.queries.get() );
+
+        //writes to other tables leave the entry alone.
+        conn = pool.getConnection();
+
+        try {
+            conn.createStatement().executeUpdate( "UPDATE post SET title = 'x'" );
+        } finally {
+            conn.close();
+        }
+
+        name( 1 );
+
+        assertEquals( 2, db.queries.get() );
+
+    }
+
+    public void testPreparedStatementsUseTheCache() throws Exception {
+
+        for ( int i = 0; i < 2; ++i ) {
+
+            Connection conn = pool.getConnection();
+
+            try {
+
+                PreparedStatement stmt = conn.prepareStatement( SELECT );
+                stmt.setInt( 1, 1 );
+
+                ResultSet rs = stmt.executeQuery();
+
+                assertTrue( rs.next() );
+                assertEquals( "bob", rs.getString( 1 ) );
+
+                stmt.close();
+
+            } finally {
+                conn.close();
+            }
+
+        }
+
+        assertEquals( 1, db.queries.get() );
+
+    }
+
+    public void testEntriesExpire() throws Exception {
+
+        pool.cache.ttl = 1;
+
+        name( 1 );
+        Thread.sleep( 10 );
+        name( 1 );
+
+        assertEquals( 2, db.queries.get() );
+
+    }
+
+    public void testConcurrentMissesShareOneQuery() throws Exception {
+
+        db.queryDelay = 200;
+
+        ExecutorService threads = Executors.newFixedThreadPool( 4 );
+
+        try {
+
+            List<Future<String>> names = new ArrayList<Future<String>>();
+
+            for ( int i = 0; i < 4; ++i ) {
+                names.add( threads.submit( () -> name( 1 ) ) );
+            }
+
+            for ( Future<String> name : names ) {
+                assertEquals( "bob", name.get( 5, TimeUnit.SECONDS ) );
+            }
+
+        } finally {
+            threads.shutdown();
+        }
+
+        assertEquals( 1, db.queries.get() );
+        assertEquals( 3, pool.cache.getCoalesced() + pool.cache.getHits() );
+
+    }
+
+    public void testFollowersGetTheirOwnCopyOfALeaderFailure() throws Exception {
+
+        ResultCache cache = pool.cache;
+
+        CachedQuery query = cache.parse( SELECT );
+        List<Object> key = Arrays.<Object>asList( SELECT, 1 );
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        ExecutorService threads = Executors.newFixedThreadPool( 2 );
+
+        try {
+
+            Future<CachedResult> leader = threads.submit( () -> cache.load( key, query, 0, () -> {
+                started.countDown();
+                await( release );
+                throw new AssertionError( "boom" );
+            } ) );
+
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            Future<CachedResult> follower = threads.submit( () -> cache.load( key, query, 0, () -> {
+                throw new SQLException( "follower should not run" );
+            } ) );
+
+            //let the follower find the flight first.
+            Thread.sleep( 100 );
+            release.countDown();
+
+            try {
+                leader.get( 5, TimeUnit.SECONDS );
+                fail();
+            } catch ( ExecutionException e ) {
+                assertTrue( e.getCause() instanceof AssertionError );
+            }
+
+            try {
+                follower.get( 5, TimeUnit.SECONDS );
+                fail();
+            } catch ( ExecutionException e ) {
+                assertTrue( e.getCause() instanceof SQLException );
+                assertTrue( e.getCause().getCause() instanceof AssertionError );
+            }
+
+        } finally {
+            release.countDown();
+            threads.shutdown();
+        }
+
+        assertTrue( cache.flights.isEmpty() );
+
+    }
+
+    public void testFollowersStopWaitingAtTheirTimeout() throws Exception {
+
+        ResultCache cache = pool.cache;
+
+        CachedQuery query = cache.parse( SELECT );
+        List<Object> key = Arrays.<Object>asList( SELECT, 1 );
+
+        CachedResult own = new CachedResult( null, new Object[0][], 0 );
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        ExecutorService threads = Executors.newFixedThreadPool( 1 );
+
+        try {
+
+            threads.submit( () -> cache.load( key, query, 0, () -> {
+                started.countDown();
+                await( release );
+                return own;
+            } ) );
+
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            long before = System.currentTimeMillis();
+
+            assertSame( own, cache.load( key, query, 100, () -> own ) );
+
+            assertTrue( System.currentTimeMillis() - before < 5000 );
+            assertEquals( 0, cache.getCoalesced() );
+
+        } finally {
+            release.countDown();
+            threads.shutdown();
+        }
+
+    }
+
+    public void testCalendarGettersUseTheCalendarsZone() throws Exception {
+
+        TimeZone zone = TimeZone.getDefault();
+
+        TimeZone.setDefault( TimeZone.getTimeZone( "America/New_York" ) );
+
+        try {
+
+            db.setResult( "SELECT at FROM event", new Object[] { "at" },
+                          new Object[] { Timestamp.valueOf( "2020-01-02 03:04:05.123456789" ) } );
+
+            ResultSet rs = pool.executeQuery( "SELECT at FROM event" );
+
+            assertTrue( rs instanceof CachedResultSet );
+            assertTrue( rs.next() );
+
+            Calendar tokyo = Calendar.getInstance( TimeZone.getTimeZone( "Asia/Tokyo" ) );
+
+            Timestamp at = rs.getTimestamp( 1, tokyo );
+
+            //03:04:05 in Tokyo is 13:04:05 the day before in New York.
+            assertEquals( Timestamp.valueOf( "2020-01-01 13:04:05.123456789" ), at );
+            assertEquals( 123456789, at.getNanos() );
+
+            assertEquals( Timestamp.valueOf( "2020-01-02 03:04:05.123456789" ), rs.getTimestamp( 1 ) );
+            assertEquals( rs.getTimestamp( 1 ), rs.getTimestamp( 1, null ) );
+
+            assertEquals( "2020-01-01", rs.getDate( "at", tokyo ).toString() );
+
+        } finally {
+            TimeZone.setDefault( zone );
+        }
+
+    }
+
+    public void testMaterializeStopsAtMaxRows() throws Exception {
+
+        db.setResult( "SELECT id FROM big", new Object[] { "id" },
+                      new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 } );
+
+        Connection conn = pool.getConnection();
+
+        try {
+
+            CachedResult result =
+                CachedResultSet.materialize( conn.createStatement().executeQuery( "SELECT id FROM big" ), 2 );
+
+            assertEquals( 2, result.rows.length );
+            assertNotNull( result.rest );
+
+            //the rest is left on the first row we didn't copy.
+            assertEquals( 3, result.rest.getInt( 1 ) );
+
+            result.rest.close();
+
+        } finally {
+            conn.close();
+        }
+
+    }
+
+    static void await( CountDownLatch latch ) throws SQLException {
+
+        try {
+            latch.await();
+        } catch ( InterruptedException e ) {
+            throw new SQLException( e );
+        }
+
+    }
+
+    String name( int id ) throws SQLException {
+
+        ResultSet rs = pool.executeQuery( SELECT, id );
+
+        assertTrue( rs.next() );
+
+        return rs.getString( "name" );
+
+    }
+
+}
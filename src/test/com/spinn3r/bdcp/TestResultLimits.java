@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+public class TestResultLimits extends TestCase {
+
+    static final String SELECT = "SELECT name FROM item";
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+
+        pool = new BasicDatabaseConnectionPool3();
+        pool.maxResultRows = 3;
+        pool.recordResultStats = true;
+
+        db.pool( pool );
+
+        Object[][] rows = new Object[11][];
+
+        rows[0] = new Object[] { "name" };
+
+        for ( int i = 1; i < rows.length; ++i ) {
+            rows[i] = new Object[] { "0123456789" };
+        }
+
+        db.setResult( SELECT, rows );
+
+    }
+
+    public void testTooManyRowsFails() throws Exception {
+
+        try {
+            read( null );
+            fail( "Read past maxResultRows" );
+        } catch ( SQLException e ) {
+            assertTrue( e.getMessage(), e.getMessage().contains( "3 rows" ) );
+        }
+
+        ResultStats stats = stats();
+
+        assertEquals( 1, stats.getRejected() );
+        assertEquals( 3, stats.getMaxRows() );
+
+    }
+
+    public void testTruncateStopsAtTheLimit() throws Exception {
+
+        pool.truncateResults = true;
+
+        assertEquals( 3, read( null ) );
+        assertEquals( 1, stats().getTruncated() );
+
+    }
+
+    public void testStatementOverridesThePool() throws Exception {
+
+        assertEquals( 10, read( 0 ) );
+
+        assertEquals( 10, stats().getMaxRows() );
+
+    }
+
+    public void testTooManyBytesFails() throws Exception {
+
+        pool.maxResultRows = 0;
+        pool.maxResultBytes = 50;
+
+        try {
+            read( null );
+            fail( "Read past maxResultBytes" );
+        } catch ( SQLException e ) {
+            assertTrue( e.getMessage(), e.getMessage().contains( "50 bytes" ) );
+        }
+
+        pool.truncateResults = true;
+
+        //20 bytes a row, and the row which went over is still returned.
+        assertEquals( 3, read( null ) );
+
+    }
+
+    /**
+     * Read every row, reading each value so it's counted.  Returns the
+     * number of rows.
+     */
+    int read( Integer maxResultRows ) throws SQLException {
+
+        Connection conn = pool.getConnection();
+
+        try {
+
+            DelegatingStatement stmt = (DelegatingStatement)conn.createStatement();
+
+            if ( maxResultRows != null )
+                stmt.setMaxResultRows( maxResultRows );
+
+            ResultSet rs = stmt.executeQuery( SELECT );
+
+            int rows = 0;
+
+            while ( rs.next() ) {
+
+                rs.getString( 1 );
+                ++rows;
+
+            }
+
+            rs.close();
+
+            return rows;
+
+        } finally {
+            conn.close();
+        }
+
+    }
+
+    ResultStats stats() {
+        return pool.getResultStats().values().iterator().next();
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * ResultStream, ColumnChunk and exports read back with ExportReader.
+ */
+public class TestResultStream extends TestCase {
+
+    static final String SELECT = "SELECT id, score, name FROM item";
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    File dir;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+        pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        dir = File.createTempFile( "bdcp", "" );
+        dir.delete();
+        dir.mkdir();
+
+        db.setResult( SELECT,
+                      new Object[] { "id", "score", "name" },
+                      new Object[] { 1, 0.5, "a" },
+                      new Object[] { 2, 1.5, "b,\"c\"" },
+                      new Object[] { 3, 2.5, null },
+                      new Object[] { 4, 3.5, "a" },
+                      new Object[] { 5, 4.5, "b,\"c\"" } );
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        for ( File file : dir.listFiles() ) {
+            file.delete();
+        }
+
+        dir.delete();
+
+    }
+
+    public void testIteratorReturnsTheConnectionAtTheEnd() throws Exception {
+
+        ResultStream stream = pool.stream( SELECT );
+
+        List<Integer> ids = new ArrayList<Integer>();
+
+        while ( stream.hasNext() ) {
+            ids.add( stream.next().getInt( "id" ) );
+        }
+
+        assertEquals( Arrays.asList( 1, 2, 3, 4, 5 ), ids );
+        assertEquals( 5, stream.getRows() );
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+    }
+
+    public void testClosingEarlyReturnsTheConnection() throws Exception {
+
+        ResultStream stream = pool.stream( SELECT );
+
+        assertTrue( stream.hasNext() );
+        stream.next();
+
+        stream.close();
+
+        assertFalse( stream.hasNext() );
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+    }
+
+    public void testAutoCommitIsRestoredBeforeRelease() throws Exception {
+
+        db.driverName = "PostgreSQL JDBC Driver";
+
+        ResultStream stream = pool.stream( SELECT );
+
+        assertFalse( stream.conn.getDelegate().getAutoCommit() );
+
+        stream.next();
+        stream.close();
+
+        assertEquals( 1, db.commits.get() );
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+        Connection conn = pool.getConnection();
+
+        assertTrue( conn.getAutoCommit() );
+
+        conn.close();
+
+    }
+
+    public void testConnectionLeftInTheTransactionIsDropped() throws Exception {
+
+        db.driverName = "PostgreSQL JDBC Driver";
+
+        ResultStream stream = pool.stream( SELECT );
+
+        stream.next();
+
+        //the connection dies under the stream.
+        stream.conn.getDelegate().close();
+
+        stream.close();
+
+        assertTrue( stream.closed );
+        assertEquals( 0, pool.totalActive );
+        assertEquals( 0, pool.totalIdle );
+
+    }
+
+    public void testForEachRow() throws Exception {
+
+        final List<String> names = new ArrayList<String>();
+
+        assertEquals( 5, pool.forEachRow( SELECT, ( row ) -> names.add( row.getString( "name" ) ) ) );
+
+        assertEquals( Arrays.asList( "a", "b,\"c\"", null, "a", "b,\"c\"" ), names );
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+    }
+
+    public void testChunksAreColumnMajor() throws Exception {
+
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final List<Long> ids = new ArrayList<Long>();
+        final List<String> names = new ArrayList<String>();
+
+        long rows = pool.stream( SELECT ).eachChunk( 2, ( chunk ) -> {
+
+            sizes.add( chunk.getRows() );
+
+            assertEquals( ColumnChunk.LONG, chunk.getType( 1 ) );
+            assertEquals( ColumnChunk.DOUBLE, chunk.getType( 2 ) );
+            assertEquals( ColumnChunk.STRING, chunk.getType( 3 ) );
+
+            for ( int row = 0; row < chunk.getRows(); ++row ) {
+
+                ids.add( chunk.getLongs( 1 )[ row ] );
+                names.add( chunk.getString( 3, row ) );
+
+            }
+
+            //dictionaries start over with every chunk.
+            assertTrue( chunk.getDictionary( 3 ).size() <= 2 );
+
+        } );
+
+        assertEquals( 5, rows );
+        assertEquals( Arrays.asList( 2, 2, 1 ), sizes );
+        assertEquals( Arrays.asList( 1L, 2L, 3L, 4L, 5L ), ids );
+        assertEquals( Arrays.asList( "a", "b,\"c\"", null, "a", "b,\"c\"" ), names );
+
+    }
+
+    public void testBinaryExportRoundTrips() throws Exception {
+
+        ResultExporter exporter = new ResultExporter( pool );
+
+        List<Object[]> rows = export( exporter );
+
+        assertEquals( 5, exporter.getRows() );
+        assertEquals( 5, rows.size() );
+
+        assertEquals( 1L, rows.get( 0 )[0] );
+        assertEquals( 0.5, rows.get( 0 )[1] );
+        assertEquals( "b,\"c\"", rows.get( 1 )[2] );
+        assertNull( rows.get( 2 )[2] );
+
+    }
+
+    public void testCSVExportRoundTrips() throws Exception {
+
+        ResultExporter exporter = new ResultExporter( pool );
+        exporter.format = ResultExporter.CSV;
+
+        List<Object[]> rows = export( exporter );
+
+        assertEquals( 5, rows.size() );
+
+        assertEquals( "1", rows.get( 0 )[0] );
+        assertEquals( "b,\"c\"", rows.get( 1 )[2] );
+        assertNull( rows.get( 2 )[2] );
+
+    }
+
+    public void testExportRollsOverFiles() throws Exception {
+
+        ResultExporter exporter = new ResultExporter( pool );
+        exporter.maxFileSize = 64;
+        exporter.mapSize = 64;
+
+        File base = new File( dir, "export" );
+
+        List<File> files = exporter.export( base, SELECT );
+
+        assertTrue( "files " + files, files.size() > 1 );
+
+        int rows = 0;
+
+        for ( File file : files ) {
+
+            assertTrue( file.getName().startsWith( "export-0000" ) );
+
+            ExportReader reader = new ExportReader( file );
+
+            try {
+
+                assertEquals( Arrays.asList( "id", "score", "name" ), Arrays.asList( reader.getColumns() ) );
+
+                while ( reader.next() != null ) {
+                    ++rows;
+                }
+
+            } finally {
+                reader.close();
+            }
+
+        }
+
+        assertEquals( 5, rows );
+
+    }
+
+    List<Object[]> export( ResultExporter exporter ) throws Exception {
+
+        List<File> files = exporter.export( new File( dir, "export" ), SELECT );
+
+        assertEquals( 1, files.size() );
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+
+        ExportReader reader = new ExportReader( files.get( 0 ) );
+
+        try {
+
+            assertEquals( Arrays.asList( "id", "score", "name" ), Arrays.asList( reader.getColumns() ) );
+
+            Object[] row;
+
+            while ( ( row = reader.next() ) != null ) {
+                rows.add( row );
+            }
+
+        } finally {
+            reader.close();
+        }
+
+        return rows;
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+public class TestScatterGather extends TestCase {
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+        pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        db.setResult( "SELECT name FROM user WHERE id = ?", new Object[] { "name" }, new Object[] { "bob" } );
+        db.setResult( "SELECT COUNT(*) FROM post", new Object[] { "count" }, new Object[] { 42 } );
+
+    }
+
+    public void testResultsAreInOrder() throws Exception {
+
+        ScatterGather sg = pool.newScatterGather();
+
+        int user = sg.add( "SELECT name FROM user WHERE id = ?", 1 );
+        int posts = sg.add( "SELECT COUNT(*) FROM post" );
+
+        ResultSet[] results = sg.execute();
+
+        assertTrue( results[ user ].next() );
+        assertEquals( "bob", results[ user ].getString( "name" ) );
+
+        assertTrue( results[ posts ].next() );
+        assertEquals( 42, results[ posts ].getInt( 1 ) );
+
+        assertEquals( pool.totalActive, pool.totalIdle );
+
+    }
+
+    public void testQueriesRunAtTheSameTime() throws Exception {
+
+        db.queryDelay = 200;
+
+        ScatterGather sg = pool.newScatterGather();
+        sg.parallelism = 4;
+
+        for ( int i = 0; i < 4; ++i ) {
+            sg.add( "SELECT COUNT(*) FROM post" );
+        }
+
+        long started = System.currentTimeMillis();
+
+        sg.execute();
+
+        long took = System.currentTimeMillis() - started;
+
+        assertTrue( "took " + took, took < 4 * 200 );
+
+    }
+
+    public void testFailuresAreChained() throws Exception {
+
+        db.failOn = "broken";
+
+        ScatterGather sg = pool.newScatterGather();
+
+        sg.add( "SELECT COUNT(*) FROM post" );
+        sg.add( "SELECT * FROM broken" );
+
+        try {
+            sg.execute();
+            fail( "A failed query was not reported" );
+        } catch ( SQLException e ) {
+
+            assertNotNull( e.getNextException() );
+            assertTrue( e.getNextException().getMessage().contains( "broken" ) );
+
+        }
+
+    }
+
+    public void testBorrowFailuresAreTheCause() throws Exception {
+
+        db.down = true;
+
+        ScatterGather sg = pool.newScatterGather();
+
+        sg.add( "SELECT COUNT(*) FROM post" );
+
+        try {
+            sg.execute();
+            fail( "Ran without a connection" );
+        } catch ( SQLException e ) {
+
+            SQLException error = e.getNextException();
+
+            assertFalse( error instanceof SQLTimeoutException );
+            assertNotNull( error.getCause() );
+
+        }
+
+    }
+
+    public void testBudgetBoundsTheWait() throws Exception {
+
+        db.queryDelay = 1000;
+
+        ScatterGather sg = pool.newScatterGather();
+        sg.budget = 100;
+        sg.cancelWait = 50;
+
+        sg.add( "SELECT COUNT(*) FROM post" );
+
+        long started = System.currentTimeMillis();
+
+        try {
+            sg.execute();
+            fail( "Finished over budget" );
+        } catch ( SQLException e ) {
+            assertTrue( e.getNextException() instanceof SQLTimeoutException );
+        }
+
+        assertTrue( System.currentTimeMillis() - started < 1000 );
+
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+
+import junit.framework.*;
+
+public class TestStatementBulkhead extends TestCase {
+
+    public void testFingerprintsIgnoreLiteralsAndLayout() throws Exception {
+
+        String fingerprint = StatementBulkhead.fingerprint( "SELECT * FROM a WHERE id = 1 AND name = 'x'" );
+
+        assertEquals( "select * from a where id=? and name=?", fingerprint );
+
+        assertEquals( fingerprint,
+                      StatementBulkhead.fingerprint( "select *  from a\n where id=22 /* hint */ and name='it''s'" ) );
+
+        assertEquals( StatementBulkhead.fingerprint( "SELECT * FROM a WHERE id IN ( 1, 2, 3 )" ),
+                      StatementBulkhead.fingerprint( "SELECT * FROM a WHERE id IN (4)" ) );
+
+        assertFalse( fingerprint.equals( StatementBulkhead.fingerprint( "SELECT * FROM b WHERE id = 1" ) ) );
+
+    }
+
+    public void testEnterFailsFastAtTheLimit() throws Exception {
+
+        StatementBulkhead bulkhead = new StatementBulkhead( "x", 1 );
+
+        bulkhead.enter( 0 );
+
+        try {
+            bulkhead.enter( 0 );
+            fail( "Entered over the limit" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        assertEquals( 1, bulkhead.getActive() );
+        assertEquals( 1, bulkhead.getRejected() );
+
+        bulkhead.exit();
+        bulkhead.enter( 0 );
+
+        assertEquals( 2, bulkhead.getExecutions() );
+
+    }
+
+    public void testAwaitDoesNotTakeTheSlot() throws Exception {
+
+        StatementBulkhead bulkhead = new StatementBulkhead( "x", 1 );
+
+        bulkhead.await( 0 );
+
+        assertEquals( 0, bulkhead.getActive() );
+
+        bulkhead.enter( 0 );
+
+        long started = System.currentTimeMillis();
+
+        try {
+            bulkhead.await( 50 );
+            fail( "Waited past a full bulkhead" );
+        } catch ( SQLException e ) {
+            assertTrue( System.currentTimeMillis() - started >= 40 );
+        }
+
+    }
+
+    public void testPoolLimitsStatementsAcrossConnections() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        pool.setStatementLimit( "SELECT * FROM big WHERE id = 1", 1 );
+
+        db.queryDelay = 200;
+
+        Thread slow = new Thread( () -> {
+
+            try {
+                query( pool, "SELECT * FROM big WHERE id = 2" );
+            } catch ( SQLException e ) {
+                throw new RuntimeException( e );
+            }
+
+        } );
+
+        slow.start();
+
+        StatementBulkhead bulkhead = pool.getStatementBulkheads().values().iterator().next();
+
+        assertTrue( FakeDatabase.waitFor( () -> bulkhead.getActive() == 1, 5000 ) );
+
+        try {
+            query( pool, "select * from big where id=3" );
+            fail( "Ran over the statement limit" );
+        } catch ( SQLException e ) {
+            //expected
+        }
+
+        //other statements aren't limited.
+        query( pool, "SELECT * FROM small" );
+
+        slow.join();
+
+        assertEquals( 1, bulkhead.getRejected() );
+        assertEquals( 0, bulkhead.getActive() );
+
+    }
+
+    public void testQueriesHoldTheirSlotUntilTheResultIsClosed() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        pool.setStatementLimit( "SELECT * FROM big", 1 );
+
+        StatementBulkhead bulkhead = pool.getStatementBulkheads().values().iterator().next();
+
+        Connection conn = pool.getConnection();
+
+        ResultSet rs = conn.createStatement().executeQuery( "SELECT * FROM big" );
+
+        assertEquals( 1, bulkhead.getActive() );
+
+        rs.close();
+
+        assertEquals( 0, bulkhead.getActive() );
+
+        //one left open is given back with the connection.
+        conn.prepareStatement( "SELECT * FROM big" ).executeQuery();
+
+        assertEquals( 1, bulkhead.getActive() );
+
+        conn.close();
+
+        assertEquals( 0, bulkhead.getActive() );
+
+    }
+
+    public void testBorrowedConnectionsQueueForASlot() throws Exception {
+
+        FakeDatabase db = FakeDatabase.create();
+
+        BasicDatabaseConnectionPool3 pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        pool.setStatementLimit( "SELECT * FROM big", 1 );
+        pool.statementLimitWait = 5000;
+
+        Connection conn = pool.getConnection();
+
+        ResultSet rs = conn.createStatement().executeQuery( "SELECT * FROM big" );
+
+        Thread closer = new Thread( () -> {
+
+            try {
+                Thread.sleep( 100 );
+                rs.close();
+            } catch ( Exception e ) {
+                throw new RuntimeException( e );
+            }
+
+        } );
+
+        closer.start();
+
+        //a second connection, already borrowed, waits for the first result.
+        query( pool, "SELECT * FROM big" );
+
+        closer.join();
+        conn.close();
+
+        StatementBulkhead bulkhead = pool.getStatementBulkheads().values().iterator().next();
+
+        assertEquals( 0, bulkhead.getRejected() );
+        assertEquals( 2, bulkhead.getExecutions() );
+
+    }
+
+    void query( BasicDatabaseConnectionPool pool, String sql ) throws SQLException {
+
+        Connection conn = pool.getConnection();
+
+        try {
+            conn.createStatement().executeQuery( sql ).close();
+        } finally {
+            conn.close();
+        }
+
+    }
+
+}
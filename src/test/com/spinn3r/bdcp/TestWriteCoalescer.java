@@ -0,0 +1,204 @@
+/*
+ * Copyright 2009 Tailrank, Inc (Spinn3r).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * For more information see:
+ * 
+ * <a href="http://tailrank.com">http://tailrank.com</a>
+ * <a href="http://spinn3r.com">http://spinn3r.com</a>
+ * <a href="http://feedblog.org">http://feedblog.org</a>
+ */
+
+package com.spinn3r.bdcp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+public class TestWriteCoalescer extends TestCase {
+
+    static final String INSERT = "INSERT INTO log (id) VALUES (?)";
+
+    FakeDatabase db;
+
+    BasicDatabaseConnectionPool3 pool;
+
+    WriteCoalescer coalescer;
+
+    protected void setUp() throws Exception {
+
+        db = FakeDatabase.create();
+        pool = db.pool( new BasicDatabaseConnectionPool3() );
+
+        //our own so the linger is set before it starts.
+        coalescer = new WriteCoalescer( pool );
+        coalescer.linger = 200;
+        coalescer.start();
+
+    }
+
+    protected void tearDown() throws Exception {
+        coalescer.shutdown();
+        coalescer.join();
+    }
+
+    public void testWritesAreBatched() throws Exception {
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for ( int i = 0; i < 20; ++i ) {
+            futures.add( coalescer.submit( INSERT, i ) );
+        }
+
+        for ( CompletableFuture<Integer> future : futures ) {
+            assertEquals( 1, (int)future.get( 5, TimeUnit.SECONDS ) );
+        }
+
+        assertEquals( 1, coalescer.getBatches() );
+        assertEquals( 20, coalescer.getRows() );
+        assertEquals( 20, db.count( INSERT ) );
+        assertEquals( 1, db.commits.get() );
+        assertEquals( 1, db.connects.get() );
+
+    }
+
+    public void testBadRowFailsAlone() throws Exception {
+
+        db.failOnParameter = 3;
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for ( int i = 0; i < 5; ++i ) {
+            futures.add( coalescer.submit( INSERT, i ) );
+        }
+
+        for ( int i = 0; i < 5; ++i ) {
+
+            try {
+
+                futures.get( i ).get( 5, TimeUnit.SECONDS );
+
+                assertTrue( "Row " + i + " was written", i != 3 );
+
+            } catch ( ExecutionException e ) {
+
+                assertEquals( 3, i );
+                assertTrue( e.getCause() instanceof SQLException );
+
+            }
+
+        }
+
+        assertEquals( 1, coalescer.getFailures() );
+        assertEquals( 4, coalescer.getRows() );
+        assertTrue( db.rollbacks.get() >= 2 );
+
+    }
+
+    public void testSubmitAfterShutdownFails() throws Exception {
+
+        CompletableFuture<Integer> queued = coalescer.submit( INSERT, 1 );
+
+        coalescer.shutdown();
+        coalescer.join( 5000 );
+
+        //queued writes are still written.
+        assertEquals( 1, (int)queued.get( 5, TimeUnit.SECONDS ) );
+
+        try {
+            coalescer.submit( INSERT, 2 ).get( 5, TimeUnit.SECONDS );
+            fail( "Wrote after shutdown" );
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof SQLException );
+        }
+
+    }
+
+    public void testShutdownDuringAFlushLetsItFinish() throws Exception {
+
+        db.queryDelay = 300;
+        coalescer.linger = 0;
+
+        CompletableFuture<Integer> queued = coalescer.submit( INSERT, 1 );
+
+        //the writer is now in the middle of running the batch.
+        Thread.sleep( 100 );
+
+        coalescer.shutdown();
+        coalescer.join( 5000 );
+
+        assertFalse( coalescer.isAlive() );
+        assertEquals( 1, (int)queued.get( 5, TimeUnit.SECONDS ) );
+        assertEquals( 0, coalescer.getFailures() );
+
+    }
+
+    public void testTenantIsKeptWithTheWrite() throws Exception {
+
+        PartitionedDatabaseConnectionPool partitioned =
+            db.pool( new PartitionedDatabaseConnectionPool() );
+
+        WriteCoalescer writer = new WriteCoalescer( partitioned );
+        writer.start();
+
+        try {
+
+            //without a tenant the partitioned pool refuses to lend.
+            try {
+                writer.submit( INSERT, 1 ).get( 5, TimeUnit.SECONDS );
+                fail( "Borrowed without a tenant" );
+            } catch ( ExecutionException e ) {
+                assertTrue( e.getCause() instanceof SQLException );
+            }
+
+            PartitionedDatabaseConnectionPool.setCurrentTenant( "a" );
+
+            try {
+                assertEquals( 1, (int)writer.submit( INSERT, 2 ).get( 5, TimeUnit.SECONDS ) );
+            } finally {
+                PartitionedDatabaseConnectionPool.clearCurrentTenant();
+            }
+
+        } finally {
+            writer.shutdown();
+            writer.join();
+        }
+
+    }
+
+    public void testSubmitWriteRequiresCoalescing() throws Exception {
+
+        try {
+            pool.submitWrite( INSERT, 1 ).get( 5, TimeUnit.SECONDS );
+            fail( "Wrote without a coalescer" );
+        } catch ( ExecutionException e ) {
+            assertTrue( e.getCause() instanceof SQLException );
+        }
+
+        BasicDatabaseConnectionPool3 coalescing = new BasicDatabaseConnectionPool3();
+        coalescing.enableWriteCoalescing = true;
+
+        db.pool( coalescing );
+
+        try {
+            assertEquals( 1, (int)coalescing.submitWrite( INSERT, 1 ).get( 5, TimeUnit.SECONDS ) );
+        } finally {
+            coalescing.coalescer.shutdown();
+        }
+
+    }
+
+}